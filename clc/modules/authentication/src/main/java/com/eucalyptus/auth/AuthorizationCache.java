@@ -0,0 +1,198 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.auth;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import com.eucalyptus.auth.policy.PolicyCache;
+import com.eucalyptus.auth.principal.Authorization;
+import com.eucalyptus.event.ListenerRegistry;
+import com.eucalyptus.util.Mbeans;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+/**
+ * Snapshot cache of the authorizations and quotas that apply to each user and account, indexed by
+ * resource type.
+ * 
+ * Snapshots (and compiled policies) are dropped as a whole by {@link #fireChange(String)}, which is
+ * called whenever policies, groups or group membership change. A {@link PolicyChangeEvent} is then
+ * fired for any other interested listeners.
+ */
+public class AuthorizationCache {
+  
+  private static final Logger LOG = Logger.getLogger( AuthorizationCache.class );
+  
+  public static enum Scope {
+    USER_AUTHORIZATIONS,
+    USER_QUOTAS,
+    ACCOUNT_AUTHORIZATIONS,
+    ACCOUNT_QUOTAS,
+  }
+  
+  /**
+   * Loads the authorizations for a resource type from the database on a cache miss.
+   */
+  public static interface Loader {
+    List<Authorization> load( String resourceType ) throws AuthException;
+  }
+  
+  private static class Snapshot {
+    private final ConcurrentMap<String, List<Authorization>> byResourceType = Maps.newConcurrentMap( );
+  }
+  
+  private static class Generation {
+    private final ConcurrentMap<String, Snapshot> snapshots = Maps.newConcurrentMap( );
+  }
+  
+  private static final AuthorizationCache INSTANCE = new AuthorizationCache( );
+  private static volatile Generation current = new Generation( );
+  
+  private final AtomicLong hits = new AtomicLong( 0l );
+  private final AtomicLong misses = new AtomicLong( 0l );
+  private final AtomicLong invalidations = new AtomicLong( 0l );
+  
+  static {
+    Mbeans.register( INSTANCE );
+  }
+  
+  public static AuthorizationCache getInstance( ) {
+    return INSTANCE;
+  }
+  
+  /**
+   * Invalidate cached authorizations and notify listeners that policies, groups or group
+   * membership changed.
+   */
+  public static void fireChange( String change ) {
+    LOG.debug( "Invalidating authorization snapshots: " + change );
+    PolicyCache.invalidate( );
+    INSTANCE.invalidate( );
+    try {
+      ListenerRegistry.getInstance( ).fireEvent( new PolicyChangeEvent( change ) );
+    } catch ( Exception e ) {
+      LOG.error( "Failed to fire policy change event: " + change, e );
+    }
+  }
+  
+  /**
+   * Lookup the authorizations of a user or account for a resource type, loading them on a miss.
+   * 
+   * @param scope The kind of authorizations to lookup
+   * @param principalId The ID of the user or number of the account
+   * @param resourceType The resource type
+   * @param loader The loader used on a cache miss
+   * @return The (immutable) list of authorizations
+   * @throws AuthException for any error loading the authorizations
+   */
+  public static List<Authorization> lookup( Scope scope, String principalId, String resourceType, Loader loader ) throws AuthException {
+    Generation generation = current;
+    String key = scope.name( ) + ":" + principalId;
+    Snapshot snapshot = generation.snapshots.get( key );
+    if ( snapshot == null ) {
+      snapshot = new Snapshot( );
+      Snapshot existing = generation.snapshots.putIfAbsent( key, snapshot );
+      if ( existing != null ) {
+        snapshot = existing;
+      }
+    }
+    List<Authorization> authorizations = snapshot.byResourceType.get( resourceType );
+    if ( authorizations != null ) {
+      INSTANCE.hits.incrementAndGet( );
+      return authorizations;
+    }
+    INSTANCE.misses.incrementAndGet( );
+    authorizations = ImmutableList.copyOf( loader.load( resourceType ) );
+    snapshot.byResourceType.putIfAbsent( resourceType, authorizations );
+    return authorizations;
+  }
+  
+  public void invalidate( ) {
+    current = new Generation( );
+    this.invalidations.incrementAndGet( );
+  }
+  
+  public long getHits( ) {
+    return this.hits.get( );
+  }
+  
+  public long getMisses( ) {
+    return this.misses.get( );
+  }
+  
+  public long getInvalidations( ) {
+    return this.invalidations.get( );
+  }
+  
+  public int getSnapshots( ) {
+    return current.snapshots.size( );
+  }
+  
+  @Override
+  public String toString( ) {
+    return "AuthorizationCache hits=" + this.getHits( ) + " misses=" + this.getMisses( ) + " invalidations=" + this.getInvalidations( );
+  }
+  
+}
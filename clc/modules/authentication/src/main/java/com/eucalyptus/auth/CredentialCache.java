@@ -0,0 +1,211 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.auth;
+
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import com.eucalyptus.auth.principal.AccessKey;
+import com.eucalyptus.auth.principal.User;
+import com.eucalyptus.crypto.Digest;
+import com.eucalyptus.crypto.util.B64;
+import com.eucalyptus.util.Mbeans;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Bounded, time limited cache of the credentials used to authenticate requests.
+ * 
+ * Access keys are cached by access key ID and users by certificate fingerprint. Cached values are
+ * proxies with the user and account already resolved, so authenticating a request with a cached
+ * credential does not touch the database. Entries are evicted after {@link #TTL_SECONDS} and are
+ * invalidated when a key, certificate, user or account they depend on changes.
+ * 
+ * Every invalidation advances a generation counter. Callers read the {@link #generation()} before
+ * loading a credential and pass it when caching the result, so a credential loaded before an
+ * invalidation completed is not cached.
+ */
+public class CredentialCache {
+  
+  private static final Logger LOG = Logger.getLogger( CredentialCache.class );
+  
+  private static final int MAX_ENTRIES = 8192;
+  private static final int TTL_SECONDS = 60;
+  
+  private static final CredentialCache INSTANCE = new CredentialCache( );
+  
+  private final ConcurrentMap<String, AccessKey> accessKeys = new MapMaker( ).maximumSize( MAX_ENTRIES ).expireAfterWrite( TTL_SECONDS, TimeUnit.SECONDS ).makeMap( );
+  private final ConcurrentMap<String, User> certificateUsers = new MapMaker( ).maximumSize( MAX_ENTRIES ).expireAfterWrite( TTL_SECONDS, TimeUnit.SECONDS ).makeMap( );
+  private final AtomicLong hits = new AtomicLong( 0l );
+  private final AtomicLong misses = new AtomicLong( 0l );
+  private final AtomicLong generation = new AtomicLong( 0l );
+  
+  static {
+    Mbeans.register( INSTANCE );
+  }
+  
+  public static CredentialCache getInstance( ) {
+    return INSTANCE;
+  }
+  
+  /**
+   * @return the current generation, to be read before loading a credential that will be cached
+   */
+  public long generation( ) {
+    return this.generation.get( );
+  }
+  
+  public AccessKey getAccessKey( String keyId ) {
+    return this.count( this.accessKeys.get( keyId ) );
+  }
+  
+  /**
+   * Cache an access key loaded in the given generation, unless it was invalidated since.
+   */
+  public void putAccessKey( long loadedGeneration, AccessKey key ) {
+    this.accessKeys.put( key.getAccessKey( ), key );
+    if ( this.generation.get( ) != loadedGeneration ) {
+      this.accessKeys.remove( key.getAccessKey( ), key );
+    }
+  }
+  
+  public User getCertificateUser( X509Certificate cert ) {
+    String fingerprint = fingerprint( cert );
+    return fingerprint == null ? null : this.count( this.certificateUsers.get( fingerprint ) );
+  }
+  
+  /**
+   * Cache the user of a certificate loaded in the given generation, unless it was invalidated since.
+   */
+  public void putCertificateUser( long loadedGeneration, X509Certificate cert, User user ) {
+    String fingerprint = fingerprint( cert );
+    if ( fingerprint != null ) {
+      this.certificateUsers.put( fingerprint, user );
+      if ( this.generation.get( ) != loadedGeneration ) {
+        this.certificateUsers.remove( fingerprint, user );
+      }
+    }
+  }
+  
+  /**
+   * Invalidate a single access key, e.g. when it is deactivated, deleted or its secret rotated.
+   */
+  public void invalidateAccessKey( String keyId ) {
+    if ( keyId != null ) {
+      this.generation.incrementAndGet( );
+      this.accessKeys.remove( keyId );
+    }
+  }
+  
+  /**
+   * Invalidate all cached credentials, e.g. when a certificate, user or account changes.
+   */
+  public void invalidateAll( ) {
+    LOG.debug( "Invalidating all cached credentials" );
+    this.generation.incrementAndGet( );
+    this.accessKeys.clear( );
+    this.certificateUsers.clear( );
+  }
+  
+  private <T> T count( T value ) {
+    if ( value != null ) {
+      this.hits.incrementAndGet( );
+    } else {
+      this.misses.incrementAndGet( );
+    }
+    return value;
+  }
+  
+  private static String fingerprint( X509Certificate cert ) {
+    try {
+      return B64.standard.encString( Digest.SHA1.get( ).digest( cert.getEncoded( ) ) );
+    } catch ( CertificateEncodingException e ) {
+      LOG.debug( "Unable to compute certificate fingerprint: " + e.getMessage( ) );
+      return null;
+    }
+  }
+  
+  public long getHits( ) {
+    return this.hits.get( );
+  }
+  
+  public long getMisses( ) {
+    return this.misses.get( );
+  }
+  
+  public int getAccessKeys( ) {
+    return this.accessKeys.size( );
+  }
+  
+  public int getCertificates( ) {
+    return this.certificateUsers.size( );
+  }
+  
+  @Override
+  public String toString( ) {
+    return "CredentialCache hits=" + this.getHits( ) + " misses=" + this.getMisses( );
+  }
+  
+}
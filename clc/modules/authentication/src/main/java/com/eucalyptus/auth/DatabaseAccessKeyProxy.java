@@ -81,10 +81,20 @@ public class DatabaseAccessKeyProxy implements AccessKey {
   
   private AccessKeyEntity delegate;
   
+  private User user;
+  
   public DatabaseAccessKeyProxy( AccessKeyEntity delegate ) {
     this.delegate = delegate;
   }
   
+  /**
+   * Create a proxy with the owning user already resolved.
+   */
+  public DatabaseAccessKeyProxy( AccessKeyEntity delegate, User user ) {
+    this.delegate = delegate;
+    this.user = user;
+  }
+  
   @Override
   public Boolean isActive( ) {
     return this.delegate.isActive( );
@@ -98,6 +108,7 @@ public class DatabaseAccessKeyProxy implements AccessKey {
           t.setActive( active );
         }
       } );
+      CredentialCache.getInstance( ).invalidateAccessKey( this.delegate.getAccessKey( ) );
     } catch ( ExecutionException e ) {
       Debugging.logError( LOG, e, "Failed to setActive for " + this.delegate );
       throw new AuthException( e );
@@ -117,6 +128,7 @@ public class DatabaseAccessKeyProxy implements AccessKey {
           t.setSecretKey( key );
         }
       } );
+      CredentialCache.getInstance( ).invalidateAccessKey( this.delegate.getAccessKey( ) );
     } catch ( ExecutionException e ) {
       Debugging.logError( LOG, e, "Failed to setKey for " + this.delegate );
       throw new AuthException( e );
@@ -144,6 +156,9 @@ public class DatabaseAccessKeyProxy implements AccessKey {
   
   @Override
   public User getUser( ) throws AuthException {
+    if ( this.user != null ) {
+      return this.user;
+    }
     final List<User> results = Lists.newArrayList( );
     try {
       DatabaseAuthUtils.invokeUnique( AccessKeyEntity.class, "accessKey", this.delegate.getAccessKey( ), new Tx<AccessKeyEntity>( ) {
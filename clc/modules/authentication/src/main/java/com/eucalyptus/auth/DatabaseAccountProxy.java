@@ -69,6 +69,7 @@ import org.hibernate.Session;
 import org.hibernate.criterion.Example;
 import org.hibernate.criterion.MatchMode;
 import org.hibernate.criterion.Restrictions;
+import com.eucalyptus.auth.AuthorizationCache.Scope;
 import com.eucalyptus.auth.checker.InvalidValueException;
 import com.eucalyptus.auth.checker.ValueChecker;
 import com.eucalyptus.auth.checker.ValueCheckerFactory;
@@ -140,6 +141,7 @@ public class DatabaseAccountProxy implements Account {
             t.setName( name );
           }
         } );
+        CredentialCache.getInstance( ).invalidateAll( );
       } catch ( Exception e ) {
         Debugging.logError( LOG, e, "Failed to setName for " + this.delegate );
         throw new AuthException( e );
@@ -297,6 +299,8 @@ public class DatabaseAccountProxy implements Account {
       }
       db.delete( user );
       db.commit( );
+      CredentialCache.getInstance( ).invalidateAll( );
+      AuthorizationCache.fireChange( "Deleted user " + userName + " in " + accountName );
     } catch ( Exception e ) {
       db.rollback( );
       Debugging.logError( LOG, e, "Failed to delete user: " + userName + " in " + accountName );
@@ -370,6 +374,7 @@ public class DatabaseAccountProxy implements Account {
       GroupEntity group = DatabaseAuthUtils.getUniqueGroup( db, groupName, accountName );
       db.delete( group );
       db.commit( );
+      AuthorizationCache.fireChange( "Deleted group " + groupName + " in " + accountName );
     } catch ( Exception e ) {
       db.rollback( );
       Debugging.logError( LOG, e, "Failed to delete group " + groupName + " in " + accountName );
@@ -415,10 +420,19 @@ public class DatabaseAccountProxy implements Account {
   
   @Override
   public List<Authorization> lookupAccountGlobalAuthorizations( String resourceType ) throws AuthException {
-    String accountId = this.delegate.getAccountNumber( );
     if ( resourceType == null ) {
       throw new AuthException( "Empty resource type" );
     }
+    return AuthorizationCache.lookup( Scope.ACCOUNT_AUTHORIZATIONS, this.delegate.getAccountNumber( ), resourceType, new AuthorizationCache.Loader( ) {
+      @Override
+      public List<Authorization> load( String resourceType ) throws AuthException {
+        return loadAccountGlobalAuthorizations( resourceType );
+      }
+    } );
+  }
+  
+  private List<Authorization> loadAccountGlobalAuthorizations( String resourceType ) throws AuthException {
+    String accountId = this.delegate.getAccountNumber( );
     EntityWrapper<AuthorizationEntity> db = EntityWrapper.get( AuthorizationEntity.class );
     try {
       @SuppressWarnings( "unchecked" )
@@ -449,10 +463,19 @@ public class DatabaseAccountProxy implements Account {
   
   @Override
   public List<Authorization> lookupAccountGlobalQuotas( String resourceType ) throws AuthException {
-    String accountId = this.delegate.getAccountNumber( );
     if ( resourceType == null ) {
       throw new AuthException( "Empty resource type" );
     }
+    return AuthorizationCache.lookup( Scope.ACCOUNT_QUOTAS, this.delegate.getAccountNumber( ), resourceType, new AuthorizationCache.Loader( ) {
+      @Override
+      public List<Authorization> load( String resourceType ) throws AuthException {
+        return loadAccountGlobalQuotas( resourceType );
+      }
+    } );
+  }
+  
+  private List<Authorization> loadAccountGlobalQuotas( String resourceType ) throws AuthException {
+    String accountId = this.delegate.getAccountNumber( );
     EntityWrapper<AuthorizationEntity> db = EntityWrapper.get( AuthorizationEntity.class );
     try {
       @SuppressWarnings( "unchecked" )
@@ -146,24 +146,17 @@ public class DatabaseAuthProvider implements AccountProvider {
     if ( keyId == null || "".equals( keyId) ) {
       throw new AuthException( "Empty key ID" );
     }
-    EntityWrapper<UserEntity> db = EntityWrapper.get( UserEntity.class );
+    AccessKey key;
     try {
-      @SuppressWarnings( "unchecked" )
-      UserEntity result = ( UserEntity ) db
-          .createCriteria( UserEntity.class ).setCacheable( true ).add( Restrictions.eq( "enabled", true ) )
-          .createCriteria( "keys" ).setCacheable( true ).add( 
-              Restrictions.and( Restrictions.eq( "accessKey", keyId ), Restrictions.eq( "active", true ) ) )
-          .uniqueResult( );
-      if ( result == null ) {
-        throw new NoSuchElementException( "Can not find user with key " + keyId );
-      }
-      db.commit( );
-      return new DatabaseUserProxy( result );
-    } catch ( Exception e ) {
-      db.rollback( );
-      Debugging.logError( LOG, e, "Failed to find user with access key ID : " + keyId );
+      key = this.lookupAccessKeyById( keyId );
+    } catch ( AuthException e ) {
       throw new AuthException( AuthException.NO_SUCH_USER, e );
     }
+    if ( !Boolean.TRUE.equals( key.isActive( ) ) || !Boolean.TRUE.equals( key.getUser( ).isEnabled( ) ) ) {
+      Debugging.logError( LOG, null, "Failed to find user with access key ID : " + keyId );
+      throw new AuthException( AuthException.NO_SUCH_USER );
+    }
+    return key.getUser( );
   }
   
   /**
@@ -178,6 +171,11 @@ public class DatabaseAuthProvider implements AccountProvider {
     if ( cert == null ) {
       throw new AuthException( "Empty input cert" );
     }
+    User cached = CredentialCache.getInstance( ).getCertificateUser( cert );
+    if ( cached != null ) {
+      return cached;
+    }
+    long generation = CredentialCache.getInstance( ).generation( );
     EntityWrapper<UserEntity> db = EntityWrapper.get( UserEntity.class );
     try {
       @SuppressWarnings( "unchecked" )
@@ -193,8 +191,10 @@ public class DatabaseAuthProvider implements AccountProvider {
       if ( result == null ) {
         throw new NoSuchElementException( "Can not find user with specific cert" );
       }
+      User user = newUserProxy( result );
       db.commit( );
-      return new DatabaseUserProxy( result );
+      CredentialCache.getInstance( ).putCertificateUser( generation, cert, user );
+      return user;
     } catch ( Exception e ) {
       db.rollback( );
       Debugging.logError( LOG, e, "Failed to find user with certificate : " + cert );
@@ -202,6 +202,19 @@ public class DatabaseAuthProvider implements AccountProvider {
     }
   }
   
+  /**
+   * Create a user proxy with its account resolved, must be called within the transaction that loaded the user.
+   * 
+   * @param user
+   * @return
+   */
+  private static User newUserProxy( UserEntity user ) {
+    if ( user.getGroups( ).size( ) < 1 ) {
+      throw new RuntimeException( "Unexpected group number of the user" );
+    }
+    return new DatabaseUserProxy( user, new DatabaseAccountProxy( user.getGroups( ).get( 0 ).getAccount( ) ) );
+  }
+  
   @Override
   public Group lookupGroupById( final String groupId ) throws AuthException {
     if ( groupId == null ) {
@@ -289,6 +302,8 @@ public class DatabaseAuthProvider implements AccountProvider {
       }
       db.delete( account );
       db.commit( );
+      CredentialCache.getInstance( ).invalidateAll( );
+      AuthorizationCache.fireChange( "Deleted account " + accountName );
     } catch ( Exception e ) {
       db.rollback( );
       Debugging.logError( LOG, e, "Failed to delete account " + accountName );
@@ -415,11 +430,18 @@ public class DatabaseAuthProvider implements AccountProvider {
     if ( keyId == null ) {
       throw new AuthException( "Empty access key ID" );
     }
+    AccessKey cached = CredentialCache.getInstance( ).getAccessKey( keyId );
+    if ( cached != null ) {
+      return cached;
+    }
+    long generation = CredentialCache.getInstance( ).generation( );
     EntityWrapper<AccessKeyEntity> db = EntityWrapper.get( AccessKeyEntity.class );
     try {
       AccessKeyEntity keyEntity = DatabaseAuthUtils.getUnique( db, AccessKeyEntity.class, "accessKey", keyId );
+      AccessKey key = new DatabaseAccessKeyProxy( keyEntity, newUserProxy( keyEntity.getUser( ) ) );
       db.commit( );
-      return new DatabaseAccessKeyProxy( keyEntity );
+      CredentialCache.getInstance( ).putAccessKey( generation, key );
+      return key;
     } catch ( Exception e ) {
       db.rollback( );
       Debugging.logError( LOG, e, "Failed to find access key with ID " + keyId );
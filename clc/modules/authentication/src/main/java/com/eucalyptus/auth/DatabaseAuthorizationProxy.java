@@ -88,13 +88,21 @@ public class DatabaseAuthorizationProxy implements Authorization {
     this.delegate = delegate;
   }
   
+  /**
+   * Internal ID of the authorization, used to key compiled authorizations. Not to be shared with
+   * the user.
+   */
+  public String getAuthorizationId( ) {
+    return this.delegate.getAuthorizationId( );
+  }
+  
   @Override
   public EffectType getEffect( ) {
     return this.delegate.getEffect( );
   }
 
   @Override
-  public List<Condition> getConditions( ) {
+  public List<Condition> getConditions( ) throws AuthException {
     final List<Condition> results = Lists.newArrayList( );
     try {
       Transactions.one( AuthorizationEntity.newInstanceWithId( this.delegate.getAuthorizationId() ), new Tx<AuthorizationEntity>( ) {
@@ -106,6 +114,7 @@ public class DatabaseAuthorizationProxy implements Authorization {
       } );
     } catch ( ExecutionException e ) {
       Debugging.logError( LOG, e, "Failed to getConditions for " + this.delegate );
+      throw new AuthException( e );
     }
     return results;
   }
@@ -141,7 +150,7 @@ public class DatabaseAuthorizationProxy implements Authorization {
   }
 
   @Override
-  public Set<String> getActions( ) {
+  public Set<String> getActions( ) throws AuthException {
     final Set<String> results = Sets.newHashSet( );
     try {
       Transactions.one( AuthorizationEntity.newInstanceWithId( this.delegate.getAuthorizationId() ), new Tx<AuthorizationEntity>( ) {
@@ -151,12 +160,13 @@ public class DatabaseAuthorizationProxy implements Authorization {
       } );
     } catch ( ExecutionException e ) {
       Debugging.logError( LOG, e, "Failed to getActions for " + this.delegate );
+      throw new AuthException( e );
     }
     return results;
   }
 
   @Override
-  public Set<String> getResources( ) {
+  public Set<String> getResources( ) throws AuthException {
     final Set<String> results = Sets.newHashSet( );
     try {
       Transactions.one( AuthorizationEntity.newInstanceWithId( this.delegate.getAuthorizationId() ), new Tx<AuthorizationEntity>( ) {
@@ -166,12 +176,13 @@ public class DatabaseAuthorizationProxy implements Authorization {
       } );
     } catch ( ExecutionException e ) {
       Debugging.logError( LOG, e, "Failed to getResources for " + this.delegate );
+      throw new AuthException( e );
     }
     return results;
   }
 
   @Override
-  public Group getGroup( ) {
+  public Group getGroup( ) throws AuthException {
     final List<Group> results = Lists.newArrayList( );
     try {
       Transactions.one( AuthorizationEntity.newInstanceWithId( this.delegate.getAuthorizationId() ), new Tx<AuthorizationEntity>( ) {
@@ -181,6 +192,7 @@ public class DatabaseAuthorizationProxy implements Authorization {
       } );
     } catch ( ExecutionException e ) {
       Debugging.logError( LOG, e, "Failed to getGroup for " + this.delegate );
+      throw new AuthException( e );
     }
     return results.get( 0 );
   }
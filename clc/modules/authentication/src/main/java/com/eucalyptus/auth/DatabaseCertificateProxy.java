@@ -120,6 +120,7 @@ public class DatabaseCertificateProxy implements Certificate {
           t.setActive( active );
         }
       } );
+      CredentialCache.getInstance( ).invalidateAll( );
     } catch ( ExecutionException e ) {
       Debugging.logError( LOG, e, "Failed to setActive for " + this.delegate );
       throw new AuthException( e );
@@ -139,6 +140,7 @@ public class DatabaseCertificateProxy implements Certificate {
           t.setRevoked( revoked );
         }
       } );
+      CredentialCache.getInstance( ).invalidateAll( );
     } catch ( ExecutionException e ) {
       Debugging.logError( LOG, e, "Failed to setRevoked for " + this.delegate );
       throw new AuthException( e );
@@ -193,6 +195,7 @@ public class DatabaseCertificateProxy implements Certificate {
           t.setPem( X509CertHelper.fromCertificate( x509 ) );
         }
       } );
+      CredentialCache.getInstance( ).invalidateAll( );
     } catch ( ExecutionException e ) {
       Debugging.logError( LOG, e, "Failed to setX509Certificate for " + this.delegate );
       throw new AuthException( e );
@@ -207,6 +207,7 @@ public class DatabaseGroupProxy implements Group {
       groupEntity.getUsers( ).add( userEntity );
       userEntity.getGroups( ).add( groupEntity );
       db.commit( );
+      AuthorizationCache.fireChange( "Added user " + userName + " to group " + this.delegate.getName( ) );
     } catch ( Exception e ) {
       db.rollback( );
       Debugging.logError( LOG, e, "Failed to add user " + userName + " to group " + this.delegate );
@@ -223,6 +224,7 @@ public class DatabaseGroupProxy implements Group {
       groupEntity.getUsers( ).remove( userEntity );
       userEntity.getGroups( ).remove( groupEntity );
       db.commit( );
+      AuthorizationCache.fireChange( "Removed user " + userName + " from group " + this.delegate.getName( ) );
     } catch ( Exception e ) {
       db.rollback( );
       Debugging.logError( LOG, e, "Failed to remove user " + userName + " from group " + this.delegate );
@@ -298,6 +300,7 @@ public class DatabaseGroupProxy implements Group {
       }
       groupEntity.getPolicies( ).add( parsedPolicy );
       db.commit( );
+      AuthorizationCache.fireChange( "Added policy " + name + " to group " + this.delegate.getName( ) );
       return new DatabasePolicyProxy( parsedPolicy );
     } catch ( Exception e ) {
       db.rollback( );
@@ -319,6 +322,7 @@ public class DatabaseGroupProxy implements Group {
         db.recast( PolicyEntity.class ).delete( policy );
       }
       db.commit( );
+      AuthorizationCache.fireChange( "Removed policy " + name + " from group " + this.delegate.getName( ) );
     } catch ( Exception e ) {
       db.rollback( );
       Debugging.logError( LOG, e, "Failed to remove policy " + name + " in " + this.delegate );
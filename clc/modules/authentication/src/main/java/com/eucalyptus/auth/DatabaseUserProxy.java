@@ -69,6 +69,7 @@ import java.util.Map;
 import org.apache.log4j.Logger;
 import org.hibernate.Session;
 import org.hibernate.criterion.Restrictions;
+import com.eucalyptus.auth.AuthorizationCache.Scope;
 import com.eucalyptus.auth.checker.InvalidValueException;
 import com.eucalyptus.auth.checker.ValueChecker;
 import com.eucalyptus.auth.checker.ValueCheckerFactory;
@@ -112,10 +113,20 @@ public class DatabaseUserProxy implements User {
   
   private UserEntity delegate;
   
+  private Account account;
+  
   public DatabaseUserProxy( UserEntity delegate ) {
     this.delegate = delegate;
   }
   
+  /**
+   * Create a proxy with the account of the user already resolved.
+   */
+  public DatabaseUserProxy( UserEntity delegate, Account account ) {
+    this.delegate = delegate;
+    this.account = account;
+  }
+  
   @Override
   public String toString( ) {
     final StringBuilder sb = new StringBuilder( );
@@ -165,6 +176,7 @@ public class DatabaseUserProxy implements User {
           }
         }
         db.commit( );
+        CredentialCache.getInstance( ).invalidateAll( );
       } catch ( Exception t ) {
         Debugging.logError( LOG, t, "Failed to setName for " + this.delegate );
         db.rollback( );
@@ -214,6 +226,7 @@ public class DatabaseUserProxy implements User {
           t.setRegistrationStatus( stat );
         }
       } );
+      CredentialCache.getInstance( ).invalidateAll( );
     } catch ( ExecutionException e ) {
       Debugging.logError( LOG, e, "Failed to setRegistrationStatus for " + this.delegate );
       throw new AuthException( e );
@@ -233,6 +246,7 @@ public class DatabaseUserProxy implements User {
           t.setEnabled( enabled );
         }
       } );
+      CredentialCache.getInstance( ).invalidateAll( );
     } catch ( ExecutionException e ) {
       Debugging.logError( LOG, e, "Failed to setEnabled for " + this.delegate );
       throw new AuthException( e );
@@ -462,6 +476,7 @@ public class DatabaseUserProxy implements User {
       user.getKeys( ).remove( keyEntity );
       db.recast( AccessKeyEntity.class ).delete( keyEntity );
       db.commit( );
+      CredentialCache.getInstance( ).invalidateAccessKey( keyId );
     } catch ( Exception e ) {
       db.rollback( );
       Debugging.logError( LOG, e, "Failed to get delete key " + keyId );
@@ -550,6 +565,7 @@ public class DatabaseUserProxy implements User {
       CertificateEntity certificateEntity = DatabaseAuthUtils.getUnique( db, CertificateEntity.class, "certificateId", certificateId );
       certificateEntity.setRevoked( true );
       db.commit( );
+      CredentialCache.getInstance( ).invalidateAll( );
     } catch ( Exception e ) {
       db.rollback( );
       Debugging.logError( LOG, e, "Failed to get delete certificate " + certificateId );
@@ -577,6 +593,9 @@ public class DatabaseUserProxy implements User {
 
   @Override
   public Account getAccount( ) throws AuthException {
+    if ( this.account != null ) {
+      return this.account;
+    }
     final List<Account> results = Lists.newArrayList( );
     try {
       DatabaseAuthUtils.invokeUnique( UserEntity.class, "userId", this.delegate.getUserId( ), new Tx<UserEntity>( ) {
@@ -682,6 +701,7 @@ public class DatabaseUserProxy implements User {
       }
       groupEntity.getPolicies( ).add( parsedPolicy );
       db.commit( );
+      AuthorizationCache.fireChange( "Added policy " + name + " to user " + this.delegate.getName( ) );
       return new DatabasePolicyProxy( parsedPolicy );
     } catch ( Exception e ) {
       db.rollback( );
@@ -707,6 +727,7 @@ public class DatabaseUserProxy implements User {
         db.recast( PolicyEntity.class ).delete( policy );
       }
       db.commit( );
+      AuthorizationCache.fireChange( "Removed policy " + name + " from user " + this.delegate.getName( ) );
     } catch ( Exception e ) {
       db.rollback( );
       Debugging.logError( LOG, e, "Failed to remove policy " + name + " in " + this.delegate );
@@ -716,10 +737,19 @@ public class DatabaseUserProxy implements User {
   
   @Override
   public List<Authorization> lookupAuthorizations( String resourceType ) throws AuthException {
-    String userId = this.delegate.getUserId( );
     if ( resourceType == null ) {
       throw new AuthException( "Empty resource type" );
     }
+    return AuthorizationCache.lookup( Scope.USER_AUTHORIZATIONS, this.delegate.getUserId( ), resourceType, new AuthorizationCache.Loader( ) {
+      @Override
+      public List<Authorization> load( String resourceType ) throws AuthException {
+        return loadAuthorizations( resourceType );
+      }
+    } );
+  }
+  
+  private List<Authorization> loadAuthorizations( String resourceType ) throws AuthException {
+    String userId = this.delegate.getUserId( );
     EntityWrapper<AuthorizationEntity> db = EntityWrapper.get( AuthorizationEntity.class );
     try {
       @SuppressWarnings( "unchecked" )
@@ -750,6 +780,18 @@ public class DatabaseUserProxy implements User {
   
   @Override
   public List<Authorization> lookupQuotas( String resourceType ) throws AuthException {
+    if ( resourceType == null ) {
+      throw new AuthException( "Empty resource type" );
+    }
+    return AuthorizationCache.lookup( Scope.USER_QUOTAS, this.delegate.getUserId( ), resourceType, new AuthorizationCache.Loader( ) {
+      @Override
+      public List<Authorization> load( String resourceType ) throws AuthException {
+        return loadQuotas( resourceType );
+      }
+    } );
+  }
+  
+  private List<Authorization> loadQuotas( String resourceType ) throws AuthException {
     String userId = this.delegate.getUserId( );
     EntityWrapper<AuthorizationEntity> db = EntityWrapper.get( AuthorizationEntity.class );
     try {
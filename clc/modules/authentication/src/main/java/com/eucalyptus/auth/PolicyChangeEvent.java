@@ -60,42 +60,30 @@
  *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
  ************************************************************************/
 
-package com.eucalyptus.cloud.ws;
+package com.eucalyptus.auth;
 
-import org.apache.log4j.Logger;
+import com.eucalyptus.event.Event;
 
-import java.io.IOException;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-
-public class UDPListener extends Thread {
-	private static Logger LOG = Logger.getLogger( UDPListener.class );
-	InetAddress address;
-	int port;
-	DatagramSocket socket;
-
-	public UDPListener(InetAddress address, int port) throws Exception {
-		this.address = address;
-		this.port = port;
-		try {
-			socket = new DatagramSocket(port, address);
-		} catch(Exception ex) {
-			LOG.error(ex);
-			throw ex;
-		}
-	}
-
-	public void run() {
-		if(socket != null)
-			ConnectionHandlerFactory.handle(socket);
-		else
-			LOG.error("Cannot start service. Invalid socket.");
-	}
-
-	public void close() {
-		if (socket != null) {
-			socket.close();
-			socket = null;
-		}
-	}
+/**
+ * Fired after a change to policies, groups or group membership has been committed.
+ */
+public class PolicyChangeEvent implements Event {
+  
+  private static final long serialVersionUID = 1L;
+  
+  private final String change;
+  
+  public PolicyChangeEvent( String change ) {
+    this.change = change;
+  }
+  
+  public String getChange( ) {
+    return this.change;
+  }
+  
+  @Override
+  public String toString( ) {
+    return "PolicyChangeEvent:" + this.change;
+  }
+  
 }
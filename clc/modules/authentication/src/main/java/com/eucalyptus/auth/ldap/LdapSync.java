@@ -81,6 +81,7 @@ import com.eucalyptus.auth.principal.Account;
 import com.eucalyptus.auth.principal.Group;
 import com.eucalyptus.auth.principal.User;
 import com.eucalyptus.bootstrap.Bootstrap;
+import com.eucalyptus.event.AsyncListener;
 import com.eucalyptus.event.ClockTick;
 import com.eucalyptus.event.Event;
 import com.eucalyptus.event.EventListener;
@@ -116,6 +117,7 @@ public class LdapSync {
   
   private static final ClockTickListener TIMER_LISTENER = new ClockTickListener( );
   
+  @AsyncListener( coalesce = true )
   private static class ClockTickListener implements EventListener<Event> {
 
     @Override
@@ -0,0 +1,286 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.auth.policy;
+
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import com.eucalyptus.auth.AuthException;
+import com.eucalyptus.auth.policy.condition.ConditionOp;
+import com.eucalyptus.auth.policy.condition.Conditions;
+import com.eucalyptus.auth.policy.ern.AddressUtil;
+import com.eucalyptus.auth.policy.key.Key;
+import com.eucalyptus.auth.policy.key.Keys;
+import com.eucalyptus.auth.principal.Authorization;
+import com.eucalyptus.auth.principal.Authorization.EffectType;
+import com.eucalyptus.auth.principal.Condition;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Immutable, pre-compiled form of an {@link Authorization}.
+ * 
+ * Action and resource patterns are turned into matchers once (with exact, prefix and match-all fast
+ * paths before falling back to a compiled regex) and condition keys and operators are resolved to
+ * their (stateless) singleton instances, so evaluating a request does no parsing or reflection.
+ */
+public class CompiledAuthorization {
+  
+  public static interface Matcher {
+    boolean match( String instance );
+  }
+  
+  private static final Matcher NONE = new Matcher( ) {
+    @Override
+    public boolean match( String instance ) {
+      return false;
+    }
+  };
+  
+  private static final Matcher ANY = new Matcher( ) {
+    @Override
+    public boolean match( String instance ) {
+      return instance != null;
+    }
+  };
+  
+  private static class ExactMatcher implements Matcher {
+    private final String value;
+    
+    ExactMatcher( String value ) {
+      this.value = value;
+    }
+    
+    @Override
+    public boolean match( String instance ) {
+      return this.value.equals( instance );
+    }
+  }
+  
+  private static class PrefixMatcher implements Matcher {
+    private final String prefix;
+    
+    PrefixMatcher( String prefix ) {
+      this.prefix = prefix;
+    }
+    
+    @Override
+    public boolean match( String instance ) {
+      return instance != null && instance.startsWith( this.prefix );
+    }
+  }
+  
+  private static class RegexMatcher implements Matcher {
+    private final Pattern pattern;
+    
+    RegexMatcher( Pattern pattern ) {
+      this.pattern = pattern;
+    }
+    
+    @Override
+    public boolean match( String instance ) {
+      return instance != null && this.pattern.matcher( instance ).matches( );
+    }
+  }
+  
+  private static class AddressMatcher implements Matcher {
+    private final String range;
+    
+    AddressMatcher( String range ) {
+      this.range = range;
+    }
+    
+    @Override
+    public boolean match( String instance ) {
+      return AddressUtil.addressRangeMatch( this.range, instance );
+    }
+  }
+  
+  /**
+   * A condition with its key and operator resolved.
+   */
+  public static class CompiledCondition {
+    private final String keyName;
+    private final Key key;
+    private final ConditionOp op;
+    private final Set<String> values;
+    
+    CompiledCondition( Condition condition ) throws AuthException {
+      this.keyName = condition.getKey( );
+      this.key = Keys.getKeyInstance( Keys.getKeyClass( condition.getKey( ) ) );
+      this.op = Conditions.getOpInstance( Conditions.getConditionOpClass( condition.getType( ) ) );
+      this.values = ImmutableSet.copyOf( condition.getValues( ) );
+    }
+    
+    public String getKeyName( ) {
+      return this.keyName;
+    }
+    
+    public Key getKey( ) {
+      return this.key;
+    }
+    
+    public ConditionOp getOp( ) {
+      return this.op;
+    }
+    
+    public Set<String> getValues( ) {
+      return this.values;
+    }
+  }
+  
+  private final String authorizationId;
+  private final EffectType effect;
+  private final String type;
+  private final boolean notAction;
+  private final boolean notResource;
+  private final List<Matcher> actionMatchers;
+  private final List<Matcher> resourceMatchers;
+  private final List<CompiledCondition> conditions;
+  
+  CompiledAuthorization( String authorizationId, Authorization auth ) throws AuthException {
+    this.authorizationId = authorizationId;
+    this.effect = auth.getEffect( );
+    this.type = auth.getType( );
+    this.notAction = Boolean.TRUE.equals( auth.isNotAction( ) );
+    this.notResource = Boolean.TRUE.equals( auth.isNotResource( ) );
+    ImmutableList.Builder<Matcher> actions = ImmutableList.builder( );
+    for ( String pattern : auth.getActions( ) ) {
+      actions.add( compilePattern( pattern ) );
+    }
+    this.actionMatchers = actions.build( );
+    boolean isAddress = PolicySpec.EC2_RESOURCE_ADDRESS.equals( this.type );
+    ImmutableList.Builder<Matcher> resources = ImmutableList.builder( );
+    for ( String pattern : auth.getResources( ) ) {
+      resources.add( isAddress ? compileAddress( pattern ) : compilePattern( pattern ) );
+    }
+    this.resourceMatchers = resources.build( );
+    ImmutableList.Builder<CompiledCondition> conds = ImmutableList.builder( );
+    for ( Condition cond : auth.getConditions( ) ) {
+      conds.add( new CompiledCondition( cond ) );
+    }
+    this.conditions = conds.build( );
+  }
+  
+  /**
+   * Compile an IAM policy pattern (with * and ?) into a matcher.
+   */
+  public static Matcher compilePattern( String pattern ) {
+    if ( pattern == null ) {
+      return NONE;
+    }
+    if ( "*".equals( pattern ) ) {
+      return ANY;
+    }
+    int multiple = pattern.indexOf( '*' );
+    int single = pattern.indexOf( '?' );
+    if ( multiple < 0 && single < 0 ) {
+      return new ExactMatcher( pattern );
+    }
+    if ( single < 0 && multiple == pattern.length( ) - 1 ) {
+      return new PrefixMatcher( pattern.substring( 0, multiple ) );
+    }
+    return new RegexMatcher( Pattern.compile( PatternUtils.toJavaPattern( pattern ) ) );
+  }
+  
+  private static Matcher compileAddress( String pattern ) {
+    if ( pattern == null ) {
+      return NONE;
+    }
+    return new AddressMatcher( pattern );
+  }
+  
+  private static boolean matchOne( List<Matcher> matchers, String instance ) {
+    for ( Matcher matcher : matchers ) {
+      if ( matcher.match( instance ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  public boolean matchAction( String action ) {
+    return matchOne( this.actionMatchers, action ) != this.notAction;
+  }
+  
+  public boolean matchResource( String resource ) {
+    return matchOne( this.resourceMatchers, resource ) != this.notResource;
+  }
+  
+  public String getAuthorizationId( ) {
+    return this.authorizationId;
+  }
+  
+  public EffectType getEffect( ) {
+    return this.effect;
+  }
+  
+  public String getType( ) {
+    return this.type;
+  }
+  
+  public List<CompiledCondition> getConditions( ) {
+    return this.conditions;
+  }
+  
+}
@@ -0,0 +1,136 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.auth.policy;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import com.eucalyptus.auth.AuthException;
+import com.eucalyptus.auth.DatabaseAuthorizationProxy;
+import com.eucalyptus.auth.principal.Authorization;
+import com.google.common.collect.Maps;
+
+/**
+ * Cache of compiled authorizations, keyed by authorization ID and scoped to the current policy
+ * version. Any change to policies or group membership bumps the version, which discards all
+ * compiled authorizations of the previous version at once.
+ */
+public class PolicyCache {
+  
+  private static final Logger LOG = Logger.getLogger( PolicyCache.class );
+  
+  private static class Generation {
+    private final long version;
+    private final ConcurrentMap<String, CompiledAuthorization> authorizations = Maps.newConcurrentMap( );
+    
+    Generation( long version ) {
+      this.version = version;
+    }
+  }
+  
+  private static final AtomicLong versions = new AtomicLong( 0l );
+  private static volatile Generation current = new Generation( versions.get( ) );
+  
+  /**
+   * @return the current policy version
+   */
+  public static long getVersion( ) {
+    return current.version;
+  }
+  
+  /**
+   * Record a change to policies or group membership.
+   */
+  public static void invalidate( ) {
+    current = new Generation( versions.incrementAndGet( ) );
+    LOG.debug( "Policy version changed to " + current.version );
+  }
+  
+  /**
+   * Get the compiled form of an authorization, compiling it on first use in the current policy version.
+   * Authorizations not backed by the database have no ID and are compiled on each use. If the
+   * authorization can not be read in full compiling fails and nothing is cached, so a transient
+   * database error is not remembered as an empty action or resource set.
+   */
+  public static CompiledAuthorization compile( Authorization auth ) throws AuthException {
+    if ( !( auth instanceof DatabaseAuthorizationProxy ) ) {
+      return new CompiledAuthorization( null, auth );
+    }
+    Generation generation = current;
+    String id = ( ( DatabaseAuthorizationProxy ) auth ).getAuthorizationId( );
+    CompiledAuthorization compiled = generation.authorizations.get( id );
+    if ( compiled == null ) {
+      compiled = new CompiledAuthorization( id, auth );
+      CompiledAuthorization existing = generation.authorizations.putIfAbsent( id, compiled );
+      if ( existing != null ) {
+        compiled = existing;
+      }
+    }
+    return compiled;
+  }
+  
+  public static int size( ) {
+    return current.authorizations.size( );
+  }
+  
+}
@@ -64,25 +64,20 @@ package com.eucalyptus.auth.policy;
 
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.regex.Pattern;
 import org.apache.log4j.Logger;
 import com.eucalyptus.auth.AuthException;
 import com.eucalyptus.auth.Contract;
 import com.eucalyptus.auth.api.PolicyEngine;
+import com.eucalyptus.auth.policy.CompiledAuthorization.CompiledCondition;
 import com.eucalyptus.auth.policy.condition.ConditionOp;
-import com.eucalyptus.auth.policy.condition.Conditions;
 import com.eucalyptus.auth.policy.condition.NumericGreaterThan;
-import com.eucalyptus.auth.policy.ern.AddressUtil;
 import com.eucalyptus.auth.policy.key.CachedKeyEvaluator;
 import com.eucalyptus.auth.policy.key.ContractKey;
 import com.eucalyptus.auth.policy.key.ContractKeyEvaluator;
 import com.eucalyptus.auth.policy.key.Key;
-import com.eucalyptus.auth.policy.key.Keys;
 import com.eucalyptus.auth.policy.key.QuotaKey;
 import com.eucalyptus.auth.principal.Account;
 import com.eucalyptus.auth.principal.Authorization;
-import com.eucalyptus.auth.principal.Condition;
 import com.eucalyptus.auth.principal.Group;
 import com.eucalyptus.auth.principal.User;
 import com.eucalyptus.auth.principal.Authorization.EffectType;
@@ -102,31 +97,6 @@ public class PolicyEngineImpl implements PolicyEngine {
     ALLOW,   // explicit allow
   }
   
-  private static interface Matcher {
-    boolean match( String pattern, String instance );
-  }
-  
-  private static final Matcher PATTERN_MATCHER = new Matcher( ) {
-    @Override
-    public boolean match( String pattern, String instance ) {
-      pattern = PatternUtils.toJavaPattern( pattern );
-      if ( pattern == null ) {
-        return false;
-      }
-      return Pattern.matches( pattern, instance );
-    }
-  };
-  
-  private static final Matcher ADDRESS_MATCHER = new Matcher( ) {
-    @Override
-    public boolean match( String pattern, String instance ) {
-      if ( pattern == null ) {
-        return false;
-      }
-      return AddressUtil.addressRangeMatch( pattern, instance );
-    }
-  };
-  
   public PolicyEngineImpl( ) {
   }
   
@@ -235,11 +205,12 @@ public class PolicyEngineImpl implements PolicyEngine {
    */
   private Decision processAuthorizations( List<Authorization> authorizations, String action, String resource, CachedKeyEvaluator keyEval, ContractKeyEvaluator contractEval ) throws AuthException {
     Decision result = Decision.DEFAULT; 
-    for ( Authorization auth : authorizations ) {
-      if ( !matchActions( auth, action ) ) {
+    for ( Authorization authorization : authorizations ) {
+      CompiledAuthorization auth = PolicyCache.compile( authorization );
+      if ( !auth.matchAction( action ) ) {
         continue;
       }
-      if ( !matchResources( auth, resource ) ) {
+      if ( !auth.matchResource( resource ) ) {
         continue;
       }
       if ( !evaluateConditions( auth.getConditions( ), action, auth.getType( ), keyEval, contractEval ) ) {
@@ -255,31 +226,6 @@ public class PolicyEngineImpl implements PolicyEngine {
     return result;
   }
   
-  private boolean matchActions( Authorization auth, String action ) throws AuthException {
-    return evaluateElement( matchOne( auth.getActions( ), action, PATTERN_MATCHER ), auth.isNotAction( ) );
-  }
-  
-  private boolean matchResources( Authorization auth, String resource ) throws AuthException {
-    if ( PolicySpec.EC2_RESOURCE_ADDRESS.equals( auth.getType( ) ) ) {
-      return evaluateElement( matchOne( auth.getResources( ), resource, ADDRESS_MATCHER ), auth.isNotResource( ) );
-    } else {
-      return evaluateElement( matchOne( auth.getResources( ), resource, PATTERN_MATCHER ), auth.isNotResource( ) );
-    }
-  }
-  
-  private static boolean matchOne( Set<String> patterns, String instance, Matcher matcher ) {
-    for ( String pattern : patterns ) {
-      if ( matcher.match( pattern, instance ) ) {
-        return true;
-      }
-    }
-    return false;
-  }
-  
-  private boolean evaluateElement( boolean patternMatched, boolean isNot ) {
-    return ( ( patternMatched && !isNot ) || ( !patternMatched && isNot ) );
-  }
-  
   /**
    * Evaluate conditions for an authorization.
    * 
@@ -291,10 +237,10 @@ public class PolicyEngineImpl implements PolicyEngine {
    * @return
    * @throws AuthException
    */
-  private boolean evaluateConditions( List<? extends Condition> conditions, String action, String resourceType, CachedKeyEvaluator keyEval, ContractKeyEvaluator contractEval ) throws AuthException {
-    for ( Condition cond : conditions ) {
-      ConditionOp op = Conditions.getOpInstance( Conditions.getConditionOpClass( cond.getType( ) ) );
-      Key key = Keys.getKeyInstance( Keys.getKeyClass( cond.getKey( ) ) );
+  private boolean evaluateConditions( List<CompiledCondition> conditions, String action, String resourceType, CachedKeyEvaluator keyEval, ContractKeyEvaluator contractEval ) throws AuthException {
+    for ( CompiledCondition cond : conditions ) {
+      ConditionOp op = cond.getOp( );
+      Key key = cond.getKey( );
       if ( !key.canApply( action, resourceType ) ) {
         continue;
       }
@@ -388,33 +334,34 @@ public class PolicyEngineImpl implements PolicyEngine {
   private void processQuotas( List<Authorization> quotas, String action, String resourceType, String resourceName, Long quantity ) throws AuthException {
     NumericGreaterThan ngt = new NumericGreaterThan( );
     for ( Authorization auth : quotas ) {
-      if ( !matchActions( auth, action ) ) {
+      CompiledAuthorization compiled = PolicyCache.compile( auth );
+      if ( !compiled.matchAction( action ) ) {
         LOG.debug( "Action " + action + " not matching" );
         continue;
       }
-      if ( !matchResources( auth, resourceName ) ) {
+      if ( !compiled.matchResource( resourceName ) ) {
         LOG.debug( "Resource " + resourceName + " not matching" );
         continue;
       }
       QuotaKey.Scope scope = getAuthorizationScope( auth );
       String principalId = getAuthorizationPrincipalId( auth, scope );
-      for ( Condition cond : auth.getConditions( ) ) {
-        Key key = Keys.getKeyInstance( Keys.getKeyClass( cond.getKey( ) ) );
+      for ( CompiledCondition cond : compiled.getConditions( ) ) {
+        Key key = cond.getKey( );
         if ( !( key instanceof QuotaKey ) ) {
-          LOG.debug( "Key " + cond.getKey( ) + " is not a quota" );
+          LOG.debug( "Key " + cond.getKeyName( ) + " is not a quota" );
           continue;
         }
         QuotaKey quotaKey = ( QuotaKey ) key;
         if ( !key.canApply( action, resourceType ) ) {
-          LOG.debug( "Key " + cond.getKey( ) + " can not apply for action=" + action + ", resourceType=" + resourceType );
+          LOG.debug( "Key " + cond.getKeyName( ) + " can not apply for action=" + action + ", resourceType=" + resourceType );
           continue;
         }
         String usageValue = quotaKey.value( scope, principalId, resourceName, quantity );
         if ( QuotaKey.NOT_SUPPORTED.equals( usageValue ) ) {
-          LOG.debug( "Key " + cond.getKey( ) + " is not supported for scope=" + scope );
+          LOG.debug( "Key " + cond.getKeyName( ) + " is not supported for scope=" + scope );
           continue;
         }
-        String quotaValue = cond.getValues( ).toArray( new String[0] )[0];
+        String quotaValue = cond.getValues( ).iterator( ).next( );
         if ( ngt.check( usageValue, quotaValue ) ) {
           LOG.error( "Quota " + key.getClass( ).getName( ) + " is exceeded: quota=" + quotaValue + ", usage=" + usageValue );
           throw new AuthException( AuthException.QUOTA_EXCEEDED );
@@ -0,0 +1,157 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.auth;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import com.eucalyptus.auth.AuthorizationCache.Scope;
+import com.eucalyptus.auth.policy.PolicyCache;
+import com.eucalyptus.auth.policy.PolicySpec;
+import com.eucalyptus.auth.principal.Authorization;
+import com.eucalyptus.auth.principal.Condition;
+import com.eucalyptus.auth.principal.Group;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Verifies a policy change is visible to the next authorization decision.
+ */
+public class AuthorizationCacheTest {
+
+  private static class AllowAction implements Authorization {
+    private static final long serialVersionUID = 1L;
+    private final String action;
+
+    AllowAction( String action ) {
+      this.action = action;
+    }
+
+    public EffectType getEffect( ) {
+      return EffectType.Allow;
+    }
+
+    public String getType( ) {
+      return PolicySpec.EC2_RESOURCE_INSTANCE;
+    }
+
+    public Boolean isNotAction( ) {
+      return false;
+    }
+
+    public Set<String> getActions( ) {
+      return ImmutableSet.of( this.action );
+    }
+
+    public Boolean isNotResource( ) {
+      return false;
+    }
+
+    public Set<String> getResources( ) {
+      return ImmutableSet.of( "*" );
+    }
+
+    public List<Condition> getConditions( ) {
+      return Collections.emptyList( );
+    }
+
+    public Group getGroup( ) {
+      return null;
+    }
+  }
+
+  private static class PolicyStore implements AuthorizationCache.Loader {
+    private volatile String allowed;
+
+    public List<Authorization> load( String resourceType ) {
+      return Collections.<Authorization>singletonList( new AllowAction( this.allowed ) );
+    }
+  }
+
+  private static boolean allowed( PolicyStore store, String action ) throws AuthException {
+    for ( Authorization auth : AuthorizationCache.lookup( Scope.USER_AUTHORIZATIONS, "test-user", PolicySpec.EC2_RESOURCE_INSTANCE, store ) ) {
+      if ( PolicyCache.compile( auth ).matchAction( action ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Test
+  public void testPolicyChangeInvalidates( ) throws Exception {
+    PolicyStore store = new PolicyStore( );
+    store.allowed = "ec2:runinstances";
+    AuthorizationCache.fireChange( "test setup" );
+    assertTrue( allowed( store, "ec2:runinstances" ) );
+
+    store.allowed = "ec2:describeinstances";
+    long version = PolicyCache.getVersion( );
+    AuthorizationCache.fireChange( "test policy change" );
+    assertTrue( "Policy version changed", PolicyCache.getVersion( ) > version );
+    assertFalse( "Revoked action denied", allowed( store, "ec2:runinstances" ) );
+    assertTrue( "Granted action allowed", allowed( store, "ec2:describeinstances" ) );
+  }
+
+}
@@ -60,53 +60,35 @@
  *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
  ************************************************************************/
 
-package com.eucalyptus.cloud.ws;
+package com.eucalyptus.auth.policy;
 
-import com.eucalyptus.util.DNSProperties;
-import org.apache.log4j.Logger;
-import org.xbill.DNS.Message;
+import static org.junit.Assert.assertEquals;
+import java.util.regex.Pattern;
+import org.junit.Test;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
-import java.net.Socket;
+/**
+ * Verifies compiled pattern matchers agree with the regex translation of the pattern.
+ */
+public class CompiledAuthorizationTest {
 
+  private static final String[] PATTERNS = {
+      "*", "ec2:*", "ec2:describeinstances", "ec2:describe*", "ec2:?un*", "arn:aws:s3:::bucket/*", "*image*", "a.b*", "",
+  };
 
-public class TCPHandler extends ConnectionHandler {
-	private static Logger LOG = Logger.getLogger( TCPHandler.class );
-	Socket socket;
-	public TCPHandler(Socket s) {
-		this.socket = s;
-	}
-
-	public void run() {
-		try {
-			int inputLength;
-			DataInputStream inStream = new DataInputStream(socket.getInputStream());
-			DataOutputStream outStream = new DataOutputStream(socket.getOutputStream());
-			inputLength = inStream.readUnsignedShort();
-			if(inputLength > DNSProperties.MAX_MESSAGE_SIZE) {
-				LOG.error("Maximum message size exceeded. Ignoring request.");
-			}
-			byte[] inBytes = new byte[inputLength];
-			inStream.readFully(inBytes);
-			Message query;
-			byte [] response = null;
-			try {
-				query = new Message(inBytes);
-				response = generateReply(query, inBytes, inBytes.length, socket);
-				if (response == null)
-					return;
-			}
-			catch (IOException exception) {
-				LOG.error(exception);
-			}
-			outStream.writeShort(response.length);
-			outStream.write(response);
-		} catch(IOException ex) {
-			LOG.error(ex);
-		}
-	}
+  private static final String[] INSTANCES = {
+      "", "ec2:describeinstances", "ec2:runinstances", "ec2:describeimages", "iam:createuser",
+      "arn:aws:s3:::bucket/key", "arn:aws:s3:::bucket", "a.bc", "axbc",
+  };
 
+  @Test
+  public void testCompiledPatternsMatchRegex( ) {
+    for ( String pattern : PATTERNS ) {
+      Pattern regex = Pattern.compile( PatternUtils.toJavaPattern( pattern ) );
+      CompiledAuthorization.Matcher matcher = CompiledAuthorization.compilePattern( pattern );
+      for ( String instance : INSTANCES ) {
+        assertEquals( "Pattern " + pattern + " against " + instance, regex.matcher( instance ).matches( ), matcher.match( instance ) );
+      }
+    }
+  }
 
 }
@@ -0,0 +1,162 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.auth.policy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import com.eucalyptus.auth.AuthException;
+import com.eucalyptus.auth.DatabaseAuthorizationProxy;
+import com.eucalyptus.auth.principal.Condition;
+import com.eucalyptus.auth.principal.Group;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Verifies an authorization which can not be read is not cached.
+ */
+public class PolicyCacheTest {
+
+  /**
+   * A database backed Deny whose actions fail to load the first time they are read.
+   */
+  private static class FailingProxy extends DatabaseAuthorizationProxy {
+    private static final long serialVersionUID = 1L;
+    private int failures = 1;
+
+    FailingProxy( ) {
+      super( null );
+    }
+
+    @Override
+    public String getAuthorizationId( ) {
+      return "failing-proxy";
+    }
+
+    @Override
+    public EffectType getEffect( ) {
+      return EffectType.Deny;
+    }
+
+    @Override
+    public String getType( ) {
+      return PolicySpec.EC2_RESOURCE_INSTANCE;
+    }
+
+    @Override
+    public Boolean isNotAction( ) {
+      return false;
+    }
+
+    @Override
+    public Set<String> getActions( ) throws AuthException {
+      if ( this.failures > 0 ) {
+        this.failures--;
+        throw new AuthException( "Failed to getActions" );
+      }
+      return ImmutableSet.of( "ec2:runinstances" );
+    }
+
+    @Override
+    public Boolean isNotResource( ) {
+      return false;
+    }
+
+    @Override
+    public Set<String> getResources( ) {
+      return ImmutableSet.of( "*" );
+    }
+
+    @Override
+    public List<Condition> getConditions( ) {
+      return Collections.emptyList( );
+    }
+
+    @Override
+    public Group getGroup( ) {
+      return null;
+    }
+  }
+
+  @Test
+  public void testFailedCompileNotCached( ) throws Exception {
+    PolicyCache.invalidate( );
+    FailingProxy proxy = new FailingProxy( );
+    try {
+      PolicyCache.compile( proxy );
+      fail( "Expected the read failure to propagate" );
+    } catch ( AuthException ex ) {
+    }
+    assertEquals( "Nothing cached", 0, PolicyCache.size( ) );
+
+    CompiledAuthorization compiled = PolicyCache.compile( proxy );
+    assertTrue( "Deny matches its action", compiled.matchAction( "ec2:runinstances" ) );
+    assertEquals( "Cached", 1, PolicyCache.size( ) );
+    assertSame( "Cached instance reused", compiled, PolicyCache.compile( proxy ) );
+  }
+
+}
@@ -70,6 +70,7 @@ import java.util.NoSuchElementException;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import javax.persistence.EntityTransaction;
 import org.apache.log4j.Logger;
 import com.eucalyptus.auth.principal.Principals;
@@ -78,8 +79,6 @@ import com.eucalyptus.cluster.Cluster;
 import com.eucalyptus.cluster.ClusterState;
 import com.eucalyptus.cluster.callback.UnassignAddressCallback;
 import com.eucalyptus.component.Partition;
-import com.eucalyptus.configurable.ConfigurableProperty;
-import com.eucalyptus.configurable.PropertyDirectory;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.records.EventRecord;
 import com.eucalyptus.records.EventType;
@@ -94,12 +93,23 @@ import com.eucalyptus.vm.VmInstance.VmState;
 import com.eucalyptus.vm.VmInstance.VmStateSet;
 import com.eucalyptus.vm.VmInstances;
 import com.google.common.base.Predicate;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import edu.ucsb.eucalyptus.cloud.exceptions.ExceptionList;
 import edu.ucsb.eucalyptus.msgs.ClusterAddressInfo;
 
 public abstract class AbstractSystemAddressManager {
-  private final static Logger                                              LOG     = Logger.getLogger( AbstractSystemAddressManager.class );
-  private static final ConcurrentNavigableMap<ClusterAddressInfo, Integer> orphans = new ConcurrentSkipListMap<ClusterAddressInfo, Integer>( );
+  private final static Logger                                              LOG            = Logger.getLogger( AbstractSystemAddressManager.class );
+  private static final ConcurrentNavigableMap<ClusterAddressInfo, Integer> orphans        = new ConcurrentSkipListMap<ClusterAddressInfo, Integer>( );
+  private static final Supplier<Integer>                                   systemReserved = Suppliers.memoizeWithExpiration( new Supplier<Integer>( ) {
+    @Override
+    public Integer get( ) {
+      final Integer reserved = Addresses.getSystemReservedAddressCount( );
+      return reserved == null
+        ? 0
+        : reserved;
+    }
+  }, 15l, TimeUnit.SECONDS );
   
   public static void clearOrphan( ClusterAddressInfo address ) {
     Integer delay = orphans.remove( address );
@@ -160,30 +170,30 @@ public abstract class AbstractSystemAddressManager {
   }
 
   public Address allocateNext( final OwnerFullName userId ) throws NotEnoughResourcesException {
-	  int numSystemReserved=0;
-	  try{
-		  ConfigurableProperty p =
-				  PropertyDirectory.getPropertyEntry("cloud.addresses.systemreservedpublicaddresses");
-		  if(p!=null)
-			  numSystemReserved= Integer.parseInt(p.getValue());
-	  }catch(IllegalAccessException e)
-	  {
-		  LOG.error("Can't find the 'systemreservedpublicaddresses' property");
-		  numSystemReserved=0;
-	  }
-	  if ( (Addresses.getInstance( ).listDisabledValues( ).size( ) - numSystemReserved ) < 1 ) {
-		  throw new NotEnoughResourcesException( ExceptionList.ERR_SYS_INSUFFICIENT_ADDRESS_CAPACITY );
-	  }	    
-
-	  Predicate<Address> predicate = RestrictedTypes.filterPrivileged( );    
-	  final Address addr = Addresses.getInstance( ).enableFirst( predicate ).allocate( userId );   
-
-	  LOG.debug( "Allocated address for public addressing: " + addr.toString( ) );
-	  if ( addr == null ) {
-		  LOG.debug( LogUtil.header( Addresses.getInstance( ).toString( ) ) );
-		  throw new NotEnoughResourcesException( ExceptionList.ERR_SYS_INSUFFICIENT_ADDRESS_CAPACITY );
-	  }
-	  return addr;
+    final long start = System.nanoTime( );
+    final AddressPool pool = AddressPool.getInstance( );
+    final Predicate<Address> predicate = RestrictedTypes.filterPrivileged( );
+    while ( pool.getFree( ) - systemReserved.get( ) >= 1 ) {
+      final Address addr;
+      try {
+        addr = pool.claim( predicate );
+      } catch ( final NoSuchElementException ex ) {
+        break;
+      }
+      try {
+        addr.allocate( userId );
+      } catch ( final IllegalStateException ex ) {
+        LOG.debug( "Address changed state while being allocated: " + addr.toString( ) );
+        pool.unclaim( addr );
+        continue;
+      }
+      pool.allocated( start );
+      LOG.debug( "Allocated address for public addressing: " + addr.toString( ) );
+      return addr;
+    }
+    pool.exhausted( );
+    Logs.extreme( ).debug( LogUtil.header( Addresses.getInstance( ).toString( ) ) );
+    throw new NotEnoughResourcesException( ExceptionList.ERR_SYS_INSUFFICIENT_ADDRESS_CAPACITY );
   }
   
   public abstract void assignSystemAddress( final VmInstance vm ) throws NotEnoughResourcesException;
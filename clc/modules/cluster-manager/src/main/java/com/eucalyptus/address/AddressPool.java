@@ -0,0 +1,219 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.address;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import com.eucalyptus.util.LatencyHistogram;
+import com.eucalyptus.util.Mbeans;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Free public addresses, i.e., those in the disabled set of {@link Addresses}.
+ * 
+ * The pool is updated by {@link Addresses} as addresses move between the active and disabled sets
+ * and is otherwise lock-free: claiming an address polls a queue of free addresses and the number of
+ * free addresses is a counter. Queue entries for addresses which are no longer free are discarded
+ * as they are polled. A released address is back in the pool before its pending mark is cleared,
+ * so claiming skips addresses which are still changing state and leaves them in the pool.
+ * Allocation latency and the number of times the pool was found exhausted are exported through JMX.
+ */
+public class AddressPool {
+  private static final AddressPool             INSTANCE    = new AddressPool( new Predicate<Address>( ) {
+                                                             @Override
+                                                             public boolean apply( final Address addr ) {
+                                                               return !addr.isAllocated( ) && !addr.isPending( );
+                                                             }
+                                                           }, new Predicate<Address>( ) {
+                                                             @Override
+                                                             public boolean apply( final Address addr ) {
+                                                               try {
+                                                                 return Addresses.getInstance( ).lookupDisabled( addr.getName( ) ) == addr;
+                                                               } catch ( final NoSuchElementException ex ) {
+                                                                 return false;
+                                                               }
+                                                             }
+                                                           } );
+  private final ConcurrentMap<String, Address> free        = Maps.newConcurrentMap( );
+  private final Queue<Address>                 order       = new ConcurrentLinkedQueue<Address>( );
+  private final AtomicInteger                  freeCount   = new AtomicInteger( 0 );
+  private final AtomicLong                     exhausted   = new AtomicLong( 0l );
+  private final LatencyHistogram               allocations = new LatencyHistogram( );
+  private final Predicate<? super Address>     ready;
+  private final Predicate<? super Address>     disabled;
+  
+  static {
+    Mbeans.register( INSTANCE );
+  }
+  
+  /**
+   * @param ready true if an address is unallocated and not in the middle of a state change
+   * @param disabled true if an address is in the disabled set of the registry
+   */
+  AddressPool( final Predicate<? super Address> ready, final Predicate<? super Address> disabled ) {
+    this.ready = ready;
+    this.disabled = disabled;
+  }
+  
+  public static AddressPool getInstance( ) {
+    return INSTANCE;
+  }
+  
+  /**
+   * Note that the address is free.
+   */
+  void add( final Address addr ) {
+    final Address previous = this.free.put( addr.getName( ), addr );
+    if ( previous == null ) {
+      this.freeCount.incrementAndGet( );
+    }
+    if ( previous != addr ) {
+      this.order.offer( addr );
+    }
+  }
+  
+  /**
+   * Note that the named address is no longer free.
+   */
+  void remove( final String name ) {
+    if ( this.free.remove( name ) != null ) {
+      this.freeCount.decrementAndGet( );
+    }
+  }
+  
+  /**
+   * Claim a free address which satisfies the filter. The address is removed from the pool and is
+   * owned by the caller, who is expected to change its state. Should that fail the caller must give
+   * it back using {@link #unclaim(Address)}, otherwise it is not offered again until it is next
+   * released.
+   * 
+   * @throws NoSuchElementException if no free address satisfies the filter
+   */
+  Address claim( final Predicate<? super Address> filter ) throws NoSuchElementException {
+    final List<Address> rejected = Lists.newArrayList( );
+    try {
+      for ( Address addr; ( addr = this.order.poll( ) ) != null; ) {
+        if ( this.free.get( addr.getName( ) ) != addr ) {
+          continue;
+        } else if ( !this.ready.apply( addr ) || !filter.apply( addr ) ) {
+          rejected.add( addr );
+        } else if ( this.free.remove( addr.getName( ), addr ) ) {
+          this.freeCount.decrementAndGet( );
+          return addr;
+        }
+      }
+      throw new NoSuchElementException( "No free public addresses." );
+    } finally {
+      for ( final Address addr : rejected ) {
+        if ( this.free.get( addr.getName( ) ) == addr ) {
+          this.order.offer( addr );
+        }
+      }
+    }
+  }
+  
+  /**
+   * Give back a claimed address whose state could not be changed. It is returned to the pool only if
+   * it is still free; an address which was allocated in the meantime stays out.
+   */
+  void unclaim( final Address addr ) {
+    if ( this.disabled.apply( addr ) && this.ready.apply( addr ) ) {
+      this.add( addr );
+    }
+  }
+  
+  void allocated( final long startNanos ) {
+    this.allocations.record( System.nanoTime( ) - startNanos );
+  }
+  
+  void exhausted( ) {
+    this.exhausted.incrementAndGet( );
+  }
+  
+  public int getFree( ) {
+    return this.freeCount.get( );
+  }
+  
+  public long getExhausted( ) {
+    return this.exhausted.get( );
+  }
+  
+  public long getAllocations( ) {
+    return this.allocations.getCount( );
+  }
+  
+  public long getAllocationP99Micros( ) {
+    return this.allocations.getPercentileMicros( 99.0 );
+  }
+  
+  public String getAllocationLatency( ) {
+    return this.allocations.toString( );
+  }
+}
@@ -75,6 +75,7 @@ import com.eucalyptus.cluster.Clusters;
 import com.eucalyptus.component.Partition;
 import com.eucalyptus.context.Context;
 import com.eucalyptus.context.Contexts;
+import com.eucalyptus.event.AsyncListener;
 import com.eucalyptus.event.AbstractNamedRegistry;
 import com.eucalyptus.event.ClockTick;
 import com.eucalyptus.event.Event;
@@ -129,6 +130,61 @@ public class Addresses extends AbstractNamedRegistry<Address> implements EventLi
     return systemAddressManager;
   }
   
+  @Override
+  public void register( final Address obj ) {
+    this.canHas.writeLock( ).lock( );
+    try {
+      super.register( obj );
+      AddressPool.getInstance( ).remove( obj.getName( ) );
+    } finally {
+      this.canHas.writeLock( ).unlock( );
+    }
+  }
+  
+  @Override
+  public void registerDisabled( final Address obj ) {
+    this.canHas.writeLock( ).lock( );
+    try {
+      super.registerDisabled( obj );
+      AddressPool.getInstance( ).add( this.lookupDisabled( obj.getName( ) ) );
+    } finally {
+      this.canHas.writeLock( ).unlock( );
+    }
+  }
+  
+  @Override
+  public void deregister( final String key ) {
+    this.canHas.writeLock( ).lock( );
+    try {
+      super.deregister( key );
+      AddressPool.getInstance( ).remove( key );
+    } finally {
+      this.canHas.writeLock( ).unlock( );
+    }
+  }
+  
+  @Override
+  public void disable( final String name ) {
+    this.canHas.writeLock( ).lock( );
+    try {
+      super.disable( name );
+      AddressPool.getInstance( ).add( this.lookupDisabled( name ) );
+    } finally {
+      this.canHas.writeLock( ).unlock( );
+    }
+  }
+  
+  @Override
+  public void enable( final String name ) throws NoSuchElementException {
+    this.canHas.writeLock( ).lock( );
+    try {
+      super.enable( name );
+      AddressPool.getInstance( ).remove( name );
+    } finally {
+      this.canHas.writeLock( ).unlock( );
+    }
+  }
+  
   public static Address allocateSystemAddress( final Partition partition ) throws NotEnoughResourcesException {
     return getAddressManager( ).allocateSystemAddresses( partition, 1 ).get( 0 );
   }
@@ -273,6 +329,7 @@ public class Addresses extends AbstractNamedRegistry<Address> implements EventLi
     }
   }
 
+  @AsyncListener( coalesce = true )
   public static class AddressAvailabilityEventListener implements EventListener<ClockTick> {
 
     public static void register( ) {
@@ -63,6 +63,7 @@
 package com.eucalyptus.address;
 
 import java.util.List;
+import java.util.NoSuchElementException;
 import org.apache.log4j.Logger;
 import com.eucalyptus.cloud.util.NotEnoughResourcesException;
 import com.eucalyptus.component.Partition;
@@ -70,6 +71,7 @@ import com.eucalyptus.util.Callback;
 import com.eucalyptus.util.async.AsyncRequests;
 import com.eucalyptus.vm.VmInstance;
 import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import edu.ucsb.eucalyptus.msgs.BaseMessage;
@@ -79,18 +81,26 @@ public class DynamicSystemAddressManager extends AbstractSystemAddressManager {
   
   @Override
   public List<Address> allocateSystemAddresses( final Partition partition, int count ) throws NotEnoughResourcesException {
-    if ( Addresses.getInstance( ).listDisabledValues( ).size( ) < count ) {
+    final AddressPool pool = AddressPool.getInstance( );
+    if ( pool.getFree( ) < count ) {
+      pool.exhausted( );
       throw new NotEnoughResourcesException( "Not enough resources available: addresses (try --addressing private)" );
     } else {
+      final long start = System.nanoTime( );
       final List<Address> addressList = Lists.newArrayList( );
-      for ( final Address addr : Addresses.getInstance( ).listDisabledValues( ) ) {
+      while ( count > 0 ) {
+        final Address addr;
         try {
-          if ( addressList.add( addr.pendingAssignment( ) )
-               && ( --count == 0 ) ) {
-            break;
-          }
+          addr = pool.claim( Predicates.alwaysTrue( ) );
+        } catch ( final NoSuchElementException e ) {
+          break;
+        }
+        try {
+          addressList.add( addr.pendingAssignment( ) );
+          count--;
         } catch ( final IllegalStateException e ) {
           LOG.trace( e, e );
+          pool.unclaim( addr );
         }
       }
       if ( count != 0 ) {
@@ -101,8 +111,10 @@ public class DynamicSystemAddressManager extends AbstractSystemAddressManager {
             LOG.error( e, e );
           }
         }
+        pool.exhausted( );
         throw new NotEnoughResourcesException( "Not enough resources available: addresses (try --addressing private)" );
       }
+      pool.allocated( start );
       return addressList;
     }
   }
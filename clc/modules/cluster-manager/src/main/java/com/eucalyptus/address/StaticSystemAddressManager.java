@@ -138,8 +138,8 @@ public class StaticSystemAddressManager extends AbstractSystemAddressManager {
   public void inheritReservedAddresses( List<Address> reservedAddresses ) {
     int allocCount = Addresses.getSystemReservedAddressCount( ) - reservedAddresses.size( );
     LOG.debug( "Allocating additional " + allocCount + " addresses in static public addresing mode" );
-    allocCount = Addresses.getInstance( ).listDisabledValues( ).size( ) < allocCount
-      ? Addresses.getInstance( ).listDisabledValues( ).size( )
+    allocCount = AddressPool.getInstance( ).getFree( ) < allocCount
+      ? AddressPool.getInstance( ).getFree( )
       : allocCount;
     if ( allocCount > 0 ) {
       for ( int i = 0; i < allocCount; i++ ) {
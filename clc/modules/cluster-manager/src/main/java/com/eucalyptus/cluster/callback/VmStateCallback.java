@@ -62,10 +62,13 @@
 
 package com.eucalyptus.cluster.callback;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentMap;
 import javax.persistence.EntityTransaction;
 import org.apache.log4j.Logger;
 import com.eucalyptus.bootstrap.Databases;
@@ -89,17 +92,22 @@ import com.google.common.base.Predicates;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.collect.Collections2;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import edu.ucsb.eucalyptus.cloud.VmDescribeResponseType;
 import edu.ucsb.eucalyptus.cloud.VmDescribeType;
 import edu.ucsb.eucalyptus.cloud.VmInfo;
+import edu.ucsb.eucalyptus.msgs.AttachedVolume;
 import edu.ucsb.eucalyptus.msgs.VmTypeInfo;
 
 public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescribeType, VmDescribeResponseType> {
-  private static Logger               LOG                       = Logger.getLogger( VmStateCallback.class );
-  private static final int            VM_INITIAL_REPORT_TIMEOUT = 300000;
-  private static final int            VM_STATE_SETTLE_TIME      = 20000;
-  private final Supplier<Set<String>> initialInstances;
+  private static Logger                                                            LOG                       = Logger.getLogger( VmStateCallback.class );
+  private static final int                                                         VM_INITIAL_REPORT_TIMEOUT = 300000;
+  private static final int                                                         VM_STATE_SETTLE_TIME      = 20000;
+  private static final int                                                         RECONCILE_BATCH_SIZE      = 100;
+  private static final ConcurrentMap<String, ConcurrentMap<String, ReportedState>> reportedStates            = Maps.newConcurrentMap( );
+  private final Supplier<Set<String>>                                              initialInstances;
   
   public VmStateCallback( ) {
     super( new VmDescribeType( ) {
@@ -107,7 +115,53 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
         regarding( );
       }
     } );
-    this.initialInstances = createInstanceSupplier( this, partitionFilter( this ) );
+    this.initialInstances = Suppliers.memoize( new Supplier<Set<String>>( ) {
+      
+      @Override
+      public Set<String> get( ) {
+        return VmInstances.listInstanceIds( VmStateCallback.this.getSubject( ).getConfiguration( ).getPartition( ) );
+      }
+    } );
+  }
+  
+  /**
+   * The last state reported for an instance which was successfully applied. A report which matches
+   * the last one does not need to be applied again until the state is stale.
+   */
+  private static class ReportedState {
+    private final List<Object> reported;
+    private final long         appliedMillis;
+    
+    ReportedState( final VmInfo vmInfo, final long appliedMillis ) {
+      this.reported = fingerprint( vmInfo );
+      this.appliedMillis = appliedMillis;
+    }
+    
+    boolean isCurrent( final VmInfo vmInfo, final long now ) {
+      return ( now - this.appliedMillis ) < VmInstances.VOLATILE_STATE_TIMEOUT_SEC * 1000l && this.reported.equals( fingerprint( vmInfo ) );
+    }
+    
+    private static List<Object> fingerprint( final VmInfo vmInfo ) {
+      final StringBuilder volumes = new StringBuilder( );
+      for ( final AttachedVolume volume : vmInfo.getVolumes( ) ) {
+        volumes.append( volume.getVolumeId( ) ).append( ':' ).append( volume.getDevice( ) ).append( ':' ).append( volume.getStatus( ) ).append( ' ' );
+      }
+      return Arrays.<Object> asList( vmInfo.getStateName( ), vmInfo.getBundleTaskStateName( ), vmInfo.getCreateImageStateName( ), vmInfo.getServiceTag( ),
+                                     vmInfo.getNetParams( ).getIpAddress( ), vmInfo.getNetParams( ).getIgnoredPublicIp( ), vmInfo.getNetworkBytes( ),
+                                     vmInfo.getBlockBytes( ), volumes.toString( ) );
+    }
+  }
+  
+  private static ConcurrentMap<String, ReportedState> reportedStates( final String clusterName ) {
+    ConcurrentMap<String, ReportedState> states = reportedStates.get( clusterName );
+    if ( states == null ) {
+      final ConcurrentMap<String, ReportedState> created = Maps.newConcurrentMap( );
+      states = reportedStates.putIfAbsent( clusterName, created );
+      if ( states == null ) {
+        states = created;
+      }
+    }
+    return states;
   }
   
   private static Supplier<Set<String>> createInstanceSupplier( final StateUpdateMessageCallback<Cluster, ?, ?> cb, final Predicate<VmInstance> filter ) {
@@ -140,37 +194,73 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
     LOG.debug( "Request to " + this.getSubject( ).getName( ) + " failed: " + t.getMessage( ) );
   }
   
+  /**
+   * Reconcile the reported instances with the local state. Only instances whose report differs from
+   * the last one applied (or whose last update is stale) are looked up, and changes are applied in
+   * batched transactions.
+   */
   @Override
   public void fire( VmDescribeResponseType reply ) {
     if ( Databases.isVolatile( ) ) {
       return;
     } else {
-      reply.setOriginCluster( this.getSubject( ).getConfiguration( ).getName( ) );
+      final String clusterName = this.getSubject( ).getConfiguration( ).getName( );
+      reply.setOriginCluster( clusterName );
+      final ConcurrentMap<String, ReportedState> lastReported = reportedStates( clusterName );
+      final long now = System.currentTimeMillis( );
       final Set<String> reportedInstances = Sets.newHashSet( );
+      final List<VmInfo> changedVms = Lists.newArrayList( );
       for ( VmInfo vmInfo : reply.getVms( ) ) {
         reportedInstances.add( vmInfo.getInstanceId( ) );
-        vmInfo.setPlacement( this.getSubject( ).getConfiguration( ).getName( ) );
+        vmInfo.setPlacement( clusterName );
         VmTypeInfo typeInfo = vmInfo.getInstanceType( );
         if ( typeInfo.getName( ) == null || "".equals( typeInfo.getName( ) ) ) {
-          for ( VmType t : VmTypes.list( ) ) {
-            if ( t.getCpu( ).equals( typeInfo.getCores( ) ) && t.getDisk( ).equals( typeInfo.getDisk( ) ) && t.getMemory( ).equals( typeInfo.getMemory( ) ) ) {
-              typeInfo.setName( t.getName( ) );
-            }
+          final VmType t = VmTypes.lookup( typeInfo.getCores( ), typeInfo.getMemory( ), typeInfo.getDisk( ) );
+          if ( t != null ) {
+            typeInfo.setName( t.getName( ) );
           }
         }
+        final ReportedState last = lastReported.get( vmInfo.getInstanceId( ) );
+        if ( last == null || !last.isCurrent( vmInfo, now ) ) {
+          changedVms.add( vmInfo );
+        }
       }
+      lastReported.keySet( ).retainAll( reportedInstances );
       
       final Set<String> unreportedInstances = Sets.newHashSet( Sets.difference( this.initialInstances.get( ), reportedInstances ) );
       final Set<String> restoreInstances = Sets.newHashSet( Sets.difference( reportedInstances, this.initialInstances.get( ) ) );
-      for ( final VmInfo runVm : reply.getVms( ) ) {
+      final List<VmInfo> reportedVms = Lists.newArrayList( );
+      for ( final VmInfo runVm : changedVms ) {
         if ( Databases.isVolatile( ) ) {
           return;
         } else if ( this.initialInstances.get( ).contains( runVm.getInstanceId( ) ) ) {
-          VmStateCallback.handleReportedState( runVm );
+          reportedVms.add( runVm );
         } else if ( restoreInstances.contains( runVm.getInstanceId( ) ) ) {
           VmStateCallback.handleRestore( runVm );
         }
       }
+      for ( final List<VmInfo> batch : Lists.partition( reportedVms, RECONCILE_BATCH_SIZE ) ) {
+        final List<VmInfo> applied = Lists.newArrayList( );
+        final List<VmInfo> deferred = Lists.newArrayList( );
+        if ( Databases.isVolatile( ) ) {
+          return;
+        } else if ( VmStateCallback.handleReportedStates( batch, applied, deferred ) ) {
+          final long appliedMillis = System.currentTimeMillis( );
+          for ( final VmInfo runVm : applied ) {
+            lastReported.put( runVm.getInstanceId( ), new ReportedState( runVm, appliedMillis ) );
+          }
+        } else {
+          deferred.clear( );
+          deferred.addAll( batch );
+        }
+        for ( final VmInfo runVm : deferred ) {
+          if ( Databases.isVolatile( ) ) {
+            return;
+          } else if ( VmStateCallback.handleReportedState( runVm ) ) {
+            lastReported.put( runVm.getInstanceId( ), new ReportedState( runVm, System.currentTimeMillis( ) ) );
+          }
+        }
+      }
       for ( final String vmId : unreportedInstances ) {
         if ( Databases.isVolatile( ) ) {
           return;
@@ -181,63 +271,109 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
     }
   }
   
+  /**
+   * Apply a batch of reported states in a single transaction.
+   * 
+   * Only updates of running instances whose reported state matches their current state are applied
+   * in the batch; these only refresh runtime details and are safe to apply again should the batch
+   * fail. Reports which may transition the instance (expiry, teardown, state changes) have side
+   * effects outside of the transaction and are returned as deferred, to be applied one at a time.
+   * 
+   * @param applied the reports which were applied, valid if the batch succeeded
+   * @param deferred the reports to apply individually, valid if the batch succeeded
+   * @return false if the batch failed and was rolled back
+   */
+  private static boolean handleReportedStates( final List<VmInfo> runVms, final List<VmInfo> applied, final List<VmInfo> deferred ) {
+    final EntityTransaction db = Entities.get( VmInstance.class );
+    try {
+      for ( final VmInfo runVm : runVms ) {
+        try {
+          final VmInstance vm = VmInstances.lookup( runVm.getInstanceId( ) );
+          if ( VmStateCallback.isRuntimeUpdate( vm, runVm ) ) {
+            vm.doUpdate( ).apply( runVm );
+            applied.add( runVm );
+          } else {
+            deferred.add( runVm );
+          }
+        } catch ( TerminatedInstanceException ex ) {
+          LOG.trace( "Ignore state update to terminated instance: " + runVm.getInstanceId( ) );
+        } catch ( NoSuchElementException ex ) {
+        }
+      }
+      Entities.commit( db );
+      return true;
+    } catch ( final Exception ex ) {
+      Logs.extreme( ).error( ex, ex );
+      db.rollback( );
+      return false;
+    }
+  }
+  
+  /**
+   * @return true if applying the report only refreshes the runtime details of a running instance
+   */
+  private static boolean isRuntimeUpdate( final VmInstance vm, final VmInfo runVm ) {
+    final VmState runVmState = VmState.Mapper.get( runVm.getStateName( ) );
+    return VmStateSet.RUN.apply( vm ) && runVmState != null && runVmState.equals( vm.getState( ) )
+           && !VmInstances.Timeout.EXPIRED.apply( vm );
+  }
+  
   private static void handleUnreported( final String vmId ) {
     EntityTransaction db1 = Entities.get( VmInstance.class );
     try {
-      VmInstance vm = VmInstances.cachedLookup( vmId );
-      if ( VmState.PENDING.apply( vm ) && vm.lastUpdateMillis( ) < VM_INITIAL_REPORT_TIMEOUT ) {
-        //do nothing during first VM_INITIAL_REPORT_TIMEOUT millis of instance life
-        db1.rollback( );
-        return;
-      } else if ( vm.isBlockStorage( ) && VmInstances.Timeout.UNREPORTED.apply( vm ) ) {
-        VmInstances.stopped( vm );
-      } else if ( VmState.STOPPING.apply( vm ) ) {
-        VmInstances.stopped( vm );
-      } else if ( VmState.SHUTTING_DOWN.apply( vm ) ) {
-        VmInstances.terminated( vm );
-      } else if ( VmInstances.Timeout.TERMINATED.apply( vm ) ) {
-        VmInstances.delete( vm );
-      } else if ( VmInstances.Timeout.SHUTTING_DOWN.apply( vm ) ) {
-        VmInstances.terminated( vm );
-      } else if ( VmInstances.Timeout.STOPPING.apply( vm ) ) {
-        VmInstances.stopped( vm );
-      } else if ( VmInstances.Timeout.UNREPORTED.apply( vm ) ) {
-        VmInstances.terminated( vm );
+      if ( VmStateCallback.applyUnreported( vmId ) ) {
+        Entities.commit( db1 );
       } else {
         db1.rollback( );
-        return;
       }
-      Entities.commit( db1 );
     } catch ( final Exception ex ) {
       Logs.extreme( ).error( ex, ex );
       db1.rollback( );
     }
   }
   
-  private static void handleReportedState( final VmInfo runVm ) {
-    final VmState runVmState = VmState.Mapper.get( runVm.getStateName( ) );
+  /**
+   * @return true if the instance state was changed
+   */
+  private static boolean applyUnreported( final String vmId ) throws TransactionException {
+    VmInstance vm = VmInstances.cachedLookup( vmId );
+    if ( VmState.PENDING.apply( vm ) && vm.lastUpdateMillis( ) < VM_INITIAL_REPORT_TIMEOUT ) {
+      //do nothing during first VM_INITIAL_REPORT_TIMEOUT millis of instance life
+      return false;
+    } else if ( vm.isBlockStorage( ) && VmInstances.Timeout.UNREPORTED.apply( vm ) ) {
+      VmInstances.stopped( vm );
+    } else if ( VmState.STOPPING.apply( vm ) ) {
+      VmInstances.stopped( vm );
+    } else if ( VmState.SHUTTING_DOWN.apply( vm ) ) {
+      VmInstances.terminated( vm );
+    } else if ( VmInstances.Timeout.TERMINATED.apply( vm ) ) {
+      VmInstances.delete( vm );
+    } else if ( VmInstances.Timeout.SHUTTING_DOWN.apply( vm ) ) {
+      VmInstances.terminated( vm );
+    } else if ( VmInstances.Timeout.STOPPING.apply( vm ) ) {
+      VmInstances.stopped( vm );
+    } else if ( VmInstances.Timeout.UNREPORTED.apply( vm ) ) {
+      VmInstances.terminated( vm );
+    } else {
+      return false;
+    }
+    return true;
+  }
+  
+  /**
+   * @return true if the reported state was applied
+   */
+  private static boolean handleReportedState( final VmInfo runVm ) {
     try {
       EntityTransaction db = Entities.get( VmInstance.class );
       try {
-        VmInstance vm = VmInstances.lookup( runVm.getInstanceId( ) );
-        if ( VmInstances.Timeout.EXPIRED.apply( vm ) ) {
-          if ( vm.isBlockStorage( ) ) {
-            VmInstances.stopped( vm );
-          } else {
-            VmInstances.shutDown( vm );
-          }
-        } else if ( VmState.SHUTTING_DOWN.equals( runVmState ) ) {
-          VmStateCallback.handleReportedTeardown( vm, runVm );
-        } else if ( VmStateSet.RUN.apply( vm ) ) {
-          vm.doUpdate( ).apply( runVm );
-        } else if ( !VmStateSet.RUN.apply( vm ) && VmStateSet.RUN.contains( runVmState )
-                    && vm.lastUpdateMillis( ) > ( VmInstances.VOLATILE_STATE_TIMEOUT_SEC * 1000l ) ) {
-          vm.doUpdate( ).apply( runVm );
+        if ( VmStateCallback.applyReportedState( runVm ) ) {
+          Entities.commit( db );
+          return true;
         } else {
           db.rollback( );
-          return;
+          return false;
         }
-        Entities.commit( db );
       } catch ( Exception ex ) {
         LOG.error( ex );
         Logs.extreme( ).error( ex, ex );
@@ -246,12 +382,40 @@ public class VmStateCallback extends StateUpdateMessageCallback<Cluster, VmDescr
       }
     } catch ( TerminatedInstanceException ex1 ) {
       LOG.trace( "Ignore state update to terminated instance: " + runVm.getInstanceId( ) );
+      return false;
     } catch ( NoSuchElementException ex1 ) {
 //      VmStateCallback.handleRestore( runVm );
+      return false;
     } catch ( Exception ex1 ) {
       LOG.error( ex1 );
       Logs.extreme( ).error( ex1, ex1 );
+      return false;
+    }
+  }
+  
+  /**
+   * @return true if the instance state was changed
+   */
+  private static boolean applyReportedState( final VmInfo runVm ) throws TransactionException {
+    final VmState runVmState = VmState.Mapper.get( runVm.getStateName( ) );
+    VmInstance vm = VmInstances.lookup( runVm.getInstanceId( ) );
+    if ( VmInstances.Timeout.EXPIRED.apply( vm ) ) {
+      if ( vm.isBlockStorage( ) ) {
+        VmInstances.stopped( vm );
+      } else {
+        VmInstances.shutDown( vm );
+      }
+    } else if ( VmState.SHUTTING_DOWN.equals( runVmState ) ) {
+      VmStateCallback.handleReportedTeardown( vm, runVm );
+    } else if ( VmStateSet.RUN.apply( vm ) ) {
+      vm.doUpdate( ).apply( runVm );
+    } else if ( !VmStateSet.RUN.apply( vm ) && VmStateSet.RUN.contains( runVmState )
+                && vm.lastUpdateMillis( ) > ( VmInstances.VOLATILE_STATE_TIMEOUT_SEC * 1000l ) ) {
+      vm.doUpdate( ).apply( runVm );
+    } else {
+      return false;
     }
+    return true;
   }
   
   private static void handleRestore( final VmInfo runVm ) {
@@ -75,6 +75,7 @@ import javax.persistence.JoinColumn;
 import javax.persistence.OneToMany;
 import javax.persistence.OneToOne;
 import javax.persistence.PersistenceContext;
+import javax.persistence.PostRemove;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 import org.apache.log4j.Logger;
@@ -96,7 +97,6 @@ import com.eucalyptus.entities.TransactionExecutionException;
 import com.eucalyptus.entities.TransientEntityException;
 import com.eucalyptus.records.Logs;
 import com.eucalyptus.util.FullName;
-import com.eucalyptus.util.Numbers;
 
 @Entity
 @javax.persistence.Entity
@@ -172,6 +172,11 @@ public class ExtantNetwork extends UserMetadata<Reference.State> {
     return this.tag;
   }
   
+  @PostRemove
+  private void releaseTag( ) {
+    PrivateNetworkIndices.released( this.tag );
+  }
+  
   protected void setTag( final Integer tag ) {
     this.tag = tag;
   }
@@ -206,22 +211,9 @@ public class ExtantNetwork extends UserMetadata<Reference.State> {
     } else {
       EntityTransaction db = Entities.get( PrivateNetworkIndex.class );
       try {
-        for ( final Long i : Numbers.shuffled( NetworkGroups.networkIndexInterval( ) ) ) {
-          try {
-            Entities.uniqueResult( PrivateNetworkIndex.named( this, i ) );
-            continue;
-          } catch ( final Exception ex ) {
-            try {
-              PrivateNetworkIndex netIdx = Entities.persist( PrivateNetworkIndex.create( this, i ) );
-              PrivateNetworkIndex ref = netIdx.allocate( );
-              db.commit( );
-              return ref;
-            } catch ( final Exception ex1 ) {
-              continue;
-            }
-          }
-        }
-        throw new NoSuchElementException( );
+        final PrivateNetworkIndex ref = PrivateNetworkIndices.allocate( this );
+        db.commit( );
+        return ref;
       } catch ( Exception ex ) {
         Logs.exhaust( ).error( ex, ex );
         db.rollback( );
@@ -0,0 +1,144 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.network;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free bitmap of the values in an interval [min, max) which are in use.
+ * 
+ * A set bit is only a hint that a value is in use; callers confirm the value is free against the
+ * database before persisting it.
+ */
+class IndexBitmap {
+  private static final Random   random = new Random( );
+  private final long            min;
+  private final long            max;
+  private final int             size;
+  private final AtomicLongArray words;
+  
+  IndexBitmap( final long min, final long max ) {
+    this.min = min;
+    this.max = max;
+    this.size = ( int ) Math.max( 0l, max - min );
+    this.words = new AtomicLongArray( ( this.size + 63 ) / 64 );
+  }
+  
+  boolean covers( final long min, final long max ) {
+    return this.min == min && this.max == max;
+  }
+  
+  /**
+   * Claim a free value.
+   * 
+   * @param randomize start looking at a random value rather than the lowest
+   * @return the value, or -1 if all values are in use
+   */
+  long claim( final boolean randomize ) {
+    if ( this.size == 0 ) {
+      return -1l;
+    }
+    final int start = randomize
+      ? random.nextInt( this.size )
+      : 0;
+    for ( int n = 0; n < this.size; ) {
+      final int bit = ( start + n ) % this.size;
+      final int word = bit >>> 6;
+      final long mask = 1l << ( bit & 63 );
+      final long current = this.words.get( word );
+      if ( current == -1l ) {
+        n += 64 - ( bit & 63 );
+      } else if ( ( current & mask ) != 0 ) {
+        n++;
+      } else if ( this.words.compareAndSet( word, current, current | mask ) ) {
+        return this.min + bit;
+      }
+    }
+    return -1l;
+  }
+  
+  /**
+   * Mark a value as in use, values outside of the interval are ignored.
+   */
+  void mark( final long value ) {
+    if ( value >= this.min && value < this.max ) {
+      final int bit = ( int ) ( value - this.min );
+      final long mask = 1l << ( bit & 63 );
+      long current;
+      while ( ( ( current = this.words.get( bit >>> 6 ) ) & mask ) == 0 && !this.words.compareAndSet( bit >>> 6, current, current | mask ) );
+    }
+  }
+  
+  /**
+   * Mark a value as free, values outside of the interval are ignored.
+   */
+  void release( final long value ) {
+    if ( value >= this.min && value < this.max ) {
+      final int bit = ( int ) ( value - this.min );
+      final long mask = 1l << ( bit & 63 );
+      long current;
+      while ( ( ( current = this.words.get( bit >>> 6 ) ) & mask ) != 0 && !this.words.compareAndSet( bit >>> 6, current, current & ~mask ) );
+    }
+  }
+}
@@ -66,6 +66,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.notNullValue;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
@@ -97,7 +98,6 @@ import com.eucalyptus.component.id.Eucalyptus;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.entities.TransientEntityException;
 import com.eucalyptus.util.FullName;
-import com.eucalyptus.util.Numbers;
 import com.eucalyptus.util.OwnerFullName;
 import com.google.common.base.Function;
 import com.google.common.collect.Collections2;
@@ -282,18 +282,12 @@ public class NetworkGroup extends UserMetadata<NetworkGroup.State> implements Ne
     } else {
       ExtantNetwork exNet = this.getExtantNetwork( );
       if ( exNet == null ) {
-        for ( Integer i : Numbers.shuffled( NetworkGroups.networkTagInterval( ) ) ) {
-          try {
-            Entities.uniqueResult( ExtantNetwork.named( i ) );
-            continue;
-          } catch ( Exception ex ) {
-            exNet = ExtantNetwork.create( this, i );
-            Entities.persist( exNet );
-            this.setExtantNetwork( exNet );
-            return this.getExtantNetwork( );
-          }
+        try {
+          this.setExtantNetwork( PrivateNetworkIndices.allocate( this ) );
+          return this.getExtantNetwork( );
+        } catch ( final NoSuchElementException ex ) {
+          throw new NotEnoughResourcesException( "Failed to allocate network tag for network: " + this.getFullName( ) + ": no network tags are free.", ex );
         }
-        throw new NotEnoughResourcesException( "Failed to allocate network tag for network: " + this.getFullName( ) + ": no network tags are free." );
       } else {
         return this.getExtantNetwork( );
       }
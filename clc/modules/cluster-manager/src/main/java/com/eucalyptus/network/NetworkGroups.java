@@ -125,6 +125,8 @@ public class NetworkGroups {
   public static Integer       GLOBAL_MIN_NETWORK_TAG        = 1;
   @ConfigurableField( description = "Minutes before a pending index allocation timesout and is released." )
   public static Integer       NETWORK_INDEX_PENDING_TIMEOUT = 5;
+  @ConfigurableField( description = "Allocate network tags and indices at random rather than lowest first." )
+  public static Boolean       RANDOMIZE_ALLOCATION          = Boolean.TRUE;
   
   public static class NetworkRangeConfiguration {
     private Boolean useNetworkTags  = Boolean.TRUE;
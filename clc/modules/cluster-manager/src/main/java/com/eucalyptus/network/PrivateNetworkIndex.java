@@ -68,6 +68,7 @@ import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToOne;
 import javax.persistence.PersistenceContext;
+import javax.persistence.PostRemove;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 import org.hibernate.annotations.Cache;
@@ -166,6 +167,15 @@ public class PrivateNetworkIndex extends PersistentReference<PrivateNetworkIndex
     return this.bogusId;
   }
   
+  @PostRemove
+  private void releaseIndex( ) {
+    if ( this.bogusId != null && this.bogusId.indexOf( ':' ) > 0 ) {
+      try {
+        PrivateNetworkIndices.released( Integer.valueOf( this.bogusId.substring( 0, this.bogusId.indexOf( ':' ) ) ), this.index );
+      } catch ( final NumberFormatException ex ) {}
+    }
+  }
+  
   @Override
   protected void setReference( VmInstance referer ) {
     this.setInstance( referer );
@@ -62,9 +62,160 @@
 
 package com.eucalyptus.network;
 
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.persistence.EntityTransaction;
+import org.apache.log4j.Logger;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import com.eucalyptus.entities.Entities;
+import com.eucalyptus.network.NetworkGroups.NetworkRangeConfiguration;
+import com.eucalyptus.records.Logs;
+import com.google.common.collect.Maps;
 
+/**
+ * In-memory view of the allocated network tags and private network indices.
+ * 
+ * The bitmaps are loaded from the database the first time a tag (or the indices of a tag) is
+ * allocated and are kept up to date as values are allocated and removed. A clear bit is only a
+ * hint: the value is confirmed to be free in the database before it is persisted, and the bitmap
+ * is reloaded once when it appears to be exhausted.
+ */
 public class PrivateNetworkIndices {
-
+  private static Logger                                    LOG     = Logger.getLogger( PrivateNetworkIndices.class );
+  private static final AtomicReference<IndexBitmap>        tags    = new AtomicReference<IndexBitmap>( );
+  private static final ConcurrentMap<Integer, IndexBitmap> indices = Maps.newConcurrentMap( );
+  
   public static void trim( Integer addrIndexMax, Integer addrIndexMax2 ) {}
-
+  
+  /**
+   * Allocate a network tag and persist the {@link ExtantNetwork} for it. The caller must hold a
+   * transaction for {@link ExtantNetwork}.
+   * 
+   * @throws NoSuchElementException if no network tags are free
+   */
+  static ExtantNetwork allocate( final NetworkGroup networkGroup ) throws NoSuchElementException {
+    final NetworkRangeConfiguration config = NetworkGroups.networkingConfiguration( );
+    final long min = config.getMinNetworkTag( );
+    final long max = config.getMaxNetworkTag( );
+    for ( boolean reloaded = false;; reloaded = true ) {
+      IndexBitmap bitmap = tags.get( );
+      if ( reloaded || bitmap == null || !bitmap.covers( min, max ) ) {
+        bitmap = loadTags( min, max );
+        tags.set( bitmap );
+      }
+      for ( long tag; ( tag = bitmap.claim( NetworkGroups.RANDOMIZE_ALLOCATION ) ) >= 0; ) {
+        if ( Entities.query( ExtantNetwork.named( ( int ) tag ) ).isEmpty( ) ) {
+          try {
+            return Entities.persist( ExtantNetwork.create( networkGroup, ( int ) tag ) );
+          } catch ( final Exception ex ) {
+            Logs.extreme( ).error( ex, ex );
+            bitmap.release( tag );
+          }
+        }
+      }
+      if ( reloaded ) {
+        throw new NoSuchElementException( );
+      }
+    }
+  }
+  
+  /**
+   * Allocate a private network index in the given network and persist it. The caller must hold a
+   * transaction for {@link PrivateNetworkIndex}.
+   * 
+   * @throws NoSuchElementException if no indices are free in the network
+   */
+  static PrivateNetworkIndex allocate( final ExtantNetwork exNet ) throws NoSuchElementException {
+    final NetworkRangeConfiguration config = NetworkGroups.networkingConfiguration( );
+    final long min = config.getMinNetworkIndex( );
+    final long max = config.getMaxNetworkIndex( );
+    final Integer tag = exNet.getTag( );
+    for ( boolean reloaded = false;; reloaded = true ) {
+      IndexBitmap bitmap = indices.get( tag );
+      if ( reloaded || bitmap == null || !bitmap.covers( min, max ) ) {
+        bitmap = loadIndices( tag, min, max );
+        indices.put( tag, bitmap );
+      }
+      for ( long index; ( index = bitmap.claim( NetworkGroups.RANDOMIZE_ALLOCATION ) ) >= 0; ) {
+        if ( Entities.query( PrivateNetworkIndex.named( exNet, index ) ).isEmpty( ) ) {
+          try {
+            return Entities.persist( PrivateNetworkIndex.create( exNet, index ) ).allocate( );
+          } catch ( final Exception ex ) {
+            Logs.extreme( ).error( ex, ex );
+            bitmap.release( index );
+          }
+        }
+      }
+      if ( reloaded ) {
+        throw new NoSuchElementException( );
+      }
+    }
+  }
+  
+  /**
+   * Note that the network with the given tag has been removed.
+   */
+  static void released( final Integer tag ) {
+    indices.remove( tag );
+    final IndexBitmap bitmap = tags.get( );
+    if ( bitmap != null && tag != null ) {
+      bitmap.release( tag );
+    }
+  }
+  
+  /**
+   * Note that the private network index with the given tag and index has been removed.
+   */
+  static void released( final Integer tag, final Long index ) {
+    final IndexBitmap bitmap = tag == null
+      ? null
+      : indices.get( tag );
+    if ( bitmap != null && index != null ) {
+      bitmap.release( index );
+    }
+  }
+  
+  private static IndexBitmap loadTags( final long min, final long max ) {
+    final IndexBitmap bitmap = new IndexBitmap( min, max );
+    final EntityTransaction db = Entities.get( ExtantNetwork.class );
+    try {
+      final List<?> allocated = Entities.createCriteria( ExtantNetwork.class )
+                                        .add( Restrictions.ge( "tag", ( int ) min ) )
+                                        .add( Restrictions.lt( "tag", ( int ) max ) )
+                                        .setProjection( Projections.property( "tag" ) )
+                                        .list( );
+      for ( final Object tag : allocated ) {
+        bitmap.mark( ( ( Number ) tag ).longValue( ) );
+      }
+      db.commit( );
+      LOG.debug( "Loaded " + allocated.size( ) + " allocated network tags in [" + min + "," + max + ")" );
+    } catch ( final Exception ex ) {
+      Logs.extreme( ).error( ex, ex );
+      db.rollback( );
+    }
+    return bitmap;
+  }
+  
+  private static IndexBitmap loadIndices( final Integer tag, final long min, final long max ) {
+    final IndexBitmap bitmap = new IndexBitmap( min, max );
+    final EntityTransaction db = Entities.get( PrivateNetworkIndex.class );
+    try {
+      final List<?> allocated = Entities.createCriteria( PrivateNetworkIndex.class )
+                                        .add( Restrictions.like( "bogusId", tag + ":%" ) )
+                                        .setProjection( Projections.property( "index" ) )
+                                        .list( );
+      for ( final Object index : allocated ) {
+        bitmap.mark( ( ( Number ) index ).longValue( ) );
+      }
+      db.commit( );
+      LOG.debug( "Loaded " + allocated.size( ) + " allocated private network indices for network tag " + tag );
+    } catch ( final Exception ex ) {
+      Logs.extreme( ).error( ex, ex );
+      db.rollback( );
+    }
+    return bitmap;
+  }
 }
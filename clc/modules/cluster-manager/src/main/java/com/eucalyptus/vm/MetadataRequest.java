@@ -96,7 +96,16 @@ public class MetadataRequest {
         this.localPath = "";
       }
       VmInstance findVm = null;
-      if ( !Databases.isVolatile( ) ) {
+      VmInstanceDirectory.Entry entry = VmInstanceDirectory.lookupByIp( requestIp );
+      if ( entry != null && !Databases.isVolatile( ) ) {
+        findVm = VmInstances.lookupIndexed( entry );
+        if ( findVm == null || !( requestIp.equals( findVm.getPublicAddress( ) ) || requestIp.equals( findVm.getPrivateAddress( ) ) ) ) {
+          VmInstanceDirectory.stale( entry.getInstanceId( ) );
+          findVm = null;
+        }
+      }
+      //the directory may lag a new instance, so a miss here always goes to the database
+      if ( findVm == null && !Databases.isVolatile( ) ) {
         try {
           findVm = VmInstances.lookupByPublicIp( requestIp );
         } catch ( Exception ex2 ) {
@@ -64,39 +64,21 @@ package com.eucalyptus.vm;
 
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
-import javax.persistence.EntityTransaction;
 import org.apache.log4j.Logger;
-import com.eucalyptus.auth.Accounts;
-import com.eucalyptus.auth.principal.Account;
-import com.eucalyptus.auth.principal.AccountFullName;
 import com.eucalyptus.bootstrap.Databases;
-import com.eucalyptus.entities.Entities;
-import com.eucalyptus.network.NetworkGroup;
-import com.eucalyptus.network.NetworkGroups;
-import com.eucalyptus.network.NetworkPeer;
-import com.eucalyptus.network.NetworkRule;
 import com.eucalyptus.util.ByteArray;
-import com.eucalyptus.vm.VmInstance.VmState;
 import com.google.common.base.Function;
-import com.google.common.base.Predicate;
-import com.google.common.base.Predicates;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Multimap;
 
 public class NetworkGroupsMetadata implements Function<MetadataRequest, ByteArray> {
   private static Logger                  LOG              = Logger.getLogger( NetworkGroupsMetadata.class );
-  private static Lock                    lock             = new ReentrantLock( );
-  private static Long                    lastTime         = 0l;
   private static AtomicReference<String> topoString       = new AtomicReference<String>( "" );
   private static final Supplier<String>  topoSupplier     = new Supplier<String>( ) {
                                                             
                                                             @Override
                                                             public String get( ) {
-                                                              String ret = generateTopology( );
+                                                              String ret = NetworkTopology.getInstance( ).refresh( );
                                                               topoString.set( ret );
                                                               return ret;
                                                             }
@@ -111,94 +93,17 @@ public class NetworkGroupsMetadata implements Function<MetadataRequest, ByteArra
     }
   }
   
-  private static String generateTopology( ) {
-    StringBuilder buf = new StringBuilder( );
-    Multimap<String, String> networks = ArrayListMultimap.create( );
-    Multimap<String, String> rules = ArrayListMultimap.create( );
-    EntityTransaction db = Entities.get( VmInstance.class );
-    try {
-      Predicate<VmInstance> filter = Predicates.and( VmState.TERMINATED.not( ), VmState.STOPPED.not( ) );
-      for ( VmInstance vm : VmInstances.list( filter ) ) {
-        try {
-          for ( NetworkGroup ruleGroup : vm.getNetworkGroups( ) ) {
-            try {
-              ruleGroup = Entities.merge( ruleGroup );
-              networks.put( ruleGroup.getClusterNetworkName( ), vm.getPrivateAddress( ) );
-              if ( !rules.containsKey( ruleGroup.getNaturalId( ) ) ) {
-                for ( NetworkRule netRule : ruleGroup.getNetworkRules( ) ) {
-                  try {
-                    String rule = String.format(
-                      "-P %s -%s %d%s%d ",
-                      netRule.getProtocol( ),
-                      ( NetworkRule.Protocol.icmp.equals( netRule.getProtocol( ) )
-                                                                                  ? "t"
-                                                                                  : "p" ),
-                      netRule.getLowPort( ),
-                      ( NetworkRule.Protocol.icmp.equals( netRule.getProtocol( ) )
-                                                                                  ? ":"
-                                                                                  : "-" ),
-                      netRule.getHighPort( ) );
-                    for ( NetworkPeer peer : netRule.getNetworkPeers( ) ) {
-                      Account groupAccount = Accounts.lookupAccountById( peer.getUserQueryKey( ) ); 
-                      String groupId = NetworkGroups.lookup( AccountFullName.getInstance( groupAccount ), peer.getGroupName( ) ).getNaturalId( );
-                      String ruleString = String.format( "%s -o %s -u %s", rule, groupId, groupAccount.getAccountNumber( ) ); 
-                      if ( !rules.get( ruleGroup.getClusterNetworkName( ) ).contains( ruleString ) ) {
-                        rules.put( ruleGroup.getClusterNetworkName( ), ruleString );
-                      }
-                    }
-                    for ( String cidr : netRule.getIpRanges( ) ) {
-                      String ruleString = String.format( "%s -s %s", rule, cidr );
-                      if ( !rules.get( ruleGroup.getClusterNetworkName( ) ).contains( ruleString ) ) {
-                        rules.put( ruleGroup.getClusterNetworkName( ), ruleString );
-                      }
-                    }
-                  } catch ( Exception ex ) {
-                    LOG.error( ex, ex );
-                  }
-                }
-              }
-            } catch ( Exception ex ) {
-              LOG.error( ex, ex );
-            }
-          }
-        } catch ( Exception ex ) {
-          LOG.error( ex, ex );
-        }
-      }
-      buf.append( rulesToString( rules ) );
-      buf.append( groupsToString( networks ) );
-      db.rollback( );
-    } catch ( Exception ex ) {
-      LOG.error( ex, ex );
-      db.rollback( );
-    }
-    return buf.toString( );
-  }
-  
-  private static String groupsToString( Multimap<String, String> networks ) {
-    StringBuilder buf = new StringBuilder( );
-    for ( String networkName : networks.keySet( ) ) {
-      buf.append( "GROUP " ).append( networkName );
-      for ( String ip : networks.get( networkName ) ) {
-        buf.append( " " ).append( ip );
-      }
-      buf.append( "\n" );
-    }
-    return buf.toString( );
-  }
-  
-  private static String rulesToString( Multimap<String, String> rules ) {
-    StringBuilder buf = new StringBuilder( );
-    for ( String networkName : rules.keySet( ) ) {
-      for ( String rule : rules.get( networkName ) ) {
-        buf.append( "RULE " ).append( networkName ).append( " " ).append( rule ).append( "\n" );
-      }
-    }
-    return buf.toString( );
-  }
-  
+  /**
+   * The full topology, or when the path is a topology version only the networks which changed
+   * since that version. A version from another epoch (including a bare version number) is answered
+   * with the full topology (see {@link NetworkTopology#getDelta(String)}).
+   */
   @Override
   public ByteArray apply( MetadataRequest arg0 ) {
-    return ByteArray.newInstance( getNetworkTopology( ) );
+    String topology = getNetworkTopology( );
+    if ( arg0.getLocalPath( ) != null && arg0.getLocalPath( ).matches( "([0-9a-f]+-)?\\d+" ) ) {
+      return ByteArray.newInstance( NetworkTopology.getInstance( ).getDelta( arg0.getLocalPath( ) ) );
+    }
+    return ByteArray.newInstance( topology );
   }
 }
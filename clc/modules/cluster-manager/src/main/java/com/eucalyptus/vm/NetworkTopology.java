@@ -0,0 +1,407 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+
+package com.eucalyptus.vm;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.UUID;
+import javax.persistence.EntityTransaction;
+import org.apache.log4j.Logger;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import com.eucalyptus.auth.Accounts;
+import com.eucalyptus.auth.principal.Account;
+import com.eucalyptus.auth.principal.AccountFullName;
+import com.eucalyptus.entities.Entities;
+import com.eucalyptus.network.NetworkGroup;
+import com.eucalyptus.network.NetworkGroups;
+import com.eucalyptus.network.NetworkPeer;
+import com.eucalyptus.network.NetworkRule;
+import com.eucalyptus.vm.VmInstance.VmState;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Network topology (rules and member addresses of each network in use) maintained incrementally.
+ * 
+ * Each refresh loads the group membership of pending and running instances and the entity version
+ * of each network group as plain projections. Only groups whose version changed (i.e. their rules
+ * were authorized or revoked) are loaded and have their rules resolved again, along with groups
+ * referencing peer groups when a group was created or deleted. Networks whose rules or members
+ * changed are recorded against a new topology version, so clients which know the version they
+ * last saw can ask for only the networks which changed since.
+ * 
+ * Versions only have meaning within the life of this process, so they are qualified by an epoch
+ * chosen at random on start up (<tt>epoch-version</tt>). A client holding a version from before a
+ * restart or from another controller is given the full topology.
+ */
+class NetworkTopology {
+  private static Logger                 LOG         = Logger.getLogger( NetworkTopology.class );
+  private static final int              MAX_CHANGES = 256;
+  private static final NetworkTopology  INSTANCE    = new NetworkTopology( );
+  private final String                  epoch       = Long.toHexString( UUID.randomUUID( ).getMostSignificantBits( ) & Long.MAX_VALUE );
+  private final Map<String, GroupRules> groupRules  = Maps.newHashMap( );
+  private volatile Snapshot             snapshot    = new Snapshot( 0l, Maps.<String, String> newTreeMap( ), Maps.<String, String> newTreeMap( ),
+                                                                    ImmutableList.<Change> of( ) );
+  
+  NetworkTopology( ) {}
+  
+  static NetworkTopology getInstance( ) {
+    return INSTANCE;
+  }
+  
+  /**
+   * Rules of a network group as of an entity version, which is null if some rules could not be
+   * rendered so the group is resolved again on the next refresh.
+   */
+  private static class GroupRules {
+    private final Integer version;
+    private final String  networkName;
+    private final String  rules;
+    private final boolean peers;
+    
+    private GroupRules( final Integer version, final String networkName, final String rules, final boolean peers ) {
+      this.version = version;
+      this.networkName = networkName;
+      this.rules = rules;
+      this.peers = peers;
+    }
+  }
+  
+  /**
+   * Networks which changed in a topology version.
+   */
+  private static class Change {
+    private final long        version;
+    private final Set<String> networks;
+    
+    private Change( final long version, final Set<String> networks ) {
+      this.version = version;
+      this.networks = networks;
+    }
+  }
+  
+  /**
+   * An immutable topology version along with its rendered document.
+   */
+  private static class Snapshot {
+    private final long                      version;
+    private final SortedMap<String, String> rules;
+    private final SortedMap<String, String> groups;
+    private final List<Change>              changes;
+    private final String                    document;
+    
+    private Snapshot( final long version, final SortedMap<String, String> rules, final SortedMap<String, String> groups, final List<Change> changes ) {
+      this.version = version;
+      this.rules = Collections.unmodifiableSortedMap( Maps.newTreeMap( rules ) );
+      this.groups = Collections.unmodifiableSortedMap( Maps.newTreeMap( groups ) );
+      this.changes = changes;
+      final StringBuilder buf = new StringBuilder( );
+      for ( final String networkRules : rules.values( ) ) {
+        buf.append( networkRules );
+      }
+      for ( final String group : groups.values( ) ) {
+        buf.append( group );
+      }
+      this.document = buf.toString( );
+    }
+  }
+  
+  /**
+   * @return the current topology document
+   */
+  String getDocument( ) {
+    return this.snapshot.document;
+  }
+  
+  /**
+   * @return the current topology version as <tt>epoch-version</tt>
+   */
+  String getVersion( ) {
+    return this.epoch + "-" + this.snapshot.version;
+  }
+  
+  /**
+   * The networks which changed after the given <tt>epoch-version</tt>. The first line is
+   * <tt>VERSION current since</tt> followed by the <tt>RULE</tt> and <tt>GROUP</tt> lines of each
+   * changed network and a <tt>REMOVE network</tt> line for each network no longer in use. When the
+   * version is from another epoch, is newer than the current one or the changes since it are no
+   * longer known <tt>since</tt> is 0 and the full topology follows.
+   */
+  String getDelta( final String sinceVersion ) {
+    final Snapshot current = this.snapshot;
+    final String currentVersion = this.epoch + "-" + current.version;
+    final long since = this.parseVersion( sinceVersion );
+    if ( since < 0 || since > current.version || current.changes.isEmpty( ) || since < current.changes.get( 0 ).version - 1 ) {
+      return "VERSION " + currentVersion + " 0\n" + current.document;
+    }
+    final SortedSet<String> changed = Sets.newTreeSet( );
+    for ( final Change change : current.changes ) {
+      if ( change.version > since ) {
+        changed.addAll( change.networks );
+      }
+    }
+    final StringBuilder buf = new StringBuilder( );
+    buf.append( "VERSION " ).append( currentVersion ).append( " " ).append( sinceVersion ).append( "\n" );
+    for ( final String network : changed ) {
+      if ( current.rules.containsKey( network ) ) {
+        buf.append( current.rules.get( network ) );
+      }
+    }
+    for ( final String network : changed ) {
+      if ( current.groups.containsKey( network ) ) {
+        buf.append( current.groups.get( network ) );
+      } else {
+        buf.append( "REMOVE " ).append( network ).append( "\n" );
+      }
+    }
+    return buf.toString( );
+  }
+  
+  /**
+   * @return the version number of <tt>epoch-version</tt> in this epoch, or -1
+   */
+  private long parseVersion( final String version ) {
+    final int dash = version == null ? -1 : version.lastIndexOf( '-' );
+    if ( dash < 0 || !this.epoch.equals( version.substring( 0, dash ) ) ) {
+      return -1;
+    }
+    try {
+      return Long.parseLong( version.substring( dash + 1 ) );
+    } catch ( final NumberFormatException ex ) {
+      return -1;
+    }
+  }
+  
+  /**
+   * Bring the topology up to date with the database.
+   * 
+   * @return the current topology document
+   */
+  synchronized String refresh( ) {
+    final Snapshot previous = this.snapshot;
+    final SortedMap<String, SortedSet<String>> members = Maps.newTreeMap( );
+    final EntityTransaction db = Entities.get( VmInstance.class );
+    try {
+      this.refreshGroups( );
+      final List<?> rows = Entities.createCriteria( VmInstance.class )
+                                   .createAlias( "networkGroups", "networkGroup" )
+                                   .add( Restrictions.not( Restrictions.in( "state", new VmState[] { VmState.TERMINATED, VmState.STOPPED } ) ) )
+                                   .setReadOnly( true )
+                                   .setCacheable( false )
+                                   .setProjection( Projections.projectionList( )
+                                                              .add( Projections.property( "networkConfig.privateAddress" ) )
+                                                              .add( Projections.property( "networkGroup.naturalId" ) ) )
+                                   .list( );
+      for ( final Object row : rows ) {
+        final Object[] columns = ( Object[] ) row;
+        final GroupRules group = this.groupRules.get( columns[1] );
+        if ( group != null ) {
+          if ( !members.containsKey( group.networkName ) ) {
+            members.put( group.networkName, Sets.<String> newTreeSet( ) );
+          }
+          if ( columns[0] != null ) {
+            members.get( group.networkName ).add( ( String ) columns[0] );
+          }
+        }
+      }
+      db.commit( );
+    } catch ( final Exception ex ) {
+      LOG.error( ex, ex );
+      db.rollback( );
+      return previous.document;
+    }
+    final SortedMap<String, String> rules = Maps.newTreeMap( );
+    final SortedMap<String, String> groups = Maps.newTreeMap( );
+    for ( final GroupRules group : this.groupRules.values( ) ) {
+      if ( members.containsKey( group.networkName ) ) {
+        rules.put( group.networkName, group.rules );
+        final StringBuilder buf = new StringBuilder( );
+        buf.append( "GROUP " ).append( group.networkName );
+        for ( final String ip : members.get( group.networkName ) ) {
+          buf.append( " " ).append( ip );
+        }
+        groups.put( group.networkName, buf.append( "\n" ).toString( ) );
+      }
+    }
+    return this.update( rules, groups );
+  }
+  
+  /**
+   * Record the networks whose rules or members differ from the current topology as a new version.
+   * 
+   * @return the current topology document
+   */
+  synchronized String update( final SortedMap<String, String> rules, final SortedMap<String, String> groups ) {
+    final Snapshot previous = this.snapshot;
+    final Set<String> changed = Sets.newHashSet( );
+    for ( final String network : Sets.union( groups.keySet( ), previous.groups.keySet( ) ) ) {
+      if ( !equal( rules.get( network ), previous.rules.get( network ) ) || !equal( groups.get( network ), previous.groups.get( network ) ) ) {
+        changed.add( network );
+      }
+    }
+    if ( !changed.isEmpty( ) ) {
+      final long version = previous.version + 1;
+      final List<Change> changes = Lists.newArrayList( previous.changes );
+      changes.add( new Change( version, Collections.unmodifiableSet( changed ) ) );
+      while ( changes.size( ) > MAX_CHANGES ) {
+        changes.remove( 0 );
+      }
+      this.snapshot = new Snapshot( version, rules, groups, ImmutableList.copyOf( changes ) );
+      LOG.debug( "Network topology version " + version + ": " + changed.size( ) + " networks changed" );
+    }
+    return this.snapshot.document;
+  }
+  
+  /**
+   * Resolve the rules of groups which changed since the last refresh.
+   */
+  @SuppressWarnings( "unchecked" )
+  private void refreshGroups( ) {
+    final Map<String, Integer> versions = Maps.newHashMap( );
+    for ( final Object row : Entities.createCriteria( NetworkGroup.class )
+                                     .setReadOnly( true )
+                                     .setCacheable( false )
+                                     .setProjection( Projections.projectionList( )
+                                                                .add( Projections.property( "naturalId" ) )
+                                                                .add( Projections.property( "version" ) ) )
+                                     .list( ) ) {
+      final Object[] columns = ( Object[] ) row;
+      versions.put( ( String ) columns[0], ( Integer ) columns[1] );
+    }
+    final boolean groupsChanged = !versions.keySet( ).equals( this.groupRules.keySet( ) );
+    this.groupRules.keySet( ).retainAll( versions.keySet( ) );
+    final Set<String> stale = Sets.newHashSet( );
+    for ( final Map.Entry<String, Integer> e : versions.entrySet( ) ) {
+      final GroupRules group = this.groupRules.get( e.getKey( ) );
+      if ( group == null || group.version == null || !group.version.equals( e.getValue( ) ) || ( groupsChanged && group.peers ) ) {
+        stale.add( e.getKey( ) );
+      }
+    }
+    if ( !stale.isEmpty( ) ) {
+      final Map<String, String> peerIds = Maps.newHashMap( );
+      for ( final NetworkGroup ruleGroup : ( List<NetworkGroup> ) Entities.createCriteria( NetworkGroup.class )
+                                                                          .add( Restrictions.in( "naturalId", stale ) )
+                                                                          .list( ) ) {
+        this.groupRules.put( ruleGroup.getNaturalId( ), render( ruleGroup, peerIds ) );
+      }
+    }
+  }
+  
+  private static boolean equal( final String a, final String b ) {
+    return a == null
+      ? b == null
+      : a.equals( b );
+  }
+  
+  private static GroupRules render( final NetworkGroup ruleGroup, final Map<String, String> peerIds ) {
+    final Set<String> rules = Sets.newLinkedHashSet( );
+    boolean peers = false;
+    boolean complete = true;
+    for ( final NetworkRule netRule : ruleGroup.getNetworkRules( ) ) {
+      try {
+        final String rule = String.format(
+          "-P %s -%s %d%s%d ",
+          netRule.getProtocol( ),
+          ( NetworkRule.Protocol.icmp.equals( netRule.getProtocol( ) )
+            ? "t"
+            : "p" ),
+          netRule.getLowPort( ),
+          ( NetworkRule.Protocol.icmp.equals( netRule.getProtocol( ) )
+            ? ":"
+            : "-" ),
+          netRule.getHighPort( ) );
+        for ( final NetworkPeer peer : netRule.getNetworkPeers( ) ) {
+          peers = true;
+          final String peerKey = peer.getUserQueryKey( ) + "/" + peer.getGroupName( );
+          if ( !peerIds.containsKey( peerKey ) ) {
+            final Account groupAccount = Accounts.lookupAccountById( peer.getUserQueryKey( ) );
+            final String groupId = NetworkGroups.lookup( AccountFullName.getInstance( groupAccount ), peer.getGroupName( ) ).getNaturalId( );
+            peerIds.put( peerKey, String.format( "-o %s -u %s", groupId, groupAccount.getAccountNumber( ) ) );
+          }
+          rules.add( String.format( "%s %s", rule, peerIds.get( peerKey ) ) );
+        }
+        for ( final String cidr : netRule.getIpRanges( ) ) {
+          rules.add( String.format( "%s -s %s", rule, cidr ) );
+        }
+      } catch ( final Exception ex ) {
+        LOG.error( ex, ex );
+        complete = false;
+      }
+    }
+    final StringBuilder buf = new StringBuilder( );
+    for ( final String rule : rules ) {
+      buf.append( "RULE " ).append( ruleGroup.getClusterNetworkName( ) ).append( " " ).append( rule ).append( "\n" );
+    }
+    return new GroupRules( complete
+      ? ruleGroup.getVersion( )
+      : null, ruleGroup.getClusterNetworkName( ), buf.toString( ), peers );
+  }
+}
@@ -68,6 +68,10 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import javax.persistence.EntityTransaction;
 import org.apache.log4j.Logger;
 import org.bouncycastle.util.encoders.Base64;
@@ -117,6 +121,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
 import com.google.common.collect.TreeMultimap;
 import edu.ucsb.eucalyptus.msgs.CreatePlacementGroupResponseType;
 import edu.ucsb.eucalyptus.msgs.CreatePlacementGroupType;
@@ -196,61 +201,102 @@ public class VmControl {
     final DescribeInstancesResponseType reply = ( DescribeInstancesResponseType ) msg.getReply( );
     Context ctx = Contexts.lookup( );
     boolean showAll = msg.getInstancesSet( ).remove( "verbose" );
-    final ArrayList<String> instancesSet = msg.getInstancesSet( );    
-    final Multimap<String, RunningInstancesItemType> instanceMap = TreeMultimap.create( );
-    final Map<String, ReservationInfoType> reservations = Maps.newHashMap( );
-    Predicate<VmInstance> filter = CloudMetadatas.filterPrivilegesById( msg.getInstancesSet( ) );
-    OwnerFullName ownerFullName = ( ctx.hasAdministrativePrivileges( ) && showAll )
+    final ArrayList<String> instancesSet = msg.getInstancesSet( );
+    final Predicate<VmInstance> filter = CloudMetadatas.filterPrivilegesById( msg.getInstancesSet( ) );
+    final OwnerFullName ownerFullName = ( ctx.hasAdministrativePrivileges( ) && showAll )
       ? null
       : ctx.getUserFullName( ).asAccountFullName( );
+    final Callable<List<ReservationInfoType>> describe = new Callable<List<ReservationInfoType>>( ) {
+      
+      @Override
+      public List<ReservationInfoType> call( ) {
+        return describeReservations( ownerFullName, instancesSet, filter );
+      }
+    };
     try {
-      for ( final VmInstance vm : VmInstances.list( ownerFullName, filter ) ) {
-        if ( !instancesSet.isEmpty( ) && !instancesSet.contains( vm.getInstanceId( ) ) ) {
-          continue;
-        }
-        EntityTransaction db = Entities.get( VmInstance.class );
+      if ( VmInstances.DESCRIBE_CACHE_MILLIS > 0 ) {
+        final String key = ctx.getUserFullName( ) + "/" + ownerFullName + "/" + Sets.newTreeSet( instancesSet );
+        reply.getReservationSet( ).addAll( describeSnapshot( key, describe ) );
+      } else {
+        reply.getReservationSet( ).addAll( describe.call( ) );
+      }
+    } catch ( final Exception e ) {
+      LOG.error( e );
+      LOG.debug( e, e );
+      throw new EucalyptusCloudException( e.getMessage( ) );
+    }
+    return reply;
+  }
+  
+  /**
+   * Describe the matching instances using a single query and transaction.
+   */
+  private static List<ReservationInfoType> describeReservations( final OwnerFullName ownerFullName, final Collection<String> instancesSet,
+                                                                 final Predicate<VmInstance> filter ) {
+    final Multimap<String, RunningInstancesItemType> instanceMap = TreeMultimap.create( );
+    final Map<String, ReservationInfoType> reservations = Maps.newHashMap( );
+    final EntityTransaction db = Entities.get( VmInstance.class );
+    try {
+      for ( final VmInstance vm : VmInstances.listForDescribe( ownerFullName, instancesSet, filter ) ) {
         try {
-          VmInstance v = Entities.merge( vm );
-          if ( instanceMap.put( v.getReservationId( ), VmInstances.transform( v ) ) && !reservations.containsKey( v.getReservationId( ) ) ) {
-            reservations.put( v.getReservationId( ), new ReservationInfoType( v.getReservationId( ), v.getOwner( ).getAccountNumber( ), v.getNetworkNames( ) ) );
+          if ( instanceMap.put( vm.getReservationId( ), VmInstances.transform( vm ) ) && !reservations.containsKey( vm.getReservationId( ) ) ) {
+            reservations.put( vm.getReservationId( ), new ReservationInfoType( vm.getReservationId( ), vm.getOwner( ).getAccountNumber( ), vm.getNetworkNames( ) ) );
           }
-          db.rollback( );
         } catch ( Exception ex ) {
           Logs.exhaust( ).error( ex, ex );
-          db.rollback( );
-          try {
-            if ( vm != null ) {
-              try {
-                RunningInstancesItemType ret = VmInstances.transform( vm );
-                if ( ret != null && vm.getReservationId( ) != null ) {
-                  if ( instanceMap.put( vm.getReservationId( ), VmInstances.transform( vm ) ) && !reservations.containsKey( vm.getReservationId( ) ) ) {
-                    reservations.put( vm.getReservationId( ),
-                                      new ReservationInfoType( vm.getReservationId( ), vm.getOwner( ).getAccountNumber( ), vm.getNetworkNames( ) ) );
-                  }
-                }
-              } catch ( Exception ex1 ) {
-                LOG.error( ex1, ex1 );
-              }
-            }
-          } catch ( Exception ex1 ) {
-            LOG.error( ex1, ex1 );
-          }
         }
       }
-      List<ReservationInfoType> replyReservations = reply.getReservationSet( );
-      for ( ReservationInfoType r : reservations.values( ) ) {
-        Collection<RunningInstancesItemType> instanceSet = instanceMap.get( r.getReservationId( ) );
-        if ( !instanceSet.isEmpty( ) ) {
-          r.getInstancesSet( ).addAll( instanceSet );
-          replyReservations.add( r );
-        }
+    } finally {
+      db.rollback( );
+    }
+    final List<ReservationInfoType> replyReservations = Lists.newArrayList( );
+    for ( ReservationInfoType r : reservations.values( ) ) {
+      Collection<RunningInstancesItemType> instanceSet = instanceMap.get( r.getReservationId( ) );
+      if ( !instanceSet.isEmpty( ) ) {
+        r.getInstancesSet( ).addAll( instanceSet );
+        replyReservations.add( r );
       }
-    } catch ( final Exception e ) {
-      LOG.error( e );
-      LOG.debug( e, e );
-      throw new EucalyptusCloudException( e.getMessage( ) );
     }
-    return reply;
+    return replyReservations;
+  }
+  
+  private static class DescribeSnapshot {
+    private final long                                  created = System.currentTimeMillis( );
+    private final FutureTask<List<ReservationInfoType>> result;
+    
+    DescribeSnapshot( final Callable<List<ReservationInfoType>> describe ) {
+      this.result = new FutureTask<List<ReservationInfoType>>( describe );
+    }
+    
+    boolean isExpired( final long now ) {
+      return now - this.created > VmInstances.DESCRIBE_CACHE_MILLIS;
+    }
+  }
+  
+  private static final ConcurrentMap<String, DescribeSnapshot> describeSnapshots = Maps.newConcurrentMap( );
+  
+  /**
+   * Reuse the result of an identical recent describe, or one which is in progress.
+   */
+  private static List<ReservationInfoType> describeSnapshot( final String key, final Callable<List<ReservationInfoType>> describe ) throws Exception {
+    final long now = System.currentTimeMillis( );
+    for ( final Map.Entry<String, DescribeSnapshot> entry : describeSnapshots.entrySet( ) ) {
+      if ( entry.getValue( ).isExpired( now ) ) {
+        describeSnapshots.remove( entry.getKey( ), entry.getValue( ) );
+      }
+    }
+    final DescribeSnapshot created = new DescribeSnapshot( describe );
+    final DescribeSnapshot existing = describeSnapshots.putIfAbsent( key, created );
+    final DescribeSnapshot snapshot = ( existing == null ? created : existing );
+    if ( existing == null ) {
+      created.result.run( );
+    }
+    try {
+      return snapshot.result.get( );
+    } catch ( final ExecutionException ex ) {
+      describeSnapshots.remove( key, snapshot );
+      throw ( ex.getCause( ) instanceof Exception ? ( Exception ) ex.getCause( ) : ex );
+    }
   }
   
   public TerminateInstancesResponseType terminateInstances( final TerminateInstancesType request ) throws EucalyptusCloudException {
@@ -80,6 +80,10 @@ import javax.persistence.JoinColumn;
 import javax.persistence.ManyToMany;
 import javax.persistence.OneToOne;
 import javax.persistence.PersistenceContext;
+import javax.persistence.PostLoad;
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
 import javax.persistence.PreRemove;
 import javax.persistence.Table;
 import org.apache.log4j.Logger;
@@ -198,6 +202,18 @@ public class VmInstance extends UserMetadata<VmState> implements VmInstanceMetad
   @Cache( usage = CacheConcurrencyStrategy.TRANSACTIONAL )
   private PrivateNetworkIndex  networkIndex;
   
+  @PostLoad
+  @PostPersist
+  @PostUpdate
+  void updateDirectory( ) {
+    VmInstanceDirectory.update( this );
+  }
+  
+  @PostRemove
+  void removeFromDirectory( ) {
+    VmInstanceDirectory.remove( this );
+  }
+  
   @PreRemove
   void cleanUp( ) {
     if ( this.networkGroups != null ) {
@@ -995,20 +1011,10 @@ public class VmInstance extends UserMetadata<VmState> implements VmInstanceMetad
   }
 
   public String getByKey( final String pathArg ) {
-    final Map<String, String> m = this.getMetadataMap( );
-    String path = ( pathArg != null )
-                                     ? pathArg
-                                     : "";
-    LOG.debug( "Servicing metadata request:" + path + " -> " + m.get( path ) );
-    if ( m.containsKey( path + "/" ) ) path += "/";
-    if ( !m.containsKey( path ) ) {
-      throw new NoSuchElementException( "No such key: " + path );
-    } else {
-      return m.get( path ).replaceAll( "\n*\\z", "" );
-    }
+    return new String( VmMetadataDocuments.lookup( this ).lookupMetaData( pathArg ) );
   }
   
-  private Map<String, String> getMetadataMap( ) {
+  Map<String, String> getMetadataMap( ) {
     final boolean dns = StackConfiguration.USE_INSTANCE_DNS && !ComponentIds.lookup( Dns.class ).runLimitedServices( );
     final Map<String, String> m = new HashMap<String, String>( );
     m.put( "ami-id", this.getImageId( ) );
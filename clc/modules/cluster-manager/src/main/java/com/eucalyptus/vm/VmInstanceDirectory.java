@@ -0,0 +1,386 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.vm;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.persistence.EntityTransaction;
+import org.apache.log4j.Logger;
+import org.hibernate.criterion.Restrictions;
+import com.eucalyptus.bootstrap.Bootstrap;
+import com.eucalyptus.bootstrap.Databases;
+import com.eucalyptus.entities.Entities;
+import com.eucalyptus.event.AsyncListener;
+import com.eucalyptus.event.ClockTick;
+import com.eucalyptus.event.EventListener;
+import com.eucalyptus.event.Listeners;
+import com.eucalyptus.util.Mbeans;
+import com.eucalyptus.vm.VmInstance.VmState;
+import com.eucalyptus.vm.VmInstance.VmStateSet;
+import com.google.common.collect.Maps;
+
+/**
+ * In memory index from public and private address to the pending or running instance which holds
+ * it, so the metadata service and instance DNS can resolve a requester without querying the
+ * database.
+ * 
+ * Entries are updated from the {@link VmInstance} persistence callbacks, i.e. whenever an instance
+ * is loaded, created, updated (state transitions, address assignment) or removed. Since a callback
+ * can fire in a transaction which is later rolled back, the index is periodically checked against
+ * the database and corrected. Until the first check has completed lookups are not authoritative
+ * and callers should fall back to the database on a miss.
+ */
+@AsyncListener( coalesce = true )
+public class VmInstanceDirectory implements EventListener<ClockTick> {
+  private static Logger                            LOG                    = Logger.getLogger( VmInstanceDirectory.class );
+  private static final long                        VERIFY_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis( 1 );
+  private static final VmInstanceDirectory         INSTANCE               = new VmInstanceDirectory( );
+  private final ConcurrentMap<String, Entry>       byInstanceId           = Maps.newConcurrentMap( );
+  private final ConcurrentMap<String, Entry>       byPublicIp             = Maps.newConcurrentMap( );
+  private final ConcurrentMap<String, Entry>       byPrivateIp            = Maps.newConcurrentMap( );
+  private final AtomicLong                         hits                   = new AtomicLong( );
+  private final AtomicLong                         misses                 = new AtomicLong( );
+  private final AtomicLong                         stale                  = new AtomicLong( );
+  private final AtomicLong                         corrections            = new AtomicLong( );
+  private volatile long                            lastVerified           = 0l;
+  
+  static {
+    Mbeans.register( INSTANCE );
+  }
+  
+  private VmInstanceDirectory( ) {
+    Listeners.register( ClockTick.class, this );
+  }
+  
+  public static VmInstanceDirectory getInstance( ) {
+    return INSTANCE;
+  }
+  
+  /**
+   * The addresses and names of an instance at the time it was last seen.
+   */
+  public static class Entry {
+    private final String  instanceId;
+    private final String  publicAddress;
+    private final String  privateAddress;
+    private final String  publicDnsName;
+    private final String  privateDnsName;
+    private final Integer version;
+    private final long    timestamp;
+    
+    private Entry( final VmInstance vm ) {
+      this.instanceId = vm.getInstanceId( );
+      this.publicAddress = usable( vm.getPublicAddress( ) );
+      this.privateAddress = usable( vm.getPrivateAddress( ) );
+      this.publicDnsName = vm.getPublicDnsName( );
+      this.privateDnsName = vm.getPrivateDnsName( );
+      this.version = vm.getVersion( );
+      this.timestamp = System.currentTimeMillis( );
+    }
+    
+    private static String usable( final String address ) {
+      return ( address == null || "".equals( address ) || VmNetworkConfig.DEFAULT_IP.equals( address ) )
+        ? null
+        : address;
+    }
+    
+    public String getInstanceId( ) {
+      return this.instanceId;
+    }
+    
+    public String getPublicAddress( ) {
+      return this.publicAddress;
+    }
+    
+    public String getPrivateAddress( ) {
+      return this.privateAddress;
+    }
+    
+    public String getPublicDnsName( ) {
+      return this.publicDnsName;
+    }
+    
+    public String getPrivateDnsName( ) {
+      return this.privateDnsName;
+    }
+    
+    /**
+     * @return the entity version of the instance when the entry was created
+     */
+    public Integer getVersion( ) {
+      return this.version;
+    }
+    
+    @Override
+    public String toString( ) {
+      return this.instanceId + " public=" + this.publicAddress + " private=" + this.privateAddress;
+    }
+  }
+  
+  /**
+   * @return the entry for the instance with the given public address, or null
+   */
+  public static Entry lookupByPublicIp( final String ip ) {
+    return INSTANCE.count( INSTANCE.byPublicIp.get( ip ) );
+  }
+  
+  /**
+   * @return the entry for the instance with the given private address, or null
+   */
+  public static Entry lookupByPrivateIp( final String ip ) {
+    return INSTANCE.count( INSTANCE.byPrivateIp.get( ip ) );
+  }
+  
+  /**
+   * @return the entry for the instance with the given public or private address, or null
+   */
+  public static Entry lookupByIp( final String ip ) {
+    Entry entry = INSTANCE.byPublicIp.get( ip );
+    return INSTANCE.count( entry != null
+      ? entry
+      : INSTANCE.byPrivateIp.get( ip ) );
+  }
+  
+  /**
+   * @return true if a miss means there is no such instance
+   */
+  public static boolean isAuthoritative( ) {
+    return INSTANCE.lastVerified > 0;
+  }
+  
+  private Entry count( final Entry entry ) {
+    ( entry != null
+      ? this.hits
+      : this.misses ).incrementAndGet( );
+    return entry;
+  }
+  
+  /**
+   * Called when a lookup through the directory found an instance which no longer matches.
+   */
+  static void stale( final String instanceId ) {
+    INSTANCE.stale.incrementAndGet( );
+    INSTANCE.remove( instanceId );
+  }
+  
+  static void update( final VmInstance vm ) {
+    if ( vm.getInstanceId( ) == null ) {
+      return;
+    } else if ( VmStateSet.RUN.apply( vm ) ) {
+      INSTANCE.put( new Entry( vm ) );
+    } else {
+      INSTANCE.remove( vm.getInstanceId( ) );
+    }
+  }
+  
+  static void remove( final VmInstance vm ) {
+    if ( vm.getInstanceId( ) != null ) {
+      INSTANCE.remove( vm.getInstanceId( ) );
+    }
+  }
+  
+  private void put( final Entry entry ) {
+    final Entry previous = this.byInstanceId.put( entry.getInstanceId( ), entry );
+    if ( previous != null ) {
+      this.unindex( previous );
+    }
+    if ( entry.getPublicAddress( ) != null ) {
+      this.byPublicIp.put( entry.getPublicAddress( ), entry );
+    }
+    if ( entry.getPrivateAddress( ) != null ) {
+      this.byPrivateIp.put( entry.getPrivateAddress( ), entry );
+    }
+  }
+  
+  private void remove( final String instanceId ) {
+    VmMetadataDocuments.evict( instanceId );
+    final Entry previous = this.byInstanceId.remove( instanceId );
+    if ( previous != null ) {
+      this.unindex( previous );
+    }
+  }
+  
+  private void unindex( final Entry entry ) {
+    if ( entry.getPublicAddress( ) != null ) {
+      this.byPublicIp.remove( entry.getPublicAddress( ), entry );
+    }
+    if ( entry.getPrivateAddress( ) != null ) {
+      this.byPrivateIp.remove( entry.getPrivateAddress( ), entry );
+    }
+  }
+  
+  @Override
+  public void fireEvent( final ClockTick event ) {
+    if ( Bootstrap.isFinished( ) && !Databases.isVolatile( )
+         && System.currentTimeMillis( ) - this.lastVerified > VERIFY_INTERVAL_MILLIS ) {
+      try {
+        this.verify( );
+      } catch ( final Exception ex ) {
+        LOG.error( "Failed to check the instance address directory: " + ex.getMessage( ) );
+        LOG.debug( ex, ex );
+      }
+    }
+  }
+  
+  /**
+   * Compare the directory with the pending and running instances in the database and correct any
+   * differences. Loading the instances refreshes their entries through the persistence callbacks,
+   * so what is left to do is removing entries which the database does not know about.
+   */
+  @SuppressWarnings( "unchecked" )
+  void verify( ) {
+    final long started = System.currentTimeMillis( );
+    final Map<String, Entry> live = Maps.newHashMap( );
+    final EntityTransaction db = Entities.get( VmInstance.class );
+    try {
+      final List<VmInstance> vms = ( List<VmInstance> ) Entities.createCriteria( VmInstance.class )
+                                                              .add( Restrictions.in( "state", new VmState[] { VmState.RUNNING, VmState.PENDING } ) )
+                                                              .list( );
+      for ( final VmInstance vm : vms ) {
+        live.put( vm.getInstanceId( ), new Entry( vm ) );
+      }
+      db.commit( );
+    } catch ( final RuntimeException ex ) {
+      db.rollback( );
+      throw ex;
+    }
+    long corrected = 0;
+    for ( final Entry entry : live.values( ) ) {
+      final Entry current = this.byInstanceId.get( entry.getInstanceId( ) );
+      if ( current == null || !sameAddresses( current, entry ) ) {
+        corrected++;
+        this.put( entry );
+      }
+    }
+    for ( final Entry entry : this.byInstanceId.values( ) ) {
+      if ( !live.containsKey( entry.getInstanceId( ) ) && entry.timestamp < started ) {
+        corrected++;
+        this.byInstanceId.remove( entry.getInstanceId( ), entry );
+        this.unindex( entry );
+        VmMetadataDocuments.evict( entry.getInstanceId( ) );
+      }
+    }
+    for ( final Map.Entry<String, Entry> e : this.byPublicIp.entrySet( ) ) {
+      if ( this.byInstanceId.get( e.getValue( ).getInstanceId( ) ) != e.getValue( ) ) {
+        corrected++;
+        this.byPublicIp.remove( e.getKey( ), e.getValue( ) );
+      }
+    }
+    for ( final Map.Entry<String, Entry> e : this.byPrivateIp.entrySet( ) ) {
+      if ( this.byInstanceId.get( e.getValue( ).getInstanceId( ) ) != e.getValue( ) ) {
+        corrected++;
+        this.byPrivateIp.remove( e.getKey( ), e.getValue( ) );
+      }
+    }
+    if ( corrected > 0 ) {
+      this.corrections.addAndGet( corrected );
+      LOG.debug( "Corrected " + corrected + " instance address directory entries" );
+    }
+    this.lastVerified = started;
+  }
+  
+  private static boolean sameAddresses( final Entry a, final Entry b ) {
+    return equal( a.getPublicAddress( ), b.getPublicAddress( ) ) && equal( a.getPrivateAddress( ), b.getPrivateAddress( ) );
+  }
+  
+  private static boolean equal( final String a, final String b ) {
+    return a == null
+      ? b == null
+      : a.equals( b );
+  }
+  
+  public long getInstances( ) {
+    return this.byInstanceId.size( );
+  }
+  
+  public long getHits( ) {
+    return this.hits.get( );
+  }
+  
+  public long getMisses( ) {
+    return this.misses.get( );
+  }
+  
+  public double getHitRate( ) {
+    final long hits = this.hits.get( );
+    final long total = hits + this.misses.get( );
+    return total == 0
+      ? 0d
+      : ( double ) hits / total;
+  }
+  
+  public long getStale( ) {
+    return this.stale.get( );
+  }
+  
+  public long getCorrections( ) {
+    return this.corrections.get( );
+  }
+  
+  public long getLastVerified( ) {
+    return this.lastVerified;
+  }
+}
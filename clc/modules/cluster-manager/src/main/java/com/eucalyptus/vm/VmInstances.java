@@ -70,13 +70,17 @@ import static com.eucalyptus.reporting.event.ResourceAvailabilityEvent.ResourceT
 import static com.eucalyptus.reporting.event.ResourceAvailabilityEvent.Tag;
 import static com.eucalyptus.reporting.event.ResourceAvailabilityEvent.Type;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import javax.persistence.EntityTransaction;
 import org.apache.log4j.Logger;
+import org.hibernate.Criteria;
+import org.hibernate.FetchMode;
 import org.hibernate.criterion.Example;
 import org.hibernate.criterion.MatchMode;
 import org.hibernate.criterion.Projections;
@@ -102,6 +106,7 @@ import com.eucalyptus.configurable.PropertyChangeListener;
 import com.eucalyptus.crypto.Crypto;
 import com.eucalyptus.entities.Entities;
 import com.eucalyptus.entities.TransactionException;
+import com.eucalyptus.event.AsyncListener;
 import com.eucalyptus.event.ClockTick;
 import com.eucalyptus.event.EventListener;
 import com.eucalyptus.event.ListenerRegistry;
@@ -127,6 +132,7 @@ import com.google.common.collect.Collections2;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import edu.ucsb.eucalyptus.msgs.AttachedVolume;
 import edu.ucsb.eucalyptus.msgs.DeleteStorageVolumeType;
 import edu.ucsb.eucalyptus.msgs.DetachStorageVolumeType;
@@ -248,6 +254,9 @@ public class VmInstances {
   @ConfigurableField( description = "Amount of time (in minutes) before a EBS volume backing the instance is created",
                       initial = "30" )
   public static Integer   EBS_VOLUME_CREATION_TIMEOUT   = 30;
+  @ConfigurableField( description = "Amount of time (in milliseconds) for which the result of a describe instances request may be reused for an identical request, 0 to disable.",
+                      initial = "0" )
+  public static Integer   DESCRIBE_CACHE_MILLIS         = 0;
   
   public static class SubdomainListener implements PropertyChangeListener {
     @Override
@@ -296,6 +305,14 @@ public class VmInstances {
   }
   
   public static VmInstance lookupByPrivateIp( final String ip ) throws NoSuchElementException {
+    VmInstanceDirectory.Entry entry = VmInstanceDirectory.lookupByPrivateIp( ip );
+    if ( entry != null ) {
+      VmInstance vm = lookupIndexed( entry );
+      if ( vm != null && ip.equals( vm.getPrivateAddress( ) ) ) {
+        return vm;
+      }
+      VmInstanceDirectory.stale( entry.getInstanceId( ) );
+    }
     EntityTransaction db = Entities.get( VmInstance.class );
     try {
       VmInstance vmExample = VmInstance.exampleWithPrivateIp( ip );
@@ -315,6 +332,20 @@ public class VmInstances {
     }
   }
   
+  /**
+   * @return the pending or running instance for a directory entry, or null if it is gone
+   */
+  static VmInstance lookupIndexed( final VmInstanceDirectory.Entry entry ) {
+    try {
+      VmInstance vm = lookup( entry.getInstanceId( ) );
+      return VmStateSet.RUN.apply( vm )
+        ? vm
+        : null;
+    } catch ( NoSuchElementException ex ) {
+      return null;
+    }
+  }
+  
   public static VmVolumeAttachment lookupVolumeAttachment( final String volumeId ) {
     VmVolumeAttachment ret = null;
     EntityTransaction db = Entities.get( VmInstance.class );
@@ -343,6 +374,14 @@ public class VmInstances {
   }
   
   public static VmInstance lookupByPublicIp( final String ip ) throws NoSuchElementException {
+    VmInstanceDirectory.Entry entry = VmInstanceDirectory.lookupByPublicIp( ip );
+    if ( entry != null ) {
+      VmInstance vm = lookupIndexed( entry );
+      if ( vm != null && ip.equals( vm.getPublicAddress( ) ) ) {
+        return vm;
+      }
+      VmInstanceDirectory.stale( entry.getInstanceId( ) );
+    }
     EntityTransaction db = Entities.get( VmInstance.class );
     try {
       VmInstance vmExample = VmInstance.exampleWithPublicIp( ip );
@@ -617,6 +656,70 @@ public class VmInstances {
     return ret;
   }
   
+  /**
+   * Identifiers of the instances in the given partition, including recently terminated instances.
+   * Only the identifiers are loaded.
+   */
+  public static Set<String> listInstanceIds( final String partition ) {
+    final Set<String> ids = Sets.newHashSet( );
+    final EntityTransaction db = Entities.get( VmInstance.class );
+    try {
+      final List<?> names = Entities.createCriteria( VmInstance.class )
+                                    .add( Restrictions.eq( "placement.partitionName", partition ) )
+                                    .setReadOnly( true )
+                                    .setCacheable( false )
+                                    .setProjection( Projections.property( "displayName" ) )
+                                    .list( );
+      for ( final Object name : names ) {
+        ids.add( ( String ) name );
+      }
+      db.commit( );
+    } catch ( final Exception ex ) {
+      Logs.extreme( ).error( ex, ex );
+      db.rollback( );
+    }
+    for ( final VmInstance vm : terminateCache.values( ) ) {
+      if ( partition.equals( vm.getPartition( ) ) ) {
+        ids.add( vm.getDisplayName( ) );
+      }
+    }
+    return ids;
+  }
+  
+  /**
+   * List instances to be described. The owner and instance identifiers are applied in the query and
+   * the associations used by {@link #transform(VmInstance)} are fetched with the instances. The
+   * caller must hold a transaction for {@link VmInstance}, the instances remain attached to it.
+   * 
+   * @param ownerFullName the owner, or null for all instances
+   * @param instanceIds the instances to list, or empty for all instances
+   */
+  @SuppressWarnings( "unchecked" )
+  public static List<VmInstance> listForDescribe( final OwnerFullName ownerFullName, final Collection<String> instanceIds,
+                                                  final Predicate<VmInstance> predicate ) {
+    final Predicate<VmInstance> filter = checkPredicate( predicate );
+    final Criteria criteria = Entities.createCriteria( VmInstance.class )
+                                      .add( Example.create( VmInstance.named( ownerFullName, null ) ).enableLike( MatchMode.EXACT ) )
+                                      .setFetchMode( "bootRecord.machineImage", FetchMode.JOIN )
+                                      .setFetchMode( "bootRecord.kernel", FetchMode.JOIN )
+                                      .setFetchMode( "bootRecord.ramdisk", FetchMode.JOIN )
+                                      .setFetchMode( "bootRecord.vmType", FetchMode.JOIN )
+                                      .setFetchMode( "networkGroups", FetchMode.JOIN )
+                                      .setResultTransformer( Criteria.DISTINCT_ROOT_ENTITY )
+                                      .setReadOnly( true )
+                                      .setCacheable( false );
+    if ( instanceIds != null && !instanceIds.isEmpty( ) ) {
+      criteria.add( Restrictions.in( "displayName", instanceIds ) );
+    }
+    final List<VmInstance> ret = Lists.newArrayList( Iterables.filter( ( List<VmInstance> ) criteria.list( ), filter ) );
+    for ( final VmInstance vm : terminateCache.values( ) ) {
+      if ( ( instanceIds == null || instanceIds.isEmpty( ) || instanceIds.contains( vm.getDisplayName( ) ) ) && filter.apply( vm ) ) {
+        ret.add( vm );
+      }
+    }
+    return ret;
+  }
+  
   private static List<VmInstance> listPersistent( OwnerFullName ownerFullName, String instanceId, Predicate<VmInstance> predicate ) {
     predicate = checkPredicate( predicate );
     final EntityTransaction db = Entities.get( VmInstance.class );
@@ -723,6 +826,7 @@ public class VmInstances {
     }
   }
 
+  @AsyncListener( coalesce = true )
   public static class VmInstanceAvailabilityEventListener implements EventListener<ClockTick> {
 
     private static final class AvailabilityAccumulator {
@@ -85,18 +85,13 @@ public class VmMetadata {
   private static//
   Function<MetadataRequest, ByteArray>                        userDataFunc              = new Function<MetadataRequest, ByteArray>( ) {
                                                                                           public ByteArray apply( MetadataRequest arg0 ) {
-                                                                                            return ByteArray.newInstance( arg0.getVmInstance( ).getUserData( ) );
+                                                                                            return ByteArray.newInstance( VmMetadataDocuments.lookup( arg0.getVmInstance( ) ).lookup( VmMetadataDocument.USER_DATA ) );
                                                                                           }
                                                                                         };
   private static//
   Function<MetadataRequest, ByteArray>                        metaDataFunc              = new Function<MetadataRequest, ByteArray>( ) {
                                                                                           public ByteArray apply( MetadataRequest arg0 ) {
-                                                                                            String res = arg0.getVmInstance( ).getByKey( arg0.getLocalPath( ) );
-                                                                                            if ( res == null ) {
-                                                                                              throw new NullPointerException( "Failed to lookup path: " + arg0.getLocalPath( ) );
-                                                                                            } else {
-                                                                                              return ByteArray.newInstance( res );
-                                                                                            }
+                                                                                            return ByteArray.newInstance( VmMetadataDocuments.lookup( arg0.getVmInstance( ) ).lookupMetaData( arg0.getLocalPath( ) ) );
                                                                                           }
                                                                                         };
   
@@ -118,15 +113,7 @@ public class VmMetadata {
                                                                                             put( "",
                                                                                               new Function<MetadataRequest, ByteArray>( ) {
                                                                                                 public ByteArray apply( MetadataRequest arg0 ) {
-                                                                                                  String listing = "";
-                                                                                                  for ( String key : keySet( ) ) {
-                                                                                                    if ( !"".equals( key )
-                                                                                                         && get( key ).apply( arg0 ) != null ) {
-                                                                                                      listing += key + "\n";
-                                                                                                    }
-                                                                                                  }
-                                                                                                  listing = listing.replaceAll( "\n$", "" );
-                                                                                                  return ByteArray.newInstance( listing );
+                                                                                                  return ByteArray.newInstance( VmMetadataDocuments.lookup( arg0.getVmInstance( ) ).lookup( "" ) );
                                                                                                 }
                                                                                               } );
                                                                                             put( "dynamic", dynamicFunc );
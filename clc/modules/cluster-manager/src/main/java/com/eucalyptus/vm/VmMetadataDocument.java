@@ -0,0 +1,227 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+
+package com.eucalyptus.vm;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import com.eucalyptus.crypto.Digest;
+import com.eucalyptus.vm.VmVolumeState.VmVolumeAttachmentStateInfo;
+import com.eucalyptus.ws.server.MetadataDocuments;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * The metadata tree of an instance rendered once into bytes.
+ * 
+ * Entries are keyed by their path below the metadata version, i.e. "", "dynamic", "user-data" and
+ * "meta-data/..." as produced by {@link VmInstance#getByKey(String)}. Besides the content the
+ * document holds the fingerprint of the instance state it was rendered from (addresses, names,
+ * state, security groups and attached volumes) and the entity version of the instance which was
+ * last checked against the fingerprint. Documents are never modified: a check against a newer
+ * entity version which finds the fingerprint unchanged produces a copy sharing the content.
+ */
+public class VmMetadataDocument implements MetadataDocuments.Document {
+  static final String               DYNAMIC   = "dynamic";
+  static final String               META_DATA = "meta-data";
+  static final String               USER_DATA = "user-data";
+  private static final byte[]       LISTING   = Joiner.on( "\n" ).join( DYNAMIC, META_DATA, USER_DATA ).getBytes( );
+  private final String              instanceId;
+  private final Integer             version;
+  private final String              fingerprint;
+  private final String              etag;
+  private final Map<String, byte[]> entries;
+  
+  private VmMetadataDocument( final String instanceId, final Integer version, final String fingerprint, final String etag,
+                              final Map<String, byte[]> entries ) {
+    this.instanceId = instanceId;
+    this.version = version;
+    this.fingerprint = fingerprint;
+    this.etag = etag;
+    this.entries = entries;
+  }
+  
+  /**
+   * Render the metadata tree of the given instance.
+   */
+  static VmMetadataDocument render( final VmInstance vm ) {
+    final SortedMap<String, byte[]> entries = Maps.newTreeMap( );
+    entries.put( "", LISTING );
+    entries.put( DYNAMIC, new byte[0] );
+    entries.put( USER_DATA, vm.getUserData( ) != null
+      ? vm.getUserData( )
+      : new byte[0] );
+    for ( final Map.Entry<String, String> e : vm.getMetadataMap( ).entrySet( ) ) {
+      if ( e.getValue( ) != null ) {
+        entries.put( META_DATA + "/" + e.getKey( ), e.getValue( ).replaceAll( "\n*\\z", "" ).getBytes( ) );
+      }
+    }
+    final MessageDigest digest = Digest.MD5.get( );
+    digest.update( vm.getInstanceId( ).getBytes( ) );
+    for ( final Map.Entry<String, byte[]> e : entries.entrySet( ) ) {
+      digest.update( e.getKey( ).getBytes( ) );
+      digest.update( ( byte ) 0 );
+      digest.update( e.getValue( ) );
+      digest.update( ( byte ) 0 );
+    }
+    final String etag = "\"" + new BigInteger( digest.digest( ) ).abs( ).toString( 16 ) + "\"";
+    return new VmMetadataDocument( vm.getInstanceId( ), vm.getVersion( ), fingerprint( vm ), etag, Collections.unmodifiableMap( entries ) );
+  }
+  
+  /**
+   * The parts of the instance state which can change while it is running and which the metadata
+   * tree depends on.
+   */
+  static String fingerprint( final VmInstance vm ) {
+    return Joiner.on( "|" ).useForNull( "" ).join( vm.getState( ),
+                                                   vm.getPublicAddress( ),
+                                                   vm.getPrivateAddress( ),
+                                                   vm.getPublicDnsName( ),
+                                                   vm.getPrivateDnsName( ),
+                                                   vm.getNetworkNames( ),
+                                                   Sets.newTreeSet( Iterables.concat(
+                                                     vm.getTransientVolumeState( ).transformVolumeAttachments( VmVolumeAttachmentStateInfo.INSTANCE ),
+                                                     Iterables.transform( vm.getBootRecord( ).getPersistentVolumes( ), VmVolumeAttachmentStateInfo.INSTANCE ) ) ) );
+  }
+  
+  /**
+   * @return a document for the instance, this one if it is still current
+   */
+  VmMetadataDocument refresh( final VmInstance vm ) {
+    if ( isCurrent( vm.getVersion( ) ) ) {
+      return this;
+    } else if ( this.fingerprint.equals( fingerprint( vm ) ) ) {
+      return new VmMetadataDocument( this.instanceId, vm.getVersion( ), this.fingerprint, this.etag, this.entries );
+    } else {
+      return render( vm );
+    }
+  }
+  
+  /**
+   * @return true if the document was checked against the given entity version
+   */
+  boolean isCurrent( final Integer entityVersion ) {
+    return this.version != null && this.version.equals( entityVersion );
+  }
+  
+  @Override
+  public String getETag( ) {
+    return this.etag;
+  }
+  
+  public String getInstanceId( ) {
+    return this.instanceId;
+  }
+  
+  /**
+   * Same path resolution as the metadata service: the first path segment names the endpoint and,
+   * for meta-data, the remainder is looked up with a trailing slash first.
+   */
+  @Override
+  public byte[] lookup( final String path ) {
+    final String requestPath = ( path == null )
+      ? ""
+      : path.replaceFirst( "^[/]*", "" );
+    final int split = requestPath.indexOf( '/' );
+    final String name = ( split < 0 )
+      ? requestPath
+      : requestPath.substring( 0, split );
+    if ( META_DATA.equals( name ) ) {
+      final String key = META_DATA + "/" + ( split < 0
+        ? ""
+        : requestPath.substring( split + 1 ).replaceFirst( "^[/]*", "" ).replaceAll( "[/]+", "/" ) );
+      final byte[] directory = this.entries.get( key + "/" );
+      return directory != null
+        ? directory
+        : this.entries.get( key );
+    } else {
+      return this.entries.get( name );
+    }
+  }
+  
+  /**
+   * @return the content of the meta-data entry at the given path
+   * @throws NoSuchElementException if there is no such entry
+   */
+  byte[] lookupMetaData( final String localPath ) throws NoSuchElementException {
+    final byte[] content = this.lookup( META_DATA + "/" + ( localPath != null
+      ? localPath
+      : "" ) );
+    if ( content == null ) {
+      throw new NoSuchElementException( "No such key: " + localPath );
+    } else {
+      return content;
+    }
+  }
+  
+  @Override
+  public String toString( ) {
+    return "VmMetadataDocument " + this.instanceId + " version=" + this.version + " etag=" + this.etag;
+  }
+}
@@ -0,0 +1,158 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+
+package com.eucalyptus.vm;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import com.eucalyptus.util.Mbeans;
+import com.eucalyptus.ws.server.MetadataDocuments;
+import com.google.common.collect.Maps;
+
+/**
+ * Rendered metadata documents of pending and running instances, keyed by instance id.
+ * 
+ * Documents are (re)rendered when the metadata service handles a request for an instance, and
+ * only if the instance fingerprint changed since the document was rendered. Once the document of
+ * an instance has been checked against the entity version currently in the
+ * {@link VmInstanceDirectory} the metadata pipeline can answer requests from it directly. Any
+ * update of the instance changes its entity version and so sends the next request through the
+ * metadata service again.
+ */
+public class VmMetadataDocuments implements MetadataDocuments.Resolver {
+  private static final VmMetadataDocuments                INSTANCE  = new VmMetadataDocuments( );
+  private final ConcurrentMap<String, VmMetadataDocument> documents = Maps.newConcurrentMap( );
+  private final AtomicLong                                renders   = new AtomicLong( );
+  private final AtomicLong                                refreshes = new AtomicLong( );
+  private final AtomicLong                                served    = new AtomicLong( );
+  private final AtomicLong                                misses    = new AtomicLong( );
+  
+  static {
+    Mbeans.register( INSTANCE );
+    MetadataDocuments.register( INSTANCE );
+  }
+  
+  private VmMetadataDocuments( ) {}
+  
+  public static VmMetadataDocuments getInstance( ) {
+    return INSTANCE;
+  }
+  
+  /**
+   * @return the current document for the instance, rendering it if needed
+   */
+  static VmMetadataDocument lookup( final VmInstance vm ) {
+    final VmMetadataDocument current = INSTANCE.documents.get( vm.getInstanceId( ) );
+    final VmMetadataDocument next = ( current == null )
+      ? VmMetadataDocument.render( vm )
+      : current.refresh( vm );
+    if ( next != current ) {
+      if ( current != null && current.getETag( ).equals( next.getETag( ) ) ) {
+        INSTANCE.refreshes.incrementAndGet( );
+      } else {
+        INSTANCE.renders.incrementAndGet( );
+      }
+      INSTANCE.documents.put( vm.getInstanceId( ), next );
+    }
+    return next;
+  }
+  
+  static void evict( final String instanceId ) {
+    INSTANCE.documents.remove( instanceId );
+  }
+  
+  @Override
+  public MetadataDocuments.Document lookup( final String requestIp ) {
+    final VmInstanceDirectory.Entry entry = VmInstanceDirectory.lookupByIp( requestIp );
+    final VmMetadataDocument document = ( entry != null )
+      ? this.documents.get( entry.getInstanceId( ) )
+      : null;
+    if ( document != null && document.isCurrent( entry.getVersion( ) ) ) {
+      this.served.incrementAndGet( );
+      return document;
+    } else {
+      this.misses.incrementAndGet( );
+      return null;
+    }
+  }
+  
+  public long getDocuments( ) {
+    return this.documents.size( );
+  }
+  
+  public long getRenders( ) {
+    return this.renders.get( );
+  }
+  
+  public long getRefreshes( ) {
+    return this.refreshes.get( );
+  }
+  
+  public long getServed( ) {
+    return this.served.get( );
+  }
+  
+  public long getMisses( ) {
+    return this.misses.get( );
+  }
+}
@@ -62,7 +62,9 @@
 
 package com.eucalyptus.vm;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.TreeSet;
@@ -78,6 +80,8 @@ import com.eucalyptus.images.BlockStorageImageInfo;
 import com.eucalyptus.images.BootableImageInfo;
 import com.eucalyptus.util.EucalyptusCloudException;
 import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import edu.ucsb.eucalyptus.msgs.VmTypeInfo;
 
 public class VmTypes {
@@ -153,6 +157,7 @@ public class VmTypes {
   private static VmTypes                         singleton;
   
   private ConcurrentNavigableMap<String, VmType> vmTypeMap;
+  private volatile Map<List<Integer>, VmType>    resourceIndex = ImmutableMap.of( );
 
   private VmTypes( ) {
     this.vmTypeMap = new ConcurrentSkipListMap<String, VmType>( );
@@ -199,6 +204,11 @@ public class VmTypes {
 
         if ( !this.vmTypeMap.get( v.getName( ) ).equals( v ) ) this.vmTypeMap.replace( v.getName( ), v );
       }
+      final Map<List<Integer>, VmType> index = Maps.newHashMap( );
+      for ( VmType v : new TreeSet<VmType>( this.vmTypeMap.values( ) ) ) {
+        index.put( resources( v.getCpu( ), v.getMemory( ), v.getDisk( ) ), v );
+      }
+      this.resourceIndex = ImmutableMap.copyOf( index );
 
       if ( vmTypeList.isEmpty( ) ) {
         db.add( new VmType( "m1.small", 1, 2, 128 ) );
@@ -231,6 +241,20 @@ public class VmTypes {
     return new TreeSet<VmType>( getSingleton( ).vmTypeMap.values( ) );
   }
 
+  /**
+   * Find the type with the given resources using the types loaded by the last update, the
+   * database is not queried.
+   * 
+   * @return the matching type, or null if there is none
+   */
+  public static VmType lookup( Integer cores, Integer memory, Integer disk ) {
+    return getSingleton( ).resourceIndex.get( resources( cores, memory, disk ) );
+  }
+  
+  private static List<Integer> resources( Integer cores, Integer memory, Integer disk ) {
+    return Arrays.asList( cores, memory, disk );
+  }
+
   public static String defaultTypeName( ) {
     return DEFAULT_TYPE_NAME;
   }
@@ -0,0 +1,222 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.address;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Verifies addresses are not lost from the pool when releases race allocations.
+ */
+public class AddressPoolTest {
+  private static final int                          FREE      = 0;
+  private static final int                          ALLOCATED = 1;
+  private static final int                          RELEASING = 2;
+  private final ConcurrentMap<Address, AtomicInteger> states   = Maps.newConcurrentMap( );
+  private final Set<Address>                        disabled  = Sets.newSetFromMap( Maps.<Address, Boolean> newConcurrentMap( ) );
+  private final AddressPool                         pool      = new AddressPool( new Predicate<Address>( ) {
+                                                                @Override
+                                                                public boolean apply( final Address addr ) {
+                                                                  return states.get( addr ).get( ) == FREE;
+                                                                }
+                                                              }, new Predicate<Address>( ) {
+                                                                @Override
+                                                                public boolean apply( final Address addr ) {
+                                                                  return disabled.contains( addr );
+                                                                }
+                                                              } );
+  
+  @Test
+  public void testClaimSkipsReleaseInProgress( ) {
+    final Address addr = address( "10.0.0.1" );
+    this.states.get( addr ).set( RELEASING );
+    this.pool.add( addr );
+    try {
+      this.pool.claim( Predicates.alwaysTrue( ) );
+      fail( "Claimed an address which is still being released" );
+    } catch ( final NoSuchElementException ex ) {}
+    assertEquals( "Free addresses", 1, this.pool.getFree( ) );
+    this.states.get( addr ).set( FREE );
+    assertSame( "Claimed after release", addr, this.pool.claim( Predicates.alwaysTrue( ) ) );
+    assertEquals( "Free addresses", 0, this.pool.getFree( ) );
+  }
+  
+  @Test
+  public void testUnclaimFailedAllocation( ) {
+    final Address addr = free( "10.0.0.2" );
+    assertSame( addr, this.pool.claim( Predicates.alwaysTrue( ) ) );
+    this.pool.unclaim( addr );
+    assertEquals( "Free addresses", 1, this.pool.getFree( ) );
+    assertSame( "Claimed again", addr, this.pool.claim( Predicates.alwaysTrue( ) ) );
+  }
+  
+  @Test
+  public void testUnclaimAllocatedOrRemoved( ) {
+    final Address allocated = free( "10.0.0.3" );
+    final Address removed = free( "10.0.0.4" );
+    this.pool.claim( Predicates.alwaysTrue( ) );
+    this.pool.claim( Predicates.alwaysTrue( ) );
+    this.states.get( allocated ).set( ALLOCATED );
+    this.disabled.remove( allocated );
+    this.disabled.remove( removed );
+    this.pool.unclaim( allocated );
+    this.pool.unclaim( removed );
+    assertEquals( "Free addresses", 0, this.pool.getFree( ) );
+  }
+  
+  /**
+   * Allocators claim addresses while releasers put them back the way {@link Address#release()}
+   * does, i.e., the address is in the pool before it is marked unallocated. Some allocations fail
+   * and are given back. Once everything is released every address must be free again.
+   */
+  @Test
+  public void testReleaseRacingAllocate( ) throws Exception {
+    final int addresses = 16;
+    final int threads = 8;
+    final int rounds = 2000;
+    for ( int i = 0; i < addresses; i++ ) {
+      free( "10.0.1." + i );
+    }
+    final CountDownLatch start = new CountDownLatch( 1 );
+    final List<Throwable> errors = Lists.newArrayList( );
+    final List<Thread> workers = Lists.newArrayList( );
+    for ( int t = 0; t < threads; t++ ) {
+      final int seed = t;
+      workers.add( new Thread( ) {
+        @Override
+        public void run( ) {
+          try {
+            start.await( );
+            for ( int i = 0; i < rounds; i++ ) {
+              final Address addr;
+              try {
+                addr = AddressPoolTest.this.pool.claim( Predicates.alwaysTrue( ) );
+              } catch ( final NoSuchElementException ex ) {
+                Thread.yield( );
+                continue;
+              }
+              final AtomicInteger state = AddressPoolTest.this.states.get( addr );
+              if ( ( i + seed ) % 7 == 0 || !state.compareAndSet( FREE, ALLOCATED ) ) {
+                AddressPoolTest.this.pool.unclaim( addr );
+                continue;
+              }
+              AddressPoolTest.this.disabled.remove( addr );
+              //release: disable first, then clear the state
+              state.set( RELEASING );
+              AddressPoolTest.this.disabled.add( addr );
+              AddressPoolTest.this.pool.add( addr );
+              Thread.yield( );
+              state.set( FREE );
+            }
+          } catch ( final Throwable ex ) {
+            synchronized ( errors ) {
+              errors.add( ex );
+            }
+          }
+        }
+      } );
+    }
+    for ( final Thread worker : workers ) {
+      worker.start( );
+    }
+    start.countDown( );
+    for ( final Thread worker : workers ) {
+      worker.join( );
+    }
+    assertTrue( "Errors: " + errors, errors.isEmpty( ) );
+    assertEquals( "Free addresses", addresses, this.pool.getFree( ) );
+    final Set<Address> claimed = Sets.newHashSet( );
+    for ( int i = 0; i < addresses; i++ ) {
+      claimed.add( this.pool.claim( Predicates.alwaysTrue( ) ) );
+    }
+    assertEquals( "Distinct addresses claimed", addresses, claimed.size( ) );
+  }
+  
+  private Address free( final String name ) {
+    final Address addr = address( name );
+    this.pool.add( addr );
+    return addr;
+  }
+  
+  private Address address( final String name ) {
+    final Address addr = new Address( );
+    addr.setDisplayName( name );
+    this.states.put( addr, new AtomicInteger( FREE ) );
+    this.disabled.add( addr );
+    return addr;
+  }
+}
@@ -0,0 +1,141 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.vm;
+
+import static org.junit.Assert.assertEquals;
+import java.util.SortedMap;
+import org.junit.Before;
+import org.junit.Test;
+import com.google.common.collect.Maps;
+
+/**
+ * Verifies when the network topology answers with a delta and when with the full document.
+ */
+public class NetworkTopologyTest {
+  private NetworkTopology                 topology;
+  private final SortedMap<String, String> rules  = Maps.newTreeMap( );
+  private final SortedMap<String, String> groups = Maps.newTreeMap( );
+  private String                          epoch;
+  
+  @Before
+  public void setUp( ) {
+    this.topology = new NetworkTopology( );
+    this.epoch = this.topology.getVersion( ).substring( 0, this.topology.getVersion( ).lastIndexOf( '-' ) );
+    this.put( "net-a", "10.0.0.1" );
+    this.put( "net-b", "10.0.0.2" );
+    this.topology.update( this.rules, this.groups );
+  }
+  
+  private void put( final String network, final String members ) {
+    this.rules.put( network, "RULE " + network + " -P tcp -p 22-22 -s 0.0.0.0/0\n" );
+    this.groups.put( network, "GROUP " + network + " " + members + "\n" );
+  }
+  
+  private String full( ) {
+    return "VERSION " + this.topology.getVersion( ) + " 0\n" + this.topology.getDocument( );
+  }
+  
+  @Test
+  public void testDelta( ) {
+    this.put( "net-b", "10.0.0.2 10.0.0.3" );
+    this.topology.update( this.rules, this.groups );
+    assertEquals( this.epoch + "-2", this.topology.getVersion( ) );
+    assertEquals( "VERSION " + this.epoch + "-2 " + this.epoch + "-1\n" + this.rules.get( "net-b" ) + this.groups.get( "net-b" ),
+                  this.topology.getDelta( this.epoch + "-1" ) );
+    this.rules.remove( "net-a" );
+    this.groups.remove( "net-a" );
+    this.topology.update( this.rules, this.groups );
+    assertEquals( "VERSION " + this.epoch + "-3 " + this.epoch + "-2\nREMOVE net-a\n", this.topology.getDelta( this.epoch + "-2" ) );
+  }
+  
+  @Test
+  public void testSinceCurrent( ) {
+    assertEquals( "VERSION " + this.epoch + "-1 " + this.epoch + "-1\n", this.topology.getDelta( this.topology.getVersion( ) ) );
+  }
+  
+  @Test
+  public void testSinceFuture( ) {
+    assertEquals( this.full( ), this.topology.getDelta( this.epoch + "-2" ) );
+  }
+  
+  @Test
+  public void testSinceOlderThanChanges( ) {
+    for ( int i = 0; i < 300; i++ ) {
+      this.put( "net-b", "10.0.0." + i );
+      this.topology.update( this.rules, this.groups );
+    }
+    assertEquals( this.full( ), this.topology.getDelta( this.epoch + "-1" ) );
+    assertEquals( this.full( ), this.topology.getDelta( this.epoch + "-" + ( 301 - 256 - 1 ) ) );
+    assertEquals( "VERSION " + this.epoch + "-301 " + this.epoch + "-" + ( 301 - 256 ) + "\n" + this.rules.get( "net-b" ) + this.groups.get( "net-b" ),
+                  this.topology.getDelta( this.epoch + "-" + ( 301 - 256 ) ) );
+  }
+  
+  @Test
+  public void testSinceOtherEpoch( ) {
+    final NetworkTopology restarted = new NetworkTopology( );
+    restarted.update( this.rules, this.groups );
+    assertEquals( "VERSION " + restarted.getVersion( ) + " 0\n" + restarted.getDocument( ), restarted.getDelta( this.topology.getVersion( ) ) );
+    assertEquals( this.full( ), this.topology.getDelta( "1" ) );
+    assertEquals( this.full( ), this.topology.getDelta( this.epoch + "-x" ) );
+  }
+}
@@ -94,7 +94,10 @@ public class StorageProperties {
 	public static final int MAX_TOTAL_VOLUME_SIZE = 100;
 	public static final int MAX_VOLUME_SIZE = 15;
 	public static int TRANSFER_CHUNK_SIZE = 8192;
+	public static int TRANSFER_BLOCK_SIZE = 1024*1024; //uncompressed size of each compressed snapshot block
+	public static int TRANSFER_COMPRESSION_THREADS = Runtime.getRuntime().availableProcessors();
 	public static final boolean zeroFillVolumes = false;
+	public static final boolean sparseCopies = false; //default for skipping zero blocks when copying volumes and snapshots
 	public static final long timeoutInMillis = 10000;
 
 	public static boolean enableSnapshots = false;
@@ -95,6 +95,8 @@ public class WalrusProperties {
 	public static int MAX_KEYS = 1000;
 
 	public static int IO_CHUNK_SIZE = 102400;
+	public static final Integer DEFAULT_SEND_CHUNK_SIZE = 65536; //used when the object can not be sent with sendfile
+	public static final Boolean DEFAULT_SENDFILE_ENABLED = true;
 	public static boolean shouldEnforceUsageLimits = true;
 	public static boolean trackUsageStatistics = false;
 	public static boolean enableTorrents = false;
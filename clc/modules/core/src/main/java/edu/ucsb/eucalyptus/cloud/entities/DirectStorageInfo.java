@@ -103,6 +103,9 @@ public class DirectStorageInfo extends AbstractPersistent {
 	@ConfigurableField( description = "Timeout value in milli seconds for storage operations", displayName = "Timeout in milli seconds")
 	@Column(name = "timeout_in_millis")
 	private Long timeoutInMillis;
+	@ConfigurableField( description = "Should zero blocks be skipped when copying volumes and snapshots. Needs a dd that supports conv=sparse.", displayName = "Sparse copies", type = ConfigurableFieldType.BOOLEAN )
+	@Column(name = "sparse_copies")
+	private Boolean sparseCopies;
 
 	public DirectStorageInfo(){
 		this.name = StorageProperties.NAME;
@@ -117,12 +120,14 @@ public class DirectStorageInfo extends AbstractPersistent {
 			final String storageInterface, 
 			final String volumesDir,
 			final Boolean zeroFillVolumes,
-			final Long timeoutInMillis) {
+			final Long timeoutInMillis,
+			final Boolean sparseCopies) {
 		this.name = name;
 		this.storageInterface = storageInterface;
 		this.volumesDir = volumesDir;
 		this.zeroFillVolumes = zeroFillVolumes;
 		this.timeoutInMillis = timeoutInMillis;
+		this.sparseCopies = sparseCopies;
 	}
 
 	public String getName() {
@@ -165,6 +170,14 @@ public class DirectStorageInfo extends AbstractPersistent {
 		this.timeoutInMillis = timeoutInMillis;
 	}
 
+	public Boolean getSparseCopies() {
+		return sparseCopies;
+	}
+
+	public void setSparseCopies(Boolean sparseCopies) {
+		this.sparseCopies = sparseCopies;
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		if (this == obj)
@@ -206,6 +219,10 @@ public class DirectStorageInfo extends AbstractPersistent {
 				conf.setTimeoutInMillis(StorageProperties.timeoutInMillis);
 				storageDb.add(conf);
 			}
+			if (null == conf.getSparseCopies()) {
+				conf.setSparseCopies(StorageProperties.sparseCopies);
+				storageDb.add(conf);
+			}
 			storageDb.commit();
 		}
 		catch ( EucalyptusCloudException e ) {
@@ -214,7 +231,8 @@ public class DirectStorageInfo extends AbstractPersistent {
 					StorageProperties.iface, 
 					StorageProperties.storageRootDirectory,
 					StorageProperties.zeroFillVolumes, 
-					StorageProperties.timeoutInMillis);
+					StorageProperties.timeoutInMillis,
+					StorageProperties.sparseCopies);
 			storageDb.add(conf);
 			storageDb.commit();
 		}
@@ -225,7 +243,8 @@ public class DirectStorageInfo extends AbstractPersistent {
 					StorageProperties.iface, 
 					StorageProperties.storageRootDirectory,
 					StorageProperties.zeroFillVolumes, 
-					StorageProperties.timeoutInMillis);
+					StorageProperties.timeoutInMillis,
+					StorageProperties.sparseCopies);
 		}
 		return conf;
 	}
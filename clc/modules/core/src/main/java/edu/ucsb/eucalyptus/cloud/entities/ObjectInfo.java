@@ -78,6 +78,7 @@ import javax.persistence.Table;
 import org.apache.log4j.Logger;
 import org.hibernate.annotations.Cache;
 import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Index;
 
 import com.eucalyptus.auth.Accounts;
 import com.eucalyptus.auth.AuthException;
@@ -95,6 +96,8 @@ import edu.ucsb.eucalyptus.msgs.MetaDataEntry;
 @javax.persistence.Entity
 @PersistenceContext(name="eucalyptus_walrus")
 @Table( name = "Objects" )
+@org.hibernate.annotations.Table( appliesTo = "Objects",
+    indexes = { @Index( name = "objects_listing_idx", columnNames = { "bucket_name", "is_last", "is_deleted", "object_key" } ) } )
 @Cache( usage = CacheConcurrencyStrategy.TRANSACTIONAL )
 public class ObjectInfo extends AbstractPersistent implements Comparable { 
     @Column( name = "owner_id" )
@@ -76,6 +76,7 @@ import org.mortbay.log.Log;
 
 import com.eucalyptus.configurable.ConfigurableClass;
 import com.eucalyptus.configurable.ConfigurableField;
+import com.eucalyptus.configurable.ConfigurableFieldType;
 import com.eucalyptus.entities.AbstractPersistent;
 import com.eucalyptus.entities.EntityWrapper;
 import com.eucalyptus.system.BaseDirectory;
@@ -111,6 +112,12 @@ public class WalrusInfo extends AbstractPersistent {
 	@ConfigurableField( description = "Total Walrus storage capacity for Objects", displayName = "Walrus object capacity (GB)" )
 	@Column( name = "storage_walrus_total_capacity" )
 	private Integer storageMaxTotalCapacity;
+	@ConfigurableField( description = "Size of the chunks objects are read in when they can not be sent with sendfile", displayName = "Send chunk size (bytes)" )
+	@Column( name = "send_chunk_size" )
+	private Integer sendChunkSize;
+	@ConfigurableField( description = "Should uncompressed objects be sent with sendfile when not using SSL", displayName = "Sendfile enabled", type = ConfigurableFieldType.BOOLEAN )
+	@Column( name = "sendfile_enabled" )
+	private Boolean sendfileEnabled;
 
 	public WalrusInfo() {}
 
@@ -186,6 +193,22 @@ public class WalrusInfo extends AbstractPersistent {
 	public void setStorageMaxTotalCapacity( final Integer storageMaxTotalCapacity) {
 		this.storageMaxTotalCapacity = storageMaxTotalCapacity;
 	}
+
+	public Integer getSendChunkSize() {
+		return sendChunkSize;
+	}
+
+	public void setSendChunkSize( final Integer sendChunkSize ) {
+		this.sendChunkSize = sendChunkSize;
+	}
+
+	public Boolean getSendfileEnabled() {
+		return sendfileEnabled;
+	}
+
+	public void setSendfileEnabled( final Boolean sendfileEnabled ) {
+		this.sendfileEnabled = sendfileEnabled;
+	}
 	
 	@Override
 	public int hashCode() {
@@ -217,6 +240,13 @@ public class WalrusInfo extends AbstractPersistent {
 		WalrusInfo walrusInfo = null;
 		try {
 			walrusInfo = db.getUnique(new WalrusInfo());
+			//Populate the send settings the first time they are read after an upgrade.
+			if(walrusInfo.getSendChunkSize() == null) {
+				walrusInfo.setSendChunkSize(WalrusProperties.DEFAULT_SEND_CHUNK_SIZE);
+			}
+			if(walrusInfo.getSendfileEnabled() == null) {
+				walrusInfo.setSendfileEnabled(WalrusProperties.DEFAULT_SENDFILE_ENABLED);
+			}
 		} catch(Exception ex) {
 			//Load the defaults.
 			//Try to determine available space on the bucket root directory.
@@ -239,6 +269,8 @@ public class WalrusInfo extends AbstractPersistent {
 					(int)(WalrusProperties.MAX_BUCKET_SIZE / WalrusProperties.M),
 					(int)(WalrusProperties.IMAGE_CACHE_SIZE / WalrusProperties.M),
 					WalrusProperties.MAX_TOTAL_SNAPSHOT_SIZE,capacity);
+			walrusInfo.setSendChunkSize(WalrusProperties.DEFAULT_SEND_CHUNK_SIZE);
+			walrusInfo.setSendfileEnabled(WalrusProperties.DEFAULT_SENDFILE_ENABLED);
 			db.add(walrusInfo);     
 		} finally {
 			db.commit();
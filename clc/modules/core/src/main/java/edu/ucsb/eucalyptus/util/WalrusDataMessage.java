@@ -68,6 +68,7 @@ import java.nio.ByteBuffer;
 public class WalrusDataMessage {
     private Header header;
     private byte[] payload;
+    private ByteBuffer[] buffers;
     private static final String DELIMITER = "/";
 
     public enum Header {
@@ -83,9 +84,44 @@ public class WalrusDataMessage {
     }
 
     public byte[] getPayload() {
+        if (payload == null && buffers != null) {
+            byte[] bytes = new byte[(int) size()];
+            int offset = 0;
+            for (ByteBuffer buffer : buffers) {
+                int length = buffer.remaining();
+                buffer.duplicate().get(bytes, offset, length);
+                offset += length;
+            }
+            payload = bytes;
+        }
         return payload;
     }
 
+    /**
+     * The data as buffers, which are shared with the message and must not be modified.
+     */
+    public ByteBuffer[] getBuffers() {
+        if (buffers == null) {
+            buffers = new ByteBuffer[] { ByteBuffer.wrap(payload == null ? new byte[0] : payload) };
+        }
+        ByteBuffer[] ret = new ByteBuffer[buffers.length];
+        for (int i = 0; i < buffers.length; i++) {
+            ret[i] = buffers[i].duplicate();
+        }
+        return ret;
+    }
+
+    public long size() {
+        if (buffers == null) {
+            return payload == null ? 0 : payload.length;
+        }
+        long size = 0;
+        for (ByteBuffer buffer : buffers) {
+            size += buffer.remaining();
+        }
+        return size;
+    }
+
     public void setPayload(byte[] payload) {
         this.payload = payload;
     }
@@ -119,6 +155,16 @@ public class WalrusDataMessage {
         return new WalrusDataMessage(Header.DATA, bytes);
     }
 
+    /**
+     * A data message backed by the given buffers without copying them. The buffers must not be
+     * modified once the message is queued.
+     */
+    public static WalrusDataMessage DataMessage(ByteBuffer... buffers) {
+        WalrusDataMessage message = new WalrusDataMessage(Header.DATA, null);
+        message.buffers = buffers;
+        return message;
+    }
+
     public static WalrusDataMessage DataMessage(ByteBuffer buffer, int length) {
         byte[] bytes = new byte[length];
         buffer.get(bytes, 0, length);
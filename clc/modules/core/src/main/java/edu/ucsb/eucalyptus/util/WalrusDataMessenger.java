@@ -75,9 +75,20 @@ public class WalrusDataMessenger {
 	private ConcurrentHashMap<String, ConcurrentHashMap<String,WalrusDataQueue<WalrusDataMessage>>> queueMap;
 	private ConcurrentHashMap<String, WalrusMonitor> monitorMap;
 
+	private final boolean suspendProducers;
+
 	public WalrusDataMessenger() {
+		this(false);
+	}
+
+	/**
+	 * @param suspendProducers if true producers are never blocked, their channel is suspended
+	 * instead while the queue is above DATA_QUEUE_SIZE entries (see {@link WalrusDataQueue#offer(Object, org.jboss.netty.channel.Channel)})
+	 */
+	public WalrusDataMessenger(boolean suspendProducers) {
 		queueMap = new ConcurrentHashMap<String, ConcurrentHashMap<String,WalrusDataQueue<WalrusDataMessage>>>();
 		monitorMap = new ConcurrentHashMap<String, WalrusMonitor>();
+		this.suspendProducers = suspendProducers;
 	}
 
 	public WalrusDataQueue<WalrusDataMessage> getQueue(String key1, String key2) {
@@ -85,7 +96,9 @@ public class WalrusDataMessenger {
 		if (queues == null) {
 			queues = queueMap.get(key1);
 		}
-		WalrusDataQueue<WalrusDataMessage> queue = queues.putIfAbsent(key2, new WalrusDataQueue<WalrusDataMessage>(DATA_QUEUE_SIZE));
+		WalrusDataQueue<WalrusDataMessage> queue = queues.putIfAbsent(key2, suspendProducers ?
+				WalrusDataQueue.<WalrusDataMessage>withHighWater(DATA_QUEUE_SIZE) :
+				new WalrusDataQueue<WalrusDataMessage>(DATA_QUEUE_SIZE));
 		if (queue == null) {
 			queue = queues.get(key2);
 		}
@@ -63,10 +63,16 @@
 package edu.ucsb.eucalyptus.util;
 
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.jboss.netty.channel.Channel;
 
 @SuppressWarnings("serial")
 public class WalrusDataQueue<T> extends LinkedBlockingQueue<T> {
 	public boolean interrupted;
+	private int highWater = Integer.MAX_VALUE;
+	//guards suspending and resuming so the last readable change issued matches suspended
+	private final Object flowLock = new Object();
+	private volatile Channel suspended;
 	
 	public WalrusDataQueue() {
 		super();
@@ -76,6 +82,16 @@ public class WalrusDataQueue<T> extends LinkedBlockingQueue<T> {
 		super(dataQueueSize);
 	}
 	
+	/**
+	 * An unbounded queue which suspends reading from the producing channel while more than
+	 * highWater entries are queued, see {@link #offer(Object, Channel)}.
+	 */
+	public static <T> WalrusDataQueue<T> withHighWater(int highWater) {
+		WalrusDataQueue<T> queue = new WalrusDataQueue<T>();
+		queue.highWater = highWater;
+		return queue;
+	}
+	
 	public void setInterrupted(boolean value) {
 		this.interrupted = value;
 	}
@@ -83,4 +99,57 @@ public class WalrusDataQueue<T> extends LinkedBlockingQueue<T> {
 	public boolean getInterrupted() {
 		return this.interrupted;
 	}
+
+	/**
+	 * Queue an entry read from the given channel without blocking. Reading from the channel is
+	 * suspended when the queue is above its high water mark and resumed once the consumer has
+	 * drained it to half of that. Suspending and resuming are done under one lock, so the changes
+	 * are issued to the channel in the same order as suspended is updated.
+	 */
+	public boolean offer(T item, Channel channel) {
+		boolean added = super.offer(item);
+		if (added && channel != null && size() >= highWater) {
+			synchronized (flowLock) {
+				if (size() >= highWater && suspended == null) {
+					suspended = channel;
+					channel.setReadable(false);
+				}
+			}
+			resumeIfDrained();
+		}
+		return added;
+	}
+
+	@Override
+	public T take() throws InterruptedException {
+		T item = super.take();
+		resumeIfDrained();
+		return item;
+	}
+
+	@Override
+	public T poll() {
+		T item = super.poll();
+		resumeIfDrained();
+		return item;
+	}
+
+	@Override
+	public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+		T item = super.poll(timeout, unit);
+		resumeIfDrained();
+		return item;
+	}
+
+	private void resumeIfDrained() {
+		if (suspended != null && size() <= highWater / 2) {
+			synchronized (flowLock) {
+				Channel channel = suspended;
+				if (channel != null && size() <= highWater / 2) {
+					suspended = null;
+					channel.setReadable(true);
+				}
+			}
+		}
+	}
 }
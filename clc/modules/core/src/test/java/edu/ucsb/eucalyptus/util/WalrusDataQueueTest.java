@@ -0,0 +1,161 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package edu.ucsb.eucalyptus.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jboss.netty.channel.Channel;
+import org.junit.Test;
+
+/**
+ * Verifies that reading from the producing channel is always resumed once the consumer drains
+ * the queue.
+ */
+public class WalrusDataQueueTest {
+
+	@Test
+	public void testSuspendAndResume() throws Exception {
+		AtomicBoolean readable = new AtomicBoolean(true);
+		Channel channel = channel(readable);
+		WalrusDataQueue<Integer> queue = WalrusDataQueue.withHighWater(4);
+		for (int i = 0; i < 3; i++) {
+			queue.offer(i, channel);
+		}
+		assertTrue("Readable below high water", readable.get());
+		queue.offer(3, channel);
+		assertFalse("Suspended at high water", readable.get());
+		queue.take();
+		assertFalse("Still suspended above half", readable.get());
+		queue.take();
+		assertTrue("Resumed at half", readable.get());
+	}
+
+	/**
+	 * The producer only offers while the channel is readable, as a channel which is not readable
+	 * delivers no more data. If a suspend is ever left in place after the consumer has drained the
+	 * queue both sides wait forever.
+	 */
+	@Test
+	public void testConcurrentOfferAndDrain() throws Exception {
+		final int items = 200000;
+		final AtomicBoolean readable = new AtomicBoolean(true);
+		final Channel channel = channel(readable);
+		final WalrusDataQueue<Integer> queue = WalrusDataQueue.withHighWater(8);
+		final AtomicBoolean stalled = new AtomicBoolean(false);
+		Thread producer = new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < items; i++) {
+					long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+					while (!readable.get()) {
+						if (System.nanoTime() > deadline) {
+							stalled.set(true);
+							return;
+						}
+						Thread.yield();
+					}
+					queue.offer(i, channel);
+				}
+			}
+		};
+		producer.start();
+		for (int i = 0; i < items; i++) {
+			Integer item = queue.poll(10, TimeUnit.SECONDS);
+			if (item == null) {
+				break;
+			}
+			assertEquals("Order", i, item.intValue());
+			if (i % 64 == 0) {
+				Thread.yield();
+			}
+		}
+		producer.join(TimeUnit.SECONDS.toMillis(20));
+		assertFalse("Producer stalled on a suspended channel", stalled.get());
+		assertNull("Nothing left over", queue.poll());
+		assertTrue("Readable once drained", readable.get());
+	}
+
+	private static Channel channel(final AtomicBoolean readable) {
+		return (Channel) Proxy.newProxyInstance(Channel.class.getClassLoader(), new Class<?>[] { Channel.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if ("setReadable".equals(method.getName())) {
+					readable.set((Boolean) args[0]);
+				} else if ("isReadable".equals(method.getName())) {
+					return readable.get();
+				} else if ("hashCode".equals(method.getName())) {
+					return System.identityHashCode(proxy);
+				} else if ("equals".equals(method.getName())) {
+					return proxy == args[0];
+				}
+				return null;
+			}
+		});
+	}
+}
@@ -135,6 +135,16 @@ public class ConnectionHandler extends Thread {
 	byte []
 	      generateReply(Message query, byte [] in, int length, Socket s)
 	throws IOException
+	{
+		return generateReply(query, in, length, s != null);
+	}
+
+	/**
+	 * @param stream true if the reply goes over TCP and may use the full message size
+	 */
+	byte []
+	      generateReply(Message query, byte [] in, int length, boolean stream)
+	throws IOException
 	{
 		Header header;
 		boolean badversion;
@@ -166,7 +176,7 @@ public class ConnectionHandler extends Thread {
 		if (queryOPT != null && queryOPT.getVersion() > 0)
 			badversion = true;
 
-		if (s != null)
+		if (stream)
 			maxLength = 65535;
 		else if (queryOPT != null)
 			maxLength = Math.max(queryOPT.getPayloadSize(), 512);
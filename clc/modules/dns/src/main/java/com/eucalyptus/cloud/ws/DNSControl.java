@@ -75,6 +75,7 @@ import edu.ucsb.eucalyptus.msgs.*;
 import org.apache.log4j.Logger;
 import org.xbill.DNS.*;
 
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.List;
 
@@ -82,32 +83,6 @@ public class DNSControl {
 
 	private static Logger LOG = Logger.getLogger( DNSControl.class );
 
-	static UDPListener udpListener;
-	static TCPListener tcpListener;
-	private static void initializeUDP() throws Exception {
-		try {
-			if (udpListener == null) {
-				udpListener = new UDPListener(Address.getByAddress(DNSProperties.ADDRESS), DNSProperties.PORT);
-				udpListener.start();
-			}
-		} catch(UnknownHostException ex) {
-			LOG.error(ex);
-			throw ex;
-		}
-	}
-
-	private static void initializeTCP() throws Exception {
-		try {
-			if (tcpListener == null) {
-				tcpListener = new TCPListener(Address.getByAddress(DNSProperties.ADDRESS), DNSProperties.PORT);
-				tcpListener.start();
-			}
-		} catch(UnknownHostException ex) {
-			LOG.error(ex);
-			throw ex;
-		}
-	}
-
 	public static void populateRecords() {
 		DNSProperties.update();
 		EntityWrapper<ZoneInfo> db = EntityWrapper.get(ZoneInfo.class);
@@ -144,8 +119,10 @@ public class DNSControl {
 
 	public static void initialize() throws Exception {
 		try {
-			initializeUDP();
-			initializeTCP();
+			DNSServer.start(new InetSocketAddress(Address.getByAddress(DNSProperties.ADDRESS), DNSProperties.PORT));
+		} catch(UnknownHostException ex) {
+			LOG.error(ex);
+			throw ex;
 		} catch(Exception ex) {
 			LOG.error("DNS could not be initialized. Is some other service running on port 53?");
 			throw ex;
@@ -153,14 +130,7 @@ public class DNSControl {
 	}
 
 	public static void stop() throws Exception {
-		if (udpListener != null) {
-			udpListener.close();
-			udpListener = null;
-		}
-		if (tcpListener != null) {
-			tcpListener.close();
-			tcpListener = null;
-		}
+		DNSServer.stop();
 	}
 	
 	public DNSControl() {}
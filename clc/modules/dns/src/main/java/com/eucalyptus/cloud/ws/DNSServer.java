@@ -0,0 +1,380 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.cloud.ws;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineCoverage;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.FixedReceiveBufferSizePredictor;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.frame.LengthFieldBasedFrameDecoder;
+import org.jboss.netty.handler.codec.frame.LengthFieldPrepender;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Rcode;
+
+import com.eucalyptus.event.ClockTick;
+import com.eucalyptus.event.EventListener;
+import com.eucalyptus.event.Listeners;
+import com.eucalyptus.util.DNSProperties;
+import com.eucalyptus.util.LatencyHistogram;
+import com.eucalyptus.util.Mbeans;
+
+/**
+ * The DNS front end: UDP and TCP listeners on NIO channels which hand each query to a pool of
+ * {@link DNSProperties#WORKER_THREADS} workers, so a slow lookup only holds up its own reply.
+ * Resolution is done by {@link ConnectionHandler#generateReply}. A query which is not answered
+ * within {@link DNSProperties#QUERY_TIMEOUT_MILLIS}, or which can not be queued, gets a SERVFAIL.
+ * Query rate and latency are exported through JMX.
+ */
+public class DNSServer implements EventListener<ClockTick> {
+	private static Logger LOG = Logger.getLogger( DNSServer.class );
+	private static final DNSServer INSTANCE = new DNSServer( );
+	private final ConnectionHandler resolver = new ConnectionHandler( );
+	private final LatencyHistogram latency = new LatencyHistogram( );
+	private final AtomicLong queries = new AtomicLong( );
+	private final AtomicLong timeouts = new AtomicLong( );
+	private final AtomicLong rejected = new AtomicLong( );
+	private volatile long lastQueries;
+	private volatile long lastTick = System.nanoTime( );
+	private volatile double queriesPerSecond;
+	private ChannelGroup channels;
+	private ThreadPoolExecutor workers;
+	private HashedWheelTimer timer;
+	private NioDatagramChannelFactory udpFactory;
+	private NioServerSocketChannelFactory tcpFactory;
+
+	static {
+		Mbeans.register( INSTANCE );
+	}
+
+	private DNSServer( ) {
+		Listeners.register( ClockTick.class, this );
+	}
+
+	public static DNSServer getInstance( ) {
+		return INSTANCE;
+	}
+
+	public static synchronized void start( InetSocketAddress address ) {
+		INSTANCE.bind( address );
+	}
+
+	public static synchronized void stop( ) {
+		INSTANCE.unbind( );
+	}
+
+	private void bind( InetSocketAddress address ) {
+		if ( this.channels != null ) {
+			return;
+		}
+		int threads = DNSProperties.WORKER_THREADS > 0 ? DNSProperties.WORKER_THREADS : Runtime.getRuntime( ).availableProcessors( );
+		this.workers = new ThreadPoolExecutor( threads, threads, 60, TimeUnit.SECONDS,
+		                                       new ArrayBlockingQueue<Runnable>( Math.max( 1, DNSProperties.MAX_PENDING_QUERIES ) ) );
+		this.timer = new HashedWheelTimer( );
+		this.channels = new DefaultChannelGroup( "dns" );
+		try {
+			this.udpFactory = new NioDatagramChannelFactory( Executors.newCachedThreadPool( ) );
+			ConnectionlessBootstrap udp = new ConnectionlessBootstrap( this.udpFactory );
+			udp.setPipelineFactory( new ChannelPipelineFactory( ) {
+				@Override
+				public ChannelPipeline getPipeline( ) throws Exception {
+					return Channels.pipeline( new QueryHandler( false ) );
+				}
+			} );
+			udp.setOption( "receiveBufferSizePredictor", new FixedReceiveBufferSizePredictor( DNSProperties.MAX_UDP_PAYLOAD_SIZE ) );
+			udp.setOption( "broadcast", false );
+			this.channels.add( udp.bind( address ) );
+
+			this.tcpFactory = new NioServerSocketChannelFactory( Executors.newCachedThreadPool( ), Executors.newCachedThreadPool( ) );
+			ServerBootstrap tcp = new ServerBootstrap( this.tcpFactory );
+			tcp.setPipelineFactory( new ChannelPipelineFactory( ) {
+				@Override
+				public ChannelPipeline getPipeline( ) throws Exception {
+					ChannelPipeline pipeline = Channels.pipeline( );
+					pipeline.addLast( "decoder", new LengthFieldBasedFrameDecoder( 65535, 0, 2, 0, 2 ) );
+					pipeline.addLast( "encoder", new LengthFieldPrepender( 2 ) );
+					pipeline.addLast( "handler", new QueryHandler( true ) );
+					return pipeline;
+				}
+			} );
+			tcp.setOption( "backlog", 128 );
+			tcp.setOption( "reuseAddress", true );
+			tcp.setOption( "child.tcpNoDelay", true );
+			this.channels.add( tcp.bind( address ) );
+			LOG.info( "Listening for DNS queries on " + address + " with " + threads + " workers" );
+		} catch ( RuntimeException ex ) {
+			this.unbind( );
+			throw ex;
+		}
+	}
+
+	private void unbind( ) {
+		if ( this.channels != null ) {
+			this.channels.close( ).awaitUninterruptibly( );
+			this.channels = null;
+		}
+		if ( this.udpFactory != null ) {
+			this.udpFactory.releaseExternalResources( );
+			this.udpFactory = null;
+		}
+		if ( this.tcpFactory != null ) {
+			this.tcpFactory.releaseExternalResources( );
+			this.tcpFactory = null;
+		}
+		if ( this.timer != null ) {
+			this.timer.stop( );
+			this.timer = null;
+		}
+		if ( this.workers != null ) {
+			this.workers.shutdownNow( );
+			this.workers = null;
+		}
+	}
+
+	@Override
+	public void fireEvent( ClockTick event ) {
+		long now = System.nanoTime( );
+		long count = this.queries.get( );
+		long elapsed = now - this.lastTick;
+		if ( elapsed > 0 ) {
+			this.queriesPerSecond = ( count - this.lastQueries ) * ( double ) TimeUnit.SECONDS.toNanos( 1 ) / elapsed;
+		}
+		this.lastQueries = count;
+		this.lastTick = now;
+	}
+
+	public long getQueries( ) {
+		return this.queries.get( );
+	}
+
+	public double getQueriesPerSecond( ) {
+		return this.queriesPerSecond;
+	}
+
+	public long getTimeouts( ) {
+		return this.timeouts.get( );
+	}
+
+	public long getRejected( ) {
+		return this.rejected.get( );
+	}
+
+	public long getPendingQueries( ) {
+		ThreadPoolExecutor pool = this.workers;
+		return pool == null ? 0 : pool.getQueue( ).size( );
+	}
+
+	public long getLatencyP99Micros( ) {
+		return this.latency.getPercentileMicros( 99.0 );
+	}
+
+	public String getLatency( ) {
+		return this.latency.toString( );
+	}
+
+	/**
+	 * Resolves one query on a worker and writes the reply, or SERVFAIL if the query times out.
+	 */
+	private class Query implements Runnable, TimerTask {
+		private final Channel       channel;
+		private final SocketAddress remote;
+		private final byte[]        in;
+		private final boolean       stream;
+		private final long          start = System.nanoTime( );
+		private final AtomicBoolean done  = new AtomicBoolean( false );
+		private volatile Future<?>  future;
+		private volatile Timeout    timeout;
+
+		Query( Channel channel, SocketAddress remote, byte[] in, boolean stream ) {
+			this.channel = channel;
+			this.remote = remote;
+			this.in = in;
+			this.stream = stream;
+		}
+
+		void submit( ) {
+			DNSServer.this.queries.incrementAndGet( );
+			//the timeout is set first so a fast reply always finds it to cancel
+			this.timeout = DNSServer.this.timer.newTimeout( this, DNSProperties.QUERY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS );
+			try {
+				this.future = DNSServer.this.workers.submit( this );
+			} catch ( RejectedExecutionException ex ) {
+				DNSServer.this.rejected.incrementAndGet( );
+				this.fail( );
+			}
+		}
+
+		@Override
+		public void run( ) {
+			byte[] response;
+			try {
+				Message query = new Message( this.in );
+				response = DNSServer.this.resolver.generateReply( query, this.in, this.in.length, this.stream );
+			} catch ( IOException ex ) {
+				response = DNSServer.this.resolver.formerrMessage( this.in );
+			} catch ( RuntimeException ex ) {
+				LOG.error( ex, ex );
+				response = null;
+				this.fail( );
+			}
+			if ( response != null ) {
+				this.reply( response );
+			}
+		}
+
+		@Override
+		public void run( Timeout timeout ) {
+			if ( !this.done.get( ) ) {
+				DNSServer.this.timeouts.incrementAndGet( );
+				Future<?> f = this.future;
+				if ( f != null ) {
+					//a query still waiting is dropped, one being resolved finishes and its reply is discarded
+					f.cancel( false );
+				}
+				this.fail( );
+			}
+		}
+
+		private void fail( ) {
+			Message query = null;
+			try {
+				query = new Message( this.in );
+			} catch ( IOException ex ) {
+				//unparseable and the worker is gone, nothing to say
+			}
+			if ( query != null ) {
+				this.reply( DNSServer.this.resolver.errorMessage( query, Rcode.SERVFAIL ) );
+			}
+		}
+
+		private void reply( byte[] response ) {
+			if ( this.done.compareAndSet( false, true ) ) {
+				Timeout t = this.timeout;
+				if ( t != null ) {
+					t.cancel( );
+				}
+				DNSServer.this.latency.record( System.nanoTime( ) - this.start );
+				ChannelBuffer buffer = ChannelBuffers.wrappedBuffer( response );
+				if ( this.stream ) {
+					this.channel.write( buffer );
+				} else {
+					this.channel.write( buffer, this.remote );
+				}
+			}
+		}
+	}
+
+	@ChannelPipelineCoverage( "all" )
+	private class QueryHandler extends SimpleChannelUpstreamHandler {
+		private final boolean stream;
+
+		QueryHandler( boolean stream ) {
+			this.stream = stream;
+		}
+
+		@Override
+		public void messageReceived( ChannelHandlerContext ctx, MessageEvent e ) throws Exception {
+			ChannelBuffer buffer = ( ChannelBuffer ) e.getMessage( );
+			byte[] in = new byte[buffer.readableBytes( )];
+			buffer.readBytes( in );
+			new Query( ctx.getChannel( ), e.getRemoteAddress( ), in, this.stream ).submit( );
+		}
+
+		@Override
+		public void exceptionCaught( ChannelHandlerContext ctx, ExceptionEvent e ) throws Exception {
+			LOG.debug( e.getCause( ), e.getCause( ) );
+			if ( this.stream ) {
+				ctx.getChannel( ).close( );
+			}
+		}
+	}
+}
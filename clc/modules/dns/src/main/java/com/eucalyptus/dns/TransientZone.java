@@ -82,6 +82,7 @@ import com.eucalyptus.util.EucalyptusCloudException;
 import com.eucalyptus.util.Internets;
 import com.eucalyptus.util.WalrusProperties;
 import com.eucalyptus.vm.VmInstance;
+import com.eucalyptus.vm.VmInstanceDirectory;
 import com.eucalyptus.vm.VmInstances;
 import com.eucalyptus.ws.StackConfiguration;
 
@@ -180,14 +181,19 @@ public class TransientZone extends Zone {
           .append(tryIp[1]).append(".")
           .append(tryIp[2]).append(".")
           .append(tryIp[3]).toString( );
-        try {
-          VmInstances.lookupByPublicIp( ipCandidate );
-        } catch ( Exception e ) {
-          try {
-            VmInstances.lookupByPrivateIp( ipCandidate );
-          } catch ( Exception e1 ) {
+        if ( VmInstanceDirectory.lookupByIp( ipCandidate ) == null ) {
+          if ( VmInstanceDirectory.isAuthoritative( ) ) {
             return super.findRecords( name, type );
           }
+          try {
+            VmInstances.lookupByPublicIp( ipCandidate );
+          } catch ( Exception e ) {
+            try {
+              VmInstances.lookupByPrivateIp( ipCandidate );
+            } catch ( Exception e1 ) {
+              return super.findRecords( name, type );
+            }
+          }
         }
         InetAddress ip = InetAddress.getByName( ipCandidate );
         SetResponse resp = new SetResponse(SetResponse.SUCCESSFUL);
@@ -223,17 +229,26 @@ public class TransientZone extends Zone {
 		} else {
 		  return super.findRecords( name, type );
 		}
+		VmInstanceDirectory.Entry entry;
 		try {
-	      VmInstance instance = VmInstances.lookupByPublicIp( ipCandidate );
-	      target = new Name(instance.getPublicDnsName() + ".");
-	    } catch ( Exception e ) {
-	      try {
-	        VmInstance instance = VmInstances.lookupByPrivateIp( ipCandidate );
-	        target = new Name(instance.getPrivateDnsName() + ".");
-	      } catch ( Exception e1 ) {
-	        return super.findRecords( name, type );
-	      }
-	    }
+		  if ( ( entry = VmInstanceDirectory.lookupByPublicIp( ipCandidate ) ) != null ) {
+		    target = new Name(entry.getPublicDnsName() + ".");
+		  } else if ( ( entry = VmInstanceDirectory.lookupByPrivateIp( ipCandidate ) ) != null ) {
+		    target = new Name(entry.getPrivateDnsName() + ".");
+		  } else if ( VmInstanceDirectory.isAuthoritative( ) ) {
+		    return super.findRecords( name, type );
+		  } else {
+		    try {
+		      VmInstance instance = VmInstances.lookupByPublicIp( ipCandidate );
+		      target = new Name(instance.getPublicDnsName() + ".");
+		    } catch ( Exception e ) {
+		      VmInstance instance = VmInstances.lookupByPrivateIp( ipCandidate );
+		      target = new Name(instance.getPrivateDnsName() + ".");
+		    }
+		  }
+		} catch ( Exception e ) {
+		  return super.findRecords( name, type );
+		}
         SetResponse resp = new SetResponse(SetResponse.SUCCESSFUL);
         resp.addRRset( new RRset( new PTRRecord( name, DClass.IN, ttl, target ) ) );
         return resp;
@@ -66,8 +66,6 @@ import java.io.UnsupportedEncodingException;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.net.URLCodec;
 import org.apache.log4j.Logger;
@@ -118,11 +116,8 @@ public class Hmacv1LoginModule extends HmacLoginModuleSupport {
   }
 
   public String getSignature( final String queryKey, final String subject, final Hmac mac ) throws AuthenticationException {
-    SecretKeySpec signingKey = new SecretKeySpec( queryKey.getBytes( ), mac.toString( ) );
     try {
-      Mac digest = mac.getInstance( );
-      digest.init( signingKey );
-      byte[] rawHmac = digest.doFinal( subject.getBytes( ) );
+      byte[] rawHmac = mac.getInstance( queryKey.getBytes( ) ).doFinal( subject.getBytes( ) );
       return sanitize( Base64.encode( rawHmac ) );
     } catch ( Exception e ) {
       LOG.error( e, e );
@@ -63,11 +63,8 @@
 package com.eucalyptus.auth.login;
 
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.NavigableSet;
-import java.util.TreeSet;
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import org.apache.commons.codec.net.URLCodec;
 import org.apache.log4j.Logger;
 import org.apache.xml.security.utils.Base64;
@@ -78,6 +75,12 @@ import com.google.common.base.Strings;
 
 public class Hmacv2LoginModule extends HmacLoginModuleSupport {
   private static Logger LOG = Logger.getLogger( Hmacv2LoginModule.class );
+  private static final URLCodec CODEC = new URLCodec( );
+  /**
+   * Alternative encodings of the canonical string used by clients that encode the request
+   * differently, tried in order against the url-decoded signature.
+   */
+  private static final String[][] ALTERNATE_ENCODINGS = { { "+", "%2B" }, { "+", "%20" }, { "*", "%2A" } };
 
   public Hmacv2LoginModule() {
     super(2);
@@ -90,64 +93,72 @@ public class Hmacv2LoginModule extends HmacLoginModuleSupport {
     AccessKey accessKey = lookupAccessKey( credentials );
     User user = accessKey.getUser( );
     String secretKey = accessKey.getSecretKey( );
-    String canonicalString = this.makeSubjectString( credentials.getVerb( ), credentials.getHeaderHost( ), credentials.getServicePath( ), credentials.getParameters( ) );
-    String canonicalStringWithPort = this.makeSubjectString( credentials.getVerb( ), credentials.getHeaderHost( ) + ":" + credentials.getHeaderPort( ), credentials.getServicePath( ), credentials.getParameters( ) );
-    String computedSig = this.getSignature( secretKey, canonicalString, credentials.getSignatureMethod( ) );
-    String computedSigWithPort = this.getSignature( secretKey, canonicalStringWithPort, credentials.getSignatureMethod( ) );
-    if ( !computedSig.equals( sig ) && !computedSigWithPort.equals( sig ) ) {
-      sig = sanitize( urldecode( sig ) );
-      computedSig = this.getSignature( secretKey, canonicalString.replaceAll("\\+","%2B"), credentials.getSignatureMethod( ) ).replaceAll("\\+"," ");
-      computedSigWithPort = this.getSignature( secretKey, canonicalStringWithPort.replaceAll("\\+","%2B"), credentials.getSignatureMethod( ) ).replaceAll("\\+"," ");
-      if( !computedSig.equals( sig ) && !computedSigWithPort.equals( sig ) ) {
-        computedSig = this.getSignature( secretKey, canonicalString.replaceAll("\\+","%20"), credentials.getSignatureMethod( ) ).replaceAll("\\+"," ");
-        computedSigWithPort = this.getSignature( secretKey, canonicalStringWithPort.replaceAll("\\+","%20"), credentials.getSignatureMethod( ) ).replaceAll("\\+"," ");
-        if( !computedSig.equals( sig ) && !computedSigWithPort.equals( sig ) ) {
-          computedSig = this.getSignature( secretKey, canonicalString.replaceAll("\\*","%2A"), credentials.getSignatureMethod( ) ).replaceAll("\\+"," ");
-          computedSigWithPort = this.getSignature( secretKey, canonicalStringWithPort.replaceAll("\\*","%2A"), credentials.getSignatureMethod( ) ).replaceAll("\\+"," ");
-          if( !computedSig.equals( sig ) && !computedSigWithPort.equals( sig ) ) {
-            return false;
-          }
+    Hmac mac = credentials.getSignatureMethod( );
+    String parameterString = this.makeParameterString( credentials.getParameters( ) );
+    String[] canonicalStrings = {
+      this.makeSubjectString( credentials.getVerb( ), credentials.getHeaderHost( ), credentials.getServicePath( ), parameterString ),
+      this.makeSubjectString( credentials.getVerb( ), credentials.getHeaderHost( ) + ":" + credentials.getHeaderPort( ), credentials.getServicePath( ), parameterString ) };
+    String[] computedSigs = new String[canonicalStrings.length];
+    boolean matched = false;
+    for ( int i = 0; i < canonicalStrings.length && !matched; i++ ) {
+      computedSigs[i] = this.getSignature( secretKey, canonicalStrings[i], mac );
+      matched = computedSigs[i].equals( sig );
+    }
+    if ( !matched ) {
+      String decodedSig = sanitize( urldecode( sig ) );
+      for ( int e = 0; e < ALTERNATE_ENCODINGS.length && !matched; e++ ) {
+        String target = ALTERNATE_ENCODINGS[e][0];
+        String replacement = ALTERNATE_ENCODINGS[e][1];
+        for ( int i = 0; i < canonicalStrings.length && !matched; i++ ) {
+          // an encoding that leaves the canonical string unchanged yields the signature computed above
+          String computedSig = canonicalStrings[i].contains( target )
+            ? this.getSignature( secretKey, canonicalStrings[i].replace( target, replacement ), mac )
+            : computedSigs[i];
+          matched = computedSig.replace( '+', ' ' ).equals( decodedSig );
         }
       }
     }
+    if ( !matched ) {
+      return false;
+    }
     super.setCredential( credentials.getQueryIdCredential( ) );
     super.setPrincipal( user );
     //super.getGroups( ).addAll( Groups.lookupUserGroups( super.getPrincipal( ) ) );
     return true;
   }
 
-  private String makeSubjectString( String httpMethod, String host, String path, final Map<String, String> parameters ) throws UnsupportedEncodingException {
-    URLCodec codec = new URLCodec();
-    parameters.remove("");
-    StringBuilder sb = new StringBuilder( );
-    sb.append( httpMethod );
-    sb.append( "\n" );
-    sb.append( host );
-    sb.append( "\n" );
-    sb.append( path );
-    sb.append( "\n" );
-    String prefix = sb.toString( );
-    sb = new StringBuilder( );
-    NavigableSet<String> sortedKeys = new TreeSet<String>( );
-    sortedKeys.addAll( parameters.keySet( ) );
-    String firstKey = sortedKeys.pollFirst( );
-    if( firstKey != null ) { 
-      sb.append( codec.encode( firstKey ,"UTF-8" ) ).append( "=" ).append( codec.encode( Strings.nullToEmpty( parameters.get( firstKey ) ), "UTF-8" ).replaceAll( "\\+", "%20" ) );
-    } 
-    while ( ( firstKey = sortedKeys.pollFirst( ) ) != null ) {
-      sb.append( "&" ).append( codec.encode( firstKey, "UTF-8" ) ).append( "=" ).append( codec.encode( Strings.nullToEmpty( parameters.get( firstKey ) ), "UTF-8" ).replaceAll( "\\+", "%20" ) );
+  private String makeSubjectString( String httpMethod, String host, String path, String parameterString ) {
+    StringBuilder sb = new StringBuilder( httpMethod.length( ) + host.length( ) + path.length( ) + parameterString.length( ) + 3 );
+    sb.append( httpMethod ).append( '\n' );
+    sb.append( host ).append( '\n' );
+    sb.append( path ).append( '\n' );
+    sb.append( parameterString );
+    String subject = sb.toString( );
+    if ( LOG.isTraceEnabled( ) ) {
+      LOG.trace( "VERSION2: " + subject );
     }
-    String subject = prefix + sb.toString( );
-    LOG.trace( "VERSION2: " + subject );
     return subject;
   }
 
+  private String makeParameterString( final Map<String, String> parameters ) throws UnsupportedEncodingException {
+    parameters.remove( "" );
+    String[] sortedKeys = parameters.keySet( ).toArray( new String[parameters.size( )] );
+    Arrays.sort( sortedKeys );
+    StringBuilder sb = new StringBuilder( );
+    for ( String key : sortedKeys ) {
+      if ( sb.length( ) > 0 ) {
+        sb.append( '&' );
+      }
+      sb.append( CODEC.encode( key, "UTF-8" ) ).append( '=' );
+      String value = CODEC.encode( Strings.nullToEmpty( parameters.get( key ) ), "UTF-8" );
+      sb.append( value.indexOf( '+' ) < 0 ? value : value.replace( "+", "%20" ) );
+    }
+    return sb.toString( );
+  }
+
   public String getSignature( final String queryKey, final String subject, final Hmac mac ) throws AuthenticationException {
-    SecretKeySpec signingKey = new SecretKeySpec( queryKey.getBytes( ), mac.toString( ) );
     try {
-      Mac digest = mac.getInstance( );
-      digest.init( signingKey );
-      byte[] rawHmac = digest.doFinal( subject.getBytes( ) );
+      byte[] rawHmac = mac.getInstance( queryKey.getBytes( ) ).doFinal( subject.getBytes( ) );
       return sanitize( Base64.encode( rawHmac ) );
     } catch ( Exception e ) {
       LOG.error( e, e );
@@ -77,24 +77,48 @@ import javax.security.auth.login.AppConfigurationEntry.LoginModuleControlFlag;
 import javax.security.auth.spi.LoginModule;
 import org.apache.log4j.Logger;
 import com.eucalyptus.bootstrap.ServiceJarDiscovery;
-import com.eucalyptus.util.TimedEvictionSet;
+import com.eucalyptus.util.Mbeans;
+import com.eucalyptus.util.ReplayFilter;
 import com.google.common.collect.Lists;
 import com.eucalyptus.ws.StackConfiguration;
 
 public class SecurityContext extends Configuration {
   private static SecurityContext singleton = new SecurityContext( );
   private static Logger LOG = Logger.getLogger( SecurityContext.class );
+  private static final int REPLAY_FILTER_SLICES = 8;
+  private static final int REPLAY_FILTER_DEFAULT_RATE = 5000;
   // Note: According WS-Security spec, WS-Security requests need 
   // to be cached for at least 5 min for timestamps to expire
   // For AWS query interface, default expiration time is 15 mins
   // we cache for 15 mins 20 secs to allow for some clock drift
   // (in case creation Timestamp is up to 20 secs in the future)
-  private static TimedEvictionSet<String> replayQueue = new TimedEvictionSet<String>(TimeUnit.MILLISECONDS.convert(900 + StackConfiguration.CLOCK_SKEW_SEC, TimeUnit.SECONDS));
+  private static ReplayFilter replayQueue = new ReplayFilter( TimeUnit.MILLISECONDS.convert( 900 + StackConfiguration.CLOCK_SKEW_SEC, TimeUnit.SECONDS ),
+                                                             REPLAY_FILTER_SLICES, replayFilterMaxEntries( ) );
   private List<String> loginModules = Lists.newArrayList( );
+  static {
+    Mbeans.register( replayQueue );
+  }
   private SecurityContext( ) {}
   
+  /**
+   * The configured bound on remembered signatures, by default enough for
+   * {@link #REPLAY_FILTER_DEFAULT_RATE} signed requests per second over the replay window.
+   */
+  private static int replayFilterMaxEntries( ) {
+    Integer configured = StackConfiguration.REPLAY_FILTER_MAX_ENTRIES;
+    if ( configured != null && configured > 0 ) {
+      return configured;
+    } else {
+      return ( int ) Math.min( Integer.MAX_VALUE, ( long ) REPLAY_FILTER_DEFAULT_RATE * ( 900 + StackConfiguration.CLOCK_SKEW_SEC ) );
+    }
+  }
+  
   public static void enqueueSignature( String signature ) throws AuthenticationException {
-    if( !SecurityContext.replayQueue.add( signature ) ) {
+    int maxEntries = replayFilterMaxEntries( );
+    if ( maxEntries != SecurityContext.replayQueue.getMaxEntries( ) ) {
+      SecurityContext.replayQueue.setMaxEntries( maxEntries );
+    }
+    if( !SecurityContext.replayQueue.add( signature, TimeUnit.MILLISECONDS.convert( StackConfiguration.REPLAY_SKEW_WINDOW_SEC, TimeUnit.SECONDS ) ) ) {
     	LOG.info("Replay detected for " + signature);
     	throw new AuthenticationException( "Message replay detected.  Same signature was used within the last 15 minutes");
     }
@@ -113,10 +137,10 @@ public class SecurityContext extends Configuration {
    * @return
    */
   public static boolean validateTimestampPeriod(Date expires) {
-	 Long nanoLimit = replayQueue.getEvictionNanos();
+	 long millisLimit = replayQueue.getWindowMillis();
 	 
 	 Date currentDate = new Date();
-	 if((currentDate.getTime() + (nanoLimit / 1000000)) < expires.getTime())
+	 if((currentDate.getTime() + millisLimit) < expires.getTime())
 		 return false;
 	 
 	  return true;
@@ -62,10 +62,10 @@
 
 package com.eucalyptus.binding;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -74,6 +74,7 @@ import java.util.Map;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
 import org.apache.axiom.om.impl.builder.StAXOMBuilder;
 import org.apache.axiom.soap.SOAPEnvelope;
 import org.apache.axiom.soap.SOAPFactory;
@@ -100,6 +101,13 @@ import edu.ucsb.eucalyptus.msgs.BaseMessage;
 public class Binding {
   
   private static Logger       LOG                 = Logger.getLogger( Binding.class );
+  private static final OutputStream DISCARD = new OutputStream( ) {
+    @Override
+    public void write( int b ) {}
+    
+    @Override
+    public void write( byte[] b, int off, int len ) {}
+  };
   private final String        name;
   private IBindingFactory     bindingFactory;
   private Map<String, Class>  elementToClassMap   = Maps.newHashMap( );
@@ -217,22 +225,35 @@ public class Binding {
   }
 
   public OMElement toOM( final Object param, final String altNs ) throws BindingException {
-    final ByteArrayOutputStream bos = new ByteArrayOutputStream( );
-    final String useNs = toStream( bos, param, altNs );
-    final OMElement retVal;
-    HoldMe.canHas.lock( );
-    try {
-      final StAXOMBuilder stAXOMBuilder = HoldMe.getStAXOMBuilder( HoldMe.getXMLStreamReader( bos.toString() ) );
-      retVal = stAXOMBuilder.getDocumentElement( );
-    } catch ( XMLStreamException e ) {
-      LOG.error( e, e );
-      throw new BindingException( this.name + " failed to marshall type " + param.getClass( ).getCanonicalName( ) + " with ns:" + useNs + " caused by: "
-                                  + e.getMessage( ), e );
-    } finally {
-      HoldMe.canHas.unlock( );
+    final MarshalledDataSource.Buffer buffer = new MarshalledDataSource.Buffer( );
+    final String useNs = toStream( buffer, param, altNs );
+    final String elementName = this.classToElementMap.get( ( ( IMarshallable ) param ).JiBX_getName( ) );
+    final MarshalledDataSource dataSource = new MarshalledDataSource( buffer );
+    if ( elementName != null ) {
+      final OMFactory factory = HoldMe.getOMFactory( );
+      return factory.createOMElement( dataSource, elementName, factory.createOMNamespace( useNs, "" ) );
+    } else {
+      final OMElement retVal;
+      HoldMe.canHas.lock( );
+      try {
+        final StAXOMBuilder stAXOMBuilder = HoldMe.getStAXOMBuilder( dataSource.getReader( ) );
+        retVal = stAXOMBuilder.getDocumentElement( );
+      } catch ( XMLStreamException e ) {
+        LOG.error( e, e );
+        throw new BindingException( this.name + " failed to marshall type " + param.getClass( ).getCanonicalName( ) + " with ns:" + useNs + " caused by: "
+                                    + e.getMessage( ), e );
+      } finally {
+        HoldMe.canHas.unlock( );
+      }
+      return retVal;
     }
-    
-    return retVal;
+  }
+
+  /**
+   * Marshal the message discarding the output, to check that it can be bound.
+   */
+  public void validate( final Object param, final String altNs ) throws BindingException {
+    toStream( DISCARD, param, altNs );
   }
   
   public UnmarshallingContext getNewUnmarshalContext( final OMElement param ) throws JiBXException {
@@ -247,10 +268,19 @@ public class Binding {
   }
   
   public Object fromOM( final String text ) throws Exception {
+    if ( this.bindingFactory == null ) {
+      throw new RuntimeException( "Binding bootstrap failed to construct the binding factory for " + this.name );
+    }
     HoldMe.canHas.lock( );
     try {
-      final StAXOMBuilder builder = HoldMe.getStAXOMBuilder( HoldMe.getXMLStreamReader( text ) );
-      return this.fromOM( builder.getDocumentElement( ) );
+      final UnmarshallingContext ctx = ( UnmarshallingContext ) this.bindingFactory.createUnmarshallingContext( );
+      final IXMLReader reader = new StAXReaderWrapper( HoldMe.getXMLInputFactory( ).createXMLStreamReader( new StringReader( text ) ), "SOAP-message", true );
+      ctx.setDocument( reader );
+      ctx.toTag( );
+      return ctx.unmarshalElement( );
+    } catch ( final JiBXException e ) {
+      LOG.warn( e, e );
+      throw new WebServicesException( e.getMessage( ) );
     } finally {
       HoldMe.canHas.unlock( );
     }
@@ -0,0 +1,153 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.binding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import org.apache.axiom.om.OMDataSource;
+import org.apache.axiom.om.OMOutputFormat;
+import org.apache.axiom.om.impl.serialize.StreamingOMSerializer;
+
+/**
+ * Data source for an element holding the UTF-8 encoded output of a JiBX marshalling.
+ * 
+ * Serializing the element copies the marshalled bytes to the output, the OM tree for the element
+ * is only built if the element is navigated.
+ */
+class MarshalledDataSource implements OMDataSource {
+  private static final String UTF_8 = "UTF-8";
+  private final byte[] data;
+  private final int length;
+
+  MarshalledDataSource( final Buffer buffer ) {
+    this.data = buffer.data( );
+    this.length = buffer.size( );
+  }
+
+  @Override
+  public void serialize( final OutputStream output, final OMOutputFormat format ) throws XMLStreamException {
+    try {
+      final String encoding = format == null ? null : format.getCharSetEncoding( );
+      if ( encoding == null || UTF_8.equalsIgnoreCase( encoding ) ) {
+        output.write( this.data, 0, this.length );
+      } else {
+        output.write( this.toString( ).getBytes( encoding ) );
+      }
+    } catch ( IOException e ) {
+      throw new XMLStreamException( e );
+    }
+  }
+
+  @Override
+  public void serialize( final Writer writer, final OMOutputFormat format ) throws XMLStreamException {
+    try {
+      writer.write( this.toString( ) );
+    } catch ( IOException e ) {
+      throw new XMLStreamException( e );
+    }
+  }
+
+  @Override
+  public void serialize( final XMLStreamWriter xmlWriter ) throws XMLStreamException {
+    final XMLStreamReader reader = this.getReader( );
+    try {
+      new StreamingOMSerializer( ).serialize( reader, xmlWriter );
+    } finally {
+      reader.close( );
+    }
+  }
+
+  @Override
+  public XMLStreamReader getReader( ) throws XMLStreamException {
+    return HoldMe.getXMLStreamReader( new ByteArrayInputStream( this.data, 0, this.length ) );
+  }
+
+  @Override
+  public String toString( ) {
+    try {
+      return new String( this.data, 0, this.length, UTF_8 );
+    } catch ( UnsupportedEncodingException e ) {
+      throw new IllegalStateException( e );
+    }
+  }
+
+  /**
+   * Output buffer whose contents can be handed to the data source without copying.
+   */
+  static class Buffer extends ByteArrayOutputStream {
+    Buffer( ) {
+      super( 4096 );
+    }
+
+    byte[] data( ) {
+      return this.buf;
+    }
+  }
+}
@@ -109,6 +109,7 @@ import com.eucalyptus.configurable.ConfigurableClass;
 import com.eucalyptus.configurable.ConfigurableField;
 import com.eucalyptus.empyrean.ServiceStatusDetail;
 import com.eucalyptus.empyrean.ServiceStatusType;
+import com.eucalyptus.event.AsyncListener;
 import com.eucalyptus.event.ClockTick;
 import com.eucalyptus.event.EventListener;
 import com.eucalyptus.event.Listeners;
@@ -632,6 +633,7 @@ public class Faults {
     }
   }
   
+  @AsyncListener( coalesce = true )
   public static class FaultNotificationHandler implements EventListener<ClockTick>, Callable<Boolean> {
     private static final AtomicBoolean ready      = new AtomicBoolean( true );
     private static final AtomicLong    lastDigest = new AtomicLong( System.currentTimeMillis( ) );
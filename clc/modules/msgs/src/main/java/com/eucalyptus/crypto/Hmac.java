@@ -62,8 +62,11 @@
 
 package com.eucalyptus.crypto;
 
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import org.apache.log4j.Logger;
 
 public enum Hmac {
@@ -71,6 +74,8 @@ public enum Hmac {
   HmacSHA256;
 
   private static Logger LOG = Logger.getLogger( Hmac.class );
+  private final ThreadLocal<KeyedMac> keyedMacs = new ThreadLocal<KeyedMac>( );
+
   public Mac getInstance() {
     try {
       return Mac.getInstance( this.toString( ) );
@@ -79,4 +84,36 @@ public enum Hmac {
       throw new RuntimeException( e );
     }
   }
+
+  /**
+   * Get this thread's Mac for the algorithm, initialized with the given key.
+   * 
+   * The Mac is only re-initialized when the key differs from the last one used on this thread, so
+   * signing repeatedly with the same key reuses the precomputed key state. The returned Mac must
+   * not be used after another call to this method on the same thread.
+   */
+  public Mac getInstance( final byte[] key ) throws InvalidKeyException {
+    KeyedMac keyedMac = this.keyedMacs.get( );
+    if ( keyedMac == null ) {
+      keyedMac = new KeyedMac( this.getInstance( ) );
+      this.keyedMacs.set( keyedMac );
+    }
+    if ( keyedMac.key == null || !MessageDigest.isEqual( keyedMac.key, key ) ) {
+      keyedMac.key = null;
+      keyedMac.mac.init( new SecretKeySpec( key, this.toString( ) ) );
+      keyedMac.key = key.clone( );
+    } else {
+      keyedMac.mac.reset( );
+    }
+    return keyedMac.mac;
+  }
+
+  private static final class KeyedMac {
+    private final Mac mac;
+    private byte[] key;
+
+    KeyedMac( final Mac mac ) {
+      this.mac = mac;
+    }
+  }
 }
@@ -70,7 +70,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import javax.persistence.EntityManager;
@@ -93,6 +92,9 @@ import org.hibernate.exception.LockAcquisitionException;
 import com.eucalyptus.bootstrap.Databases;
 import com.eucalyptus.configurable.ConfigurableClass;
 import com.eucalyptus.configurable.ConfigurableField;
+import com.eucalyptus.configurable.ConfigurableProperty;
+import com.eucalyptus.configurable.ConfigurablePropertyException;
+import com.eucalyptus.configurable.PropertyChangeListener;
 import com.eucalyptus.records.Logs;
 import com.eucalyptus.system.Ats;
 import com.eucalyptus.system.Threads;
@@ -102,6 +104,7 @@ import com.eucalyptus.util.HasNaturalId;
 import com.eucalyptus.util.LogUtil;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
+import com.google.common.base.Joiner;
 import com.google.common.base.Predicate;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
@@ -115,6 +118,16 @@ public class Entities {
   @ConfigurableField( description = "Maximum number of times a transaction may be retried before giving up.",
                       initial = "5" )
   public static Integer                                          CONCURRENT_UPDATE_RETRIES = 10;
+  @ConfigurableField( description = "Transaction provenance tracking, one of: off, sampled, full.",
+                      initial = "sampled",
+                      changeListener = ProvenanceChangeListener.class )
+  public static String                                           PROVENANCE                = "sampled";
+  @ConfigurableField( description = "When provenance tracking is sampled, the origin of one in this many transactions is recorded.",
+                      initial = "100" )
+  public static Integer                                          PROVENANCE_SAMPLE_RATE    = 100;
+  @ConfigurableField( description = "Duration (ms) after which a completed transaction is reported as slow.",
+                      initial = "5000" )
+  public static Integer                                          SLOW_THRESHOLD_MS         = 5000;
   private static ConcurrentMap<String, String>                   txLog                     = new MapMaker( ).softKeys( ).softValues( ).makeMap( );
   private static Logger                                          LOG                       = Logger.getLogger( Entities.class );
   private static ThreadLocal<String>                             txRootThreadLocal         = new ThreadLocal<String>( );
@@ -203,7 +216,9 @@ public class Entities {
       ret.begin( );
       if ( txRootThreadLocal.get( ) == null ) {
         final String txId = makeTxRootName( ret );
-        LOG.trace( "Creating root entry for transaction tree: " + txId + " at: \n" + Threads.currentStackString( ) );
+        if ( LOG.isTraceEnabled( ) ) {
+          LOG.trace( "Creating root entry for transaction tree: " + txId + " at: \n" + Threads.currentStackString( ) );
+        }
         txRootThreadLocal.set( txId );
       }
       txStateThreadLocal.get( ).put( ctx, ret );
@@ -607,9 +622,7 @@ public class Entities {
      */
     @SuppressWarnings( "unchecked" )
     CascadingTx( final String ctx ) throws RecoverablePersistenceException {
-      final StackTraceElement ste = Threads.currentStackFrame( 4 );
-      final String uuid = UUID.randomUUID( ).toString( );
-      this.record = new TxRecord( ctx, uuid, ste );
+      this.record = TransactionMonitor.start( ctx );
       try {
         this.txState = new TxState( ctx );
       } catch ( final RuntimeException ex ) {
@@ -663,11 +676,14 @@ public class Entities {
       try {
         this.txState.begin( );
       } catch ( final RecoverablePersistenceException ex ) {
-        PersistenceExceptions.throwFiltered( ex );
+        //clean up first, throwFiltered throws for most failures
         removeTransaction( this );
-      } catch ( final RuntimeException ex ) {
+        TransactionMonitor.finish( this.record );
         PersistenceExceptions.throwFiltered( ex );
+      } catch ( final RuntimeException ex ) {
         removeTransaction( this );
+        TransactionMonitor.finish( this.record );
+        PersistenceExceptions.throwFiltered( ex );
         throw ex;
       }
     }
@@ -686,8 +702,11 @@ public class Entities {
         } catch ( final RuntimeException ex ) {
           Logs.extreme( ).error( ex );
           throw PersistenceExceptions.throwFiltered( ex );
+        } finally {
+          TransactionMonitor.finish( this.record );
         }
       } else {
+        TransactionMonitor.finish( this.record );
         Logs.extreme( ).debug( "Duplicate call to rollback( )" );
       }
     }
@@ -704,8 +723,11 @@ public class Entities {
           this.txState.commit( );
         } catch ( final RuntimeException ex ) {
           throw PersistenceExceptions.throwFiltered( ex );
+        } finally {
+          TransactionMonitor.finish( this.record );
         }
       } else {
+        TransactionMonitor.finish( this.record );
         Logs.extreme( ).error( "Duplicate call to commit( ): " + Threads.currentStackString( ) );
       }
     }
@@ -716,7 +738,6 @@ public class Entities {
     
     public EntityTransaction join( ) {
       return new EntityTransaction( ) {
-        private final String uuid = UUID.randomUUID( ).toString( );
         
         @Override
         public void setRollbackOnly( ) {}
@@ -899,17 +920,17 @@ public class Entities {
   }
   
   public static class TxRecord {
-    private final String            persistenceContext;
-    private final String            uuid;
-    private final Long              startTime;
-    private final StackTraceElement ste;
-    private final String            stack;
+    private final String    persistenceContext;
+    private final Long      txId;
+    private final Long      startTime;
+    private final Thread    owner;
+    private final Throwable origin;
     
-    TxRecord( final String persistenceContext, final String uuid, final StackTraceElement ste ) {
+    TxRecord( final String persistenceContext, final Long txId, final Throwable origin ) {
       this.persistenceContext = persistenceContext;
-      this.uuid = uuid;
-      this.ste = ste;
-      this.stack = Threads.currentStackString( );
+      this.txId = txId;
+      this.origin = origin;
+      this.owner = Thread.currentThread( );
       this.startTime = System.currentTimeMillis( );
     }
     
@@ -921,16 +942,31 @@ public class Entities {
       return this.persistenceContext;
     }
     
-    public String getUuid( ) {
-      return this.uuid;
+    public Long getTxId( ) {
+      return this.txId;
     }
     
-    public StackTraceElement getSte( ) {
-      return this.ste;
+    /**
+     * @return the thread which started the transaction
+     */
+    public Thread getOwner( ) {
+      return this.owner;
+    }
+    
+    /**
+     * @return the stack at the start of the transaction, or null if provenance was not recorded
+     */
+    Throwable getOrigin( ) {
+      return this.origin;
     }
     
     String getStack( ) {
-      return this.stack;
+      if ( this.origin != null ) {
+        return Joiner.on( "\t\n" ).join( this.origin.getStackTrace( ) );
+      } else {
+        return "unknown (provenance not recorded), owner " + this.owner.getName( ) + " now at "
+               + TransactionMonitor.callSite( this.owner.getStackTrace( ) );
+      }
     }
     
   }
@@ -1038,4 +1074,14 @@ public class Entities {
     }
   }
   
+  public static class ProvenanceChangeListener implements PropertyChangeListener<String> {
+    
+    @Override
+    public void fireChange( final ConfigurableProperty t, final String newValue ) throws ConfigurablePropertyException {
+      if ( !"off".equalsIgnoreCase( newValue ) && !"sampled".equalsIgnoreCase( newValue ) && !"full".equalsIgnoreCase( newValue ) ) {
+        throw new ConfigurablePropertyException( "One of off, sampled or full is expected for " + t.getFieldName( ) );
+      }
+    }
+  }
+  
 }
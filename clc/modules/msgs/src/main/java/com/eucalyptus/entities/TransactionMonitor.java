@@ -0,0 +1,292 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.entities;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import com.eucalyptus.entities.Entities.TxRecord;
+import com.eucalyptus.util.Mbeans;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Tracks open and completed transactions for each persistence context.
+ * 
+ * Transaction ids come from a counter and the origin of a transaction is only captured as an
+ * unrendered stack according to {@link Entities#PROVENANCE}. The call site of a transaction which
+ * turns out to be slow is found when it completes. The longest open and slowest transactions are
+ * exported through JMX.
+ */
+public class TransactionMonitor {
+  private static Logger                             LOG      = Logger.getLogger( TransactionMonitor.class );
+  private static final TransactionMonitor           INSTANCE = new TransactionMonitor( );
+  private static final int                          REPORTED = 10;
+  private final AtomicLong                          ids      = new AtomicLong( 0l );
+  private final ConcurrentMap<String, ContextStats> contexts = Maps.newConcurrentMap( );
+  
+  enum Provenance {
+    OFF,
+    SAMPLED,
+    FULL
+  }
+  
+  static {
+    Mbeans.register( INSTANCE );
+  }
+  
+  public static TransactionMonitor getInstance( ) {
+    return INSTANCE;
+  }
+  
+  /**
+   * Create the record for a new transaction and track it as open.
+   */
+  static TxRecord start( final String persistenceContext ) {
+    final long id = INSTANCE.ids.incrementAndGet( );
+    final Throwable origin;
+    switch ( provenance( ) ) {
+      case FULL:
+        origin = new Throwable( );
+        break;
+      case SAMPLED:
+        origin = ( id % Math.max( 1, Entities.PROVENANCE_SAMPLE_RATE ) == 0 )
+          ? new Throwable( )
+          : null;
+        break;
+      default:
+        origin = null;
+    }
+    final TxRecord record = new TxRecord( persistenceContext, id, origin );
+    INSTANCE.lookup( persistenceContext ).open.put( id, record );
+    return record;
+  }
+  
+  /**
+   * Note that a transaction has completed. Repeated calls for the same transaction are ignored.
+   */
+  static void finish( final TxRecord record ) {
+    final ContextStats stats = INSTANCE.lookup( record.getPersistenceContext( ) );
+    if ( stats.open.remove( record.getTxId( ) ) != null ) {
+      final long duration = System.currentTimeMillis( ) - record.getStartTime( );
+      final boolean slow = duration > Entities.SLOW_THRESHOLD_MS;
+      if ( slow || duration > stats.slowestFloor ) {
+        final String site = callSite( record.getOrigin( ) != null
+          ? record.getOrigin( ).getStackTrace( )
+          : Thread.currentThread( ).getStackTrace( ) );
+        if ( slow ) {
+          LOG.warn( "Slow transaction " + describe( record, duration, site ) );
+        }
+        stats.completed( new Completed( record, duration, site ) );
+      }
+    }
+  }
+  
+  /**
+   * @return the first stack frame outside of the persistence layer
+   */
+  static String callSite( final StackTraceElement[] stack ) {
+    for ( final StackTraceElement ste : stack ) {
+      if ( !ste.getClassName( ).startsWith( Entities.class.getPackage( ).getName( ) + "." ) && !ste.getClassName( ).startsWith( "java." ) ) {
+        return ste.toString( );
+      }
+    }
+    return "unknown";
+  }
+  
+  private static Provenance provenance( ) {
+    final String mode = Entities.PROVENANCE;
+    if ( "full".equalsIgnoreCase( mode ) ) {
+      return Provenance.FULL;
+    } else if ( "off".equalsIgnoreCase( mode ) ) {
+      return Provenance.OFF;
+    } else {
+      return Provenance.SAMPLED;
+    }
+  }
+  
+  private static String describe( final TxRecord record, final long duration, final String site ) {
+    return record.getPersistenceContext( ) + ":" + record.getTxId( ) + " " + duration + "ms at " + site;
+  }
+  
+  private ContextStats lookup( final String persistenceContext ) {
+    ContextStats stats = this.contexts.get( persistenceContext );
+    if ( stats == null ) {
+      final ContextStats created = new ContextStats( );
+      stats = this.contexts.putIfAbsent( persistenceContext, created );
+      if ( stats == null ) {
+        stats = created;
+      }
+    }
+    return stats;
+  }
+  
+  public String getProvenance( ) {
+    return provenance( ).name( ).toLowerCase( );
+  }
+  
+  public long getTransactions( ) {
+    return this.ids.get( );
+  }
+  
+  /**
+   * @return number of open transactions by persistence context
+   */
+  public Map<String, Integer> getOpenTransactions( ) {
+    final Map<String, Integer> summary = Maps.newTreeMap( );
+    for ( final Map.Entry<String, ContextStats> e : this.contexts.entrySet( ) ) {
+      summary.put( e.getKey( ), e.getValue( ).open.size( ) );
+    }
+    return summary;
+  }
+  
+  /**
+   * @return the transactions which have been open longest by persistence context
+   */
+  public Map<String, List<String>> getLongestOpenTransactions( ) {
+    final long now = System.currentTimeMillis( );
+    final Map<String, List<String>> summary = Maps.newTreeMap( );
+    for ( final Map.Entry<String, ContextStats> e : this.contexts.entrySet( ) ) {
+      final List<TxRecord> open = Lists.newArrayList( e.getValue( ).open.values( ) );
+      Collections.sort( open, new Comparator<TxRecord>( ) {
+        @Override
+        public int compare( final TxRecord o1, final TxRecord o2 ) {
+          return o1.getStartTime( ).compareTo( o2.getStartTime( ) );
+        }
+      } );
+      final List<String> descriptions = Lists.newArrayList( );
+      for ( final TxRecord record : open.subList( 0, Math.min( REPORTED, open.size( ) ) ) ) {
+        final Thread owner = record.getOwner( );
+        final String site = record.getOrigin( ) != null
+          ? callSite( record.getOrigin( ).getStackTrace( ) )
+          : owner.getName( ) + " now at " + callSite( owner.getStackTrace( ) );
+        descriptions.add( describe( record, now - record.getStartTime( ), site ) );
+      }
+      summary.put( e.getKey( ), descriptions );
+    }
+    return summary;
+  }
+  
+  /**
+   * @return the slowest completed transactions by persistence context
+   */
+  public Map<String, List<String>> getSlowestTransactions( ) {
+    final Map<String, List<String>> summary = Maps.newTreeMap( );
+    for ( final Map.Entry<String, ContextStats> e : this.contexts.entrySet( ) ) {
+      final List<String> descriptions = Lists.newArrayList( );
+      for ( final Completed completed : e.getValue( ).slowest( ) ) {
+        descriptions.add( describe( completed.record, completed.duration, completed.site ) );
+      }
+      summary.put( e.getKey( ), descriptions );
+    }
+    return summary;
+  }
+  
+  private static class Completed {
+    private final TxRecord record;
+    private final long     duration;
+    private final String   site;
+    
+    Completed( final TxRecord record, final long duration, final String site ) {
+      this.record = record;
+      this.duration = duration;
+      this.site = site;
+    }
+  }
+  
+  private static class ContextStats {
+    private final ConcurrentMap<Long, TxRecord> open         = Maps.newConcurrentMap( );
+    private final Completed[]                   slowest      = new Completed[REPORTED];
+    private volatile long                       slowestFloor = -1l;
+    
+    synchronized void completed( final Completed completed ) {
+      int index = REPORTED - 1;
+      if ( this.slowest[index] != null && this.slowest[index].duration >= completed.duration ) {
+        return;
+      }
+      while ( index > 0 && ( this.slowest[index - 1] == null || this.slowest[index - 1].duration < completed.duration ) ) {
+        this.slowest[index] = this.slowest[index - 1];
+        index--;
+      }
+      this.slowest[index] = completed;
+      if ( this.slowest[REPORTED - 1] != null ) {
+        this.slowestFloor = this.slowest[REPORTED - 1].duration;
+      }
+    }
+    
+    synchronized List<Completed> slowest( ) {
+      final List<Completed> slowest = Lists.newArrayList( );
+      for ( final Completed completed : Arrays.asList( this.slowest ) ) {
+        if ( completed != null ) {
+          slowest.add( completed );
+        }
+      }
+      return slowest;
+    }
+  }
+}
@@ -60,59 +60,24 @@
  *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
  ************************************************************************/
 
-package com.eucalyptus.cloud.ws;
+package com.eucalyptus.event;
 
-import org.apache.log4j.Logger;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
 
-import java.io.IOException;
-import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-
-public class TCPListener extends Thread {
-	private static Logger LOG = Logger.getLogger( TCPListener.class );
-	InetAddress address;
-	int port;
-	ServerSocket socket;
-
-	public TCPListener(InetAddress address, int port) throws Exception {
-		this.address = address;
-		this.port = port;
-		try {
-			socket = new ServerSocket(port, 128, address);
-		} catch(IOException ex) {
-			LOG.error(ex);
-			throw ex;
-		}
-
-	}
-
-	public void run() {
-		while (true) {
-			Socket s;
-			try {
-				if(socket != null) {
-					LOG.info("Listening on port: " + port);
-					s = socket.accept();
-					ConnectionHandlerFactory.handle(s);
-				} else {
-					LOG.error("Cannot start service. Invalid socket.");
-					return;
-				}
-			} catch (IOException e) {
-				LOG.error(e);
-			}
-		}
-	}
-
-	public void close() {
-		if (socket != null) {
-			try {
-				socket.close();
-				socket = null;
-			} catch (IOException e) {
-				LOG.error(e, e);
-			}
-		}
-	}
+/**
+ * Marks an {@link EventListener} which should be called on its own thread instead of the thread
+ * firing the event. Events wait in a queue of at most {@link #queue()} entries; when it is full
+ * the event is delivered on the firing thread and counted as an overrun. Listeners of periodic
+ * events like {@link ClockTick} should set {@link #coalesce()} so that at most one event of each
+ * type is pending and a slow listener sees the latest one instead of a backlog.
+ */
+@Target( ElementType.TYPE )
+@Retention( RetentionPolicy.RUNTIME )
+public @interface AsyncListener {
+  int queue( ) default 64;
+  
+  boolean coalesce( ) default false;
 }
@@ -65,10 +65,19 @@ package com.eucalyptus.event;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.not;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import org.apache.log4j.Logger;
@@ -82,10 +91,9 @@ import com.eucalyptus.records.Record;
 import com.eucalyptus.system.Threads;
 import com.eucalyptus.util.Classes;
 import com.eucalyptus.util.Exceptions;
-import com.google.common.collect.ArrayListMultimap;
+import com.eucalyptus.util.LatencyHistogram;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
 
 public class ListenerRegistry {
   private static Logger                                           LOG       = Logger.getLogger( ListenerRegistry.class );
@@ -225,13 +233,39 @@ public class ListenerRegistry {
     } );
   }
   
+  /**
+   * @return per listener delivery statistics, one line per registered listener
+   */
+  @SuppressWarnings( "unchecked" )
+  public List<String> getListenerStatistics( ) {
+    List<String> stats = Lists.newArrayList( );
+    stats.addAll( this.eventMap.getStatistics( ) );
+    for ( ReentrantListenerRegistry registry : Lists.newArrayList( this.registryMap.values( ) ) ) {
+      stats.addAll( registry.getStatistics( ) );
+    }
+    return stats;
+  }
+  
+  public long getListenerOverruns( ) {
+    long overruns = this.eventMap.getOverruns( );
+    for ( ReentrantListenerRegistry registry : Lists.newArrayList( this.registryMap.values( ) ) ) {
+      overruns += registry.getOverruns( );
+    }
+    return overruns;
+  }
+  
+  /**
+   * Listeners are kept in immutable arrays which are replaced on every change, so firing an event
+   * never takes a lock or copies the listeners.
+   */
   public static class ReentrantListenerRegistry<T> {
-    private Multimap<T, EventListener> listenerMap;
-    private Lock                       modificationLock;
+    private static final Logger                  TRACE = Logger.getLogger( ReentrantListenerRegistry.class );
+    private final ConcurrentMap<T, Subscriber[]> listenerMap;
+    private final Lock                           modificationLock;
     
     public ReentrantListenerRegistry( ) {
       super( );
-      this.listenerMap = ArrayListMultimap.create( );
+      this.listenerMap = Maps.newConcurrentMap( );
       this.modificationLock = new ReentrantLock( );
     }
     
@@ -245,8 +279,13 @@ public class ListenerRegistry {
       }
       this.modificationLock.lock( );
       try {
-        if ( !this.listenerMap.containsEntry( type, listener ) ) {
-          this.listenerMap.put( type, listener );
+        Subscriber[] current = this.listenerMap.get( type );
+        if ( current == null ) {
+          this.listenerMap.put( type, new Subscriber[] { new Subscriber( type, listener ) } );
+        } else if ( indexOf( current, listener ) < 0 ) {
+          Subscriber[] updated = Arrays.copyOf( current, current.length + 1 );
+          updated[current.length] = new Subscriber( type, listener );
+          this.listenerMap.put( type, updated );
         }
       } finally {
         this.modificationLock.unlock( );
@@ -263,7 +302,20 @@ public class ListenerRegistry {
       }
       this.modificationLock.lock( );
       try {
-        this.listenerMap.remove( type, listener );
+        Subscriber[] current = this.listenerMap.get( type );
+        int idx = current == null ? -1 : indexOf( current, listener );
+        if ( idx >= 0 ) {
+          Subscriber removed = current[idx];
+          if ( current.length == 1 ) {
+            this.listenerMap.remove( type );
+          } else {
+            Subscriber[] updated = new Subscriber[current.length - 1];
+            System.arraycopy( current, 0, updated, 0, idx );
+            System.arraycopy( current, idx + 1, updated, idx, current.length - idx - 1 );
+            this.listenerMap.put( type, updated );
+          }
+          removed.shutdown( );
+        }
       } finally {
         this.modificationLock.unlock( );
       }
@@ -273,45 +325,196 @@ public class ListenerRegistry {
      
       this.modificationLock.lock( );
       try{
-        for ( EventListener e : this.listenerMap.get( type ) ) {
-          EventRecord.caller( ReentrantListenerRegistry.class, EventType.LISTENER_DESTROY_ALL, type.getClass( ).getSimpleName( ),
-                              e.getClass( ).getCanonicalName( ) ).trace( );
-        }     
-        this.listenerMap.removeAll( type );
+        Subscriber[] removed = this.listenerMap.remove( type );
+        if ( removed != null ) {
+          for ( Subscriber s : removed ) {
+            EventRecord.caller( ReentrantListenerRegistry.class, EventType.LISTENER_DESTROY_ALL, type.getClass( ).getSimpleName( ),
+                                s.listener.getClass( ).getCanonicalName( ) ).trace( );
+            s.shutdown( );
+          }
+        }
       } finally {
         this.modificationLock.unlock( );
       }
     }
     
     public void fireEvent( T type, Event e ) throws EventFailedException {
-      List<EventListener> listeners;
-      this.modificationLock.lock( );
-      try {
-        listeners = Lists.newArrayList( this.listenerMap.get( type ) );
-      } finally {
-        this.modificationLock.unlock( );
+      Subscriber[] listeners = this.listenerMap.get( type );
+      if ( listeners != null ) {
+        this.fireEvent( e, listeners );
       }
-      this.fireEvent( e, listeners );
     }
     
-    private void fireEvent( Event e, List<EventListener> listeners ) throws EventFailedException {
-      List<Throwable> errors = Lists.newArrayList( );
-      for ( EventListener ce : listeners ) {
-        EventRecord.here( ReentrantListenerRegistry.class, EventType.LISTENER_EVENT_FIRED, ce.getClass( ).getSimpleName( ), e.toString( ) ).trace( );
-        try {
-          ce.fireEvent( e );
-        } catch ( Exception ex ) {
-          EventFailedException eventEx = new EventFailedException( "Failed to fire event: listener=" + ce.getClass( ).getCanonicalName( ) + " event="
-                                                                   + e.toString( ) + " because of: "
-                                                                   + ex.getMessage( ), Exceptions.filterStackTrace( ex ) );
-          errors.add( eventEx );
+    private void fireEvent( Event e, Subscriber[] listeners ) throws EventFailedException {
+      List<Throwable> errors = null;
+      for ( Subscriber s : listeners ) {
+        if ( TRACE.isTraceEnabled( ) ) {
+          EventRecord.here( ReentrantListenerRegistry.class, EventType.LISTENER_EVENT_FIRED, s.name, e.toString( ) ).trace( );
+        }
+        Throwable ex = s.deliver( e );
+        if ( ex != null ) {
+          if ( errors == null ) {
+            errors = Lists.newArrayList( );
+          }
+          errors.add( ex );
+        }
+      }
+      if ( errors != null ) {
+        for ( Throwable ex : errors ) {
+          Logs.extreme( ).error( ex, ex );
+          LOG.error( ex );
+        }
+      }
+    }
+    
+    List<String> getStatistics( ) {
+      List<String> stats = Lists.newArrayList( );
+      for ( Subscriber[] subscribers : this.listenerMap.values( ) ) {
+        for ( Subscriber s : subscribers ) {
+          stats.add( s.toString( ) );
+        }
+      }
+      return stats;
+    }
+    
+    long getOverruns( ) {
+      long overruns = 0;
+      for ( Subscriber[] subscribers : this.listenerMap.values( ) ) {
+        for ( Subscriber s : subscribers ) {
+          overruns += s.overruns.get( );
+        }
+      }
+      return overruns;
+    }
+    
+    private static int indexOf( Subscriber[] subscribers, EventListener listener ) {
+      for ( int i = 0; i < subscribers.length; i++ ) {
+        if ( subscribers[i].listener.equals( listener ) ) {
+          return i;
         }
       }
-      for ( Throwable ex : errors ) {
+      return -1;
+    }
+    
+  }
+  
+  /**
+   * A registered listener with its delivery statistics and, for an {@link AsyncListener}, the
+   * single thread which calls it.
+   */
+  static class Subscriber {
+    private final EventListener                                listener;
+    private final String                                       name;
+    private final boolean                                      coalesce;
+    private final ThreadPoolExecutor                           executor;
+    private final ConcurrentMap<Class, AtomicReference<Event>> pending  = Maps.newConcurrentMap( );
+    private final AtomicLong                                   events   = new AtomicLong( );
+    private final AtomicLong                                   failures = new AtomicLong( );
+    private final AtomicLong                                   overruns = new AtomicLong( );
+    private final LatencyHistogram                             latency  = new LatencyHistogram( );
+    
+    Subscriber( Object type, EventListener listener ) {
+      this.listener = listener;
+      this.name = listener.getClass( ).getSimpleName( );
+      AsyncListener async = listener.getClass( ).getAnnotation( AsyncListener.class );
+      if ( async != null ) {
+        final String threadName = "Listener-" + this.name + "-" + ( type instanceof Class ? ( ( Class ) type ).getSimpleName( ) : type );
+        this.coalesce = async.coalesce( );
+        this.executor = new ThreadPoolExecutor( 1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>( Math.max( 1, async.queue( ) ) ),
+                                                new ThreadFactory( ) {
+                                                  @Override
+                                                  public Thread newThread( Runnable r ) {
+                                                    Thread t = Threads.newThread( r, threadName );
+                                                    t.setDaemon( true );
+                                                    return t;
+                                                  }
+                                                } );
+      } else {
+        this.coalesce = false;
+        this.executor = null;
+      }
+    }
+    
+    /**
+     * @return the failure of a synchronous delivery, or null
+     */
+    Throwable deliver( final Event e ) {
+      if ( this.executor == null ) {
+        return this.invoke( e );
+      } else if ( this.coalesce ) {
+        AtomicReference<Event> slot = this.pending.get( e.getClass( ) );
+        if ( slot == null ) {
+          this.pending.putIfAbsent( e.getClass( ), new AtomicReference<Event>( ) );
+          slot = this.pending.get( e.getClass( ) );
+        }
+        if ( slot.getAndSet( e ) != null ) {
+          this.overruns.incrementAndGet( );
+        } else {
+          final AtomicReference<Event> latest = slot;
+          this.submit( new Runnable( ) {
+            @Override
+            public void run( ) {
+              Event next = latest.getAndSet( null );
+              if ( next != null ) {
+                Subscriber.this.invokeAndLog( next );
+              }
+            }
+          } );
+        }
+      } else {
+        this.submit( new Runnable( ) {
+          @Override
+          public void run( ) {
+            Subscriber.this.invokeAndLog( e );
+          }
+        } );
+      }
+      return null;
+    }
+    
+    private void submit( Runnable task ) {
+      try {
+        this.executor.execute( task );
+      } catch ( RejectedExecutionException ex ) {
+        this.overruns.incrementAndGet( );
+        task.run( );
+      }
+    }
+    
+    private void invokeAndLog( Event e ) {
+      Throwable ex = this.invoke( e );
+      if ( ex != null ) {
         Logs.extreme( ).error( ex, ex );
         LOG.error( ex );
       }
     }
     
+    private Throwable invoke( Event e ) {
+      long start = System.nanoTime( );
+      this.events.incrementAndGet( );
+      try {
+        this.listener.fireEvent( e );
+        return null;
+      } catch ( Exception ex ) {
+        this.failures.incrementAndGet( );
+        return new EventFailedException( "Failed to fire event: listener=" + this.listener.getClass( ).getCanonicalName( ) + " event="
+                                         + e.toString( ) + " because of: "
+                                         + ex.getMessage( ), Exceptions.filterStackTrace( ex ) );
+      } finally {
+        this.latency.record( System.nanoTime( ) - start );
+      }
+    }
+    
+    void shutdown( ) {
+      if ( this.executor != null ) {
+        this.executor.shutdown( );
+      }
+    }
+    
+    @Override
+    public String toString( ) {
+      return this.name + ( this.executor != null ? " async pending=" + this.executor.getQueue( ).size( ) : "" ) + " events=" + this.events.get( )
+             + " failures=" + this.failures.get( ) + " overruns=" + this.overruns.get( ) + " latency=" + this.latency;
+    }
   }
 }
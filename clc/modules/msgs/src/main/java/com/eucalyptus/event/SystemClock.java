@@ -78,6 +78,7 @@ import com.eucalyptus.configurable.ConfigurableProperty;
 import com.eucalyptus.configurable.ConfigurablePropertyException;
 import com.eucalyptus.configurable.PropertyChangeListener;
 import com.eucalyptus.empyrean.Empyrean;
+import com.eucalyptus.util.Mbeans;
 
 @ConfigurableClass( root = "bootstrap.timer",
                     description = "Parameters controlling the system timer." )
@@ -125,6 +126,7 @@ public class SystemClock extends TimerTask implements UncaughtExceptionHandler {
         hertz = new HzClock( );
         ListenerRegistry.getInstance( ).register( ClockTick.class, new Dummy( ) );
         ListenerRegistry.getInstance( ).register( Hertz.class, new Dummy( ) );
+        Mbeans.register( ListenerRegistry.getInstance( ) );
         timer.scheduleAtFixedRate( clock, 0, RATE );//TODO: make configurable
         hzTimer.scheduleAtFixedRate( hertz, 0, 1000 );
         OrderedShutdown.registerPreShutdownHook( new Runnable( ) {
@@ -0,0 +1,261 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.records;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import com.eucalyptus.bootstrap.Bootstrap;
+import com.eucalyptus.context.Context;
+import com.eucalyptus.context.Contexts;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * The {@link Record} handed out by {@link EventRecord}. Only the user of the request's context is
+ * looked up when the record is created, since the context may be gone by the time it is rendered.
+ * Formatting the arguments is put off until the record is emitted at a level which is enabled for
+ * its component, at which point the {@link LogFileRecord} is built. Records passed to a logger
+ * directly are built when the appender first renders them.
+ */
+class DeferredRecord implements Record {
+  private static final ConcurrentMap<Class, Logger> loggers = Maps.newConcurrentMap( );
+  private final Class                               component;
+  private final EventClass                          eventClass;
+  private final EventType                           type;
+  private final Object[]                            args;
+  private final StackTraceElement                   callerStack;
+  private final String                              correlationId;
+  private final String                              userFn;
+  private final long                                timestamp;
+  private List<Object>                              appended;
+  private volatile LogFileRecord                    record;
+  
+  DeferredRecord( Class component, EventClass eventClass, EventType type, Object[] args, StackTraceElement callerStack, String correlationId ) {
+    this.component = component;
+    this.eventClass = eventClass;
+    this.type = type;
+    this.args = args;
+    this.callerStack = callerStack;
+    this.correlationId = correlationId;
+    this.userFn = lookupUser( correlationId );
+    this.timestamp = System.currentTimeMillis( );
+  }
+  
+  private static String lookupUser( String correlationId ) {
+    String userFn = Bootstrap.isFinished( ) ? "" : "bootstrap";
+    if ( correlationId != null ) {
+      try {
+        Context ctx = Contexts.lookup( correlationId );
+        userFn = ctx.getUserFullName( ).toString( );
+      } catch ( Exception ex ) {
+      }
+    }
+    return userFn;
+  }
+  
+  private Logger logger( ) {
+    Logger logger = loggers.get( this.component );
+    if ( logger == null ) {
+      logger = Logger.getLogger( this.component );
+      loggers.putIfAbsent( this.component, logger );
+    }
+    return logger;
+  }
+  
+  private LogFileRecord materialize( ) {
+    LogFileRecord rec = this.record;
+    if ( rec == null ) {
+      rec = new LogFileRecord( this.eventClass, this.type, this.component, this.callerStack, this.userFn, this.correlationId,
+                               EventRecord.getMessageString( this.args ) );
+      rec.setTimestamp( new Date( this.timestamp ) );
+      synchronized ( this ) {
+        if ( this.appended != null ) {
+          rec.append( this.appended.toArray( ) );
+        }
+      }
+      this.record = rec;
+    }
+    return rec;
+  }
+  
+  @Override
+  public Record info( ) {
+    if ( this.logger( ).isInfoEnabled( ) ) {
+      this.materialize( ).info( );
+    }
+    return this;
+  }
+  
+  @Override
+  public Record error( ) {
+    if ( this.logger( ).isEnabledFor( Level.ERROR ) ) {
+      this.materialize( ).error( );
+    }
+    return this;
+  }
+  
+  @Override
+  public Record trace( ) {
+    if ( this.logger( ).isTraceEnabled( ) ) {
+      this.materialize( ).trace( );
+    }
+    return this;
+  }
+  
+  @Override
+  public Record debug( ) {
+    if ( this.logger( ).isDebugEnabled( ) ) {
+      this.materialize( ).debug( );
+    }
+    return this;
+  }
+  
+  @Override
+  public Record extreme( ) {
+    if ( Logs.extreme( ).isTraceEnabled( ) ) {
+      this.materialize( ).extreme( );
+    }
+    return this;
+  }
+  
+  @Override
+  public Record exhaust( ) {
+    if ( Logs.exhaust( ).isTraceEnabled( ) ) {
+      this.materialize( ).exhaust( );
+    }
+    return this;
+  }
+  
+  @Override
+  public Record warn( ) {
+    if ( this.logger( ).isEnabledFor( Level.WARN ) ) {
+      this.materialize( ).warn( );
+    }
+    return this;
+  }
+  
+  @Override
+  public Record next( ) {
+    return new DeferredRecord( this.component, this.eventClass, this.type, null, null, this.correlationId );
+  }
+  
+  @Override
+  public Record append( Object... obj ) {
+    LogFileRecord rec = this.record;
+    if ( rec != null ) {
+      rec.append( obj );
+    } else {
+      synchronized ( this ) {
+        if ( this.appended == null ) {
+          this.appended = Lists.newArrayList( );
+        }
+        for ( Object o : obj ) {
+          this.appended.add( o );
+        }
+      }
+    }
+    return this;
+  }
+  
+  @Override
+  public Record withDetails( String key, String value ) {
+    if ( this.logger( ).isInfoEnabled( ) ) {
+      return this.materialize( ).withDetails( key, value );
+    } else {
+      return this.next( );
+    }
+  }
+  
+  @Override
+  public Record withDetails( String userName, String primaryKey, String key, String value ) {
+    if ( this.logger( ).isInfoEnabled( ) ) {
+      return this.materialize( ).withDetails( userName, primaryKey, key, value );
+    } else {
+      return this.next( );
+    }
+  }
+  
+  @Override
+  public EventType getType( ) {
+    return this.type;
+  }
+  
+  @Override
+  public EventClass getEventClass( ) {
+    return this.eventClass;
+  }
+  
+  @Override
+  public String toString( ) {
+    return this.materialize( ).toString( );
+  }
+  
+  @Override
+  public int hashCode( ) {
+    return this.materialize( ).hashCode( );
+  }
+  
+}
@@ -65,9 +65,6 @@ package com.eucalyptus.records;
 import org.apache.log4j.Logger;
 import org.mule.RequestContext;
 import org.mule.api.MuleEvent;
-import com.eucalyptus.bootstrap.Bootstrap;
-import com.eucalyptus.context.Context;
-import com.eucalyptus.context.Contexts;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import edu.ucsb.eucalyptus.msgs.BaseMessage;
@@ -78,38 +75,38 @@ public class EventRecord extends BaseMessage {
   private static final BaseMessage           BOGUS           = getBogusMessage( );
   private static final Supplier<BaseMessage> messageSupplier = getCurrentBaseMessageSupplier();
   
-  private static Record create( final Class component, final EventClass eventClass, final EventType eventName, final String other, int dist ) {
+  /**
+   * Only the current message and, when running extreme, the call site are captured here; the rest
+   * of the work is left to {@link DeferredRecord} and only done if the record is emitted.
+   */
+  private static Record create( final Class component, final EventClass eventClass, final EventType eventName, final Object[] other, int dist ) {
     BaseMessage msg = tryForMessage( );
-    StackTraceElement[] stack = Thread.currentThread( ).getStackTrace( );
-    StackTraceElement ste = stack[dist+3<stack.length?dist+3:stack.length-1];
-    String userFn = Bootstrap.isFinished( ) ? "" : "bootstrap";
-    try {
-      Context ctx = Contexts.lookup( msg.getCorrelationId( ) );
-      userFn = ctx.getUserFullName( ).toString( );
-    } catch ( Exception ex ) {
+    StackTraceElement ste = null;
+    if ( Logs.isExtrrreeeme( ) ) {
+      StackTraceElement[] stack = Thread.currentThread( ).getStackTrace( );
+      ste = stack[dist+3<stack.length?dist+3:stack.length-1];
     }
-    
-    return new LogFileRecord( eventClass, eventName, component, ste, userFn, msg.getCorrelationId( ), other );
+    return new DeferredRecord( component, eventClass, eventName, other, ste, msg.getCorrelationId( ) );
   }
 
   public static Record here( final Class component, final EventClass eventClass, final EventType eventName, final String... other ) {
-    return create( component, eventClass, eventName, getMessageString( other ), 1 );
+    return create( component, eventClass, eventName, other, 1 );
   }
     
   public static Record caller( final Class component, final EventClass eventClass, final EventType eventName, final Object... other ) {
-    return create( component, eventClass, eventName, getMessageString( other ), 2 );
+    return create( component, eventClass, eventName, other, 2 );
   }
 
   public static Record here( final Class component, final EventType eventName, final String... other ) {
-    return create( component, EventClass.ORPHAN, eventName, getMessageString( other ), 1 );
+    return create( component, EventClass.ORPHAN, eventName, other, 1 );
   }
     
   public static Record caller( final Class component, final EventType eventName, final Object... other ) {
-    return create( component, EventClass.ORPHAN, eventName, getMessageString( other ), 2 );
+    return create( component, EventClass.ORPHAN, eventName, other, 2 );
   }
 
-  private static String getMessageString( final Object[] other ) {
-    StringBuffer last = new StringBuffer( );
+  static String getMessageString( final Object[] other ) {
+    StringBuilder last = new StringBuilder( );
     if( other != null ) {
       for ( Object x : other ) {
         last.append( ":" ).append( x );
@@ -0,0 +1,341 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.system.log;
+
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.helpers.AppenderAttachableImpl;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.AppenderAttachable;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * Hands logging events to the attached appenders from a single background thread so that the
+ * logging thread only pays for rendering the message and publishing the event into a fixed size
+ * ring. The message is rendered on the logging thread, as in log4j's AsyncAppender, because the
+ * logged objects may change or become unusable once the caller moves on. Layouts and the writes
+ * happen on the background thread.
+ * 
+ * <pre>
+ *   <appender name="logfile-async" class="com.eucalyptus.system.log.RingBufferAppender">
+ *     <param name="BufferSize" value="8192" />
+ *     <param name="LocationInfo" value="true" />
+ *     <appender-ref ref="logfile" />
+ *   </appender>
+ * </pre>
+ * 
+ * When the ring is full the logging thread waits for a free slot, unless Blocking is false in
+ * which case the event is dropped and counted.
+ */
+public class RingBufferAppender extends AppenderSkeleton implements AppenderAttachable {
+	private static final long                  MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos( 10 );
+	private final AppenderAttachableImpl       appenders      = new AppenderAttachableImpl( );
+	private final AtomicLong                   head           = new AtomicLong( );
+	private final AtomicLong                   dropped        = new AtomicLong( );
+	private volatile long                      tail           = 0;
+	private volatile boolean                   sleeping       = false;
+	private volatile boolean                   shutdown       = false;
+	private AtomicReferenceArray<LoggingEvent> ring;
+	private int                                mask;
+	private int                                bufferSize     = 8192;
+	private boolean                            locationInfo   = false;
+	private boolean                            blocking       = true;
+	private Thread                             dispatcher;
+
+	public RingBufferAppender( ) {
+		super( );
+	}
+
+	@Override
+	public void activateOptions( ) {
+		super.activateOptions( );
+		int size = Integer.highestOneBit( Math.max( 2, this.bufferSize ) - 1 ) << 1;
+		this.ring = new AtomicReferenceArray<LoggingEvent>( size );
+		this.mask = size - 1;
+		this.dispatcher = new Thread( new Dispatcher( ), "RingBufferAppender-" + this.getName( ) );
+		this.dispatcher.setDaemon( true );
+		this.dispatcher.start( );
+		Runtime.getRuntime( ).addShutdownHook( new Thread( ) {
+			@Override
+			public void run( ) {
+				RingBufferAppender.this.close( );
+			}
+		} );
+	}
+
+	/**
+	 * Same as {@link AppenderSkeleton#doAppend(LoggingEvent)} without holding the appender monitor,
+	 * the ring is safe for concurrent producers.
+	 */
+	@Override
+	public void doAppend( LoggingEvent event ) {
+		if ( !this.isAsSevereAsThreshold( event.getLevel( ) ) ) {
+			return;
+		}
+		Filter f = this.getFirstFilter( );
+		while ( f != null ) {
+			switch ( f.decide( event ) ) {
+				case Filter.DENY:
+					return;
+				case Filter.ACCEPT:
+					f = null;
+					break;
+				default:
+					f = f.getNext( );
+			}
+		}
+		this.append( event );
+	}
+
+	@Override
+	protected void append( LoggingEvent event ) {
+		if ( this.ring == null || this.shutdown ) {
+			this.dispatch( event );
+			return;
+		}
+		// everything which is looked up lazily from the current thread has to be captured here
+		event.getRenderedMessage( );
+		event.getNDC( );
+		event.getThreadName( );
+		event.getMDCCopy( );
+		if ( this.locationInfo ) {
+			event.getLocationInformation( );
+		}
+		if ( event instanceof EucaLoggingEvent ) {
+			( ( EucaLoggingEvent ) event ).getThreadId( );
+		}
+		if ( !this.blocking && this.head.get( ) - this.tail > this.mask ) {
+			this.dropped.incrementAndGet( );
+			return;
+		}
+		long seq = this.head.getAndIncrement( );
+		while ( seq - this.tail > this.mask ) {
+			this.wakeDispatcher( );
+			LockSupport.parkNanos( 1000 );
+		}
+		this.ring.set( ( int ) ( seq & this.mask ), event );
+		this.wakeDispatcher( );
+	}
+
+	private void wakeDispatcher( ) {
+		if ( this.sleeping ) {
+			LockSupport.unpark( this.dispatcher );
+		}
+	}
+
+	private void dispatch( LoggingEvent event ) {
+		synchronized ( this.appenders ) {
+			this.appenders.appendLoopOnAppenders( event );
+		}
+	}
+
+	/**
+	 * Drains the ring in order, backing off when it is empty.
+	 */
+	class Dispatcher implements Runnable {
+		@Override
+		public void run( ) {
+			long park = 1000;
+			while ( true ) {
+				int slot = ( int ) ( RingBufferAppender.this.tail & RingBufferAppender.this.mask );
+				LoggingEvent event = RingBufferAppender.this.ring.get( slot );
+				if ( event != null ) {
+					RingBufferAppender.this.ring.set( slot, null );
+					RingBufferAppender.this.tail++;
+					park = 1000;
+					try {
+						RingBufferAppender.this.dispatch( event );
+					} catch ( RuntimeException ex ) {
+						LogLog.error( "Failed to dispatch logging event", ex );
+					}
+				} else if ( RingBufferAppender.this.shutdown && RingBufferAppender.this.tail >= RingBufferAppender.this.head.get( ) ) {
+					return;
+				} else {
+					RingBufferAppender.this.sleeping = true;
+					if ( RingBufferAppender.this.ring.get( slot ) == null ) {
+						LockSupport.parkNanos( park );
+						park = Math.min( park << 1, MAX_PARK_NANOS );
+					}
+					RingBufferAppender.this.sleeping = false;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close( ) {
+		synchronized ( this ) {
+			if ( this.closed ) {
+				return;
+			}
+			this.closed = true;
+			this.shutdown = true;
+		}
+		if ( this.dispatcher != null ) {
+			LockSupport.unpark( this.dispatcher );
+			try {
+				this.dispatcher.join( TimeUnit.SECONDS.toMillis( 5 ) );
+			} catch ( InterruptedException ex ) {
+				Thread.currentThread( ).interrupt( );
+			}
+		}
+		if ( this.dropped.get( ) > 0 ) {
+			LogLog.warn( this.getName( ) + " dropped " + this.dropped.get( ) + " logging events" );
+		}
+		synchronized ( this.appenders ) {
+			Enumeration<?> all = this.appenders.getAllAppenders( );
+			while ( all != null && all.hasMoreElements( ) ) {
+				( ( Appender ) all.nextElement( ) ).close( );
+			}
+		}
+	}
+
+	@Override
+	public boolean requiresLayout( ) {
+		return false;
+	}
+
+	@Override
+	public void addAppender( Appender newAppender ) {
+		synchronized ( this.appenders ) {
+			this.appenders.addAppender( newAppender );
+		}
+	}
+
+	@Override
+	public Enumeration getAllAppenders( ) {
+		synchronized ( this.appenders ) {
+			return this.appenders.getAllAppenders( );
+		}
+	}
+
+	@Override
+	public Appender getAppender( String name ) {
+		synchronized ( this.appenders ) {
+			return this.appenders.getAppender( name );
+		}
+	}
+
+	@Override
+	public boolean isAttached( Appender appender ) {
+		synchronized ( this.appenders ) {
+			return this.appenders.isAttached( appender );
+		}
+	}
+
+	@Override
+	public void removeAllAppenders( ) {
+		synchronized ( this.appenders ) {
+			this.appenders.removeAllAppenders( );
+		}
+	}
+
+	@Override
+	public void removeAppender( Appender appender ) {
+		synchronized ( this.appenders ) {
+			this.appenders.removeAppender( appender );
+		}
+	}
+
+	@Override
+	public void removeAppender( String name ) {
+		synchronized ( this.appenders ) {
+			this.appenders.removeAppender( name );
+		}
+	}
+
+	public long getDropped( ) {
+		return this.dropped.get( );
+	}
+
+	public int getBufferSize( ) {
+		return this.bufferSize;
+	}
+
+	public void setBufferSize( int bufferSize ) {
+		this.bufferSize = bufferSize;
+	}
+
+	public boolean getLocationInfo( ) {
+		return this.locationInfo;
+	}
+
+	public void setLocationInfo( boolean locationInfo ) {
+		this.locationInfo = locationInfo;
+	}
+
+	public boolean getBlocking( ) {
+		return this.blocking;
+	}
+
+	public void setBlocking( boolean blocking ) {
+		this.blocking = blocking;
+	}
+}
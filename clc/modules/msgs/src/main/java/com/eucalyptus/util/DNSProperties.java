@@ -62,6 +62,8 @@
 
 package com.eucalyptus.util;
 
+import com.eucalyptus.configurable.ConfigurableClass;
+import com.eucalyptus.configurable.ConfigurableField;
 import edu.ucsb.eucalyptus.cloud.entities.SystemConfiguration;
 import edu.ucsb.eucalyptus.msgs.UpdateStorageConfigurationType;
 import org.apache.log4j.Logger;
@@ -73,6 +75,7 @@ import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.Inet6Address;
 
+@ConfigurableClass( root = "dns", description = "Parameters controlling the DNS server." )
 public class DNSProperties {
 
 	private static Logger LOG = Logger.getLogger( DNSProperties.class );
@@ -80,6 +83,14 @@ public class DNSProperties {
 	public static String ADDRESS = "0.0.0.0";
 	public static int PORT = 53;
 	public static int MAX_MESSAGE_SIZE = 1024;
+	@ConfigurableField( description = "Largest EDNS0 query accepted over UDP, in bytes. Applied when the DNS server is next started.", initial = "4096" )
+	public static Integer MAX_UDP_PAYLOAD_SIZE = 4096;
+	@ConfigurableField( description = "Number of threads resolving queries, or 0 for one per processor. Applied when the DNS server is next started.", initial = "0" )
+	public static Integer WORKER_THREADS = 0;
+	@ConfigurableField( description = "Number of queries which may wait for a worker before new ones are refused. Applied when the DNS server is next started.", initial = "4096" )
+	public static Integer MAX_PENDING_QUERIES = 4096;
+	@ConfigurableField( description = "Time (in milliseconds) after which an unanswered query gets a SERVFAIL.", initial = "2000" )
+	public static Long QUERY_TIMEOUT_MILLIS = 2000l;
 	public static String DOMAIN = "localhost";
 	public static String NS_HOST = "nshost." + DOMAIN;
 	public static String NS_IP = "127.0.0.1";
@@ -0,0 +1,171 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size, lock-free histogram of latencies with microsecond resolution.
+ * 
+ * Values are counted in log-linear buckets: below 16us every value has its own bucket, above that
+ * each power of two is split into 16 buckets, so a reported percentile is within about 6% of the
+ * recorded value. Recording is a couple of atomic increments and never allocates.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS  = 4;
+  private static final int SUB_BUCKETS      = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS          = ( 64 - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS;
+  private final AtomicLongArray counts      = new AtomicLongArray( BUCKETS );
+  private final AtomicLong      totalMicros = new AtomicLong( 0l );
+  private final AtomicLong      maxMicros   = new AtomicLong( 0l );
+  
+  /**
+   * Record a latency.
+   * 
+   * @param nanos the latency in nanoseconds, negative values are counted as zero
+   */
+  public void record( final long nanos ) {
+    final long micros = Math.max( 0l, TimeUnit.NANOSECONDS.toMicros( nanos ) );
+    this.counts.incrementAndGet( bucket( micros ) );
+    this.totalMicros.addAndGet( micros );
+    long max;
+    while ( micros > ( max = this.maxMicros.get( ) ) && !this.maxMicros.compareAndSet( max, micros ) );
+  }
+  
+  public long getCount( ) {
+    long count = 0l;
+    for ( int i = 0; i < BUCKETS; i++ ) {
+      count += this.counts.get( i );
+    }
+    return count;
+  }
+  
+  public long getMaxMicros( ) {
+    return this.maxMicros.get( );
+  }
+  
+  public long getMeanMicros( ) {
+    final long count = this.getCount( );
+    return count == 0l
+      ? 0l
+      : this.totalMicros.get( ) / count;
+  }
+  
+  /**
+   * @param percentile the percentile, from 0 to 100
+   * @return the upper bound of the bucket holding the percentile in microseconds, 0 if nothing was
+   *         recorded
+   */
+  public long getPercentileMicros( final double percentile ) {
+    final long[] snapshot = new long[BUCKETS];
+    long count = 0l;
+    for ( int i = 0; i < BUCKETS; i++ ) {
+      count += ( snapshot[i] = this.counts.get( i ) );
+    }
+    if ( count == 0l ) {
+      return 0l;
+    }
+    final long target = Math.max( 1l, ( long ) Math.ceil( count * Math.min( 100d, Math.max( 0d, percentile ) ) / 100d ) );
+    long seen = 0l;
+    for ( int i = 0; i < BUCKETS; i++ ) {
+      seen += snapshot[i];
+      if ( seen >= target ) {
+        return Math.min( upperBound( i ), this.maxMicros.get( ) );
+      }
+    }
+    return this.maxMicros.get( );
+  }
+  
+  /**
+   * @return count, mean, 50th, 90th, 99th percentile and maximum in milliseconds
+   */
+  @Override
+  public String toString( ) {
+    return String.format( "count=%d mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms max=%.3fms", this.getCount( ), this.getMeanMicros( ) / 1000d,
+                          this.getPercentileMicros( 50 ) / 1000d, this.getPercentileMicros( 90 ) / 1000d, this.getPercentileMicros( 99 ) / 1000d,
+                          this.getMaxMicros( ) / 1000d );
+  }
+  
+  static int bucket( final long micros ) {
+    if ( micros < SUB_BUCKETS ) {
+      return ( int ) micros;
+    } else {
+      final int exponent = 63 - Long.numberOfLeadingZeros( micros );
+      final int subBucket = ( int ) ( micros >>> ( exponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 );
+      return ( exponent - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS + subBucket;
+    }
+  }
+  
+  static long upperBound( final int bucket ) {
+    if ( bucket < SUB_BUCKETS ) {
+      return bucket;
+    } else {
+      final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+      final long subBucket = bucket % SUB_BUCKETS;
+      final long lowerBound = ( SUB_BUCKETS + subBucket ) << ( exponent - SUB_BUCKET_BITS );
+      return lowerBound + ( 1l << ( exponent - SUB_BUCKET_BITS ) ) - 1;
+    }
+  }
+}
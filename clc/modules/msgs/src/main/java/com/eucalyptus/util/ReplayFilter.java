@@ -0,0 +1,443 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.util;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.apache.log4j.Logger;
+
+/**
+ * Bounded, lock-free filter for detecting reuse of request signatures.
+ * 
+ * Signatures are reduced to seeded 128-bit fingerprints which are kept, together with the time
+ * they were first seen, in open-addressing tables. Each time slice of the window has its own
+ * tables; when a slice leaves the window its tables are dropped whole, so there is no per-entry
+ * eviction work. The total number of table slots is bounded, when the bound is reached new
+ * signatures are rejected, since they can not be checked, and counted as overflows.
+ */
+public class ReplayFilter {
+  private static Logger LOG = Logger.getLogger( ReplayFilter.class );
+  private static final int STRIDE = 3;
+  private static final int FULL = -1;
+  private static final int MIN_TABLE_SLOTS = 1024;
+
+  private final long windowMillis;
+  private final long sliceMillis;
+  private volatile int maxEntries;
+  private volatile long maxSlots;
+  private final int initialTableSlots;
+  private final long seed = new SecureRandom( ).nextLong( );
+  private final long baseNanos = System.nanoTime( );
+  private final AtomicReferenceArray<Slice> ring;
+  private final AtomicLong replays = new AtomicLong( 0l );
+  private final AtomicLong overflows = new AtomicLong( 0l );
+
+  /**
+   * @param windowMillis how long a signature is remembered
+   * @param slices number of time slices the window is divided into
+   * @param maxEntries upper bound on the number of signatures remembered
+   */
+  public ReplayFilter( final long windowMillis, final int slices, final int maxEntries ) {
+    if ( windowMillis <= 0 || slices <= 0 || maxEntries <= 0 ) {
+      throw new IllegalArgumentException( "Invalid replay filter parameters: window=" + windowMillis + " slices=" + slices + " maxEntries=" + maxEntries );
+    }
+    this.windowMillis = windowMillis;
+    this.sliceMillis = ( windowMillis + slices - 1 ) / slices;
+    this.maxEntries = maxEntries;
+    this.maxSlots = 2l * maxEntries;
+    this.initialTableSlots = Math.max( MIN_TABLE_SLOTS, Integer.highestOneBit( Math.max( 1, ( int ) ( this.maxSlots / ( slices + 1 ) / 8 ) ) ) );
+    this.ring = new AtomicReferenceArray<Slice>( slices + 1 );
+  }
+
+  /**
+   * Record the use of a signature.
+   * 
+   * @param signature the signature being used
+   * @param duplicateWindowMillis period after the first use of a signature during which it may be
+   *          used again, zero or less to reject any reuse
+   * @return false if the signature is a replay, or if it can not be recorded because the filter is full
+   */
+  public boolean add( final String signature, final long duplicateWindowMillis ) {
+    return this.add( signature, duplicateWindowMillis, this.nowMillis( ) );
+  }
+
+  boolean add( final String signature, final long duplicateWindowMillis, final long nowMillis ) {
+    if ( duplicateWindowMillis >= this.windowMillis ) {
+      // replay detection is disabled
+      return true;
+    }
+    final long[] fingerprint = fingerprint( signature, this.seed );
+    final long hi = fingerprint[0];
+    final long lo = fingerprint[1];
+    final long number = nowMillis / this.sliceMillis;
+    long firstSeen = 0l;
+    final long oldest = Math.max( 0l, number - this.ring.length( ) + 1 );
+    for ( long n = number - 1; n >= oldest && firstSeen == 0l; n-- ) {
+      final Slice slice = this.ring.get( this.index( n ) );
+      if ( slice != null && slice.number == n ) {
+        final long stored = slice.find( hi, lo );
+        if ( stored != 0l && nowMillis - ( stored - 1 ) < this.windowMillis ) {
+          firstSeen = stored;
+        }
+      }
+    }
+    if ( firstSeen == 0l ) {
+      final Slice slice = this.slice( number );
+      firstSeen = slice.add( hi, lo, nowMillis + 1 );
+      if ( firstSeen == FULL ) {
+        if ( this.overflows.incrementAndGet( ) % 10000 == 1 ) {
+          LOG.warn( "Replay filter is full (" + this.maxEntries + " entries), requests with new signatures are being rejected" );
+        }
+        return false;
+      } else if ( firstSeen == 0l ) {
+        return true;
+      }
+    }
+    LOG.debug( "Use of the same signature is detected: " + signature );
+    // allow reuse of a signature within the duplicate window from its first use
+    if ( duplicateWindowMillis > 0 && nowMillis - ( firstSeen - 1 ) <= duplicateWindowMillis ) {
+      LOG.debug( "Found signature " + signature + " within allowed " + duplicateWindowMillis + " ms window" );
+      return true;
+    } else {
+      this.replays.incrementAndGet( );
+      return false;
+    }
+  }
+
+  public long getWindowMillis( ) {
+    return this.windowMillis;
+  }
+
+  public int getMaxEntries( ) {
+    return this.maxEntries;
+  }
+
+  /**
+   * Change the bound on the number of signatures remembered. Lowering it does not drop signatures
+   * already remembered, it only stops tables from being added until enough slices expire.
+   */
+  public void setMaxEntries( final int maxEntries ) {
+    if ( maxEntries <= 0 ) {
+      throw new IllegalArgumentException( "Invalid replay filter maxEntries=" + maxEntries );
+    }
+    this.maxEntries = maxEntries;
+    this.maxSlots = 2l * maxEntries;
+  }
+
+  /**
+   * @return number of signatures currently remembered
+   */
+  public long getEntries( ) {
+    long entries = 0l;
+    for ( int i = 0; i < this.ring.length( ); i++ ) {
+      final Slice slice = this.ring.get( i );
+      if ( slice != null ) {
+        for ( Table t = slice.first; t != null; t = t.next ) {
+          entries += t.size.get( );
+        }
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * @return number of table slots currently allocated
+   */
+  public long getSlots( ) {
+    long slots = 0l;
+    for ( int i = 0; i < this.ring.length( ); i++ ) {
+      final Slice slice = this.ring.get( i );
+      if ( slice != null ) {
+        for ( Table t = slice.first; t != null; t = t.next ) {
+          slots += t.capacity;
+        }
+      }
+    }
+    return slots;
+  }
+
+  /**
+   * @return fraction of the entry bound currently in use
+   */
+  public double getOccupancy( ) {
+    return ( double ) this.getEntries( ) / this.maxEntries;
+  }
+
+  public long getReplays( ) {
+    return this.replays.get( );
+  }
+
+  public long getOverflows( ) {
+    return this.overflows.get( );
+  }
+
+  @Override
+  public String toString( ) {
+    return "ReplayFilter window=" + this.windowMillis + "ms slices=" + ( this.ring.length( ) - 1 ) + " maxEntries=" + this.maxEntries;
+  }
+
+  private long nowMillis( ) {
+    return TimeUnit.NANOSECONDS.toMillis( System.nanoTime( ) - this.baseNanos );
+  }
+
+  private int index( final long number ) {
+    return ( int ) ( number % this.ring.length( ) );
+  }
+
+  /**
+   * Get the slice for the given number, replacing (and so dropping) the expired slice which
+   * occupies its position in the ring.
+   */
+  private Slice slice( final long number ) {
+    final int index = this.index( number );
+    while ( true ) {
+      final Slice current = this.ring.get( index );
+      if ( current != null && current.number >= number ) {
+        return current;
+      }
+      final Slice replacement = new Slice( number, new Table( this.initialTableSlots ) );
+      if ( this.ring.compareAndSet( index, current, replacement ) ) {
+        return replacement;
+      }
+    }
+  }
+
+  private final class Slice {
+    private final long number;
+    private final Table first;
+
+    Slice( final long number, final Table first ) {
+      this.number = number;
+      this.first = first;
+    }
+
+    long find( final long hi, final long lo ) {
+      for ( Table t = this.first; t != null; t = t.next ) {
+        final long stored = t.find( hi, lo );
+        if ( stored != 0l ) {
+          return stored;
+        }
+      }
+      return 0l;
+    }
+
+    /**
+     * @return the stored time of an existing entry, 0 if added or {@link #FULL} if no space
+     */
+    long add( final long hi, final long lo, final long time ) {
+      Table t = this.first;
+      while ( true ) {
+        final long result = t.add( hi, lo, time );
+        if ( result != FULL ) {
+          return result;
+        }
+        synchronized ( this ) {
+          if ( t.next == null ) {
+            final long capacity = 2l * t.capacity;
+            if ( ReplayFilter.this.getSlots( ) + capacity > ReplayFilter.this.maxSlots ) {
+              return FULL;
+            }
+            t.next = new Table( ( int ) capacity );
+          }
+        }
+        t = t.next;
+      }
+    }
+  }
+
+  /**
+   * Linear probing table of (fingerprint high, fingerprint low, time) triples, a zero high word
+   * marks an empty slot. A slot is claimed by setting the high word, the time is written last and
+   * readers wait for it before comparing the low word.
+   */
+  private static final class Table {
+    private final int capacity;
+    private final int mask;
+    private final int limit;
+    private final AtomicLongArray slots;
+    private final AtomicInteger size = new AtomicInteger( 0 );
+    private volatile Table next;
+
+    Table( final int capacity ) {
+      this.capacity = capacity;
+      this.mask = capacity - 1;
+      this.limit = capacity / 2;
+      this.slots = new AtomicLongArray( capacity * STRIDE );
+    }
+
+    long find( final long hi, final long lo ) {
+      int index = ( int ) lo & this.mask;
+      for ( int probes = 0; probes < this.capacity; probes++ ) {
+        final int base = index * STRIDE;
+        final long storedHi = this.slots.get( base );
+        if ( storedHi == 0l ) {
+          return 0l;
+        } else if ( storedHi == hi ) {
+          final long time = this.awaitTime( base );
+          if ( this.slots.get( base + 1 ) == lo ) {
+            return time;
+          }
+        }
+        index = ( index + 1 ) & this.mask;
+      }
+      return 0l;
+    }
+
+    long add( final long hi, final long lo, final long time ) {
+      int index = ( int ) lo & this.mask;
+      for ( int probes = 0; probes < this.capacity; ) {
+        final int base = index * STRIDE;
+        final long storedHi = this.slots.get( base );
+        if ( storedHi == 0l ) {
+          if ( this.size.get( ) >= this.limit ) {
+            return FULL;
+          } else if ( this.slots.compareAndSet( base, 0l, hi ) ) {
+            this.slots.set( base + 1, lo );
+            this.slots.set( base + 2, time );
+            this.size.incrementAndGet( );
+            return 0l;
+          } else {
+            continue;// lost the slot, look at it again
+          }
+        } else if ( storedHi == hi ) {
+          final long storedTime = this.awaitTime( base );
+          if ( this.slots.get( base + 1 ) == lo ) {
+            return storedTime;
+          }
+        }
+        index = ( index + 1 ) & this.mask;
+        probes++;
+      }
+      return FULL;
+    }
+
+    private long awaitTime( final int base ) {
+      long time;
+      while ( ( time = this.slots.get( base + 2 ) ) == 0l ) {
+        Thread.yield( );
+      }
+      return time;
+    }
+  }
+
+  /**
+   * Seeded 128-bit MurmurHash3 (x64) of the characters of the given string.
+   * 
+   * @return the high and low words, the high word is never zero
+   */
+  static long[] fingerprint( final String value, final long seed ) {
+    final long c1 = 0x87c37b91114253d5l;
+    final long c2 = 0x4cf5ad432745937fl;
+    long h1 = seed;
+    long h2 = seed;
+    final int length = value.length( );
+    final int blocks = length / 8;
+    for ( int i = 0; i < blocks; i++ ) {
+      final int offset = i * 8;
+      long k1 = chars( value, offset, 4 );
+      long k2 = chars( value, offset + 4, 4 );
+      k1 *= c1; k1 = Long.rotateLeft( k1, 31 ); k1 *= c2; h1 ^= k1;
+      h1 = Long.rotateLeft( h1, 27 ); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+      k2 *= c2; k2 = Long.rotateLeft( k2, 33 ); k2 *= c1; h2 ^= k2;
+      h2 = Long.rotateLeft( h2, 31 ); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+    }
+    final int tail = blocks * 8;
+    final int remaining = length - tail;
+    if ( remaining > 0 ) {
+      long k1 = chars( value, tail, Math.min( 4, remaining ) );
+      long k2 = remaining > 4 ? chars( value, tail + 4, remaining - 4 ) : 0l;
+      k2 *= c2; k2 = Long.rotateLeft( k2, 33 ); k2 *= c1; h2 ^= k2;
+      k1 *= c1; k1 = Long.rotateLeft( k1, 31 ); k1 *= c2; h1 ^= k1;
+    }
+    h1 ^= length * 2;
+    h2 ^= length * 2;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix( h1 );
+    h2 = fmix( h2 );
+    h1 += h2;
+    h2 += h1;
+    return new long[] { h1 == 0l ? 1l : h1, h2 };
+  }
+
+  private static long chars( final String value, final int offset, final int count ) {
+    long result = 0l;
+    for ( int i = 0; i < count; i++ ) {
+      result |= ( ( long ) value.charAt( offset + i ) ) << ( 16 * i );
+    }
+    return result;
+  }
+
+  private static long fmix( long k ) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdl;
+    k ^= k >>> 33;
+    k *= 0xc4ceb93fe53ec4cdl;
+    k ^= k >>> 33;
+    return k;
+  }
+}
@@ -63,8 +63,6 @@
 package com.eucalyptus.util.async;
 
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -79,10 +77,10 @@ import org.jboss.netty.channel.ChannelFactory;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
-import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.ChannelPipelineCoverage;
 import org.jboss.netty.channel.ChannelPipelineFactory;
 import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
 import org.jboss.netty.channel.ExceptionEvent;
 import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
@@ -106,8 +104,6 @@ import com.eucalyptus.records.Logs;
 import com.eucalyptus.util.Exceptions;
 import com.eucalyptus.util.LogUtil;
 import com.eucalyptus.util.TypeMappers;
-import com.eucalyptus.ws.WebServices;
-import com.eucalyptus.ws.util.NioBootstrap;
 import edu.ucsb.eucalyptus.msgs.BaseMessage;
 
 /**
@@ -119,10 +115,12 @@ import edu.ucsb.eucalyptus.msgs.BaseMessage;
 public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> implements RequestHandler<Q, R> {
   private static Logger                LOG           = Logger.getLogger( AsyncRequestHandler.class );
   
-  private NioBootstrap                 clientBootstrap;
-  private ChannelFuture                connectFuture;
+  private ClientChannelPools.Endpoint  endpoint;
+  private volatile ChannelFuture       connectFuture;
+  private long                         startNanos;
   
   private final AtomicBoolean          writeComplete = new AtomicBoolean( false );
+  private final AtomicBoolean          completed     = new AtomicBoolean( false );
   private final CheckedListenableFuture<R>   response;
   private transient AtomicReference<Q> request       = new AtomicReference<Q>( null );
   
@@ -145,69 +143,68 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
       final SocketAddress serviceSocketAddress = config.getSocketAddress( );
       final ChannelPipelineFactory factory = config.getComponentId( ).getClientPipeline( );
       try {
-        this.clientBootstrap = WebServices.clientBootstrap( new ChannelPipelineFactory( ) {
-          @Override
-          public ChannelPipeline getPipeline( ) throws Exception {
-            final ChannelPipeline pipeline = factory.getPipeline( );
-            pipeline.addLast( "request-handler", AsyncRequestHandler.this );
-            return pipeline;
-          }
-        } );
+        this.endpoint = ClientChannelPools.lookup( factory, serviceSocketAddress );
+        this.startNanos = System.nanoTime( );
 //TODO:GRZE: better logging here        LOG.debug( request.getClass( ).getSimpleName( ) + ":" + request.getCorrelationId( ) + " connecting to " + serviceSocketAddress );
         Logs.extreme( ).debug( EventRecord.here( request.getClass( ), EventClass.SYSTEM_REQUEST, EventType.CHANNEL_OPENING, request.getClass( ).getSimpleName( ),
                           request.getCorrelationId( ), serviceSocketAddress.toString( ) ) );
-        this.connectFuture = this.clientBootstrap.connect( serviceSocketAddress );
         final HttpRequest httpRequest = new MappingHttpRequest( HttpVersion.HTTP_1_1, HttpMethod.POST, config, this.request.get( ) );
         
-        this.connectFuture.addListener( new ChannelFutureListener( ) {
+        this.endpoint.lease( new ClientChannelPools.Lease( ) {
           @Override
-          public void operationComplete( final ChannelFuture future ) throws Exception {
+          public void leased( final Channel channel, final boolean reused ) {
+            AsyncRequestHandler.this.connectFuture = Channels.succeededFuture( channel );
+            if ( AsyncRequestHandler.this.response.isDone( ) ) {
+              AsyncRequestHandler.this.endpoint.release( channel, true );
+              return;
+            }
             try {
-              if ( future.isSuccess( ) ) {
-                Logs.extreme( ).debug( "Connected as: " + future.getChannel( ).getLocalAddress( ) );
-                
-                final InetAddress localAddr = ( ( InetSocketAddress ) future.getChannel( ).getLocalAddress( ) ).getAddress( );
-                if ( !factory.getClass( ).getSimpleName( ).startsWith( "GatherLog" ) ) {
-                  Topology.populateServices( config, AsyncRequestHandler.this.request.get( ) );
-                }
-
-                Logs.extreme( ).debug(
-                  EventRecord.here(
-                    request.getClass( ),
-                    EventClass.SYSTEM_REQUEST,
-                    EventType.CHANNEL_OPEN,
-                    request.getClass( ).getSimpleName( ),
-                    request.getCorrelationId( ),
-                    serviceSocketAddress.toString( ),
-                    "" + future.getChannel( ).getLocalAddress( ),
-                    "" + future.getChannel( ).getRemoteAddress( ) ) );
-                Logs.extreme( ).debug( httpRequest );
-                
-                future.getChannel( ).write( httpRequest ).addListener( new ChannelFutureListener( ) {
-                  @Override
-                  public void operationComplete( final ChannelFuture future ) throws Exception {
-                    AsyncRequestHandler.this.writeComplete.set( true );
-                    
-                    Logs.extreme( ).debug(
-                      EventRecord.here(
-                        request.getClass( ),
-                        EventClass.SYSTEM_REQUEST,
-                        EventType.CHANNEL_WRITE,
-                        request.getClass( ).getSimpleName( ),
-                        request.getCorrelationId( ),
-                        serviceSocketAddress.toString( ),
-                        "" + future.getChannel( ).getLocalAddress( ),
-                        "" + future.getChannel( ).getRemoteAddress( ) ) );
-                  }
-                } );
-              } else {
-                AsyncRequestHandler.this.teardown( future.getCause( ) );
+              Logs.extreme( ).debug( ( reused ? "Reusing connection as: " : "Connected as: " ) + channel.getLocalAddress( ) );
+              channel.getPipeline( ).addBefore( ClientChannelPools.MONITOR, "request-handler", AsyncRequestHandler.this );
+              
+              if ( !factory.getClass( ).getSimpleName( ).startsWith( "GatherLog" ) ) {
+                Topology.populateServices( config, AsyncRequestHandler.this.request.get( ) );
               }
+              
+              Logs.extreme( ).debug(
+                EventRecord.here(
+                  request.getClass( ),
+                  EventClass.SYSTEM_REQUEST,
+                  EventType.CHANNEL_OPEN,
+                  request.getClass( ).getSimpleName( ),
+                  request.getCorrelationId( ),
+                  serviceSocketAddress.toString( ),
+                  "" + channel.getLocalAddress( ),
+                  "" + channel.getRemoteAddress( ) ) );
+              Logs.extreme( ).debug( httpRequest );
+              
+              channel.write( httpRequest ).addListener( new ChannelFutureListener( ) {
+                @Override
+                public void operationComplete( final ChannelFuture future ) throws Exception {
+                  AsyncRequestHandler.this.writeComplete.set( true );
+                  
+                  Logs.extreme( ).debug(
+                    EventRecord.here(
+                      request.getClass( ),
+                      EventClass.SYSTEM_REQUEST,
+                      EventType.CHANNEL_WRITE,
+                      request.getClass( ).getSimpleName( ),
+                      request.getCorrelationId( ),
+                      serviceSocketAddress.toString( ),
+                      "" + future.getChannel( ).getLocalAddress( ),
+                      "" + future.getChannel( ).getRemoteAddress( ) ) );
+                }
+              } );
             } catch ( final Exception ex ) {
               LOG.error( ex, ex );
               AsyncRequestHandler.this.teardown( ex );
             }
           }
+          
+          @Override
+          public void failed( final Throwable t ) {
+            AsyncRequestHandler.this.teardown( t );
+          }
         } );
         return true;
       } catch ( final Exception t ) {
@@ -224,6 +221,9 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
     }
     try {
       this.logRequestFailure( t );
+      if ( this.endpoint != null && this.completed.compareAndSet( false, true ) ) {
+        this.endpoint.completed( this.startNanos, true );
+      }
       if ( this.connectFuture != null ) {
         this.maybeCloseChannel( );
       }
@@ -279,7 +279,13 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
   @Override
   public void handleUpstream( final ChannelHandlerContext ctx, final ChannelEvent e ) throws Exception {
     if ( e instanceof MessageEvent ) {
-      this.messageReceived( ctx, ( MessageEvent ) e );
+      final Boolean keepAlive = this.messageReceived( ctx, ( MessageEvent ) e );
+      ctx.sendUpstream( e );
+      if ( keepAlive != null ) {
+        ctx.getPipeline( ).remove( this );
+        this.endpoint.release( ctx.getChannel( ), keepAlive );
+      }
+      return;
     } else if ( e instanceof ChannelStateEvent ) {
       final ChannelStateEvent evt = ( ChannelStateEvent ) e;
       switch ( evt.getState( ) ) {
@@ -300,7 +306,10 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
     ctx.sendUpstream( e );
   }
   
-  private void messageReceived( final ChannelHandlerContext ctx, final MessageEvent e ) {
+  /**
+   * @return whether the connection can be kept alive, or null if it has been torn down
+   */
+  private Boolean messageReceived( final ChannelHandlerContext ctx, final MessageEvent e ) {
     try {
       if ( e.getMessage( ) instanceof MappingHttpResponse ) {
         final MappingHttpResponse response = ( MappingHttpResponse ) e.getMessage( );
@@ -309,9 +318,12 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
           if ( !msg.get_return( ) ) {
             this.teardown( new FailedRequestException( "Cluster response includes _return=false", msg ) );
           } else {
+            if ( this.completed.compareAndSet( false, true ) ) {
+              this.endpoint.completed( this.startNanos, false );
+            }
             this.response.set( msg );
+            return ClientChannelPools.isPersistentConnection( response );
           }
-          e.getFuture( ).addListener( ChannelFutureListener.CLOSE );
         } catch ( final Exception e1 ) {
           LOG.error( e1, e1 );
           this.teardown( e1 );
@@ -331,6 +343,7 @@ public class AsyncRequestHandler<Q extends BaseMessage, R extends BaseMessage> i
       LOG.error( t, t );
       this.teardown( t );
     }
+    return null;
   }
   
   private void checkFinished( final ChannelHandlerContext ctx, final ChannelStateEvent evt ) {
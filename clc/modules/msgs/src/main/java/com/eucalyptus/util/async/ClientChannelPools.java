@@ -0,0 +1,339 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.util.async;
+
+import java.net.SocketAddress;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineCoverage;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpMessage;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.jboss.netty.handler.timeout.IdleStateEvent;
+import com.eucalyptus.event.ClockTick;
+import com.eucalyptus.event.EventListener;
+import com.eucalyptus.event.Listeners;
+import com.eucalyptus.records.Logs;
+import com.eucalyptus.util.LatencyHistogram;
+import com.eucalyptus.util.Mbeans;
+import com.eucalyptus.ws.StackConfiguration;
+import com.eucalyptus.ws.WebServices;
+import com.eucalyptus.ws.util.NioBootstrap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Client connections to service endpoints.
+ * 
+ * Each endpoint (a client pipeline and socket address) has a single bootstrap and a pool of idle
+ * connections which are reused while the remote end keeps them alive. The number of open
+ * connections to an endpoint is bounded by {@link StackConfiguration#CLIENT_POOL_MAX_CONNECTIONS},
+ * further requests wait for a connection to be released. Idle connections are closed after
+ * {@link StackConfiguration#CLIENT_POOL_IDLE_MILLIS} and as soon as they fail or are closed by the
+ * remote end. Request latency and errors are recorded for each endpoint and exported through JMX.
+ */
+public class ClientChannelPools implements EventListener<ClockTick> {
+  private static Logger                           LOG       = Logger.getLogger( ClientChannelPools.class );
+  private static final ClientChannelPools         INSTANCE  = new ClientChannelPools( );
+  static final String                             MONITOR   = "pool-monitor";
+  private final ConcurrentMap<String, Endpoint>   endpoints = Maps.newConcurrentMap( );
+  
+  static {
+    Mbeans.register( INSTANCE );
+  }
+  
+  private ClientChannelPools( ) {
+    Listeners.register( ClockTick.class, this );
+  }
+  
+  public static ClientChannelPools getInstance( ) {
+    return INSTANCE;
+  }
+  
+  interface Lease {
+    /**
+     * Called with a connected channel which is now owned by the lease holder.
+     */
+    void leased( Channel channel, boolean reused );
+    
+    void failed( Throwable t );
+  }
+  
+  static Endpoint lookup( final ChannelPipelineFactory factory, final SocketAddress address ) {
+    final String name = factory.getClass( ).getSimpleName( ) + "@" + address;
+    Endpoint endpoint = INSTANCE.endpoints.get( name );
+    if ( endpoint == null ) {
+      final Endpoint newEndpoint = new Endpoint( name, factory, address );
+      if ( ( endpoint = INSTANCE.endpoints.putIfAbsent( name, newEndpoint ) ) == null ) {
+        endpoint = newEndpoint;
+      }
+    }
+    return endpoint;
+  }
+  
+  static boolean isPersistentConnection( final HttpMessage message ) {
+    return ( message.getProtocolVersion( ).equals( HttpVersion.HTTP_1_1 )
+             && !HttpHeaders.Values.CLOSE.equalsIgnoreCase( message.getHeader( HttpHeaders.Names.CONNECTION ) ) )
+           || ( message.getProtocolVersion( ).equals( HttpVersion.HTTP_1_0 )
+                && HttpHeaders.Values.KEEP_ALIVE.equalsIgnoreCase( message.getHeader( HttpHeaders.Names.CONNECTION ) ) );
+  }
+  
+  @Override
+  public void fireEvent( final ClockTick event ) {
+    for ( final Endpoint endpoint : this.endpoints.values( ) ) {
+      endpoint.evictIdle( );
+    }
+  }
+  
+  public List<String> getEndpoints( ) {
+    final List<String> ret = Lists.newArrayList( );
+    for ( final Endpoint endpoint : this.endpoints.values( ) ) {
+      ret.add( endpoint.toString( ) );
+    }
+    return ret;
+  }
+  
+  public long getOpenConnections( ) {
+    long open = 0l;
+    for ( final Endpoint endpoint : this.endpoints.values( ) ) {
+      open += endpoint.open.get( );
+    }
+    return open;
+  }
+  
+  static class Endpoint {
+    private final String                     name;
+    private final SocketAddress              address;
+    private final NioBootstrap               bootstrap;
+    private final LinkedBlockingDeque<Idle>  idle     = new LinkedBlockingDeque<Idle>( );
+    private final Queue<Lease>               waiting  = new ConcurrentLinkedQueue<Lease>( );
+    private final AtomicInteger              open     = new AtomicInteger( 0 );
+    private final AtomicLong                 connects = new AtomicLong( 0l );
+    private final AtomicLong                 reuses   = new AtomicLong( 0l );
+    private final AtomicLong                 errors   = new AtomicLong( 0l );
+    private final LatencyHistogram           latency  = new LatencyHistogram( );
+    private final ChannelFutureListener      closed   = new ChannelFutureListener( ) {
+                                                        @Override
+                                                        public void operationComplete( final ChannelFuture future ) {
+                                                          Endpoint.this.open.decrementAndGet( );
+                                                          Endpoint.this.drain( );
+                                                        }
+                                                      };
+    
+    Endpoint( final String name, final ChannelPipelineFactory factory, final SocketAddress address ) {
+      this.name = name;
+      this.address = address;
+      this.bootstrap = WebServices.clientBootstrap( new ChannelPipelineFactory( ) {
+        @Override
+        public ChannelPipeline getPipeline( ) throws Exception {
+          final ChannelPipeline pipeline = factory.getPipeline( );
+          pipeline.addLast( MONITOR, new Monitor( ) );
+          return pipeline;
+        }
+      } );
+    }
+    
+    /**
+     * Lease a connection, the lease is called back once a connection is available.
+     */
+    void lease( final Lease lease ) {
+      this.waiting.offer( lease );
+      this.drain( );
+    }
+    
+    /**
+     * Return a leased connection, which is closed unless it can be reused.
+     */
+    void release( final Channel channel, final boolean keepAlive ) {
+      if ( keepAlive && StackConfiguration.CLIENT_CONNECTION_POOL && channel.isConnected( ) ) {
+        this.idle.offerFirst( new Idle( channel ) );
+        this.drain( );
+      } else {
+        channel.close( );
+      }
+    }
+    
+    void completed( final long startNanos, final boolean error ) {
+      this.latency.record( System.nanoTime( ) - startNanos );
+      if ( error ) {
+        this.errors.incrementAndGet( );
+      }
+    }
+    
+    private void drain( ) {
+      while ( !this.waiting.isEmpty( ) ) {
+        final Idle entry = this.idle.pollFirst( );
+        if ( entry != null ) {
+          if ( !entry.isUsable( ) ) {
+            entry.channel.close( );
+          } else {
+            final Lease lease = this.waiting.poll( );
+            if ( lease == null ) {
+              this.idle.offerFirst( entry );
+              return;
+            }
+            this.reuses.incrementAndGet( );
+            lease.leased( entry.channel, true );
+          }
+        } else if ( this.open.incrementAndGet( ) <= StackConfiguration.CLIENT_POOL_MAX_CONNECTIONS ) {
+          final Lease lease = this.waiting.poll( );
+          if ( lease == null ) {
+            this.open.decrementAndGet( );
+            return;
+          }
+          this.connect( lease );
+        } else {
+          this.open.decrementAndGet( );
+          return;
+        }
+      }
+    }
+    
+    private void connect( final Lease lease ) {
+      final ChannelFuture connectFuture;
+      try {
+        connectFuture = this.bootstrap.connect( this.address );
+      } catch ( final RuntimeException ex ) {
+        this.open.decrementAndGet( );
+        this.errors.incrementAndGet( );
+        lease.failed( ex );
+        return;
+      }
+      this.connects.incrementAndGet( );
+      connectFuture.getChannel( ).getCloseFuture( ).addListener( this.closed );
+      connectFuture.addListener( new ChannelFutureListener( ) {
+        @Override
+        public void operationComplete( final ChannelFuture future ) {
+          if ( future.isSuccess( ) ) {
+            lease.leased( future.getChannel( ), false );
+          } else {
+            Endpoint.this.errors.incrementAndGet( );
+            lease.failed( future.getCause( ) );
+          }
+        }
+      } );
+    }
+    
+    private void evictIdle( ) {
+      for ( final Idle entry : this.idle ) {
+        if ( !entry.isUsable( ) && this.idle.remove( entry ) ) {
+          Logs.extreme( ).debug( "Closing idle connection to " + this.name + ": " + entry.channel );
+          entry.channel.close( );
+        }
+      }
+    }
+    
+    @Override
+    public String toString( ) {
+      return String.format( "%s open=%d idle=%d waiting=%d connects=%d reuses=%d errors=%d latency[%s]", this.name, this.open.get( ), this.idle.size( ),
+                            this.waiting.size( ), this.connects.get( ), this.reuses.get( ), this.errors.get( ), this.latency );
+    }
+  }
+  
+  private static class Idle {
+    private final Channel channel;
+    private final long    since = System.currentTimeMillis( );
+    
+    Idle( final Channel channel ) {
+      this.channel = channel;
+    }
+    
+    boolean isUsable( ) {
+      return this.channel.isConnected( ) && ( System.currentTimeMillis( ) - this.since ) < StackConfiguration.CLIENT_POOL_IDLE_MILLIS;
+    }
+  }
+  
+  /**
+   * Last handler in a pooled pipeline, closes the connection on failure or when idle. Events for a
+   * leased connection have already been seen by the request handler.
+   */
+  @ChannelPipelineCoverage( "one" )
+  private static class Monitor implements ChannelUpstreamHandler {
+    @Override
+    public void handleUpstream( final ChannelHandlerContext ctx, final ChannelEvent e ) throws Exception {
+      if ( e instanceof ExceptionEvent ) {
+        Logs.extreme( ).debug( "Closing client connection after error: " + ( ( ExceptionEvent ) e ).getCause( ) );
+        ctx.getChannel( ).close( );
+      } else if ( e instanceof IdleStateEvent && ctx.getPipeline( ).get( AsyncRequestHandler.class ) == null ) {
+        ctx.getChannel( ).close( );
+      } else {
+        ctx.sendUpstream( e );
+      }
+    }
+  }
+}
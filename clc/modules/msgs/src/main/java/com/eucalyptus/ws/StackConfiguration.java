@@ -97,6 +97,9 @@ public class StackConfiguration extends AbstractPersistent {
   @ConfigurableField( description = "A max clock skew value (in seconds) between client and server accepted when validating timestamps in Query/REST protocol.",
                       changeListener = TimeChangeListener.class )
   public static Integer       CLOCK_SKEW_SEC                    = 20;
+  @ConfigurableField( description = "Max number of request signatures remembered for replay detection, or 0 to allow for 5000 signed requests per second over the replay window. Requests are rejected while the limit is reached.",
+                      changeListener = TimeChangeListener.class )
+  public static Integer       REPLAY_FILTER_MAX_ENTRIES         = 0;
   @ConfigurableField( description = "Server socket reuse address.",
                       changeListener = WebServices.RestartWebServicesListener.class )
   public static final Boolean SERVER_CHANNEL_REUSE_ADDRESS      = true;
@@ -192,6 +195,15 @@ public class StackConfiguration extends AbstractPersistent {
   @ConfigurableField( description = "Client socket select timeout (ms)." )
   public static Long          CLIENT_POOL_TIMEOUT_MILLIS        = 500L;
   
+  @ConfigurableField( description = "Reuse client connections to services which keep them alive." )
+  public static Boolean       CLIENT_CONNECTION_POOL            = Boolean.TRUE;
+  
+  @ConfigurableField( description = "Maximum number of client connections to a single service endpoint." )
+  public static Integer       CLIENT_POOL_MAX_CONNECTIONS       = 8;
+  
+  @ConfigurableField( description = "Idle time after which a pooled client connection is closed (ms)." )
+  public static Long          CLIENT_POOL_IDLE_MILLIS           = 4000L;
+  
   @ConfigurableField( description = "Maximum HTTP chunk size (bytes)." )
   public static Integer       HTTP_MAX_CHUNK_BYTES              = 10 * 10 * 1024;
   
@@ -62,7 +62,6 @@
 
 package com.eucalyptus.ws.handlers;
 
-import java.util.concurrent.Callable;
 import org.jboss.netty.channel.ChannelDownstreamHandler;
 import org.jboss.netty.channel.ChannelEvent;
 import org.jboss.netty.channel.ChannelHandlerContext;
@@ -71,6 +70,7 @@ import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
 import com.eucalyptus.ws.WebServicesException;
 import com.eucalyptus.ws.server.Statistics;
+import com.eucalyptus.ws.server.Statistics.Direction;
 
 public abstract class MessageStackHandler implements ChannelDownstreamHandler, ChannelUpstreamHandler {
   
@@ -80,9 +80,14 @@ public abstract class MessageStackHandler implements ChannelDownstreamHandler, C
       if ( channelEvent instanceof MessageEvent ) {
         final MessageEvent msgEvent = ( MessageEvent ) channelEvent;
         if ( msgEvent.getMessage( ) != null ) {
-          Callable<Long> stat = Statistics.startDownstream( ctx.getChannel( ), this );
-          this.outgoingMessage( ctx, msgEvent );
-          stat.call( );
+          final long start = System.nanoTime( );
+          boolean error = true;
+          try {
+            this.outgoingMessage( ctx, msgEvent );
+            error = false;
+          } finally {
+            Statistics.record( this, Direction.DOWNSTREAM, System.nanoTime( ) - start, error );
+          }
         }
       }
       ctx.sendDownstream( channelEvent );
@@ -110,9 +115,14 @@ public abstract class MessageStackHandler implements ChannelDownstreamHandler, C
   public void handleUpstream( final ChannelHandlerContext ctx, final ChannelEvent channelEvent ) throws Exception {
     if ( channelEvent instanceof MessageEvent ) {
       final MessageEvent msgEvent = ( MessageEvent ) channelEvent;
-      Callable<Long> stat = Statistics.startUpstream( ctx.getChannel( ), this );
-      this.incomingMessage( ctx, msgEvent );
-      stat.call( );
+      final long start = System.nanoTime( );
+      boolean error = true;
+      try {
+        this.incomingMessage( ctx, msgEvent );
+        error = false;
+      } finally {
+        Statistics.record( this, Direction.UPSTREAM, System.nanoTime( ) - start, error );
+      }
       ctx.sendUpstream( channelEvent );
     } else {
       ctx.sendUpstream( channelEvent );
@@ -62,7 +62,6 @@
 
 package com.eucalyptus.ws.handlers;
 
-import java.io.ByteArrayOutputStream;
 import org.apache.axiom.soap.SOAP11Constants;
 import org.apache.axiom.soap.SOAP12Constants;
 import org.apache.axiom.soap.SOAPEnvelope;
@@ -70,6 +69,8 @@ import org.apache.axiom.soap.SOAPFactory;
 import org.apache.axiom.soap.impl.builder.StAXSOAPModelBuilder;
 import org.apache.log4j.Logger;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.ChannelPipelineCoverage;
@@ -87,7 +88,8 @@ public class SoapMarshallingHandler extends MessageStackHandler {
   public void incomingMessage( final MessageEvent event ) throws Exception {
     if ( event.getMessage( ) instanceof MappingHttpMessage ) {
       MappingHttpMessage httpMessage = ( MappingHttpMessage ) event.getMessage( );
-      String content = httpMessage.getContent( ).toString( "UTF-8" );
+      ChannelBuffer buffer = httpMessage.getContent( );
+      String content = buffer.toString( "UTF-8" );
       httpMessage.setMessageString( content );
       HoldMe.canHas.lock( );
       SOAPEnvelope env = null;
@@ -95,10 +97,10 @@ public class SoapMarshallingHandler extends MessageStackHandler {
         StAXSOAPModelBuilder soapBuilder = null;
         try {
           SOAPFactory factory = HoldMe.getOMSOAP11Factory( );
-          soapBuilder = new StAXSOAPModelBuilder( HoldMe.getXMLStreamReader( content ), factory , SOAP11Constants.SOAP_ENVELOPE_NAMESPACE_URI );
+          soapBuilder = new StAXSOAPModelBuilder( HoldMe.getXMLStreamReader( new ChannelBufferInputStream( buffer.duplicate( ) ) ), factory , SOAP11Constants.SOAP_ENVELOPE_NAMESPACE_URI );
         } catch ( Exception e ) {
           SOAPFactory factory = HoldMe.getOMSOAP12Factory( );
-          soapBuilder = new StAXSOAPModelBuilder( HoldMe.getXMLStreamReader( content ), factory , SOAP12Constants.SOAP_ENVELOPE_NAMESPACE_URI );
+          soapBuilder = new StAXSOAPModelBuilder( HoldMe.getXMLStreamReader( new ChannelBufferInputStream( buffer.duplicate( ) ) ), factory , SOAP12Constants.SOAP_ENVELOPE_NAMESPACE_URI );
         }
         env = ( SOAPEnvelope ) soapBuilder.getDocumentElement( );
       } catch( Exception ex ) {
@@ -116,14 +118,13 @@ public class SoapMarshallingHandler extends MessageStackHandler {
   public void outgoingMessage( final ChannelHandlerContext ctx, final MessageEvent event ) throws Exception {
     if ( event.getMessage( ) instanceof MappingHttpMessage ) {
       MappingHttpMessage httpMessage = ( MappingHttpMessage ) event.getMessage( );
-      ByteArrayOutputStream byteOut = new ByteArrayOutputStream( );
+      ChannelBuffer buffer = ChannelBuffers.dynamicBuffer( 4096 );
       HoldMe.canHas.lock( );
       try {
-        httpMessage.getSoapEnvelope( ).serialize( byteOut );//HACK: does this need fixing for xml brokeness?
+        httpMessage.getSoapEnvelope( ).serialize( new ChannelBufferOutputStream( buffer ) );//HACK: does this need fixing for xml brokeness?
       } finally {
         HoldMe.canHas.unlock( );
       }
-      ChannelBuffer buffer = ChannelBuffers.wrappedBuffer( byteOut.toByteArray( ) );
       httpMessage.addHeader( HttpHeaders.Names.CONTENT_LENGTH, String.valueOf( buffer.readableBytes( ) ) );
       httpMessage.addHeader( HttpHeaders.Names.CONTENT_TYPE, "text/xml; charset=UTF-8" );
       httpMessage.setContent( buffer );
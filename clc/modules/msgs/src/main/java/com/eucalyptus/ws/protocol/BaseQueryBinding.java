@@ -203,12 +203,12 @@ public class BaseQueryBinding<T extends Enum<T>> extends RestfulMarshallingHandl
     }
     
     try {
-      currentBinding.toOM( eucaMsg, this.getNamespace( ) );
+      currentBinding.validate( eucaMsg, this.getNamespace( ) );
     } catch ( final RuntimeException e ) {
       LOG.error( "Falling back to default (unvalidated) binding for: " + operationName + " with params=" + params );
       LOG.error( "Failed to build a valid message: " + e.getMessage( ), e );
       try {
-        BindingManager.getDefaultBinding( ).toOM( eucaMsg, BindingManager.defaultBindingNamespace( ) );
+        BindingManager.getDefaultBinding( ).validate( eucaMsg, BindingManager.defaultBindingNamespace( ) );
       } catch ( final RuntimeException ex ) {
         throw new BindingException( "Default binding failed to build a valid message: " + ex.getMessage( ), ex );
       }
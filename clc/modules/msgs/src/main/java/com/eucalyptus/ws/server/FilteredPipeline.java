@@ -63,6 +63,7 @@
 package com.eucalyptus.ws.server;
 
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.log4j.Logger;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelHandler;
@@ -77,7 +78,8 @@ import com.eucalyptus.util.HasName;
 import com.eucalyptus.ws.Handlers;
 
 public abstract class FilteredPipeline implements HasName<FilteredPipeline>, Filterable<HttpRequest> {
-  private static Logger LOG = Logger.getLogger( FilteredPipeline.class );
+  private static Logger    LOG     = Logger.getLogger( FilteredPipeline.class );
+  private final AtomicLong matches = new AtomicLong( 0l );
   
   protected abstract static class InternalPipeline extends FilteredPipeline {
     private final ComponentId componentId;
@@ -127,6 +129,26 @@ public abstract class FilteredPipeline implements HasName<FilteredPipeline>, Fil
   @Override
   public abstract boolean checkAccepts( HttpRequest message );
   
+  /**
+   * Routing information used to index this pipeline for dispatch.
+   * 
+   * @return the route, or null if the pipeline must be asked about every request
+   */
+  public PipelineRoute getRoute( ) {
+    return null;
+  }
+  
+  /**
+   * @return the number of requests dispatched to this pipeline
+   */
+  public long getMatchCount( ) {
+    return this.matches.get( );
+  }
+  
+  void matched( ) {
+    this.matches.incrementAndGet( );
+  }
+  
   @Override
   public final int compareTo( final FilteredPipeline o ) {
     return this.getName( ).compareTo( this.getName( ) );
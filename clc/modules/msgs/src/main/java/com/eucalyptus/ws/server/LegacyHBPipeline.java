@@ -92,6 +92,11 @@ import com.google.common.base.Charsets;
 public class LegacyHBPipeline extends FilteredPipeline {
   private static Logger LOG = Logger.getLogger( LegacyHBPipeline.class );
   
+  @Override
+  public PipelineRoute getRoute( ) {
+    return PipelineRoute.suffix( "/services/Heartbeat" );
+  }
+  
   @Override
   public boolean checkAccepts( HttpRequest message ) {
     return message.getUri( ).endsWith( "/services/Heartbeat" );
@@ -0,0 +1,123 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+
+package com.eucalyptus.ws.server;
+
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.log4j.Logger;
+
+/**
+ * Hook through which the metadata pipeline can answer instance metadata requests from documents
+ * which have already been rendered, without dispatching the request to the metadata service.
+ * 
+ * A {@link Resolver} is registered by the component owning the instance metadata. Requests the
+ * resolver cannot answer (no document, or a path outside of it) are dispatched as before.
+ */
+public class MetadataDocuments {
+  private static Logger                          LOG      = Logger.getLogger( MetadataDocuments.class );
+  private static final AtomicReference<Resolver> resolver = new AtomicReference<Resolver>( );
+  
+  /**
+   * An immutable, rendered metadata tree.
+   */
+  public interface Document {
+    /**
+     * @return entity tag which changes whenever any content of the document changes
+     */
+    public String getETag( );
+    
+    /**
+     * @param path request path relative to the metadata version, e.g. meta-data/instance-id
+     * @return the content for the path, or null if the path is not part of this document
+     */
+    public byte[] lookup( String path );
+  }
+  
+  public interface Resolver {
+    /**
+     * @return the current document for the requesting address, or null if there is none
+     */
+    public Document lookup( String requestIp );
+  }
+  
+  public static void register( final Resolver r ) {
+    resolver.set( r );
+  }
+  
+  /**
+   * @return the current document for the requesting address, or null if it must be dispatched
+   */
+  public static Document lookup( final String requestIp ) {
+    final Resolver r = resolver.get( );
+    if ( r == null ) {
+      return null;
+    } else {
+      try {
+        return r.lookup( requestIp );
+      } catch ( final Exception ex ) {
+        LOG.debug( "Failed to lookup metadata document for " + requestIp + ": " + ex.getMessage( ) );
+        return null;
+      }
+    }
+  }
+}
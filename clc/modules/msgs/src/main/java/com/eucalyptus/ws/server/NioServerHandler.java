@@ -63,7 +63,6 @@
 package com.eucalyptus.ws.server;
 
 import static com.eucalyptus.component.ComponentId.ComponentPart;
-import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicReference;
 import javax.security.auth.login.LoginException;
 import org.apache.log4j.Logger;
@@ -96,6 +95,7 @@ import com.eucalyptus.system.Ats;
 import com.eucalyptus.util.Exceptions;
 import com.eucalyptus.ws.Handlers;
 import com.eucalyptus.ws.WebServicesException;
+import com.eucalyptus.ws.server.Statistics.Direction;
 
 @ChannelPipelineCoverage( "one" )
 public class NioServerHandler extends SimpleChannelUpstreamHandler {//TODO:GRZE: this needs to move up dependency tree.
@@ -104,7 +104,7 @@ public class NioServerHandler extends SimpleChannelUpstreamHandler {//TODO:GRZE:
   
   @Override
   public void messageReceived( final ChannelHandlerContext ctx, final MessageEvent e ) throws Exception {
-    Callable<Long> stat = Statistics.startUpstream( ctx.getChannel( ), this );
+    final long start = System.nanoTime( );
     try {
       if ( this.pipeline.get( ) == null ) {
         lookupPipeline( ctx, e );
@@ -123,12 +123,12 @@ public class NioServerHandler extends SimpleChannelUpstreamHandler {//TODO:GRZE:
           return;
         }
       }
-      stat.call( );
+      Statistics.record( this, Direction.UPSTREAM, System.nanoTime( ) - start, false );
       ctx.sendUpstream( e );
     } catch ( Exception ex ) {
       LOG.trace( ex );
       Logs.extreme( ).error( ex, ex );
-      stat.call( );
+      Statistics.record( this, Direction.UPSTREAM, System.nanoTime( ) - start, true );
       this.sendError( ctx, HttpResponseStatus.NOT_FOUND, ex );
     }
   }
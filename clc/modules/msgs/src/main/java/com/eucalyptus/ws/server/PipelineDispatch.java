@@ -0,0 +1,300 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.ws.server;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Dispatch table for finding the pipeline accepting a request.
+ * 
+ * Pipelines with a {@link PipelineRoute} are indexed by the last segment of their service path
+ * (suffix routes) or by their path (prefix routes) so that only the pipelines which could accept a
+ * request are asked. Pipelines without a route (special cases matching on headers or patterns) are
+ * asked first, then the indexed candidates, and if nothing accepts the request all pipelines are
+ * scanned as before.
+ * 
+ * Candidates are asked in a fixed order: external pipelines before internal ones, then longer
+ * paths before shorter ones, then by name.
+ */
+public class PipelineDispatch {
+  private static final String                            SOAP_ACTION = "SOAPAction";
+  private final Map<String, List<FilteredPipeline>>      suffixRoutes;
+  private final Map<String, List<FilteredPipeline>>      prefixRoutes;
+  private final List<FilteredPipeline>                   unrouted;
+  private final List<FilteredPipeline>                   all;
+  private final AtomicLong                               indexedMatches  = new AtomicLong( 0l );
+  private final AtomicLong                               unroutedMatches = new AtomicLong( 0l );
+  private final AtomicLong                               scanMatches     = new AtomicLong( 0l );
+  private final AtomicLong                               misses          = new AtomicLong( 0l );
+  
+  private PipelineDispatch( final Map<String, List<FilteredPipeline>> suffixRoutes,
+                            final Map<String, List<FilteredPipeline>> prefixRoutes,
+                            final List<FilteredPipeline> unrouted,
+                            final List<FilteredPipeline> all ) {
+    this.suffixRoutes = suffixRoutes;
+    this.prefixRoutes = prefixRoutes;
+    this.unrouted = unrouted;
+    this.all = all;
+  }
+  
+  static PipelineDispatch build( final Collection<FilteredPipeline> external, final Collection<FilteredPipeline> internal ) {
+    final List<Candidate> candidates = Lists.newArrayList( );
+    for ( final FilteredPipeline p : external ) {
+      candidates.add( new Candidate( p, false ) );
+    }
+    for ( final FilteredPipeline p : internal ) {
+      candidates.add( new Candidate( p, true ) );
+    }
+    final Map<String, List<Candidate>> suffixes = Maps.newHashMap( );
+    final Map<String, List<Candidate>> prefixes = Maps.newHashMap( );
+    final List<Candidate> unrouted = Lists.newArrayList( );
+    for ( final Candidate c : candidates ) {
+      final PipelineRoute route = c.pipeline.getRoute( );
+      if ( route == null ) {
+        unrouted.add( c );
+      } else {
+        for ( final String path : route.getPaths( ) ) {
+          if ( PipelineRoute.Match.SUFFIX.equals( route.getMatch( ) ) ) {
+            index( suffixes, lastSegment( path ), c.withPath( path ) );
+          } else {
+            index( prefixes, path, c.withPath( path ) );
+          }
+        }
+      }
+    }
+    return new PipelineDispatch( sorted( suffixes ), sorted( prefixes ), sorted( unrouted ), sorted( candidates ) );
+  }
+  
+  /**
+   * @return the accepting pipeline or null if there is none
+   */
+  FilteredPipeline lookup( final HttpRequest request ) {
+    final String uri = request.getUri( );
+    final boolean soap = request.containsHeader( SOAP_ACTION );
+    final HttpMethod method = request.getMethod( );
+    FilteredPipeline accepting = accept( this.unrouted, request, soap, method );
+    if ( accepting != null ) {
+      this.unroutedMatches.incrementAndGet( );
+      return accepting;
+    }
+    accepting = accept( this.suffixRoutes.get( lastSegment( uri ) ), request, soap, method );
+    if ( accepting == null ) {
+      final int query = uri.indexOf( '?' );
+      final String path = query < 0
+        ? uri
+        : uri.substring( 0, query );
+      for ( int end = path.length( ); end >= 0 && accepting == null; end = path.lastIndexOf( '/', end - 1 ) ) {
+        accepting = accept( this.prefixRoutes.get( path.substring( 0, end ) ), request, soap, method );
+        if ( accepting == null && end < path.length( ) ) {
+          accepting = accept( this.prefixRoutes.get( path.substring( 0, end + 1 ) ), request, soap, method );
+        }
+        if ( end == 0 ) {
+          break;
+        }
+      }
+    }
+    if ( accepting != null ) {
+      this.indexedMatches.incrementAndGet( );
+    } else if ( ( accepting = scan( this.all, request ) ) != null ) {
+      this.scanMatches.incrementAndGet( );
+    } else {
+      this.misses.incrementAndGet( );
+    }
+    return accepting;
+  }
+  
+  public long getIndexedMatches( ) {
+    return this.indexedMatches.get( );
+  }
+  
+  public long getUnroutedMatches( ) {
+    return this.unroutedMatches.get( );
+  }
+  
+  public long getScanMatches( ) {
+    return this.scanMatches.get( );
+  }
+  
+  public long getMisses( ) {
+    return this.misses.get( );
+  }
+  
+  /**
+   * @return the number of requests accepted by each pipeline, by pipeline name
+   */
+  public Map<String, Long> getPipelineMatches( ) {
+    final Map<String, Long> matches = Maps.newTreeMap( );
+    for ( final FilteredPipeline p : this.all ) {
+      final Long previous = matches.get( p.getName( ) );
+      matches.put( p.getName( ), p.getMatchCount( ) + ( previous == null ? 0l : previous ) );
+    }
+    return matches;
+  }
+  
+  @Override
+  public String toString( ) {
+    return String.format( "PipelineDispatch:pipelines=%d:suffixRoutes=%s:prefixRoutes=%s:unrouted=%s", this.all.size( ),
+                          this.suffixRoutes.keySet( ), this.prefixRoutes.keySet( ), this.unrouted );
+  }
+  
+  private static FilteredPipeline accept( final List<FilteredPipeline> candidates, final HttpRequest request, final boolean soap, final HttpMethod method ) {
+    if ( candidates != null ) {
+      for ( final FilteredPipeline p : candidates ) {
+        final PipelineRoute route = p.getRoute( );
+        if ( ( route == null || route.admits( soap, method ) ) && p.checkAccepts( request ) ) {
+          return p;
+        }
+      }
+    }
+    return null;
+  }
+  
+  private static FilteredPipeline scan( final List<FilteredPipeline> candidates, final HttpRequest request ) {
+    for ( final FilteredPipeline p : candidates ) {
+      if ( p.checkAccepts( request ) ) {
+        return p;
+      }
+    }
+    return null;
+  }
+  
+  private static String lastSegment( final String path ) {
+    return path.substring( path.lastIndexOf( '/' ) + 1 );
+  }
+  
+  private static void index( final Map<String, List<Candidate>> routes, final String key, final Candidate candidate ) {
+    List<Candidate> candidates = routes.get( key );
+    if ( candidates == null ) {
+      routes.put( key, candidates = Lists.newArrayList( ) );
+    }
+    for ( final Candidate c : candidates ) {
+      if ( c.pipeline == candidate.pipeline ) {
+        return;
+      }
+    }
+    candidates.add( candidate );
+  }
+  
+  private static Map<String, List<FilteredPipeline>> sorted( final Map<String, List<Candidate>> routes ) {
+    final ImmutableMap.Builder<String, List<FilteredPipeline>> builder = ImmutableMap.builder( );
+    for ( final Map.Entry<String, List<Candidate>> e : routes.entrySet( ) ) {
+      builder.put( e.getKey( ), sorted( e.getValue( ) ) );
+    }
+    return builder.build( );
+  }
+  
+  private static List<FilteredPipeline> sorted( final List<Candidate> candidates ) {
+    final List<Candidate> ordered = Lists.newArrayList( candidates );
+    Collections.sort( ordered, Candidate.PRIORITY );
+    final ImmutableList.Builder<FilteredPipeline> builder = ImmutableList.builder( );
+    for ( final Candidate c : ordered ) {
+      builder.add( c.pipeline );
+    }
+    return builder.build( );
+  }
+  
+  private static class Candidate {
+    static final Comparator<Candidate> PRIORITY = new Comparator<Candidate>( ) {
+      @Override
+      public int compare( final Candidate o1, final Candidate o2 ) {
+        if ( o1.internal != o2.internal ) {
+          return o1.internal
+            ? 1
+            : -1;
+        } else if ( o1.path.length( ) != o2.path.length( ) ) {
+          return o2.path.length( ) - o1.path.length( );
+        } else {
+          return o1.pipeline.getName( ).compareTo( o2.pipeline.getName( ) );
+        }
+      }
+    };
+    private final FilteredPipeline pipeline;
+    private final boolean          internal;
+    private final String           path;
+    
+    Candidate( final FilteredPipeline pipeline, final boolean internal ) {
+      this( pipeline, internal, "" );
+    }
+    
+    private Candidate( final FilteredPipeline pipeline, final boolean internal, final String path ) {
+      this.pipeline = pipeline;
+      this.internal = internal;
+      this.path = path;
+    }
+    
+    Candidate withPath( final String path ) {
+      return new Candidate( this.pipeline, this.internal, path );
+    }
+  }
+}
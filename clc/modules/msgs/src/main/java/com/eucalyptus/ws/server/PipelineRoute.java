@@ -0,0 +1,149 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package com.eucalyptus.ws.server;
+
+import java.util.Arrays;
+import java.util.List;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+
+/**
+ * Describes the requests a {@link FilteredPipeline} can accept so that it can be indexed for
+ * dispatch.
+ * 
+ * A route is a necessary condition only: any request accepted by
+ * {@link FilteredPipeline#checkAccepts(org.jboss.netty.handler.codec.http.HttpRequest)} must
+ * match the route, the pipeline still makes the final decision.
+ */
+public class PipelineRoute {
+  enum Match {
+    /**
+     * The request URI starts with one of the paths.
+     */
+    PREFIX,
+    /**
+     * The request URI ends with one of the paths.
+     */
+    SUFFIX
+  }
+  
+  private final Match                 match;
+  private final ImmutableList<String> paths;
+  private final boolean               soap;
+  private final HttpMethod            method;
+  
+  private PipelineRoute( final Match match, final List<String> paths, final boolean soap, final HttpMethod method ) {
+    this.match = match;
+    this.paths = ImmutableList.copyOf( Iterables.filter( paths, Predicates.notNull( ) ) );
+    this.soap = soap;
+    this.method = method;
+  }
+  
+  /**
+   * Route for SOAP requests (with a SOAPAction header) whose URI ends with one of the given paths.
+   */
+  public static PipelineRoute soap( final String... servicePaths ) {
+    return new PipelineRoute( Match.SUFFIX, Arrays.asList( servicePaths ), true, null );
+  }
+  
+  /**
+   * Route for requests whose URI ends with one of the given paths.
+   */
+  public static PipelineRoute suffix( final String... paths ) {
+    return new PipelineRoute( Match.SUFFIX, Arrays.asList( paths ), false, null );
+  }
+  
+  /**
+   * Route for requests whose URI starts with one of the given paths.
+   */
+  public static PipelineRoute prefix( final String... paths ) {
+    return new PipelineRoute( Match.PREFIX, Arrays.asList( paths ), false, null );
+  }
+  
+  /**
+   * @return a copy of this route which only matches requests using the given method
+   */
+  public PipelineRoute withMethod( final HttpMethod method ) {
+    return new PipelineRoute( this.match, this.paths, this.soap, method );
+  }
+  
+  Match getMatch( ) {
+    return this.match;
+  }
+  
+  List<String> getPaths( ) {
+    return this.paths;
+  }
+  
+  boolean admits( final boolean soapRequest, final HttpMethod requestMethod ) {
+    return ( !this.soap || soapRequest ) && ( this.method == null || this.method.equals( requestMethod ) );
+  }
+  
+  @Override
+  public String toString( ) {
+    return String.format( "PipelineRoute:match=%s:paths=%s:soap=%s:method=%s", this.match, this.paths, this.soap, this.method );
+  }
+  
+}
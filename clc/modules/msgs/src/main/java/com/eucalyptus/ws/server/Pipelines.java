@@ -100,6 +100,7 @@ import com.eucalyptus.records.EventType;
 import com.eucalyptus.records.Logs;
 import com.eucalyptus.system.Ats;
 import com.eucalyptus.util.Classes;
+import com.eucalyptus.util.Mbeans;
 import com.eucalyptus.ws.Handlers;
 import com.eucalyptus.ws.handlers.HmacHandler;
 import com.eucalyptus.ws.handlers.SoapMarshallingHandler;
@@ -116,6 +117,7 @@ public class Pipelines {
   private static final Set<FilteredPipeline>                                     internalPipelines = Sets.newHashSet( );
   private static final Set<FilteredPipeline>                                     pipelines         = Sets.newHashSet( );
   private static final Map<Class<? extends ComponentId>, ChannelPipelineFactory> clientPipelines   = Maps.newHashMap( );
+  private static volatile PipelineDispatch                                       dispatch          = null;
   
   public static ChannelPipelineFactory lookup( Class<? extends ComponentId> compId ) {
     return clientPipelines.get( compId );
@@ -137,6 +139,7 @@ public class Pipelines {
       }
       throw new NoAcceptingPipelineException( );
     }
+    candidate.matched( );
     if ( Logs.isExtrrreeeme( ) ) {
       EventRecord.here( Pipelines.class, EventType.PIPELINE_UNROLL, candidate.toString( ) ).extreme( );
     }
@@ -144,6 +147,10 @@ public class Pipelines {
   }
   
   private static FilteredPipeline findAccepting( final HttpRequest request ) {
+    final PipelineDispatch currentDispatch = dispatch;
+    if ( currentDispatch != null ) {
+      return currentDispatch.lookup( request );
+    }
     final FilteredPipeline candidate = null;
     for ( final FilteredPipeline f : pipelines ) {
       if ( f.checkAccepts( request ) ) {
@@ -170,6 +177,9 @@ public class Pipelines {
         Pipelines.internalPipelines.add( new InternalQueryPipeline( comp ) );
         Pipelines.internalPipelines.add( new InternalSoapPipeline( comp ) );
       }
+      Pipelines.dispatch = PipelineDispatch.build( Pipelines.pipelines, Pipelines.internalPipelines );
+      LOG.debug( "Built pipeline dispatch: " + Pipelines.dispatch );
+      Mbeans.register( Pipelines.dispatch );
       return true;
     }
     
@@ -229,6 +239,11 @@ public class Pipelines {
       this.serviceName = componentId.getFullName( ).toString( );
     }
     
+    @Override
+    public PipelineRoute getRoute( ) {
+      return PipelineRoute.soap( this.servicePath, this.internalServicePath );
+    }
+    
     @Override
     public boolean checkAccepts( final HttpRequest message ) {
       return ( message.getUri( ).endsWith( this.servicePath ) || message.getUri( ).endsWith( this.internalServicePath ) )
@@ -274,6 +289,11 @@ public class Pipelines {
       this.serviceName = componentId.getFullName( ).toString( );
     }
     
+    @Override
+    public PipelineRoute getRoute( ) {
+      return PipelineRoute.prefix( this.servicePath, this.internalServicePath );
+    }
+    
     @Override
     public boolean checkAccepts( final HttpRequest message ) {
       if ( message instanceof MappingHttpRequest ) {
@@ -62,6 +62,7 @@
 
 package com.eucalyptus.ws.server;
 
+import java.util.concurrent.TimeUnit;
 import org.apache.log4j.Logger;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelDownstreamHandler;
@@ -96,6 +97,7 @@ import com.eucalyptus.records.Logs;
 import com.eucalyptus.ws.util.RequestQueue;
 import edu.ucsb.eucalyptus.msgs.BaseMessage;
 import edu.ucsb.eucalyptus.msgs.EucalyptusErrorMessageType;
+import edu.ucsb.eucalyptus.msgs.ExceptionResponseType;
 
 @ChannelPipelineCoverage( "one" )
 public class ServiceContextHandler implements ChannelUpstreamHandler, ChannelDownstreamHandler {
@@ -146,12 +148,17 @@ public class ServiceContextHandler implements ChannelUpstreamHandler, ChannelDow
         LOG.warn( "Received a null response for request: " + request.getMessageString( ) );
         reply = new EucalyptusErrorMessageType( this.getClass( ).getSimpleName( ), ( BaseMessage ) request.getMessage( ), "Received a NULL reply" );
       }
-      Long currTime = System.currentTimeMillis( );
-      try {
-    	  Logs.extreme( ).debug( EventRecord.here( reply.getClass( ), EventClass.MESSAGE, EventType.MSG_SERVICED, "request-ms",
-    			  Long.toString( currTime - this.startTime.get( ctx.getChannel( ) ) ) ) );
-      } catch ( Exception ex ) {
-    	  Logs.extreme( ).trace( ex, ex );
+      final Long start = this.startTime.remove( ctx.getChannel( ) );
+      if ( start != null ) {
+        final long elapsed = System.nanoTime( ) - start;
+        final boolean error = reply instanceof EucalyptusErrorMessageType || reply instanceof ExceptionResponseType;
+        Statistics.requestCompleted( this.messageType.get( ctx.getChannel( ) ).getClass( ).getSimpleName( ), elapsed, error );
+        try {
+          Logs.extreme( ).debug( EventRecord.here( reply.getClass( ), EventClass.MESSAGE, EventType.MSG_SERVICED, "request-ms",
+                                                   Long.toString( TimeUnit.NANOSECONDS.toMillis( elapsed ) ) ) );
+        } catch ( Exception ex ) {
+          Logs.extreme( ).trace( ex, ex );
+        }
       }
       final MappingHttpResponse response = new MappingHttpResponse( request.getProtocolVersion( ) );
       final DownstreamMessageEvent newEvent = new DownstreamMessageEvent( ctx.getChannel( ), e.getFuture( ), response, null );
@@ -209,13 +216,18 @@ public class ServiceContextHandler implements ChannelUpstreamHandler, ChannelDow
   }
   
   private void messageReceived( final ChannelHandlerContext ctx, final BaseMessage msg ) throws ServiceDispatchException {
-    this.startTime.set( ctx.getChannel( ), System.currentTimeMillis( ) );
+    if ( this.startTime.set( ctx.getChannel( ), System.nanoTime( ) ) == null ) {
+      Statistics.requestStarted( );
+    }
     this.messageType.set( ctx.getChannel( ), msg );
     EventRecord.here( ServiceContextHandler.class, EventType.MSG_RECEIVED, msg.getClass( ).getSimpleName( ) ).trace( );
     ServiceOperations.dispatch( msg );
   }
   
   private void channelClosed( ChannelHandlerContext ctx, ChannelStateEvent evt ) {
+    if ( this.startTime.remove( ctx.getChannel( ) ) != null ) {
+      Statistics.requestAbandoned( );
+    }
     if ( Contexts.exists( ctx.getChannel( ) ) ) {
       try {
         Contexts.clear( Contexts.lookup( ctx.getChannel( ) ) );
@@ -62,118 +62,166 @@
 
 package com.eucalyptus.ws.server;
 
-import java.util.Collection;
 import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.log4j.Logger;
-import org.jboss.netty.channel.Channel;
-import org.jboss.netty.channel.ChannelFuture;
-import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandler;
-import com.eucalyptus.context.Contexts;
-import com.eucalyptus.records.Logs;
+import com.eucalyptus.util.LatencyHistogram;
+import com.eucalyptus.util.Mbeans;
 import com.eucalyptus.ws.StackConfiguration;
-import com.google.common.base.Joiner;
 import com.google.common.collect.Maps;
-import com.google.common.util.concurrent.Callables;
 
+/**
+ * Always-on service time statistics for the web services stack.
+ * 
+ * Keeps a latency histogram and error count per operation (request message type) and per handler
+ * class and direction, along with a gauge of requests in flight. Memory use is bounded by the
+ * number of operations and handler classes. Summaries are exported through JMX; when
+ * {@link StackConfiguration#STATISTICS} is set each completed request is also logged.
+ */
 public class Statistics {
-  private static Logger                            LOG               = Logger.getLogger( Statistics.class );
-  private static final Map<Integer, RequestRecord> requestStatistics = Maps.newConcurrentMap( );
+  private static Logger           LOG      = Logger.getLogger( Statistics.class );
+  private static final Statistics INSTANCE = new Statistics( );
   
-  private static class HandlerRecord implements Callable<Long> {
-    private final String handlerClassName;
-    private final Long   startTime = System.currentTimeMillis( );
-    private Long         endTime;
-    
-    private HandlerRecord( Class<? extends ChannelHandler> class1 ) {
-      this.handlerClassName = class1.toString( );
-    }
+  public enum Direction {
+    UPSTREAM,
+    DOWNSTREAM
+  }
+  
+  private static class Stats {
+    private final LatencyHistogram latency = new LatencyHistogram( );
+    private final AtomicLong       errors  = new AtomicLong( 0l );
     
     @Override
     public String toString( ) {
-      StringBuilder builder = new StringBuilder( );
-      Long time = ( ( this.endTime == null ? System.currentTimeMillis( ) : this.endTime ) - this.startTime );
-      builder.append( " " );
-      builder.append( this.handlerClassName ).append( ": " ).append( time ).append( " msec" );
-      return builder.toString( );
+      return this.latency.toString( ) + " errors=" + this.errors.get( );
     }
-    
-    @Override
-    public Long call( ) throws Exception {
-      Logs.extreme( ).debug( "HandlerRecord:" + this.handlerClassName
-        + " "
-        + ( ( this.endTime == null ? this.endTime = System.currentTimeMillis( ) : this.endTime ) - this.startTime )
-        + "msec" );
-      return this.endTime;
+  }
+  
+  private final ConcurrentMap<String, Stats>                operations = Maps.newConcurrentMap( );
+  private final Map<Direction, ConcurrentMap<Class, Stats>> handlers   = Maps.newEnumMap( Direction.class );
+  private final AtomicInteger                               inFlight   = new AtomicInteger( 0 );
+  
+  static {
+    Mbeans.register( INSTANCE );
+  }
+  
+  private Statistics( ) {
+    for ( final Direction d : Direction.values( ) ) {
+      this.handlers.put( d, Maps.<Class, Stats> newConcurrentMap( ) );
     }
-    
   }
   
-  private static class RequestRecord {
-    private final Map<Class, HandlerRecord> handlerUpstreamStats   = Maps.newHashMap( );
-    private final Map<Class, HandlerRecord> handlerDownstreamStats = Maps.newHashMap( );
-    String                                  type;
-    private final long                      creationTime           = System.currentTimeMillis( );
-    
-    public Collection<HandlerRecord> values( ) {
-      return this.handlerUpstreamStats.values( );
+  public static Statistics getInstance( ) {
+    return INSTANCE;
+  }
+  
+  /**
+   * Note that a request has been received and is being serviced.
+   */
+  public static void requestStarted( ) {
+    INSTANCE.inFlight.incrementAndGet( );
+  }
+  
+  /**
+   * Note that servicing of a request has finished.
+   * 
+   * @param operation the request message type
+   * @param elapsedNanos time taken to service the request
+   * @param error true if the request failed
+   */
+  public static void requestCompleted( final String operation, final long elapsedNanos, final boolean error ) {
+    INSTANCE.inFlight.decrementAndGet( );
+    final Stats stats = lookup( INSTANCE.operations, operation );
+    stats.latency.record( elapsedNanos );
+    if ( error ) {
+      stats.errors.incrementAndGet( );
     }
-    
-    @Override
-    public String toString( ) {
-      StringBuilder builder = new StringBuilder( );
-      String typeName = ( this.type == null ? "unknown" : this.type );
-      builder.append( typeName ).append( " " ).append( Joiner.on( "\n" + typeName ).join( this.handlerUpstreamStats.values( ) ) );
-      builder.append( typeName ).append( " " ).append( Joiner.on( "\n" + typeName ).join( this.handlerDownstreamStats.values( ) ) );
-      builder.append( typeName ).append( " " ).append( System.currentTimeMillis( ) - this.creationTime ).append( " msec" );
-      return builder.toString( );
+    if ( StackConfiguration.STATISTICS ) {
+      LOG.info( String.format( "%s %.3f msec%s", operation, elapsedNanos / 1000000d, error ? " error" : "" ) );
     }
-    
   }
   
-  public static final void startRequest( final Channel channel ) {
-    if ( StackConfiguration.STATISTICS ) {
-      final RequestRecord record = new RequestRecord( );
-      requestStatistics.put( channel.getId( ), record );
-      channel.getCloseFuture( ).addListener( new ChannelFutureListener( ) {
-        
-        @Override
-        public void operationComplete( ChannelFuture future ) throws Exception {
-          LOG.info( requestStatistics.remove( channel.getId( ) ) );
-        }
-      } );
+  /**
+   * Note that a request was abandoned before it was serviced, e.g. the connection closed.
+   */
+  public static void requestAbandoned( ) {
+    INSTANCE.inFlight.decrementAndGet( );
+  }
+  
+  /**
+   * Record the time a handler took to process a message.
+   */
+  public static <T extends ChannelHandler> void record( final T handler, final Direction direction, final long elapsedNanos, final boolean error ) {
+    final Stats stats = lookup( INSTANCE.handlers.get( direction ), handler.getClass( ) );
+    stats.latency.record( elapsedNanos );
+    if ( error ) {
+      stats.errors.incrementAndGet( );
+    }
+  }
+  
+  public int getInFlight( ) {
+    return this.inFlight.get( );
+  }
+  
+  /**
+   * @return latency summary by operation
+   */
+  public Map<String, String> getOperations( ) {
+    final Map<String, String> summary = Maps.newTreeMap( );
+    for ( final Map.Entry<String, Stats> e : this.operations.entrySet( ) ) {
+      summary.put( e.getKey( ), e.getValue( ).toString( ) );
+    }
+    return summary;
+  }
+  
+  /**
+   * @return 99th percentile latency in microseconds by operation
+   */
+  public Map<String, Long> getOperationP99Micros( ) {
+    final Map<String, Long> summary = Maps.newTreeMap( );
+    for ( final Map.Entry<String, Stats> e : this.operations.entrySet( ) ) {
+      summary.put( e.getKey( ), e.getValue( ).latency.getPercentileMicros( 99 ) );
     }
+    return summary;
   }
   
-  public static final <T extends ChannelHandler> Callable<Long> startUpstream( Channel channel, T handler ) {
-    Integer correlationId = channel.getId( );
-    if ( StackConfiguration.STATISTICS && requestStatistics.containsKey( correlationId ) ) {
-      RequestRecord record = requestStatistics.get( correlationId );
-      if ( record.type == null ) {
-        try {
-          record.type = Contexts.lookup( channel ).getRequest( ).getClass( ).getSimpleName( );
-        } catch ( Exception ex ) {}
+  /**
+   * @return error count by operation
+   */
+  public Map<String, Long> getOperationErrors( ) {
+    final Map<String, Long> summary = Maps.newTreeMap( );
+    for ( final Map.Entry<String, Stats> e : this.operations.entrySet( ) ) {
+      summary.put( e.getKey( ), e.getValue( ).errors.get( ) );
+    }
+    return summary;
+  }
+  
+  /**
+   * @return latency summary by handler and direction
+   */
+  public Map<String, String> getHandlers( ) {
+    final Map<String, String> summary = Maps.newTreeMap( );
+    for ( final Map.Entry<Direction, ConcurrentMap<Class, Stats>> d : this.handlers.entrySet( ) ) {
+      for ( final Map.Entry<Class, Stats> e : d.getValue( ).entrySet( ) ) {
+        summary.put( e.getKey( ).getSimpleName( ) + ":" + d.getKey( ).name( ).toLowerCase( ), e.getValue( ).toString( ) );
       }
-      HandlerRecord handlerRecord = new HandlerRecord( handler.getClass( ) );
-      record.handlerUpstreamStats.put( handler.getClass( ), handlerRecord );
-      return handlerRecord;
-    } else {
-      return Callables.returning( 0L );
     }
+    return summary;
   }
   
-  public static final <T extends ChannelHandler> Callable<Long> startDownstream( Channel channel, T handler ) {
-    Integer correlationId = channel.getId( );
-    if ( StackConfiguration.STATISTICS && requestStatistics.containsKey( correlationId ) ) {
-      RequestRecord record = requestStatistics.get( correlationId );
-      HandlerRecord handlerRecord = new HandlerRecord( handler.getClass( ) );
-      record.handlerDownstreamStats.put( handler.getClass( ), handlerRecord );
-      return handlerRecord;
-    } else {
-      return Callables.returning( 0L );
+  private static <K> Stats lookup( final ConcurrentMap<K, Stats> stats, final K key ) {
+    Stats s = stats.get( key );
+    if ( s == null ) {
+      final Stats created = new Stats( );
+      s = stats.putIfAbsent( key, created );
+      if ( s == null ) {
+        s = created;
+      }
     }
+    return s;
   }
   
 }
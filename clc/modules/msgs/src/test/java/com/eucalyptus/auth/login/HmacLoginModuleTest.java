@@ -288,6 +288,27 @@ public class HmacLoginModuleTest {
     assertTrue("Authentication successful", hmacV2LoginModule().authenticate(creds));
   }
 
+  @Test
+  public void testHmacV2RepeatedAuthentication() throws Exception {
+    final HmacCredentials creds = creds(
+        "MrFSyGZ44/Oe4nOfXQImKmq8oRABMrmNk2mJIWz1dCA=",
+        Maps.newHashMap(ImmutableMap.of(
+            "AWSAccessKeyId", "1234567890",
+            "SignatureVersion", "2"
+        )),
+        "GET",
+        "/path",
+        "localhost:8773",
+        2,
+        Hmac.HmacSHA256);
+    final Hmacv2LoginModule loginModule = hmacV2LoginModule();
+    final String signature = loginModule.getSignature( "ZRvYnXG04PxhYuP228IWLmCG0o3kYIr2fPByxMlb", "subject", Hmac.HmacSHA256 );
+    assertTrue("Authentication successful", loginModule.authenticate(creds));
+    assertFalse("Signature with other key", signature.equals( loginModule.getSignature( "other", "subject", Hmac.HmacSHA256 ) ) );
+    assertTrue("Authentication successful after key change", loginModule.authenticate(creds));
+    assertEquals("Signature stable", signature, loginModule.getSignature( "ZRvYnXG04PxhYuP228IWLmCG0o3kYIr2fPByxMlb", "subject", Hmac.HmacSHA256 ) );
+  }
+
   @Test
   public void testHmacV2LexicographicalOrdering() throws Exception {
     final HmacCredentials creds1 = creds(
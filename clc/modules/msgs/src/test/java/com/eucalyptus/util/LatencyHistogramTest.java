@@ -0,0 +1,59 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+
+package com.eucalyptus.util;
+
+import static org.junit.Assert.*;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * Unit tests for latency histogram
+ */
+public class LatencyHistogramTest {
+
+  @Test
+  public void testBuckets( ) {
+    long last = -1l;
+    for ( long micros = 0l; micros < 1000000l; micros++ ) {
+      final int bucket = LatencyHistogram.bucket( micros );
+      assertTrue( "Value above bucket bound " + micros, micros <= LatencyHistogram.upperBound( bucket ) );
+      assertTrue( "Bucket error too large " + micros, LatencyHistogram.upperBound( bucket ) - micros <= micros / 16 );
+      assertTrue( "Bucket order " + micros, bucket >= last );
+      last = bucket;
+    }
+    LatencyHistogram.bucket( Long.MAX_VALUE );
+  }
+
+  @Test
+  public void testPercentiles( ) {
+    final LatencyHistogram histogram = new LatencyHistogram( );
+    assertEquals( "Empty percentile", 0l, histogram.getPercentileMicros( 99 ) );
+    for ( int i = 1; i <= 1000; i++ ) {
+      histogram.record( TimeUnit.MICROSECONDS.toNanos( i ) );
+    }
+    assertEquals( "Count", 1000l, histogram.getCount( ) );
+    assertEquals( "Max", 1000l, histogram.getMaxMicros( ) );
+    assertEquals( "Mean", 500l, histogram.getMeanMicros( ) );
+    assertEquals( "p50", 500d, histogram.getPercentileMicros( 50 ), 500 / 16d );
+    assertEquals( "p99", 990d, histogram.getPercentileMicros( 99 ), 990 / 16d );
+    assertEquals( "p100", 1000l, histogram.getPercentileMicros( 100 ) );
+  }
+}
@@ -0,0 +1,106 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ ************************************************************************/
+
+package com.eucalyptus.util;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Unit tests for the replay filter
+ */
+public class ReplayFilterTest {
+
+  private static final long WINDOW = 920000l;
+
+  @Test
+  public void testReplayRejected() {
+    final ReplayFilter filter = new ReplayFilter( WINDOW, 8, 1024 );
+    assertTrue( "First use", filter.add( "signature", 0, 1000 ) );
+    assertFalse( "Replay", filter.add( "signature", 0, 1000 ) );
+    assertFalse( "Replay later", filter.add( "signature", 0, 500000 ) );
+    assertTrue( "Other signature", filter.add( "signature2", 0, 500000 ) );
+    assertEquals( "Replay count", 2, filter.getReplays( ) );
+  }
+
+  @Test
+  public void testDuplicateWindow() {
+    final ReplayFilter filter = new ReplayFilter( WINDOW, 8, 1024 );
+    assertTrue( "First use", filter.add( "signature", 3000, 1000 ) );
+    assertTrue( "Reuse within window", filter.add( "signature", 3000, 2000 ) );
+    assertTrue( "Reuse at window end", filter.add( "signature", 3000, 4000 ) );
+    assertFalse( "Reuse after window", filter.add( "signature", 3000, 4001 ) );
+    assertTrue( "Detection disabled", filter.add( "signature", WINDOW, 4001 ) );
+  }
+
+  @Test
+  public void testExpiry() {
+    final ReplayFilter filter = new ReplayFilter( WINDOW, 8, 1024 );
+    assertTrue( "First use", filter.add( "signature", 0, 1000 ) );
+    assertFalse( "Replay before expiry", filter.add( "signature", 0, 1000 + WINDOW - 1 ) );
+    assertTrue( "Use after expiry", filter.add( "signature", 0, 1000 + WINDOW ) );
+    assertFalse( "Replay of renewed signature", filter.add( "signature", 0, 1000 + WINDOW + 1 ) );
+    assertTrue( "Use after slices rotated", filter.add( "signature", 0, 1000 + 3 * WINDOW ) );
+  }
+
+  @Test
+  public void testBounded() {
+    final ReplayFilter filter = new ReplayFilter( WINDOW, 1, 2048 );
+    int accepted = 0;
+    for ( int i = 0; i < 10000; i++ ) {
+      if ( filter.add( "signature-" + i, 0, 1000 ) ) {
+        accepted++;
+      }
+    }
+    assertTrue( "Slots bounded", filter.getSlots( ) <= 2 * 2048 );
+    assertTrue( "Overflows counted", filter.getOverflows( ) > 0 );
+    assertEquals( "Rejected when full", 10000 - filter.getOverflows( ), accepted );
+    assertEquals( "Entries", accepted, filter.getEntries( ) );
+    assertFalse( "Recorded signature replay", filter.add( "signature-0", 0, 1000 ) );
+  }
+
+  @Test
+  public void testFullRejectsDuplicate() {
+    final ReplayFilter filter = new ReplayFilter( WINDOW, 1, 2048 );
+    int i = 0;
+    while ( filter.getOverflows( ) == 0 ) {
+      filter.add( "signature-" + i++, 0, 1000 );
+    }
+    final long replays = filter.getReplays( );
+    assertFalse( "New signature when full", filter.add( "unrecorded", 0, 1000 ) );
+    assertFalse( "Duplicate when full", filter.add( "unrecorded", 0, 1000 ) );
+    assertFalse( "Duplicate within skew window when full", filter.add( "unrecorded", 3000, 1000 ) );
+    assertEquals( "Not counted as replays", replays, filter.getReplays( ) );
+    filter.setMaxEntries( 4096 );
+    assertTrue( "New signature after raising the bound", filter.add( "unrecorded", 0, 1000 ) );
+    assertFalse( "Duplicate after raising the bound", filter.add( "unrecorded", 0, 1000 ) );
+  }
+
+  @Test
+  public void testFingerprint() {
+    final long[] a = ReplayFilter.fingerprint( "signature", 1l );
+    final long[] b = ReplayFilter.fingerprint( "signature", 1l );
+    final long[] c = ReplayFilter.fingerprint( "signaturf", 1l );
+    final long[] d = ReplayFilter.fingerprint( "signature", 2l );
+    assertArrayEquals( "Stable", a, b );
+    assertFalse( "Content sensitive", a[0] == c[0] && a[1] == c[1] );
+    assertFalse( "Seed sensitive", a[0] == d[0] && a[1] == d[1] );
+  }
+}
@@ -34,11 +34,13 @@ import com.eucalyptus.component.Topology;
 import com.eucalyptus.component.id.ClusterController;
 import com.eucalyptus.configurable.ConfigurableClass;
 import com.eucalyptus.configurable.ConfigurableField;
+import com.eucalyptus.event.AsyncListener;
 import com.eucalyptus.event.Hertz;
 import com.eucalyptus.event.EventListener;
 import com.eucalyptus.event.Listeners;
 
 @ConfigurableClass( root = "reporting", description = "Parameters controlling reporting")
+@AsyncListener( coalesce = true )
 public class DescribeSensorsListener implements EventListener<Hertz> {
 
   @ConfigurableField(initial = "1399", description = "How often the reporting system requests information from the cluster controller")
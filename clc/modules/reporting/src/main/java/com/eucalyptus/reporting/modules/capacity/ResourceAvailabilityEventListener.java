@@ -29,6 +29,7 @@ import java.util.Map;
 import java.util.Set;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import com.eucalyptus.event.AsyncListener;
 import com.eucalyptus.event.EventListener;
 import com.eucalyptus.event.Listeners;
 import com.eucalyptus.reporting.domain.ReportingComputeDomainModel;
@@ -41,6 +42,7 @@ import com.google.common.collect.Iterables;
 /**
  * Resource availability listener that updates the compute capacity domain model.
  */
+@AsyncListener
 public class ResourceAvailabilityEventListener implements EventListener<ResourceAvailabilityEvent> {
 
   public static void register( ) {
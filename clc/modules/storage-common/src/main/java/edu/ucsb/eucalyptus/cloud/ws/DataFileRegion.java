@@ -60,19 +60,17 @@
  *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
  ************************************************************************/
 
-package com.eucalyptus.cloud.ws;
+package edu.ucsb.eucalyptus.cloud.ws;
 
-import java.net.DatagramSocket;
-import java.net.Socket;
+import java.nio.channels.FileChannel;
 
-public class ConnectionHandlerFactory {
-    public static void handle(Object s) {
-        if (s instanceof Socket) {
-            TCPHandler handler = new TCPHandler((Socket)s);
-            handler.start();
-        } else if(s instanceof DatagramSocket) {
-            UDPHandler handler = new UDPHandler((DatagramSocket)s);
-            handler.start();
-        }
-    }
+import org.jboss.netty.channel.DefaultFileRegion;
+
+import edu.ucsb.eucalyptus.constants.IsData;
+
+public class DataFileRegion extends DefaultFileRegion implements IsData {
+
+	public DataFileRegion(FileChannel file, long position, long count) {
+		super(file, position, count);
+	}
 }
@@ -74,6 +74,21 @@ public abstract class FileIO {
 
     public abstract void write(byte[] bytes) throws IOException;
 
+    /**
+     * Gathering write of all remaining bytes of the given buffers.
+     */
+    public long write(ByteBuffer[] buffers) throws IOException {
+        long written = 0;
+        int first = 0;
+        while (first < buffers.length) {
+            written += channel.write(buffers, first, buffers.length - first);
+            while (first < buffers.length && !buffers[first].hasRemaining()) {
+                first++;
+            }
+        }
+        return written;
+    }
+
     public abstract ByteBuffer getBuffer();
 
     public abstract void finish();
@@ -71,13 +71,16 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.log4j.Logger;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelFuture;
 import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.FileRegion;
 import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
 import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.ssl.SslHandler;
 import org.jboss.netty.handler.stream.ChunkedInput;
 
 import com.eucalyptus.context.Contexts;
@@ -90,6 +93,7 @@ import edu.ucsb.eucalyptus.cloud.BucketLogData;
 import edu.ucsb.eucalyptus.cloud.entities.WalrusInfo;
 import edu.ucsb.eucalyptus.cloud.ws.ChunkedDataFile;
 import edu.ucsb.eucalyptus.cloud.ws.CompressedChunkedFile;
+import edu.ucsb.eucalyptus.cloud.ws.DataFileRegion;
 import edu.ucsb.eucalyptus.msgs.WalrusDataGetRequestType;
 import edu.ucsb.eucalyptus.storage.StorageManager;
 import edu.ucsb.eucalyptus.util.StreamConsumer;
@@ -316,19 +320,16 @@ public class FileSystemStorageManager implements StorageManager {
 	public void sendObject(final WalrusDataGetRequestType request, DefaultHttpResponse httpResponse, String bucketName, String objectName, long size, String etag, String lastModified, String contentType, String contentDisposition, Boolean isCompressed, String versionId, final BucketLogData logData) {
 		try {
 			Channel channel = request.getChannel();
-			RandomAccessFile raf = new RandomAccessFile(new File(getObjectPath(bucketName, objectName)), "r");
+			WalrusInfo walrusInfo = WalrusInfo.getWalrusInfo();
+			RandomAccessFile raf = new RandomAccessFile(new File(walrusInfo.getStorageDir() + FILE_SEPARATOR + bucketName + FILE_SEPARATOR + objectName), "r");
 			httpResponse.addHeader( HttpHeaders.Names.CONTENT_TYPE, contentType != null ? contentType : "binary/octet-stream" );
 			if(etag != null)
 				httpResponse.addHeader(HttpHeaders.Names.ETAG, etag);
 			httpResponse.addHeader(HttpHeaders.Names.LAST_MODIFIED, lastModified);
 			if(contentDisposition != null)
 				httpResponse.addHeader("Content-Disposition", contentDisposition);
-			final ChunkedInput file;
 			isCompressed = isCompressed == null ? false : isCompressed;
-			if(isCompressed) {
-				file = new CompressedChunkedFile(raf, size);
-			} else {
-				file = new ChunkedDataFile(raf, 0, size, 8192);
+			if(!isCompressed) {
 				httpResponse.addHeader( HttpHeaders.Names.CONTENT_LENGTH, String.valueOf(size));
 			}
 			if(logData != null) {
@@ -339,16 +340,7 @@ public class FileSystemStorageManager implements StorageManager {
 				httpResponse.addHeader(WalrusProperties.X_AMZ_VERSION_ID, versionId);
 			}
 			channel.write(httpResponse);
-			channel.write(file).addListener(new ChannelFutureListener( ) {
-				@Override public void operationComplete( ChannelFuture future ) throws Exception {
-					Contexts.clear(request.getCorrelationId());
-					file.close();
-					if(logData != null) {
-						logData.setTotalTime(System.currentTimeMillis() - logData.getTotalTime());
-						WalrusBucketLogger.getInstance().addLogEntry(logData);	
-					}
-				}
-			});
+			sendData(request, channel, walrusInfo, raf, isCompressed ? new CompressedChunkedFile(raf, size) : null, 0, size, logData);
 		} catch(Exception ex) {
 			LOG.error(ex, ex);
 		}	
@@ -357,45 +349,87 @@ public class FileSystemStorageManager implements StorageManager {
 	public void sendObject(final WalrusDataGetRequestType request, DefaultHttpResponse httpResponse, String bucketName, String objectName, long start, long end, long size, String etag, String lastModified, String contentType, String contentDisposition, Boolean isCompressed, String versionId, final BucketLogData logData) {
 		try {
 			Channel channel = request.getChannel();
-			RandomAccessFile raf = new RandomAccessFile(new File(getObjectPath(bucketName, objectName)), "r");
+			WalrusInfo walrusInfo = WalrusInfo.getWalrusInfo();
+			RandomAccessFile raf = new RandomAccessFile(new File(walrusInfo.getStorageDir() + FILE_SEPARATOR + bucketName + FILE_SEPARATOR + objectName), "r");
 			httpResponse.addHeader( HttpHeaders.Names.CONTENT_TYPE, contentType != null ? contentType : "binary/octet-stream" );
 			if(etag != null)
 				httpResponse.addHeader(HttpHeaders.Names.ETAG, etag);
 			httpResponse.addHeader(HttpHeaders.Names.LAST_MODIFIED, lastModified);
 			if(contentDisposition != null)
 				httpResponse.addHeader("Content-Disposition", contentDisposition);
-			final ChunkedInput file;
 			isCompressed = isCompressed == null ? false : isCompressed;
-			if(isCompressed) {
-				file = new CompressedChunkedFile(raf, start, end, (int)Math.min((end - start), 8192));
-			} else {
-				file = new ChunkedDataFile(raf, start, end, (int)Math.min((end - start), 8192));
+			if(!isCompressed) {
 				httpResponse.addHeader( HttpHeaders.Names.CONTENT_LENGTH, String.valueOf((end - start)));
 			}
 			httpResponse.addHeader("Content-Range", start + "-" + (end -1) + "/" + size);		
 			if(logData != null) {
 				logData.setTurnAroundTime(System.currentTimeMillis() - logData.getTurnAroundTime());
-				logData.setBytesSent(size);
+				logData.setBytesSent(end - start);
 			}
 			if(versionId != null) {
 				httpResponse.addHeader(WalrusProperties.X_AMZ_VERSION_ID, versionId);
 			}
 			channel.write(httpResponse);
-			channel.write(file).addListener(new ChannelFutureListener( ) {
-				@Override public void operationComplete( ChannelFuture future ) throws Exception {
-					Contexts.clear(request.getCorrelationId());
-					file.close();
-					if(logData != null) {
-						logData.setTotalTime(System.currentTimeMillis() - logData.getTotalTime());
-						WalrusBucketLogger.getInstance().addLogEntry(logData);
-					}
-				}
-			});
+			sendData(request, channel, walrusInfo, raf, isCompressed ? new CompressedChunkedFile(raf, start, end, chunkSize(walrusInfo, end - start)) : null, start, end - start, logData);
 		} catch(Exception ex) {
 			LOG.error(ex, ex);
 		}	
 	}
 
+	private static int chunkSize(WalrusInfo walrusInfo, long length) {
+		Integer sendChunkSize = walrusInfo.getSendChunkSize();
+		return (int) Math.max(1, Math.min(length, sendChunkSize == null ? WalrusProperties.DEFAULT_SEND_CHUNK_SIZE : sendChunkSize));
+	}
+
+	/**
+	 * Writes length bytes of the object at offset after the response headers. Uncompressed data
+	 * on a plain HTTP connection is handed to the kernel as a file region (sendfile), anything else
+	 * is copied through the chunked writer in chunks of walrus.sendchunksize bytes. Sendfile can be
+	 * turned off with walrus.sendfileenabled. The file is closed once the write completes or the
+	 * channel closes, whichever happens first.
+	 */
+	private void sendData(final WalrusDataGetRequestType request, final Channel channel, final WalrusInfo walrusInfo, final RandomAccessFile raf,
+			ChunkedInput compressed, long offset, final long length, final BucketLogData logData) throws IOException {
+		final boolean sendfile = compressed == null && !Boolean.FALSE.equals(walrusInfo.getSendfileEnabled())
+				&& channel.getPipeline().get(SslHandler.class) == null;
+		final Object data;
+		if(compressed != null) {
+			data = compressed;
+		} else if(sendfile) {
+			data = new DataFileRegion(raf.getChannel(), offset, length);
+		} else {
+			data = new ChunkedDataFile(raf, offset, length, chunkSize(walrusInfo, length));
+		}
+		final long startNanos = System.nanoTime();
+		ObjectTransfers.started(sendfile);
+		final ChannelFutureListener closeListener = new ChannelFutureListener( ) {
+			private final AtomicBoolean done = new AtomicBoolean(false);
+			@Override public void operationComplete( ChannelFuture future ) throws Exception {
+				if(!done.compareAndSet(false, true)) {
+					return;
+				}
+				channel.getCloseFuture().removeListener(this);
+				ObjectTransfers.finished(sendfile, length, startNanos, future.isSuccess() && future != channel.getCloseFuture());
+				Contexts.clear(request.getCorrelationId());
+				try {
+					if(data instanceof ChunkedInput) {
+						((ChunkedInput) data).close();
+					} else {
+						((FileRegion) data).releaseExternalResources();
+					}
+				} finally {
+					raf.close();
+				}
+				if(logData != null) {
+					logData.setTotalTime(System.currentTimeMillis() - logData.getTotalTime());
+					WalrusBucketLogger.getInstance().addLogEntry(logData);
+				}
+			}
+		};
+		channel.getCloseFuture().addListener(closeListener);
+		channel.write(data).addListener(closeListener);
+	}
+
 	public void sendHeaders(final WalrusDataGetRequestType request, DefaultHttpResponse httpResponse, Long size, String etag,
 			String lastModified, String contentType, String contentDisposition, String versionId, final BucketLogData logData) {
 		Channel channel = request.getChannel();
@@ -66,6 +66,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.security.PublicKey;
 import java.util.ArrayList;
@@ -99,6 +100,7 @@ import edu.ucsb.eucalyptus.cloud.entities.StorageInfo;
 import edu.ucsb.eucalyptus.msgs.ComponentProperty;
 import edu.ucsb.eucalyptus.util.StreamConsumer;
 import edu.ucsb.eucalyptus.util.SystemUtil;
+import edu.ucsb.eucalyptus.util.SystemUtil.CommandOutput;
 
 public class OverlayManager implements LogicalStorageManager {
 
@@ -255,8 +257,28 @@ public class OverlayManager implements LogicalStorageManager {
 		return -1;
 	}
 
+	//the destination is always freshly created, so zero blocks can be left as holes
 	private String duplicateLogicalVolume(String oldLvName, String newLvName) throws EucalyptusCloudException {
-		return SystemUtil.run(new String[]{StorageProperties.EUCA_ROOT_WRAPPER, "dd", "if=" + oldLvName, "of=" + newLvName, "bs=" + StorageProperties.blockSize});
+		String[] command;
+		if(isSparseCopies())
+			command = new String[]{StorageProperties.EUCA_ROOT_WRAPPER, "dd", "if=" + oldLvName, "of=" + newLvName, "bs=" + StorageProperties.blockSize, "conv=sparse"};
+		else
+			command = new String[]{StorageProperties.EUCA_ROOT_WRAPPER, "dd", "if=" + oldLvName, "of=" + newLvName, "bs=" + StorageProperties.blockSize};
+		//a failed copy must not leave behind a volume that looks good
+		CommandOutput result;
+		try {
+			result = SystemUtil.runWithRawOutput(command);
+		} catch(Exception ex) {
+			throw new EucalyptusCloudException("Unable to copy " + oldLvName + " to " + newLvName, ex);
+		}
+		if(result.returnValue != 0) {
+			throw new EucalyptusCloudException("Unable to copy " + oldLvName + " to " + newLvName + ": " + result.error);
+		}
+		return result.output;
+	}
+
+	private static boolean isSparseCopies() {
+		return Boolean.TRUE.equals(DirectStorageInfo.getStorageInfo().getSparseCopies());
 	}
 
 	private String createFile(String fileName, long size) throws EucalyptusCloudException {
@@ -378,7 +400,11 @@ public class OverlayManager implements LogicalStorageManager {
 			out = fileOutputStream.getChannel();
 			fileInputStream = new FileInputStream(new File(oldFileName));
 			in = fileInputStream.getChannel();
-			in.transferTo(0, in.size(), out);
+			if(isSparseCopies()) {
+				sparseCopy(in, out);
+			} else {
+				in.transferTo(0, in.size(), out);
+			}
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		} finally {
@@ -401,6 +427,47 @@ public class OverlayManager implements LogicalStorageManager {
 		}
 	}
 
+	//copies in to the new file out, seeking over blocks that are all zeros instead of writing them
+	private void sparseCopy(FileChannel in, FileChannel out) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+		long size = in.size();
+		long position = 0;
+		while(position < size) {
+			buffer.clear();
+			int bytesRead = in.read(buffer, position);
+			if(bytesRead <= 0) {
+				break;
+			}
+			buffer.flip();
+			if(!isZero(buffer)) {
+				for(long offset = position; buffer.hasRemaining(); ) {
+					offset += out.write(buffer, offset);
+				}
+			}
+			position += bytesRead;
+		}
+		if(out.size() < position) {
+			//trailing holes
+			out.write(ByteBuffer.allocate(1), position - 1);
+		}
+	}
+
+	private static boolean isZero(ByteBuffer buffer) {
+		int index = buffer.position();
+		int limit = buffer.limit();
+		for(; index + 8 <= limit; index += 8) {
+			if(buffer.getLong(index) != 0) {
+				return false;
+			}
+		}
+		for(; index < limit; index++) {
+			if(buffer.get(index) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	public String createDuplicateLoopback(String oldRawFileName, String rawFileName) throws EucalyptusCloudException {
 		dupFile(oldRawFileName, rawFileName);
 		return createLoopback(rawFileName);
@@ -0,0 +1,309 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package edu.ucsb.eucalyptus.cloud.ws;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.eucalyptus.util.StorageProperties;
+
+/**
+ * Block gzip is how snapshots are compressed for transfer to and from Walrus. The stream is
+ * a sequence of independent gzip members of at most TRANSFER_BLOCK_SIZE uncompressed bytes, so
+ * any gzip reader sees an ordinary multi member file. Each member header carries an extra
+ * subfield ('E', 'B') holding the length of the whole member, which lets a reader split the
+ * stream without inflating it. Blocks that are all zeros are sent as a precomputed member
+ * whose subfield is ('E', 'Z') so the reader can leave a hole instead of writing them. Blocks
+ * are compressed and decompressed on a shared pool.
+ */
+class BlockGzip {
+	static final int HEADER_SIZE = 20;
+	static final int TRAILER_SIZE = 8;
+	private static final int MAX_BLOCK_SIZE = 64 * 1024 * 1024;
+	private static final int SUBFIELD_ID = 13;
+	private static final byte DATA_BLOCK = 'B';
+	private static final byte ZERO_BLOCK = 'Z';
+	private static final byte[] HEADER_PREFIX = {
+		0x1f, (byte) 0x8b, //magic
+		Deflater.DEFLATED, //method
+		0x04, //FEXTRA
+		0, 0, 0, 0, //mtime
+		0, //xfl
+		(byte) 0xff, //os unknown
+		8, 0, //xlen
+		'E', DATA_BLOCK, //subfield id
+		4, 0, //subfield length
+	};
+
+	private static final ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, StorageProperties.TRANSFER_COMPRESSION_THREADS), new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "block-gzip-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		}
+	};
+
+	private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater(true);
+		}
+	};
+
+	private static final ConcurrentMap<Integer, Block> zeroMembers = new ConcurrentHashMap<Integer, Block>();
+
+	/**
+	 * A compressed member, or an inflated block, in the first length bytes of data. Inflated
+	 * blocks of zeros have no data.
+	 */
+	static class Block {
+		final byte[] data;
+		final int length;
+
+		Block(byte[] data, int length) {
+			this.data = data;
+			this.length = length;
+		}
+
+		boolean isZero() {
+			return data == null;
+		}
+	}
+
+	static ExecutorService pool() {
+		return pool;
+	}
+
+	/**
+	 * Maximum blocks a single stream keeps in flight.
+	 */
+	static int maxPending() {
+		return 2 * Math.max(1, StorageProperties.TRANSFER_COMPRESSION_THREADS);
+	}
+
+	static Block compress(byte[] data, int length) {
+		if(isZero(data, length)) {
+			Block member = zeroMembers.get(length);
+			if(member == null) {
+				member = deflate(new byte[length], length);
+				member.data[SUBFIELD_ID] = ZERO_BLOCK;
+				zeroMembers.putIfAbsent(length, member);
+			}
+			return member;
+		}
+		return deflate(data, length);
+	}
+
+	private static Block deflate(byte[] data, int length) {
+		Deflater deflater = deflaters.get();
+		deflater.reset();
+		deflater.setInput(data, 0, length);
+		deflater.finish();
+		byte[] member = new byte[HEADER_SIZE + length + (length >> 12) + (length >> 14) + 64 + TRAILER_SIZE];
+		int position = HEADER_SIZE;
+		while(!deflater.finished()) {
+			if(position == member.length - TRAILER_SIZE) {
+				byte[] larger = new byte[member.length * 2];
+				System.arraycopy(member, 0, larger, 0, position);
+				member = larger;
+			}
+			position += deflater.deflate(member, position, member.length - TRAILER_SIZE - position);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, length);
+		int total = position + TRAILER_SIZE;
+		System.arraycopy(HEADER_PREFIX, 0, member, 0, HEADER_PREFIX.length);
+		putInt(member, HEADER_PREFIX.length, total);
+		putInt(member, position, (int) crc.getValue());
+		putInt(member, position + 4, length);
+		return new Block(member, total);
+	}
+
+	static Block decompress(byte[] member) throws IOException {
+		int length = getInt(member, member.length - 4);
+		if(length < 0 || length > MAX_BLOCK_SIZE) {
+			throw new IOException("Invalid block size: " + length);
+		}
+		if(member[SUBFIELD_ID] == ZERO_BLOCK) {
+			return new Block(null, length);
+		}
+		byte[] data = new byte[length + 1]; //room to reach the end of the deflate data
+		Inflater inflater = inflaters.get();
+		inflater.reset();
+		//includes the trailer, nowrap inflaters need input past the end of the deflate data
+		inflater.setInput(member, HEADER_SIZE, member.length - HEADER_SIZE);
+		int position = 0;
+		try {
+			while(!inflater.finished()) {
+				int count = inflater.inflate(data, position, data.length - position);
+				if(count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Truncated block");
+				}
+				position += count;
+				if(position > length) {
+					throw new IOException("Oversized block");
+				}
+			}
+		} catch(DataFormatException ex) {
+			throw new IOException("Corrupt block: " + ex.getMessage());
+		}
+		CRC32 crc = new CRC32();
+		crc.update(data, 0, position);
+		if(position != length || (int) crc.getValue() != getInt(member, member.length - TRAILER_SIZE)) {
+			throw new IOException("Block checksum mismatch");
+		}
+		return new Block(data, length);
+	}
+
+	/**
+	 * Checks if header, the first HEADER_SIZE bytes of a member, starts a block gzip member and
+	 * returns the member length, or -1 if it does not.
+	 */
+	static int memberLength(byte[] header) {
+		for(int i = 0; i < HEADER_PREFIX.length; i++) {
+			if(i >= 4 && i < 10) {
+				continue; //mtime, xfl and os are not checked
+			}
+			if(i == SUBFIELD_ID && header[i] == ZERO_BLOCK) {
+				continue;
+			}
+			if(header[i] != HEADER_PREFIX[i]) {
+				return -1;
+			}
+		}
+		int length = getInt(header, HEADER_PREFIX.length);
+		return length >= HEADER_SIZE + TRAILER_SIZE && length <= 2 * MAX_BLOCK_SIZE ? length : -1;
+	}
+
+	/**
+	 * Peeks at the start of a stream that supports mark to see if it is block gzip.
+	 */
+	static boolean isBlockGzip(InputStream in) throws IOException {
+		byte[] header = new byte[HEADER_SIZE];
+		in.mark(HEADER_SIZE);
+		try {
+			int read = 0;
+			int count;
+			while(read < HEADER_SIZE && (count = in.read(header, read, HEADER_SIZE - read)) > 0) {
+				read += count;
+			}
+			return read == HEADER_SIZE && memberLength(header) > 0;
+		} finally {
+			in.reset();
+		}
+	}
+
+	static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted");
+		} catch(ExecutionException ex) {
+			if(ex.getCause() instanceof IOException) {
+				throw (IOException) ex.getCause();
+			}
+			throw new IOException(String.valueOf(ex.getCause()));
+		}
+	}
+
+	private static boolean isZero(byte[] data, int length) {
+		for(int i = 0; i < length; i++) {
+			if(data[i] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void putInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) value;
+		bytes[offset + 1] = (byte) (value >>> 8);
+		bytes[offset + 2] = (byte) (value >>> 16);
+		bytes[offset + 3] = (byte) (value >>> 24);
+	}
+
+	private static int getInt(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+	}
+}
@@ -0,0 +1,196 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package edu.ucsb.eucalyptus.cloud.ws;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Decompresses block gzip (see {@link BlockGzip}), inflating up to
+ * {@link BlockGzip#maxPending()} blocks in parallel ahead of the caller.
+ */
+class BlockGzipInputStream extends InputStream {
+	private final DataInputStream in;
+	private final int maxPending;
+	private final LinkedList<Future<BlockGzip.Block>> pending = new LinkedList<Future<BlockGzip.Block>>();
+	private BlockGzip.Block current;
+	private int position;
+	private boolean eof;
+
+	BlockGzipInputStream(InputStream in) {
+		this.in = new DataInputStream(in);
+		this.maxPending = BlockGzip.maxPending();
+	}
+
+	@Override
+	public int read() throws IOException {
+		if(!available(true)) {
+			return -1;
+		}
+		if(current.isZero()) {
+			position++;
+			return 0;
+		}
+		return current.data[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] bytes, int offset, int length) throws IOException {
+		if(length == 0) {
+			return 0;
+		}
+		if(!available(true)) {
+			return -1;
+		}
+		int copied = Math.min(length, current.length - position);
+		if(current.isZero()) {
+			Arrays.fill(bytes, offset, offset + copied, (byte) 0);
+		} else {
+			System.arraycopy(current.data, position, bytes, offset, copied);
+		}
+		position += copied;
+		return copied;
+	}
+
+	/**
+	 * Skips the rest of the current block, and any following ones, if they are all zeros.
+	 * 
+	 * @return the number of zero bytes skipped
+	 */
+	long skipZeros() throws IOException {
+		long skipped = 0;
+		while(available(true) && current.isZero()) {
+			skipped += current.length - position;
+			position = current.length;
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return available(false) ? current.length - position : 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		pending.clear();
+		in.close();
+	}
+
+	private boolean available(boolean block) throws IOException {
+		while(current == null || position == current.length) {
+			if(block) {
+				readAhead();
+			}
+			if(pending.isEmpty() || (!block && !pending.getFirst().isDone())) {
+				return false;
+			}
+			current = BlockGzip.get(pending.removeFirst());
+			position = 0;
+		}
+		return true;
+	}
+
+	private void readAhead() throws IOException {
+		while(!eof && pending.size() < maxPending) {
+			final byte[] member = readMember();
+			if(member == null) {
+				eof = true;
+			} else {
+				pending.add(BlockGzip.pool().submit(new Callable<BlockGzip.Block>() {
+					public BlockGzip.Block call() throws IOException {
+						return BlockGzip.decompress(member);
+					}
+				}));
+			}
+		}
+	}
+
+	private byte[] readMember() throws IOException {
+		byte[] header = new byte[BlockGzip.HEADER_SIZE];
+		int first = in.read();
+		if(first < 0) {
+			return null;
+		}
+		header[0] = (byte) first;
+		try {
+			in.readFully(header, 1, header.length - 1);
+		} catch(EOFException ex) {
+			throw new IOException("Truncated block header");
+		}
+		int length = BlockGzip.memberLength(header);
+		if(length < 0) {
+			throw new IOException("Not a block gzip member");
+		}
+		byte[] member = new byte[length];
+		System.arraycopy(header, 0, member, 0, header.length);
+		in.readFully(member, header.length, length - header.length);
+		return member;
+	}
+}
@@ -0,0 +1,190 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package edu.ucsb.eucalyptus.cloud.ws;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import com.eucalyptus.util.StorageProperties;
+
+/**
+ * Compresses to block gzip (see {@link BlockGzip}) with blocks compressed in parallel while
+ * the caller keeps reading and writing. Compressed blocks are written to the underlying stream
+ * in order from the calling thread. At most {@link BlockGzip#maxPending()} blocks are in flight
+ * and their buffers are recycled.
+ */
+class BlockGzipOutputStream extends OutputStream {
+	private final OutputStream out;
+	private final int blockSize;
+	private final int maxPending;
+	private final BlockingQueue<byte[]> buffers;
+	private final LinkedList<Future<BlockGzip.Block>> pending = new LinkedList<Future<BlockGzip.Block>>();
+	private byte[] current;
+	private int count;
+
+	BlockGzipOutputStream(OutputStream out) {
+		this.out = out;
+		this.blockSize = StorageProperties.TRANSFER_BLOCK_SIZE;
+		this.maxPending = BlockGzip.maxPending();
+		this.buffers = new ArrayBlockingQueue<byte[]>(maxPending + 1);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		block()[count++] = (byte) b;
+		if(count == blockSize) {
+			submit();
+		}
+	}
+
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException {
+		while(length > 0) {
+			int copied = Math.min(length, blockSize - count);
+			System.arraycopy(bytes, offset, block(), count, copied);
+			count += copied;
+			offset += copied;
+			length -= copied;
+			if(count == blockSize) {
+				submit();
+			}
+		}
+	}
+
+	/**
+	 * Reads from in straight into the current block.
+	 * 
+	 * @return the number of bytes read, or -1 at the end of in
+	 */
+	int readFrom(InputStream in) throws IOException {
+		int read = in.read(block(), count, blockSize - count);
+		if(read > 0) {
+			count += read;
+			if(count == blockSize) {
+				submit();
+			}
+		}
+		return read;
+	}
+
+	/**
+	 * Compresses any partial block and writes out everything pending, without closing the
+	 * underlying stream.
+	 */
+	void finish() throws IOException {
+		if(count > 0) {
+			submit();
+		}
+		while(!pending.isEmpty()) {
+			writeNext();
+		}
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		finish();
+		out.close();
+	}
+
+	private byte[] block() {
+		if(current == null) {
+			current = buffers.poll();
+			if(current == null) {
+				current = new byte[blockSize];
+			}
+			count = 0;
+		}
+		return current;
+	}
+
+	private void submit() throws IOException {
+		final byte[] data = current;
+		final int length = count;
+		current = null;
+		count = 0;
+		pending.add(BlockGzip.pool().submit(new Callable<BlockGzip.Block>() {
+			public BlockGzip.Block call() {
+				try {
+					return BlockGzip.compress(data, length);
+				} finally {
+					buffers.offer(data);
+				}
+			}
+		}));
+		while(pending.size() >= maxPending) {
+			writeNext();
+		}
+	}
+
+	private void writeNext() throws IOException {
+		BlockGzip.Block block = BlockGzip.get(pending.removeFirst());
+		out.write(block.data, 0, block.length);
+	}
+}
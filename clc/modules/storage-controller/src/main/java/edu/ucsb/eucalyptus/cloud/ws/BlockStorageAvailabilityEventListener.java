@@ -30,6 +30,7 @@ import com.eucalyptus.bootstrap.Hosts;
 import com.eucalyptus.cluster.Clusters;
 import com.eucalyptus.entities.TransactionException;
 import com.eucalyptus.entities.Transactions;
+import com.eucalyptus.event.AsyncListener;
 import com.eucalyptus.event.ClockTick;
 import com.eucalyptus.event.EventListener;
 import com.eucalyptus.event.ListenerRegistry;
@@ -44,6 +45,7 @@ import edu.ucsb.eucalyptus.cloud.entities.StorageInfo;
 /**
  * Event listener that fires resource availability events for block storage.
  */
+@AsyncListener( coalesce = true )
 public class BlockStorageAvailabilityEventListener implements EventListener<ClockTick> {
   private static Logger logger = Logger.getLogger( WalrusAvailabilityEventListener.class );
 
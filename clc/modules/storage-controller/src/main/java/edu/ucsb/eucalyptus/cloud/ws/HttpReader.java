@@ -62,11 +62,13 @@
 
 package edu.ucsb.eucalyptus.cloud.ws;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.zip.GZIPInputStream;
 
@@ -153,6 +155,16 @@ public class HttpReader extends HttpTransfer {
 			httpClient.executeMethod(method);
 			InputStream httpIn;
 			httpIn = method.getResponseBodyAsStream();
+			if(compressed) {
+				BufferedInputStream bufferedIn = new BufferedInputStream(httpIn, StorageProperties.TRANSFER_CHUNK_SIZE);
+				if(BlockGzip.isBlockGzip(bufferedIn)) {
+					//decompress blocks in parallel as they arrive, straight into the snapshot file
+					writeSparse(new BlockGzipInputStream(bufferedIn), file);
+					return;
+				} else {
+					httpIn = bufferedIn;
+				}
+			}
 			int bytesRead;
 			fileOutputStream = new FileOutputStream(outFile);
 			bufferedOut = new BufferedOutputStream(fileOutputStream);
@@ -200,6 +212,32 @@ public class HttpReader extends HttpTransfer {
 		}
 	}
 
+	//zero blocks are left as holes in the new file
+	private void writeSparse(BlockGzipInputStream in, File outFile) throws IOException {
+		byte[] bytes = new byte[StorageProperties.TRANSFER_CHUNK_SIZE];
+		RandomAccessFile out = new RandomAccessFile(outFile, "rw");
+		try {
+			out.setLength(0);
+			long position = 0;
+			while(true) {
+				long zeros = in.skipZeros();
+				if(zeros > 0) {
+					position += zeros;
+					out.seek(position);
+				}
+				int bytesRead = in.read(bytes);
+				if(bytesRead < 0) {
+					break;
+				}
+				out.write(bytes, 0, bytesRead);
+				position += bytesRead;
+			}
+			out.setLength(position);
+		} finally {
+			out.close();
+		}
+	}
+
 	private void getResponseToQueue() {
 		byte[] bytes = new byte[StorageProperties.TRANSFER_CHUNK_SIZE];
 		try {
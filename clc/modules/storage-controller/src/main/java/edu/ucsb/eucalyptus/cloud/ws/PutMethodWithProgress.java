@@ -62,12 +62,10 @@
 
 package edu.ucsb.eucalyptus.cloud.ws;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.httpclient.ChunkedOutputStream;
 import org.apache.commons.httpclient.HttpConnection;
@@ -100,22 +98,22 @@ public class PutMethodWithProgress extends PutMethod {
 			inputStream = new FileInputStream(outFile);
 
 			ChunkedOutputStream chunkedOut = new ChunkedOutputStream(conn.getRequestOutputStream());
-			byte[] buffer = new byte[StorageProperties.TRANSFER_CHUNK_SIZE];
+			//blocks are compressed in parallel while this thread keeps reading and sending
+			BlockGzipOutputStream zipOut = new BlockGzipOutputStream(chunkedOut);
+			//the callback counts progress in TRANSFER_CHUNK_SIZE units
+			long updateBytes = Math.max(1, callback.getUpdateThreshold()) * StorageProperties.TRANSFER_CHUNK_SIZE;
 			int bytesRead;
-			int numberProcessed = 0;
+			long bytesProcessed = 0;
 			long totalBytesProcessed = 0;
-			while ((bytesRead = inputStream.read(buffer)) > 0) {
-				ByteArrayOutputStream out = new ByteArrayOutputStream();
-				GZIPOutputStream zip = new GZIPOutputStream(out);
-				zip.write(buffer, 0, bytesRead);
-				zip.close();
-				chunkedOut.write(out.toByteArray());
+			while ((bytesRead = zipOut.readFrom(inputStream)) >= 0) {
 				totalBytesProcessed += bytesRead;
-				if(++numberProcessed >= callback.getUpdateThreshold()) {
+				bytesProcessed += bytesRead;
+				while(bytesProcessed >= updateBytes) {
 					callback.run();
-					numberProcessed = 0;
+					bytesProcessed -= updateBytes;
 				}
 			}
+			zipOut.finish();
 			if(totalBytesProcessed > 0) {
 				callback.finish();
 			} else {
@@ -0,0 +1,246 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package edu.ucsb.eucalyptus.cloud.ws;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eucalyptus.util.StorageProperties;
+
+/**
+ * Round trip tests for block gzip streams
+ */
+public class BlockGzipTest {
+	private static final int BLOCK_SIZE = 1024;
+	private int savedBlockSize;
+
+	@Before
+	public void setUp() {
+		savedBlockSize = StorageProperties.TRANSFER_BLOCK_SIZE;
+		StorageProperties.TRANSFER_BLOCK_SIZE = BLOCK_SIZE;
+	}
+
+	@After
+	public void tearDown() {
+		StorageProperties.TRANSFER_BLOCK_SIZE = savedBlockSize;
+	}
+
+	@Test
+	public void testSingleMember() throws Exception {
+		byte[] data = data(BLOCK_SIZE);
+		byte[] compressed = compress(data);
+		assertEquals("Member length", compressed.length, BlockGzip.memberLength(Arrays.copyOf(compressed, BlockGzip.HEADER_SIZE)));
+		assertArrayEquals("Round trip", data, decompress(compressed));
+		assertArrayEquals("Plain gzip", data, gunzip(compressed));
+	}
+
+	@Test
+	public void testMultiMember() throws Exception {
+		byte[] data = data(5 * BLOCK_SIZE);
+		byte[] compressed = compress(data);
+		assertArrayEquals("Member sizes", new int[] { BLOCK_SIZE, BLOCK_SIZE, BLOCK_SIZE, BLOCK_SIZE, BLOCK_SIZE }, memberSizes(compressed));
+		assertArrayEquals("Round trip", data, decompress(compressed));
+		assertArrayEquals("Plain gzip", data, gunzip(compressed));
+	}
+
+	@Test
+	public void testTrailingPartialBlock() throws Exception {
+		byte[] data = data(2 * BLOCK_SIZE + 17);
+		byte[] compressed = compress(data);
+		assertArrayEquals("Member sizes", new int[] { BLOCK_SIZE, BLOCK_SIZE, 17 }, memberSizes(compressed));
+		assertArrayEquals("Round trip", data, decompress(compressed));
+		assertArrayEquals("Plain gzip", data, gunzip(compressed));
+	}
+
+	@Test
+	public void testZeroMembers() throws Exception {
+		byte[] data = data(4 * BLOCK_SIZE + 100);
+		Arrays.fill(data, BLOCK_SIZE, 3 * BLOCK_SIZE, (byte) 0);
+		Arrays.fill(data, 4 * BLOCK_SIZE, data.length, (byte) 0);
+		byte[] compressed = compress(data);
+		assertArrayEquals("Round trip", data, decompress(compressed));
+		assertArrayEquals("Plain gzip", data, gunzip(compressed));
+
+		BlockGzipInputStream in = new BlockGzipInputStream(new ByteArrayInputStream(compressed));
+		byte[] block = new byte[BLOCK_SIZE];
+		readFully(in, block);
+		assertEquals("Zeros skipped", 2 * BLOCK_SIZE, in.skipZeros());
+		readFully(in, block);
+		assertArrayEquals("Data after zeros", Arrays.copyOfRange(data, 3 * BLOCK_SIZE, 4 * BLOCK_SIZE), block);
+		assertEquals("Trailing zeros skipped", 100, in.skipZeros());
+		assertEquals("End of stream", -1, in.read());
+		in.close();
+	}
+
+	@Test
+	public void testDetection() throws Exception {
+		byte[] data = data(3 * BLOCK_SIZE);
+		InputStream in = new BufferedInputStream(new ByteArrayInputStream(compress(data)));
+		assertTrue("Block gzip detected", BlockGzip.isBlockGzip(in));
+		assertArrayEquals("Nothing consumed", data, read(new BlockGzipInputStream(in)));
+	}
+
+	@Test
+	public void testLegacyGzipFallback() throws Exception {
+		byte[] data = data(3 * BLOCK_SIZE);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(bytes);
+		out.write(data);
+		out.close();
+		InputStream in = new BufferedInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertFalse("Legacy gzip not detected as block gzip", BlockGzip.isBlockGzip(in));
+		assertArrayEquals("Nothing consumed", data, read(new GZIPInputStream(in)));
+		try {
+			read(new BlockGzipInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+			fail("Expected legacy gzip to be rejected");
+		} catch(IOException ex) {
+		}
+	}
+
+	@Test
+	public void testEmptyStream() throws Exception {
+		byte[] compressed = compress(new byte[0]);
+		assertEquals("No members", 0, compressed.length);
+		assertArrayEquals("Round trip", new byte[0], decompress(compressed));
+	}
+
+	private static byte[] data(int length) {
+		//compressible but not constant
+		byte[] data = new byte[length];
+		Random random = new Random(length);
+		for(int i = 0; i < length; i++) {
+			data[i] = (byte) ('a' + random.nextInt(8));
+		}
+		return data;
+	}
+
+	private static byte[] compress(byte[] data) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BlockGzipOutputStream out = new BlockGzipOutputStream(bytes);
+		//odd sized writes so blocks are filled across write calls
+		for(int offset = 0; offset < data.length; offset += 333) {
+			out.write(data, offset, Math.min(333, data.length - offset));
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private static byte[] decompress(byte[] compressed) throws IOException {
+		return read(new BlockGzipInputStream(new ByteArrayInputStream(compressed)));
+	}
+
+	private static byte[] gunzip(byte[] compressed) throws IOException {
+		return read(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+	}
+
+	private static byte[] read(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[500];
+		int count;
+		while((count = in.read(buffer)) > 0) {
+			bytes.write(buffer, 0, count);
+		}
+		in.close();
+		return bytes.toByteArray();
+	}
+
+	private static void readFully(InputStream in, byte[] bytes) throws IOException {
+		int read = 0;
+		int count;
+		while(read < bytes.length && (count = in.read(bytes, read, bytes.length - read)) > 0) {
+			read += count;
+		}
+		assertEquals("Bytes read", bytes.length, read);
+	}
+
+	/**
+	 * Walks the members using the length subfield and returns the uncompressed size of each.
+	 */
+	private static int[] memberSizes(byte[] compressed) {
+		int[] sizes = new int[0];
+		int offset = 0;
+		while(offset < compressed.length) {
+			int length = BlockGzip.memberLength(Arrays.copyOfRange(compressed, offset, offset + BlockGzip.HEADER_SIZE));
+			assertTrue("Valid member at " + offset, length > 0);
+			int end = offset + length;
+			sizes = Arrays.copyOf(sizes, sizes.length + 1);
+			sizes[sizes.length - 1] = (compressed[end - 4] & 0xff) | (compressed[end - 3] & 0xff) << 8 | (compressed[end - 2] & 0xff) << 16 | (compressed[end - 1] & 0xff) << 24;
+			offset = end;
+		}
+		assertEquals("Members end with the stream", compressed.length, offset);
+		return sizes;
+	}
+}
@@ -0,0 +1,239 @@
+/*************************************************************************
+ * Copyright 2009-2012 Eucalyptus Systems, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; version 3 of the License.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/.
+ *
+ * Please contact Eucalyptus Systems, Inc., 6755 Hollister Ave., Goleta
+ * CA 93117, USA or visit http://www.eucalyptus.com/licenses/ if you need
+ * additional information or have any questions.
+ *
+ * This file may incorporate work covered under the following copyright
+ * and permission notice:
+ *
+ *   Software License Agreement (BSD License)
+ *
+ *   Copyright (c) 2008, Regents of the University of California
+ *   All rights reserved.
+ *
+ *   Redistribution and use of this software in source and binary forms,
+ *   with or without modification, are permitted provided that the
+ *   following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *
+ *     Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer
+ *     in the documentation and/or other materials provided with the
+ *     distribution.
+ *
+ *   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *   "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *   LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS
+ *   FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ *   COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *   INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ *   BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ *   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ *   CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ *   LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN
+ *   ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ *   POSSIBILITY OF SUCH DAMAGE. USERS OF THIS SOFTWARE ACKNOWLEDGE
+ *   THE POSSIBLE PRESENCE OF OTHER OPEN SOURCE LICENSED MATERIAL,
+ *   COPYRIGHTED MATERIAL OR PATENTED MATERIAL IN THIS SOFTWARE,
+ *   AND IF ANY SUCH MATERIAL IS DISCOVERED THE PARTY DISCOVERING
+ *   IT MAY INFORM DR. RICH WOLSKI AT THE UNIVERSITY OF CALIFORNIA,
+ *   SANTA BARBARA WHO WILL THEN ASCERTAIN THE MOST APPROPRIATE REMEDY,
+ *   WHICH IN THE REGENTS' DISCRETION MAY INCLUDE, WITHOUT LIMITATION,
+ *   REPLACEMENT OF THE CODE SO IDENTIFIED, LICENSING OF THE CODE SO
+ *   IDENTIFIED, OR WITHDRAWAL OF THE CODE CAPABILITY TO THE EXTENT
+ *   NEEDED TO COMPLY WITH ANY SUCH LICENSES OR RIGHTS.
+ ************************************************************************/
+
+package edu.ucsb.eucalyptus.cloud.ws;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.hibernate.Criteria;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.MatchMode;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
+
+import com.eucalyptus.entities.EntityWrapper;
+
+import edu.ucsb.eucalyptus.cloud.entities.ObjectInfo;
+
+/**
+ * Lists the objects of a bucket in key order using keyset pagination. Each round-trip seeks
+ * past the last row seen rather than using an offset, and once a common prefix is found the
+ * keys under it are skipped with a single range seek instead of being read.
+ * 
+ * The marker contract is the one listBucket has always had: the marker is inclusive and the
+ * next marker is the first key that was not returned.
+ */
+class ObjectListing {
+	private final EntityWrapper<ObjectInfo> db;
+	private final String bucketName;
+	private final String prefix;
+	private final String delimiter;
+	private final boolean versions;
+	private final int maxKeys;
+	private final List<ObjectInfo> entries = new ArrayList<ObjectInfo>();
+	private final SortedSet<String> commonPrefixes = new TreeSet<String>();
+	private ObjectInfo next;
+	private int queries;
+
+	/**
+	 * @param versions list every non deleted version ordered by key then newest first, rather
+	 * than only the latest version of each key
+	 */
+	ObjectListing(EntityWrapper<ObjectInfo> db, String bucketName, String prefix, String delimiter, int maxKeys, boolean versions) {
+		this.db = db;
+		this.bucketName = bucketName;
+		this.prefix = prefix == null ? "" : prefix;
+		this.delimiter = delimiter == null || delimiter.length() == 0 ? null : delimiter;
+		this.maxKeys = maxKeys;
+		this.versions = versions;
+	}
+
+	/**
+	 * Run the listing starting at the first row matching start, which may be null.
+	 */
+	@SuppressWarnings("unchecked")
+	ObjectListing list(Criterion start) {
+		final int stride = maxKeys + 1;
+		Criterion seek = start;
+		String skipping = null;
+		while(true) {
+			List<ObjectInfo> batch = (List<ObjectInfo>) query(seek, stride).list();
+			ObjectInfo last = null;
+			for(ObjectInfo objectInfo : batch) {
+				last = objectInfo;
+				String objectKey = objectInfo.getObjectKey();
+				if(skipping != null && objectKey.startsWith(skipping)) {
+					continue;
+				}
+				skipping = null;
+				String commonPrefix = commonPrefix(objectKey);
+				if(commonPrefix != null && commonPrefixes.contains(commonPrefix)) {
+					skipping = commonPrefix;
+					continue;
+				}
+				if(entries.size() + commonPrefixes.size() == maxKeys) {
+					//a new entry past maxKeys, so the listing is truncated here
+					next = objectInfo;
+					return this;
+				}
+				if(commonPrefix != null) {
+					commonPrefixes.add(commonPrefix);
+					skipping = commonPrefix;
+				} else {
+					entries.add(objectInfo);
+				}
+			}
+			if(batch.size() < stride) {
+				return this;
+			}
+			String end = skipping == null ? null : successor(skipping);
+			seek = end != null ? Restrictions.ge("objectKey", end) : after(last);
+		}
+	}
+
+	List<ObjectInfo> getEntries() {
+		return entries;
+	}
+
+	SortedSet<String> getCommonPrefixes() {
+		return commonPrefixes;
+	}
+
+	boolean isTruncated() {
+		return next != null;
+	}
+
+	/**
+	 * The first row that was not returned, null unless truncated.
+	 */
+	ObjectInfo getNext() {
+		return next;
+	}
+
+	int getQueries() {
+		return queries;
+	}
+
+	private Criteria query(Criterion seek, int limit) {
+		queries++;
+		Criteria criteria = db.createCriteria(ObjectInfo.class);
+		criteria.add(Restrictions.eq("bucketName", bucketName));
+		if(!versions) {
+			criteria.add(Restrictions.eq("last", true));
+		}
+		criteria.add(Restrictions.eq("deleted", false));
+		if(prefix.length() > 0) {
+			String end = successor(prefix);
+			if(end != null) {
+				criteria.add(Restrictions.ge("objectKey", prefix));
+				criteria.add(Restrictions.lt("objectKey", end));
+			} else {
+				criteria.add(Restrictions.like("objectKey", prefix, MatchMode.START));
+			}
+		}
+		if(seek != null) {
+			criteria.add(seek);
+		}
+		criteria.addOrder(Order.asc("objectKey"));
+		if(versions) {
+			criteria.addOrder(Order.desc("lastModified"));
+		}
+		criteria.setMaxResults(limit);
+		return criteria;
+	}
+
+	private Criterion after(ObjectInfo objectInfo) {
+		if(versions) {
+			return Restrictions.or(Restrictions.and(Restrictions.eq("objectKey", objectInfo.getObjectKey()),
+					Restrictions.lt("lastModified", objectInfo.getLastModified())),
+					Restrictions.gt("objectKey", objectInfo.getObjectKey()));
+		} else {
+			return Restrictions.gt("objectKey", objectInfo.getObjectKey());
+		}
+	}
+
+	/**
+	 * The common prefix the key rolls up into, or null if it is listed on its own.
+	 */
+	String commonPrefix(String objectKey) {
+		if(delimiter == null || !objectKey.startsWith(prefix)) {
+			return null;
+		}
+		int index = objectKey.indexOf(delimiter, prefix.length());
+		return index < 0 ? null : objectKey.substring(0, index + delimiter.length());
+	}
+
+	/**
+	 * The smallest key greater than every key starting with the given prefix, or null if there
+	 * is none we can express.
+	 */
+	static String successor(String prefix) {
+		char last = prefix.charAt(prefix.length() - 1);
+		if(last == Character.MAX_VALUE) {
+			return null;
+		}
+		return prefix.substring(0, prefix.length() - 1) + (char) (last + 1);
+	}
+}
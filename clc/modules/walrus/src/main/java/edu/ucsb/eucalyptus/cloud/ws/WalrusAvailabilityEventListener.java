@@ -25,6 +25,7 @@ import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
 import com.eucalyptus.bootstrap.Bootstrap;
 import com.eucalyptus.bootstrap.Hosts;
+import com.eucalyptus.event.AsyncListener;
 import com.eucalyptus.event.ClockTick;
 import com.eucalyptus.event.EventListener;
 import com.eucalyptus.event.ListenerRegistry;
@@ -36,6 +37,7 @@ import edu.ucsb.eucalyptus.cloud.entities.WalrusInfo;
 /**
  *  Event listener that fires ResourceAvailabilityEvents for the Walrus.
  */
+@AsyncListener( coalesce = true )
 public class WalrusAvailabilityEventListener implements EventListener<ClockTick> {
   private static Logger logger = Logger.getLogger( WalrusAvailabilityEventListener.class );
 
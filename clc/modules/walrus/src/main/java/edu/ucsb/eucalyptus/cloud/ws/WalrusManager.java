@@ -69,10 +69,7 @@ import java.net.URL;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
-import java.util.Hashtable;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.UUID;
@@ -84,8 +81,8 @@ import org.apache.log4j.Logger;
 import org.apache.tools.ant.util.DateUtils;
 import org.bouncycastle.util.encoders.Base64;
 import org.hibernate.Criteria;
+import org.hibernate.criterion.Criterion;
 import org.hibernate.criterion.Example;
-import org.hibernate.criterion.MatchMode;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
@@ -1096,19 +1093,21 @@ public class WalrusManager {
 							break;
 						} else {
 							assert (WalrusDataMessage.isData(dataMessage));
-							byte[] data = dataMessage.getPayload();
+							// buffers are shared with the upload channel, never copy them
+							// calculate md5 on the fly
+							if (digest != null) {
+								for (ByteBuffer buffer : dataMessage.getBuffers()) {
+									digest.update(buffer);
+								}
+							}
 							// start writing object (but do not commit yet)
 							try {
 								if (fileIO != null)
-									fileIO.write(data);
+									fileIO.write(dataMessage.getBuffers());
 							} catch (IOException ex) {
 								LOG.error(ex);
 							}
-							// calculate md5 on the fly
-							size += data.length;
-							if (digest != null) {
-								digest.update(data);
-							}
+							size += dataMessage.size();
 						}
 					}
 				} catch (InterruptedException ex) {
@@ -1737,8 +1736,6 @@ public class WalrusManager {
 		bucketInfo.setHidden(false);
 		List<BucketInfo> bucketList = db.queryEscape(bucketInfo);
 
-		Hashtable<String,PrefixEntry> prefixes = new Hashtable<String,PrefixEntry>();
-
 		if (bucketList.size() > 0) {
 			BucketInfo bucket = bucketList.get(0);
 			BucketLogData logData = bucket.getLoggingEnabled() ? request.getLogData() : null;
@@ -1782,121 +1779,46 @@ public class WalrusManager {
 					return reply;	
 				}
 
-				final int queryStrideSize = maxKeys + 1;						
-				EntityWrapper<ObjectInfo> dbObject = db.recast(ObjectInfo.class);												
-
-				ObjectInfo searchObj = new ObjectInfo();
-				searchObj.setBucketName(bucketName);
-				searchObj.setLast(true);
-				searchObj.setDeleted(false);
-
-				Criteria objCriteria = dbObject.createCriteria(ObjectInfo.class);
-				objCriteria.add(Example.create(searchObj));						
-				objCriteria.addOrder(Order.asc("objectKey"));						
-				objCriteria.setMaxResults(queryStrideSize); //add one to, hopefully, indicate truncation in one call												
-
-				if(marker != null) {
-					objCriteria.add(Restrictions.ge("objectKey", marker));							
-				}
-
-				if(prefix != null && !prefix.equals("")) {
-					objCriteria.add(Restrictions.like("objectKey", prefix, MatchMode.START));
+				EntityWrapper<ObjectInfo> dbObject = db.recast(ObjectInfo.class);
+				ObjectListing listing = new ObjectListing(dbObject, bucketName, prefix, delimiter, maxKeys, false)
+						.list(marker != null ? Restrictions.ge("objectKey", marker) : null);
+				if(listing.isTruncated()) {
+					reply.setNextMarker(listing.getNext().getObjectKey());
+					reply.setIsTruncated(true);
 				}
 
-				List<ObjectInfo> objectInfos = null;
-				int resultKeyCount = 0;
-				String objectKey = null;
-				String[] parts = null;
-				String prefixString = null;
 				ArrayList<ListEntry> contents = new ArrayList<ListEntry>(); //contents for reply
-				ArrayList<MetaDataEntry> metaData = new ArrayList<MetaDataEntry>(); //metadata for reply						
-
-				//Iterate over result sets of size maxkeys + 1
-				do {
-					objectKey = null;
-					parts = null;
-					prefixString = null;
-					if(resultKeyCount > 0) { //Start from end of last round-trip if necessary
-						objCriteria.setFirstResult(queryStrideSize);
-					}							
-
-					objectInfos = (List<ObjectInfo>)objCriteria.list();							
-
-					if (objectInfos.size() > 0) {
-						for (ObjectInfo objectInfo : objectInfos) {																	
-							objectKey = objectInfo.getObjectKey();
-
-							//Check if it will get aggregated as a commonprefix
-							if (delimiter != null) {
-								parts = objectKey.substring(prefix.length()).split(delimiter);
-								if (parts.length > 1) {
-									prefixString = parts[0] + delimiter;
-									if(!prefixes.containsKey(prefixString)) {
-										if(resultKeyCount == maxKeys) {
-											//This is a new record, so we know we're truncating if this is true
-											reply.setNextMarker(objectKey);
-											reply.setIsTruncated(true);
-											resultKeyCount++;
-											break;
-										}
-
-										prefixes.put(prefixString, new PrefixEntry(prefixString));												
-										resultKeyCount++; //count the unique commonprefix as a single return entry											
-									}
-									continue;
-								}
-							}
-
-							if(resultKeyCount == maxKeys) {
-								//This is a new (non-commonprefix) record, so we know we're truncating
-								reply.setNextMarker(objectKey);
-								reply.setIsTruncated(true);
-								resultKeyCount++;
-								break;								
-							}
-
-							//Process the entry as a full key listing
-							ListEntry listEntry = new ListEntry();
-							listEntry.setKey(objectKey);
-							listEntry.setEtag(objectInfo.getEtag());
-							listEntry.setLastModified(DateUtils.format(objectInfo.getLastModified().getTime(), DateUtils.ISO8601_DATETIME_PATTERN) + ".000Z");
-							listEntry.setStorageClass(objectInfo.getStorageClass());
-
-							try {									
-								listEntry.setOwner(new CanonicalUserType(objectInfo.getOwnerId(), Accounts.lookupAccountById(objectInfo.getOwnerId()).getName()));
-							} catch (AuthException e) {
-								db.rollback();
-								throw new AccessDeniedException("Bucket", bucketName, logData);
-							}
-
-							objectInfo.returnMetaData(metaData);
+				ArrayList<MetaDataEntry> metaData = new ArrayList<MetaDataEntry>(); //metadata for reply
+				for (ObjectInfo objectInfo : listing.getEntries()) {
+					ListEntry listEntry = new ListEntry();
+					listEntry.setKey(objectInfo.getObjectKey());
+					listEntry.setEtag(objectInfo.getEtag());
+					listEntry.setLastModified(DateUtils.format(objectInfo.getLastModified().getTime(), DateUtils.ISO8601_DATETIME_PATTERN) + ".000Z");
+					listEntry.setStorageClass(objectInfo.getStorageClass());
 
-							listEntry.setSize(objectInfo.getSize());
-							listEntry.setStorageClass(objectInfo.getStorageClass());
-							contents.add(listEntry);
+					try {
+						listEntry.setOwner(new CanonicalUserType(objectInfo.getOwnerId(), Accounts.lookupAccountById(objectInfo.getOwnerId()).getName()));
+					} catch (AuthException e) {
+						db.rollback();
+						throw new AccessDeniedException("Bucket", bucketName, logData);
+					}
 
-							resultKeyCount++;
-						}								
-					}						
+					objectInfo.returnMetaData(metaData);
 
-					if(resultKeyCount <= maxKeys && objectInfos.size() <= maxKeys) {
-						break;
-					}
-				} while(resultKeyCount <= maxKeys);
+					listEntry.setSize(objectInfo.getSize());
+					listEntry.setStorageClass(objectInfo.getStorageClass());
+					contents.add(listEntry);
+				}
 
 				reply.setMetaData(metaData);
-				reply.setContents(contents);				
+				reply.setContents(contents);
 
-				//Sort the prefixes from the hashtable and add to the reply
-				if (prefixes != null && prefixes.size() > 0) {
+				//common prefixes are kept sorted by the listing
+				if (listing.getCommonPrefixes().size() > 0) {
 					ArrayList<PrefixEntry> prefixList = new ArrayList<PrefixEntry>();
-					prefixList.addAll(prefixes.values());
-
-					Collections.sort(prefixList, new Comparator<PrefixEntry>() {
-						public int compare(PrefixEntry e1, PrefixEntry e2) {
-							return e1.getPrefix().compareTo(e2.getPrefix());
-						}
-					});															
+					for (String prefixString : listing.getCommonPrefixes()) {
+						prefixList.add(new PrefixEntry(prefixString));
+					}
 					reply.setCommonPrefixes(prefixList);
 				}
 
@@ -3298,8 +3220,6 @@ public class WalrusManager {
 		bucketInfo.setHidden(false);
 		List<BucketInfo> bucketList = db.queryEscape(bucketInfo);
 
-		Hashtable<String,PrefixEntry> prefixes = new Hashtable<String,PrefixEntry>();
-
 		if (bucketList.size() > 0) {
 			BucketInfo bucket = bucketList.get(0);
 			BucketLogData logData = bucket.getLoggingEnabled() ? request.getLogData() : null;
@@ -3350,20 +3270,8 @@ public class WalrusManager {
 					return reply;	
 				}
 
-				final int queryStrideSize = maxKeys + 1;						
-				EntityWrapper<ObjectInfo> dbObject = db.recast(ObjectInfo.class);												
-
-				ObjectInfo searchObj = new ObjectInfo();
-				searchObj.setBucketName(bucketName);
-				//searchObj.setLast(true);
-				searchObj.setDeleted(false);
-
-				Criteria objCriteria = dbObject.createCriteria(ObjectInfo.class);
-				objCriteria.add(Example.create(searchObj));						
-				objCriteria.addOrder(Order.asc("objectKey"));
-				objCriteria.addOrder(Order.desc("lastModified"));
-				objCriteria.setMaxResults(queryStrideSize); //add one to, hopefully, indicate truncation in one call												
-
+				EntityWrapper<ObjectInfo> dbObject = db.recast(ObjectInfo.class);
+				Criterion start = null;
 				if(keyMarker != null) {
 					if(versionMarker != null) {
 						Date resumeDate = null;
@@ -3384,132 +3292,68 @@ public class WalrusManager {
 							dbObject.rollback();
 							throw new EucalyptusCloudException("Next-Key-Marker or Next-Version-Id marker invalid");
 						}
-						objCriteria.add(Restrictions.or(Restrictions.and(Restrictions.ge("objectKey", keyMarker),Restrictions.le("lastModified", resumeDate)),Restrictions.gt("objectKey", keyMarker)));
+						start = Restrictions.or(Restrictions.and(Restrictions.ge("objectKey", keyMarker),Restrictions.le("lastModified", resumeDate)),Restrictions.gt("objectKey", keyMarker));
 					} else {
-						objCriteria.add(Restrictions.ge("objectKey", keyMarker));
+						start = Restrictions.ge("objectKey", keyMarker);
 					}
 				}
 
-				if(prefix != null && !prefix.equals("")) {
-					objCriteria.add(Restrictions.like("objectKey", prefix, MatchMode.START));
+				ObjectListing listing = new ObjectListing(dbObject, bucketName, prefix, delimiter, maxKeys, true).list(start);
+				if(listing.isTruncated()) {
+					reply.setNextKeyMarker(listing.getNext().getObjectKey());
+					reply.setNextVersionIdMarker(listing.getNext().getVersionId());
+					reply.setIsTruncated(true);
 				}
 
-				List<ObjectInfo> objectInfos = null;
-				int resultKeyCount = 0;
-				String objectKey = null;
-				String[] parts = null;
-				String prefixString = null;
 				ArrayList<VersionEntry> versions = new ArrayList<VersionEntry>(); //contents for reply
-				ArrayList<DeleteMarkerEntry> deleteMarkers = new ArrayList<DeleteMarkerEntry>(); //delete markers for reply						
-
-				//Iterate over result sets of size maxkeys + 1
-				do {
-					objectKey = null;
-					parts = null;
-					prefixString = null;
-					if(resultKeyCount > 0) { //Start from end of last round-trip if necessary
-						objCriteria.setFirstResult(queryStrideSize);
-					}							
-
-					objectInfos = (List<ObjectInfo>)objCriteria.list();							
-
-					if (objectInfos.size() > 0) {
-						for (ObjectInfo objectInfo : objectInfos) {																	
-							objectKey = objectInfo.getObjectKey();
-
-							//Look for Delete markers
-							if(objectInfo.getDeleted()) {
-								//
-							}
-
-							//Check if it will get aggregated as a commonprefix
-							if (delimiter != null) {
-								parts = objectKey.substring(prefix.length()).split(delimiter);
-								if (parts.length > 1) {
-									prefixString = parts[0] + delimiter;
-									if(!prefixes.containsKey(prefixString)) {
-										if(resultKeyCount == maxKeys) {
-											//This is a new record, so we know we're truncating if this is true
-											reply.setNextKeyMarker(objectKey);
-											reply.setNextVersionIdMarker(objectInfo.getVersionId());
-											reply.setIsTruncated(true);
-											resultKeyCount++;
-											break;
-										}
-
-										prefixes.put(prefixString, new PrefixEntry(prefixString));												
-										resultKeyCount++; //count the unique commonprefix as a single return entry											
-									}
-									continue;
-								}
-							}
-
-							if(resultKeyCount == maxKeys) {
-								//This is a new (non-commonprefix) record, so we know we're truncating
-								reply.setNextKeyMarker(objectKey);
-								reply.setNextVersionIdMarker(objectInfo.getVersionId());
-								reply.setIsTruncated(true);
-								resultKeyCount++;
-								break;								
-							}
-
-							if (!objectInfo.getDeleted()) {
-								VersionEntry versionEntry = new VersionEntry();
-								versionEntry.setKey(objectKey);
-								versionEntry.setVersionId(objectInfo.getVersionId());
-								versionEntry.setEtag(objectInfo.getEtag());
-								versionEntry.setLastModified(DateUtils.format(objectInfo.getLastModified().getTime(),DateUtils.ISO8601_DATETIME_PATTERN)+ ".000Z");
-								try {
-									String displayName = Accounts.lookupAccountById(objectInfo.getOwnerId()).getName();
-									versionEntry.setOwner(new CanonicalUserType(objectInfo.getOwnerId(), displayName));
-
-								} catch (AuthException e) {
-									db.rollback();
-									throw new AccessDeniedException("Bucket", bucketName, logData);
-								}
-								versionEntry.setSize(objectInfo.getSize());
-								versionEntry.setStorageClass(objectInfo.getStorageClass());
-								versionEntry.setIsLatest(objectInfo.getLast());
-								versions.add(versionEntry);
-							} else {
-								DeleteMarkerEntry deleteMarkerEntry = new DeleteMarkerEntry();
-								deleteMarkerEntry.setKey(objectKey);
-								deleteMarkerEntry.setVersionId(objectInfo.getVersionId());
-								deleteMarkerEntry.setLastModified(DateUtils.format(objectInfo.getLastModified().getTime(), DateUtils.ISO8601_DATETIME_PATTERN) + ".000Z");
+				ArrayList<DeleteMarkerEntry> deleteMarkers = new ArrayList<DeleteMarkerEntry>(); //delete markers for reply
+				for (ObjectInfo objectInfo : listing.getEntries()) {
+					if (!objectInfo.getDeleted()) {
+						VersionEntry versionEntry = new VersionEntry();
+						versionEntry.setKey(objectInfo.getObjectKey());
+						versionEntry.setVersionId(objectInfo.getVersionId());
+						versionEntry.setEtag(objectInfo.getEtag());
+						versionEntry.setLastModified(DateUtils.format(objectInfo.getLastModified().getTime(),DateUtils.ISO8601_DATETIME_PATTERN)+ ".000Z");
+						try {
+							String displayName = Accounts.lookupAccountById(objectInfo.getOwnerId()).getName();
+							versionEntry.setOwner(new CanonicalUserType(objectInfo.getOwnerId(), displayName));
 
-								try {
-									String ownerId = objectInfo.getOwnerId();
-									String displayName = Accounts.lookupAccountById(ownerId).getName();
-									deleteMarkerEntry.setOwner(new CanonicalUserType(ownerId, displayName));
-								} catch (AuthException e) {
-									db.rollback();
-									throw new AccessDeniedException("Bucket", bucketName, logData);
-								}
-								deleteMarkerEntry.setIsLatest(objectInfo.getLast());
-								deleteMarkers.add(deleteMarkerEntry);							
-							}
+						} catch (AuthException e) {
+							db.rollback();
+							throw new AccessDeniedException("Bucket", bucketName, logData);
+						}
+						versionEntry.setSize(objectInfo.getSize());
+						versionEntry.setStorageClass(objectInfo.getStorageClass());
+						versionEntry.setIsLatest(objectInfo.getLast());
+						versions.add(versionEntry);
+					} else {
+						DeleteMarkerEntry deleteMarkerEntry = new DeleteMarkerEntry();
+						deleteMarkerEntry.setKey(objectInfo.getObjectKey());
+						deleteMarkerEntry.setVersionId(objectInfo.getVersionId());
+						deleteMarkerEntry.setLastModified(DateUtils.format(objectInfo.getLastModified().getTime(), DateUtils.ISO8601_DATETIME_PATTERN) + ".000Z");
 
-							resultKeyCount++;
+						try {
+							String ownerId = objectInfo.getOwnerId();
+							String displayName = Accounts.lookupAccountById(ownerId).getName();
+							deleteMarkerEntry.setOwner(new CanonicalUserType(ownerId, displayName));
+						} catch (AuthException e) {
+							db.rollback();
+							throw new AccessDeniedException("Bucket", bucketName, logData);
 						}
+						deleteMarkerEntry.setIsLatest(objectInfo.getLast());
+						deleteMarkers.add(deleteMarkerEntry);							
 					}
-					if(resultKeyCount <= maxKeys && objectInfos.size() <= maxKeys) {
-						break;
-					}
-				} while(resultKeyCount <= maxKeys);
+				}
 
 				reply.setDeleteMarkers(deleteMarkers);
-				reply.setVersions(versions);				
+				reply.setVersions(versions);
 
-				//Sort the prefixes from the hashtable and add to the reply
-				if (prefixes != null && prefixes.size() > 0) {
+				//common prefixes are kept sorted by the listing
+				if (listing.getCommonPrefixes().size() > 0) {
 					ArrayList<PrefixEntry> prefixList = new ArrayList<PrefixEntry>();
-					prefixList.addAll(prefixes.values());
-
-					Collections.sort(prefixList, new Comparator<PrefixEntry>() {
-						public int compare(PrefixEntry e1, PrefixEntry e2) {
-							return e1.getPrefix().compareTo(e2.getPrefix());
-						}
-					});															
+					for (String prefixString : listing.getCommonPrefixes()) {
+						prefixList.add(new PrefixEntry(prefixString));
+					}
 					reply.setCommonPrefixes(prefixList);
 				}
 
@@ -70,6 +70,7 @@ import com.eucalyptus.util.WalrusProperties;
 
 import edu.ucsb.eucalyptus.cloud.entities.WalrusStatsInfo;
 import edu.ucsb.eucalyptus.msgs.WalrusUsageStatsRecord;
+import edu.ucsb.eucalyptus.storage.fs.ObjectTransfers;
 
 public class WalrusStatistics {
 	private Logger LOG = Logger.getLogger( WalrusStatistics.class );
@@ -123,8 +124,22 @@ public class WalrusStatistics {
 		totalBytesOut = 0L;
 	}
 
+	public int getTransfersInFlight() {
+		return ObjectTransfers.getInFlight();
+	}
+
+	public int getSendfileTransfersInFlight() {
+		return ObjectTransfers.getInFlightSendfile();
+	}
+
+	public long getSendBytesPerSecond() {
+		return ObjectTransfers.getBytesPerSecond();
+	}
+
 	public void dump() {
 		LOG.info(WalrusUsageStatsRecord.create(totalBytesIn, totalBytesOut, numberOfBuckets, totalSpaceUsed));
+		LOG.info("Object transfers in flight: " + getTransfersInFlight() + " (sendfile: " + getSendfileTransfersInFlight()
+				+ ") completed: " + ObjectTransfers.getCompleted() + " rate: " + getSendBytesPerSecond() + " bytes/s");
 	}
 
 	private void getStateInfo() {
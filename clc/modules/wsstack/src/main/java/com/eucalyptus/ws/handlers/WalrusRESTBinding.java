@@ -76,18 +76,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 
 import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 
-import org.apache.axiom.om.OMElement;
 import org.apache.commons.httpclient.util.DateUtil;
 import org.apache.log4j.Logger;
 import org.apache.tools.ant.util.DateUtils;
 import org.apache.xml.dtm.ref.DTMNodeList;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelEvent;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.channel.Channels;
@@ -204,7 +203,7 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 		} else if(event.getMessage() instanceof HttpChunk) {
 			if(putQueue != null) {
 				HttpChunk httpChunk = (HttpChunk) event.getMessage();
-				handleHttpChunk(httpChunk);
+				handleHttpChunk(httpChunk, ctx.getChannel());
 			}
 		}
 	}
@@ -295,8 +294,6 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 
 		Map<String, String> params = httpRequest.getParameters();
 
-		OMElement msg;
-
 		GroovyObject groovyMsg;
 		Map<String, String> fieldMap;
 		Class targetType;
@@ -340,7 +337,7 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 		try
 		{
 			Binding binding = BindingManager.getBinding( BindingManager.sanitizeNamespace( "http://msgs.eucalyptus.com" ) );
-			msg = binding.toOM( groovyMsg );
+			binding.validate( groovyMsg, null );
 		}
 		catch ( RuntimeException e )
 		{
@@ -1169,15 +1166,20 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 		return new String( read );
 	}
 
-	private void handleHttpChunk(HttpChunk httpChunk) throws Exception {
+	private void handleHttpChunk(HttpChunk httpChunk, Channel channel) throws Exception {
 		ChannelBuffer buffer = httpChunk.getContent();
 		try {
-			buffer.markReaderIndex( );
-			byte[] read = new byte[buffer.readableBytes( )];
-			buffer.readBytes( read );
-			while((putQueue != null) && (!putQueue.offer(WalrusDataMessage.DataMessage(read), 500, TimeUnit.MILLISECONDS)));
+			WalrusDataQueue<WalrusDataMessage> queue = putQueue;
+			if(queue == null) {
+				return;
+			}
+			//chunk contents are not reused by the decoder, hand them to the writer without copying
+			//the write queue suspends reading from the channel rather than blocking this thread
+			if(buffer.readable()) {
+				queue.offer(WalrusDataMessage.DataMessage(buffer.toByteBuffers()), channel);
+			}
 			if(httpChunk.isLast()) {
-				while((putQueue != null) && (!putQueue.offer(WalrusDataMessage.EOF(), 1000, TimeUnit.MILLISECONDS)));
+				queue.offer(WalrusDataMessage.EOF(), channel);
 			}
 		} catch (Exception ex) {
 			LOG.error(ex, ex);
@@ -1189,10 +1191,8 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 		ChannelBuffer buffer = httpRequest.getContent();
 		try {
 			putQueue.put(WalrusDataMessage.StartOfData(dataLength));
-			buffer.markReaderIndex( );
-			byte[] read = new byte[buffer.readableBytes( )];
-			buffer.readBytes( read );
-			putQueue.put(WalrusDataMessage.DataMessage(read));
+			putQueue.put(WalrusDataMessage.DataMessage(buffer.toByteBuffers()));
+			buffer.skipBytes(buffer.readableBytes());
 			if(!httpRequest.isChunked())
 				putQueue.put(WalrusDataMessage.EOF());
 		} catch (Exception ex) {
@@ -1204,9 +1204,8 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 	private void handleFirstChunk(MappingHttpRequest httpRequest, ChannelBuffer firstChunk, long dataLength) {
 		try {
 			putQueue.put(WalrusDataMessage.StartOfData(dataLength));
-			byte[] read = new byte[firstChunk.readableBytes( )];
-			firstChunk.readBytes( read );
-			putQueue.put(WalrusDataMessage.DataMessage(read));
+			putQueue.put(WalrusDataMessage.DataMessage(firstChunk.toByteBuffers()));
+			firstChunk.skipBytes(firstChunk.readableBytes());
 			if(!httpRequest.isChunked())
 				putQueue.put(WalrusDataMessage.EOF());
 		} catch (Exception ex) {
@@ -1218,7 +1217,7 @@ public class WalrusRESTBinding extends RestfulMarshallingHandler {
 
 	public static synchronized WalrusDataMessenger getWriteMessenger() {
 		if (putMessenger == null) {
-			putMessenger = new WalrusDataMessenger();
+			putMessenger = new WalrusDataMessenger(true);
 		}
 		return putMessenger;
 	}	
@@ -77,6 +77,11 @@ public class EucalyptusSoapPipeline extends FilteredPipeline {
   private static final String DEFAULT_EC2_SOAP_NAMESPACE = "http://ec2.amazonaws.com/doc/2011-02-28/";//GRZE:TODO: @Configurable
   private final UnrollableStage auth = new SoapUserAuthenticationStage( );
 
+  @Override
+  public PipelineRoute getRoute( ) {
+    return PipelineRoute.soap( "/services/Eucalyptus" );
+  }
+
   @Override
   public boolean checkAccepts( final HttpRequest message ) {
     return message.getUri( ).endsWith( "/services/Eucalyptus" ) && message.getHeaderNames().contains( "SOAPAction" );
@@ -63,7 +63,9 @@
 package com.eucalyptus.ws.server;
 
 import java.net.InetSocketAddress;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
+import java.util.regex.Pattern;
 import org.apache.log4j.Logger;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
@@ -106,6 +108,8 @@ public class MetadataPipeline extends FilteredPipeline implements ChannelUpstrea
                                              " </body>\n" +
                                              "</html>\n";
   private static Logger       LOG          = Logger.getLogger( MetadataPipeline.class );
+  private static final Pattern LATEST_PATH = Pattern.compile( "/latest(/.*)?" );
+  private static final Pattern VERSIONED_PATH = Pattern.compile( "/\\d\\d\\d\\d-\\d\\d-\\d\\d/.*" );
   
   public MetadataPipeline( ) {
     super( );
@@ -113,7 +117,7 @@ public class MetadataPipeline extends FilteredPipeline implements ChannelUpstrea
   
   @Override
   public boolean checkAccepts( HttpRequest message ) {
-    return message.getUri( ).matches( "/latest(/.*)*" ) || message.getUri( ).matches( "/\\d\\d\\d\\d-\\d\\d-\\d\\d/.*" );
+    return LATEST_PATH.matcher( message.getUri( ) ).matches( ) || VERSIONED_PATH.matcher( message.getUri( ) ).matches( );
   }
   
   @Override
@@ -137,6 +141,21 @@ public class MetadataPipeline extends FilteredPipeline implements ChannelUpstrea
       LOG.trace( "Trying to get metadata: " + newUri );
       Object reply = "".getBytes( );
       Exception replyEx = null;
+      String path = newUri.startsWith( remoteHost + ":" )
+        ? newUri.substring( remoteHost.length( ) + 1 )
+        : null;
+      MetadataDocuments.Document document = null;
+      if ( path != null && Bootstrap.isFinished( ) && !Bootstrap.isShuttingDown( ) ) {
+        document = MetadataDocuments.lookup( remoteHost );
+        byte[] content = ( document != null )
+          ? document.lookup( path )
+          : null;
+        if ( content != null ) {
+          Contexts.clear( request.getCorrelationId( ) );
+          this.reply( ctx, request, document, content );
+          return;
+        }
+      }
       try {
         if ( Bootstrap.isShuttingDown( ) ) {
           reply = "System shutting down".getBytes( );
@@ -172,11 +191,14 @@ public class MetadataPipeline extends FilteredPipeline implements ChannelUpstrea
         }
         response.addHeader( HttpHeaders.Names.CONTENT_LENGTH, Integer.toString( buffer.readableBytes( ) ) );
       } else {
-        response = new DefaultHttpResponse( request.getProtocolVersion( ), HttpResponseStatus.OK );
-        response.setHeader( HttpHeaders.Names.CONTENT_TYPE, "text/plain" );
-        ChannelBuffer buffer = ChannelBuffers.wrappedBuffer( ( byte[] ) reply );
-        response.setContent( buffer );
-        response.addHeader( HttpHeaders.Names.CONTENT_LENGTH, Integer.toString( buffer.readableBytes( ) ) );
+        document = ( path != null )
+          ? MetadataDocuments.lookup( remoteHost )
+          : null;
+        if ( document != null && !Arrays.equals( ( byte[] ) reply, document.lookup( path ) ) ) {
+          document = null;
+        }
+        this.reply( ctx, request, document, ( byte[] ) reply );
+        return;
       }
       ctx.getChannel( ).write( response ).addListener( ChannelFutureListener.CLOSE );
     } else {
@@ -184,6 +206,29 @@ public class MetadataPipeline extends FilteredPipeline implements ChannelUpstrea
     }
   }
   
+  /**
+   * Write the content, or 304 if the request is conditional on the entity tag of the document the
+   * content was taken from.
+   */
+  private void reply( ChannelHandlerContext ctx, MappingHttpRequest request, MetadataDocuments.Document document, byte[] content ) {
+    HttpResponse response = null;
+    if ( document != null && document.getETag( ).equals( request.getHeader( HttpHeaders.Names.IF_NONE_MATCH ) ) ) {
+      response = new DefaultHttpResponse( request.getProtocolVersion( ), HttpResponseStatus.NOT_MODIFIED );
+      response.setHeader( HttpHeaders.Names.ETAG, document.getETag( ) );
+      response.addHeader( HttpHeaders.Names.CONTENT_LENGTH, "0" );
+    } else {
+      response = new DefaultHttpResponse( request.getProtocolVersion( ), HttpResponseStatus.OK );
+      response.setHeader( HttpHeaders.Names.CONTENT_TYPE, "text/plain" );
+      if ( document != null ) {
+        response.setHeader( HttpHeaders.Names.ETAG, document.getETag( ) );
+      }
+      ChannelBuffer buffer = ChannelBuffers.wrappedBuffer( content );
+      response.setContent( buffer );
+      response.addHeader( HttpHeaders.Names.CONTENT_LENGTH, Integer.toString( buffer.readableBytes( ) ) );
+    }
+    ctx.getChannel( ).write( response ).addListener( ChannelFutureListener.CLOSE );
+  }
+  
   @Override
   public ChannelPipeline addHandlers( ChannelPipeline pipeline ) {
     pipeline.addLast( "instance-metadata", this );
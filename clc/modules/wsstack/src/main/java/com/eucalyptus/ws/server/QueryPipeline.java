@@ -73,6 +73,11 @@ public abstract class QueryPipeline extends FilteredPipeline {
     return null;
   }
 
+  @Override
+  public PipelineRoute getRoute( ) {
+    return PipelineRoute.prefix( servicePathPrefix );
+  }
+
   @Override
   public boolean checkAccepts( final HttpRequest message ) {
     if ( message instanceof MappingHttpRequest) {
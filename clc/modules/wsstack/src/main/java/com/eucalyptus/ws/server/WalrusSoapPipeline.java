@@ -78,6 +78,11 @@ public class WalrusSoapPipeline extends FilteredPipeline {
 
   private final UnrollableStage auth = new WalrusSoapUserAuthenticationStage( );
 
+  @Override
+  public PipelineRoute getRoute( ) {
+    return PipelineRoute.soap( "/services/Walrus" );
+  }
+
   @Override
   public boolean checkAccepts( final HttpRequest message ) {
     return message.getUri( ).endsWith( "/services/Walrus" ) && message.getHeaderNames().contains( "SOAPAction" );